@@ -0,0 +1,58 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.configuration;
+
+import java.util.Date;
+
+/**
+ * a message passed to
+ * {@link PersistencyInterface#saveLastMessagesIfUnchanged(java.util.List)}
+ */
+public interface MessageToSave {
+
+    /**
+     * return the expected version of the last saved message
+     *
+     * @return version returned by
+     *         {@link PersistencyInterface#getLastSavedVersionedMessage(byte[])} or
+     *         {@link VersionedMessage#NOT_SAVED} if no message was saved for this
+     *         transaction before
+     */
+    long getExpectedVersion();
+
+    /**
+     * return the time when the saved message should expire
+     *
+     * @return the expiration time
+     */
+    Date getExpirationTime();
+
+    /**
+     * return the message to save
+     *
+     * @return the message to save
+     */
+    byte[] getMessage();
+
+    /**
+     * return the Id of the transaction the message is related to
+     *
+     * @return the transactionId
+     */
+    byte[] getTransactionId();
+}
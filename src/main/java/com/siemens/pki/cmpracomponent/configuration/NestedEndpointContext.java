@@ -41,6 +41,19 @@ public interface NestedEndpointContext {
      */
     CredentialContext getOutputCredentials();
 
+    /**
+     * configure parallel processing of the messages embedded in an incoming
+     * nested message. Messages of the same transaction are always processed one
+     * after the other, the responses are returned in the order of the requests.
+     *
+     * @return maximum number of transactions of one incoming nested message
+     *         processed concurrently, a value less than 2 lets the RA process all
+     *         embedded messages one after the other
+     */
+    default int getMaximumParallelTransactions() {
+        return 1;
+    }
+
     /**
      * configure handling of incoming nested messages per recipient.
      *
@@ -18,13 +18,24 @@
 package com.siemens.pki.cmpracomponent.configuration;
 
 import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 /**
  * an implementation of the {@link PersistencyInterface} is used to persist the
  * state of all active transactions over RA component restarts and to share the
  * state of all active transactions between multiple RA instances in case of
- * load balancing or high availability scenarios
+ * load balancing or high availability scenarios. RA instances sharing the same
+ * persistency should use an implementation supporting the versioned methods
+ * {@link #getLastSavedVersionedMessage(byte[])} and
+ * {@link #saveLastMessageIfUnchanged(byte[], byte[], Date, long)}, so
+ * concurrent updates of the same transaction are detected instead of lost.
+ * Implementations accessing a remote store should also implement the bulk
+ * methods {@link #getLastSavedVersionedMessages(List)},
+ * {@link #saveLastMessagesIfUnchanged(List)} and
+ * {@link #clearLastSavedMessages(Collection)} with one round trip each.
  */
 public interface PersistencyInterface {
 
@@ -70,4 +81,165 @@ public interface PersistencyInterface {
     default void saveLastMessage(final byte[] transactionId, final byte[] message, final Date expirationTime) {
         DefaultPersistencyImplementation.getInstance().saveLastMessage(transactionId, message, expirationTime);
     }
+
+    /**
+     * update the expiration time of the last saved message related to a specific
+     * transaction without rewriting the message. Called if only the expiration
+     * time of a transaction changed.
+     *
+     * @param transactionId  Id of a specific transaction
+     * @param expirationTime new time when the saved message should expire
+     * @return <code>true</code> if the expiration time was updated,
+     *         <code>false</code> if this is not supported or no message was saved
+     *         for this transaction. In this case the whole message is saved
+     *         again by {@link #saveLastMessage(byte[], byte[], Date)}.
+     */
+    default boolean updateExpirationTime(final byte[] transactionId, final Date expirationTime) {
+        return DefaultPersistencyImplementation.getInstance().updateExpirationTime(transactionId, expirationTime);
+    }
+
+    /**
+     * get the last saved message related to a specific transaction together with
+     * its version. The default implementation doesn't support versioning and
+     * always reports version 1.
+     *
+     * @param transactionId Id of a specific transaction
+     * @return last saved message or <code>null</code> if no message was saved for
+     *         this transaction
+     */
+    default VersionedMessage getLastSavedVersionedMessage(final byte[] transactionId) {
+        final byte[] message = getLastSavedMessage(transactionId);
+        if (message == null) {
+            return null;
+        }
+        return new VersionedMessage() {
+
+            @Override
+            public byte[] getMessage() {
+                return message;
+            }
+
+            @Override
+            public long getVersion() {
+                return 1L;
+            }
+        };
+    }
+
+    /**
+     * save the last PKI request or response related to a specific transaction,
+     * if the saved message of this transaction still has the expected version.
+     * Checking the version and saving the message must be atomic. The default
+     * implementation doesn't support versioning and saves unconditionally.
+     *
+     * @param transactionId   Id of a specific transaction
+     * @param message         message to save
+     * @param expirationTime  time when the save message should expire
+     * @param expectedVersion version returned by
+     *                        {@link #getLastSavedVersionedMessage(byte[])} or
+     *                        {@link VersionedMessage#NOT_SAVED} if no message
+     *                        was saved for this transaction before
+     * @return the new version of the saved message or
+     *         {@link VersionedMessage#NOT_SAVED} if the version didn't match
+     *         and nothing was saved
+     */
+    default long saveLastMessageIfUnchanged(
+            final byte[] transactionId, final byte[] message, final Date expirationTime, final long expectedVersion) {
+        saveLastMessage(transactionId, message, expirationTime);
+        return expectedVersion + 1;
+    }
+
+    /**
+     * get the version of the last saved message related to a specific
+     * transaction. Used to validate cached transactions, so implementations
+     * should answer this without transferring the message.
+     *
+     * @param transactionId Id of a specific transaction
+     * @return version of the last saved message or
+     *         {@link VersionedMessage#NOT_SAVED} if no message was saved for this
+     *         transaction
+     */
+    default long getLastSavedVersion(final byte[] transactionId) {
+        final VersionedMessage message = getLastSavedVersionedMessage(transactionId);
+        return message == null ? VersionedMessage.NOT_SAVED : message.getVersion();
+    }
+
+    /**
+     * maximum number of transactions the RA keeps decoded in memory between two
+     * messages of a transaction. A cached transaction is only used if
+     * {@link #getLastSavedVersion(byte[])} still reports the cached version, so
+     * the cache requires an implementation supporting versioning. Worth it for
+     * remote persistencies.
+     *
+     * @return maximum number of cached transactions, 0 disables the cache
+     */
+    default int getNearCacheSize() {
+        return 0;
+    }
+
+    /**
+     * time a transaction stays in the cache enabled by
+     * {@link #getNearCacheSize()}
+     *
+     * @return time to live in milliseconds
+     */
+    default long getNearCacheTimeToLive() {
+        return 60_000L;
+    }
+
+    /**
+     * get the last saved messages related to several transactions at once. The
+     * default implementation calls {@link #getLastSavedVersionedMessage(byte[])}
+     * for each transaction.
+     *
+     * @param transactionIds Ids of the transactions
+     * @return the last saved messages in the order of the transactionIds,
+     *         <code>null</code> for transactions without saved message
+     */
+    default List<VersionedMessage> getLastSavedVersionedMessages(final List<byte[]> transactionIds) {
+        final List<VersionedMessage> ret = new ArrayList<>(transactionIds.size());
+        for (final byte[] aktTransactionId : transactionIds) {
+            ret.add(getLastSavedVersionedMessage(aktTransactionId));
+        }
+        return ret;
+    }
+
+    /**
+     * save the last messages related to several transactions at once, each under
+     * the same condition as in
+     * {@link #saveLastMessageIfUnchanged(byte[], byte[], Date, long)}. The
+     * default implementation calls
+     * {@link #saveLastMessageIfUnchanged(byte[], byte[], Date, long)} for each
+     * message.
+     *
+     * @param messages messages to save, at most one per transaction
+     * @return the new versions in the order of the messages,
+     *         {@link VersionedMessage#NOT_SAVED} for messages not saved because
+     *         the version didn't match
+     */
+    default long[] saveLastMessagesIfUnchanged(final List<MessageToSave> messages) {
+        final long[] ret = new long[messages.size()];
+        for (int i = 0; i < ret.length; i++) {
+            final MessageToSave aktMessage = messages.get(i);
+            ret[i] = saveLastMessageIfUnchanged(
+                    aktMessage.getTransactionId(),
+                    aktMessage.getMessage(),
+                    aktMessage.getExpirationTime(),
+                    aktMessage.getExpectedVersion());
+        }
+        return ret;
+    }
+
+    /**
+     * clear and forget the last saved messages related to several transactions
+     * at once. The default implementation calls
+     * {@link #clearLastSavedMessage(byte[])} for each transaction.
+     *
+     * @param transactionIds Ids of the transactions
+     */
+    default void clearLastSavedMessages(final Collection<byte[]> transactionIds) {
+        for (final byte[] aktTransactionId : transactionIds) {
+            clearLastSavedMessage(aktTransactionId);
+        }
+    }
 }
@@ -68,6 +68,32 @@ public interface VerificationContext {
         return null;
     }
 
+    /**
+     * time before the nextUpdate of a cached response from the responder returned
+     * by {@link #getOCSPResponder()} at which using the response triggers a
+     * refresh in the background. Only relevant if
+     * {@link #isOCSPResponseCachingEnabled()} returns <code>true</code>.
+     *
+     * @return time in milliseconds
+     */
+    default long getOCSPResponseRefreshAhead() {
+        return 60_000L;
+    }
+
+    /**
+     * time after the nextUpdate of a cached response from the responder returned
+     * by {@link #getOCSPResponder()} during which the response is still used
+     * while it is refreshed in the background. Should not exceed the clock skew
+     * tolerated by the PKIX revocation checker (15 minutes by default), otherwise
+     * the stale response is rejected. Only relevant if
+     * {@link #isOCSPResponseCachingEnabled()} returns <code>true</code>.
+     *
+     * @return time in milliseconds, 0 disables the use of stale responses
+     */
+    default long getOCSPResponseStaleWhileRevalidate() {
+        return 0;
+    }
+
     /**
      * optionally provide options to control the revocation checking mechanism. For
      * details see {@link PKIXRevocationChecker.Option}.
@@ -103,6 +129,24 @@ public interface VerificationContext {
         return Collections.emptyList();
     }
 
+    /**
+     * maximum time the result of a certificate path validation done with this
+     * context is reused for the same certificate and intermediate certificates.
+     * A successful validation expires at the latest with the earliest notAfter in
+     * the validated chain, the earliest nextUpdate of the CRLs provided by
+     * {@link #getCRLs()} or of the cached OCSP responses used. Results are only
+     * shared between validations using the same {@link VerificationContext}
+     * instance and the same trusted certificates, additional certificates and
+     * CRLs. Results of {@link #isLeafCertAcceptable(X509Certificate)} are not
+     * cached, results of {@link #isIntermediateCertAcceptable(X509Certificate)}
+     * are reused together with the validation result.
+     *
+     * @return time to live in milliseconds, 0 disables caching
+     */
+    default long getValidationCacheTimeToLive() {
+        return 0L;
+    }
+
     /**
      * control use of the Authority Information Access (AIA) certificate extension
      *
@@ -142,4 +186,16 @@ public interface VerificationContext {
     default boolean isLeafCertAcceptable(final X509Certificate cert) {
         return true;
     }
+
+    /**
+     * control caching of the responses from the responder returned by
+     * {@link #getOCSPResponder()}. Cached responses are used until their
+     * nextUpdate and shared between all {@link VerificationContext} instances
+     * using the same responder.
+     *
+     * @return <code>true</code> if OCSP responses should be cached
+     */
+    default boolean isOCSPResponseCachingEnabled() {
+        return true;
+    }
 }
@@ -0,0 +1,45 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.configuration;
+
+/**
+ * result of a call to
+ * {@link PersistencyInterface#getLastSavedVersionedMessage(byte[])}
+ */
+public interface VersionedMessage {
+
+    /**
+     * version of a transaction without saved message
+     */
+    long NOT_SAVED = 0L;
+
+    /**
+     * return the saved message
+     *
+     * @return the saved message
+     */
+    byte[] getMessage();
+
+    /**
+     * return the version of the saved message. The version changes with every
+     * save of a message related to the same transaction.
+     *
+     * @return version of the saved message, never {@link #NOT_SAVED}
+     */
+    long getVersion();
+}
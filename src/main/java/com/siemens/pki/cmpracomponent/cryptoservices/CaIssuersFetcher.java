@@ -0,0 +1,126 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.cryptoservices;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1String;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * loads issuer certificates referenced by the CA issuers access method of the
+ * Authority Information Access (AIA) certificate extension. Used instead of the
+ * JVM global <code>com.sun.security.enableAIAcaIssuers</code> system property.
+ */
+class CaIssuersFetcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CaIssuersFetcher.class);
+
+    private static final int MAX_CHAIN_LENGTH = 8;
+
+    private static final int TIMEOUT_MILLIS = 15_000;
+
+    /**
+     * follow the CA issuers entries starting at the given certificate
+     *
+     * @param cert        certificate to start with
+     * @param knownCerts  certificates already available for chain building,
+     *                    loaded certificates are added
+     */
+    static void addCaIssuers(final X509Certificate cert, final Collection<Object> knownCerts) {
+        X509Certificate aktCert = cert;
+        for (int i = 0; i < MAX_CHAIN_LENGTH && aktCert != null; i++) {
+            if (aktCert.getSubjectX500Principal().equals(aktCert.getIssuerX500Principal())) {
+                // self-signed
+                return;
+            }
+            X509Certificate issuer = null;
+            for (final URI aktLocation : getCaIssuersLocations(aktCert)) {
+                for (final X509Certificate aktLoaded : load(aktLocation)) {
+                    knownCerts.add(aktLoaded);
+                    if (aktLoaded.getSubjectX500Principal().equals(aktCert.getIssuerX500Principal())) {
+                        issuer = aktLoaded;
+                    }
+                }
+            }
+            aktCert = issuer;
+        }
+    }
+
+    private static List<URI> getCaIssuersLocations(final X509Certificate cert) {
+        final List<URI> ret = new ArrayList<>();
+        final byte[] extensionValue = cert.getExtensionValue(Extension.authorityInfoAccess.getId());
+        if (extensionValue == null) {
+            return ret;
+        }
+        try {
+            final AuthorityInformationAccess aia = AuthorityInformationAccess.getInstance(
+                    ASN1OctetString.getInstance(extensionValue).getOctets());
+            for (final AccessDescription aktDescription : aia.getAccessDescriptions()) {
+                final GeneralName location = aktDescription.getAccessLocation();
+                if (AccessDescription.id_ad_caIssuers.equals(aktDescription.getAccessMethod())
+                        && location.getTagNo() == GeneralName.uniformResourceIdentifier) {
+                    final URI uri = URI.create(((ASN1String) location.getName()).getString());
+                    if ("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme())) {
+                        ret.add(uri);
+                    }
+                }
+            }
+        } catch (final IllegalArgumentException ex) {
+            LOGGER.warn("malformed AIA extension in " + cert.getSubjectX500Principal() + ": " + ex.getMessage());
+        }
+        return ret;
+    }
+
+    private static List<X509Certificate> load(final URI location) {
+        final List<X509Certificate> ret = new ArrayList<>();
+        try {
+            final URLConnection connection = location.toURL().openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            try (InputStream in = connection.getInputStream()) {
+                // DER encoded certificate or PKCS#7 "certs-only" message
+                for (final Certificate aktCert :
+                        CertUtility.getCertificateFactory().generateCertificates(in)) {
+                    if (aktCert instanceof X509Certificate) {
+                        ret.add((X509Certificate) aktCert);
+                    }
+                }
+            }
+        } catch (final IOException | CertificateException ex) {
+            LOGGER.warn("could not load CA issuers from " + location + ": " + ex.getMessage());
+        }
+        return ret;
+    }
+
+    private CaIssuersFetcher() {}
+}
@@ -19,9 +19,12 @@ package com.siemens.pki.cmpracomponent.cryptoservices;
 
 import static com.siemens.pki.cmpracomponent.util.NullUtil.ifNotNull;
 
+import com.siemens.pki.cmpracomponent.util.ObjectPool;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.Provider;
@@ -30,17 +33,23 @@ import java.security.SecureRandom;
 import java.security.Security;
 import java.security.SignatureException;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
 import org.bouncycastle.asn1.ASN1Encoding;
 import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.cmp.CMPCertificate;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 /**
@@ -48,8 +57,44 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
  */
 public class CertUtility {
     private static final SecureRandom RANDOM = new SecureRandom();
-    private static Provider BOUNCY_CASTLE_PROVIDER;
-    private static CertificateFactory certificateFactory;
+
+    private static final int MAX_IDLE_CERTIFICATE_FACTORIES = 64;
+
+    // certificate factories keep parsing state and are not thread-safe
+    private static final ObjectPool<CertificateFactory> CERTIFICATE_FACTORIES =
+            new ObjectPool<>(MAX_IDLE_CERTIFICATE_FACTORIES);
+
+    private static final int MAX_DECODED_CERTIFICATES = 10_000;
+
+    // DER encoding -> parsed certificate, shared by all components
+    private static final Map<ByteBuffer, X509Certificate> DECODED_CERTIFICATES =
+            new LinkedHashMap<ByteBuffer, X509Certificate>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, X509Certificate> eldest) {
+                    return size() > MAX_DECODED_CERTIFICATES;
+                }
+            };
+
+    private static final ReentrantLock DECODED_CERTIFICATES_LOCK = new ReentrantLock();
+
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    private static final int MAX_MEMORIZED_CERTIFICATES = 10_000;
+
+    // certificate fingerprint -> result of isIntermediateCertificate
+    private static final Map<ByteBuffer, Boolean> INTERMEDIATE_CERTIFICATES =
+            new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, Boolean> eldest) {
+                    return size() > MAX_MEMORIZED_CERTIFICATES;
+                }
+            };
+
+    private static final ReentrantLock INTERMEDIATE_CERTIFICATES_LOCK = new ReentrantLock();
 
     /**
      * conversion function from X509 certificate to CMPCertificate
@@ -81,7 +126,8 @@ public class CertUtility {
     }
 
     /**
-     * conversion function from byte to X509 certificate
+     * conversion function from byte to X509 certificate. Recently converted
+     * certificates are returned from a cache.
      *
      * @param encoded byte string to encode
      * @return converted certificate
@@ -89,7 +135,31 @@ public class CertUtility {
      *                              encoded
      */
     public static X509Certificate asX509Certificate(final byte[] encoded) throws CertificateException {
-        return (X509Certificate) getCertificateFactory().generateCertificate(new ByteArrayInputStream(encoded));
+        X509Certificate ret;
+        DECODED_CERTIFICATES_LOCK.lock();
+        try {
+            ret = DECODED_CERTIFICATES.get(ByteBuffer.wrap(encoded));
+        } finally {
+            DECODED_CERTIFICATES_LOCK.unlock();
+        }
+        if (ret != null) {
+            return ret;
+        }
+        CertificateFactory certificateFactory = CERTIFICATE_FACTORIES.borrow();
+        if (certificateFactory == null) {
+            certificateFactory = getCertificateFactory();
+        }
+        // a factory failing to parse is not reused
+        ret = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(encoded));
+        CERTIFICATE_FACTORIES.release(certificateFactory);
+        DECODED_CERTIFICATES_LOCK.lock();
+        try {
+            // the caller might modify the encoding afterwards
+            DECODED_CERTIFICATES.put(ByteBuffer.wrap(encoded.clone()), ret);
+        } finally {
+            DECODED_CERTIFICATES_LOCK.unlock();
+        }
+        return ret;
     }
 
     /**
@@ -164,37 +234,86 @@ public class CertUtility {
      * @return the Bouncy Castle Provider
      */
     public static Provider getBouncyCastleProvider() {
-        if (BOUNCY_CASTLE_PROVIDER == null) {
-            BOUNCY_CASTLE_PROVIDER = BouncyCastleInitializer.getInstance();
-        }
-
-        return BOUNCY_CASTLE_PROVIDER;
+        return BouncyCastleInitializer.BOUNCY_CASTLE_PROVIDER;
     }
 
     /**
-     * Function to retrieve the static certificate factory object
+     * Function to create a new certificate factory object. The factory is not
+     * thread-safe, use {@link #asX509Certificate(byte[])} to convert single
+     * certificates.
      *
-     * @return static certificate factory object
+     * @return certificate factory object
      * @throws CertificateException thrown if the certificate factory could not be
      *                              instantiated
-     * @throws CertificateException            in case of an error
      */
-    public static synchronized CertificateFactory getCertificateFactory() throws CertificateException {
-        if (certificateFactory == null) {
-            certificateFactory = CertificateFactory.getInstance("X.509", BOUNCY_CASTLE_PROVIDER);
-        }
-        return certificateFactory;
+    public static CertificateFactory getCertificateFactory() throws CertificateException {
+        return CertificateFactory.getInstance("X.509", getBouncyCastleProvider());
     }
 
     /**
      * Checks whether given X.509 certificate is intermediate certificate and not
-     * self-signed.
+     * self-signed. Certificates with different subject and issuer or with an
+     * authority key identifier different from the subject key identifier are
+     * recognized without signature verification, other results are memorized.
      *
      * @param cert certificate to be checked
      * @return <code>true</code> if the certificate is intermediate and not
      *         self-signed
      */
     public static boolean isIntermediateCertificate(final X509Certificate cert) {
+        if (!cert.getSubjectX500Principal().equals(cert.getIssuerX500Principal())) {
+            // a self-signed certificate is always self-issued
+            return true;
+        }
+        final byte[] authorityKeyIdentifier = getAuthorityKeyIdentifier(cert);
+        if (authorityKeyIdentifier != null) {
+            final byte[] subjectKeyIdentifier = IndexedCertStore.getSubjectKeyIdentifier(cert);
+            if (subjectKeyIdentifier != null && !Arrays.equals(authorityKeyIdentifier, subjectKeyIdentifier)) {
+                // signed with another key
+                return true;
+            }
+        }
+        final ByteBuffer fingerprint;
+        try {
+            fingerprint = ByteBuffer.wrap(
+                    MessageDigest.getInstance(FINGERPRINT_ALGORITHM).digest(cert.getEncoded()));
+        } catch (final NoSuchAlgorithmException | CertificateEncodingException ex) {
+            return verifyIsNotSelfSigned(cert);
+        }
+        INTERMEDIATE_CERTIFICATES_LOCK.lock();
+        try {
+            final Boolean cached = INTERMEDIATE_CERTIFICATES.get(fingerprint);
+            if (cached != null) {
+                return cached;
+            }
+        } finally {
+            INTERMEDIATE_CERTIFICATES_LOCK.unlock();
+        }
+        final boolean ret = verifyIsNotSelfSigned(cert);
+        INTERMEDIATE_CERTIFICATES_LOCK.lock();
+        try {
+            INTERMEDIATE_CERTIFICATES.put(fingerprint, ret);
+        } finally {
+            INTERMEDIATE_CERTIFICATES_LOCK.unlock();
+        }
+        return ret;
+    }
+
+    private static byte[] getAuthorityKeyIdentifier(final X509Certificate cert) {
+        final byte[] extensionValue = cert.getExtensionValue(Extension.authorityKeyIdentifier.getId());
+        if (extensionValue == null) {
+            return null;
+        }
+        try {
+            return AuthorityKeyIdentifier.getInstance(
+                            ASN1OctetString.getInstance(extensionValue).getOctets())
+                    .getKeyIdentifier();
+        } catch (final IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static boolean verifyIsNotSelfSigned(final X509Certificate cert) {
         try {
             // Try to verify certificate signature with its own public key
             final PublicKey key = cert.getPublicKey();
@@ -210,13 +329,12 @@ public class CertUtility {
         }
     }
 
+    // lazy initialized on first use by the class loader
     private static class BouncyCastleInitializer {
-        private static synchronized Provider getInstance() {
-            return Arrays.stream(Security.getProviders())
-                    .filter(it -> Objects.equals(it.getName(), BouncyCastleProvider.PROVIDER_NAME))
-                    .findFirst()
-                    .orElseGet(BouncyCastleProvider::new);
-        }
+        private static final Provider BOUNCY_CASTLE_PROVIDER = Arrays.stream(Security.getProviders())
+                .filter(it -> Objects.equals(it.getName(), BouncyCastleProvider.PROVIDER_NAME))
+                .findFirst()
+                .orElseGet(BouncyCastleProvider::new);
     }
     // utility class
     private CertUtility() {}
@@ -0,0 +1,211 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.cryptoservices;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.PKIXRevocationChecker.Option;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.security.auth.x500.X500Principal;
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+
+/**
+ * revocation status lookup in complete, direct CRLs. The revoked serial numbers
+ * of each CRL are hashed once and each CRL signature is verified only once per
+ * issuer key, so checking a certificate does not depend on the size of the
+ * CRLs. Delta CRLs, CRLs with an issuing distribution point and CRLs or
+ * entries with critical extensions are not indexed, they are left to the PKIX
+ * revocation checker.
+ */
+class CrlIndex {
+
+    private static class IndexedCrl {
+
+        private final X509CRL crl;
+
+        private final long thisUpdate;
+
+        private final long nextUpdate;
+
+        // serial number -> revocation date in milliseconds
+        private final Map<BigInteger, Long> revokedSerials;
+
+        private final Map<PublicKey, Boolean> signatureVerifiedByKey = new ConcurrentHashMap<>();
+
+        IndexedCrl(final X509CRL crl, final Map<BigInteger, Long> revokedSerials) {
+            this.crl = crl;
+            thisUpdate = crl.getThisUpdate().getTime();
+            final Date nextUpdateDate = crl.getNextUpdate();
+            nextUpdate = nextUpdateDate == null ? Long.MAX_VALUE : nextUpdateDate.getTime();
+            this.revokedSerials = revokedSerials;
+        }
+
+        boolean isCurrent(final long now) {
+            return thisUpdate <= now && now <= nextUpdate;
+        }
+
+        boolean isRevoked(final BigInteger serialNumber, final long now) {
+            final Long revocationDate = revokedSerials.get(serialNumber);
+            return revocationDate != null && revocationDate <= now;
+        }
+
+        boolean isSignedBy(final PublicKey issuerKey) {
+            return signatureVerifiedByKey.computeIfAbsent(issuerKey, key -> {
+                try {
+                    crl.verify(key);
+                    return true;
+                } catch (final GeneralSecurityException | RuntimeException ex) {
+                    return false;
+                }
+            });
+        }
+    }
+
+    private static final int CRL_SIGN = 6;
+
+    private static Map<BigInteger, Long> indexRevokedSerials(final X509CRL crl) {
+        if (crl.getCriticalExtensionOIDs() != null
+                && !crl.getCriticalExtensionOIDs().isEmpty()) {
+            return null;
+        }
+        if (crl.getExtensionValue(Extension.issuingDistributionPoint.getId()) != null
+                || crl.getExtensionValue(Extension.deltaCRLIndicator.getId()) != null) {
+            return null;
+        }
+        final Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+        if (entries == null) {
+            return Collections.emptyMap();
+        }
+        final Map<BigInteger, Long> ret = new HashMap<>(entries.size() * 4 / 3 + 1);
+        for (final X509CRLEntry aktEntry : entries) {
+            if (aktEntry.getCriticalExtensionOIDs() != null
+                    && !aktEntry.getCriticalExtensionOIDs().isEmpty()) {
+                return null;
+            }
+            if (isRemovedFromCrl(aktEntry)) {
+                continue;
+            }
+            ret.put(aktEntry.getSerialNumber(), aktEntry.getRevocationDate().getTime());
+        }
+        return ret;
+    }
+
+    private static boolean isRemovedFromCrl(final X509CRLEntry entry) {
+        final byte[] reasonCode = entry.getExtensionValue(Extension.reasonCode.getId());
+        if (reasonCode == null) {
+            return false;
+        }
+        try {
+            return ASN1Enumerated.getInstance(
+                                    ASN1OctetString.getInstance(reasonCode).getOctets())
+                            .intValueExact()
+                    == CRLReason.removeFromCRL;
+        } catch (final IllegalArgumentException | ArithmeticException ex) {
+            return false;
+        }
+    }
+
+    private final Map<X500Principal, List<IndexedCrl>> crlsByIssuer = new HashMap<>();
+
+    private final boolean complete;
+
+    /**
+     * @param crls CRLs to index
+     */
+    CrlIndex(final Collection<X509CRL> crls) {
+        boolean allIndexed = true;
+        for (final X509CRL aktCrl : crls) {
+            final Map<BigInteger, Long> revokedSerials = indexRevokedSerials(aktCrl);
+            if (revokedSerials == null) {
+                allIndexed = false;
+                continue;
+            }
+            crlsByIssuer
+                    .computeIfAbsent(aktCrl.getIssuerX500Principal(), x -> new ArrayList<>(1))
+                    .add(new IndexedCrl(aktCrl, revokedSerials));
+        }
+        complete = allIndexed;
+    }
+
+    /**
+     * check the revocation status of all certificates in a validated chain
+     *
+     * @param chain   the validated chain starting with the end entity certificate,
+     *                without trust anchor
+     * @param anchor  the trust anchor the chain ends with
+     * @param options revocation checking options, {@link Option#ONLY_END_ENTITY}
+     *                and {@link Option#SOFT_FAIL} are considered
+     * @param now     validation time in milliseconds
+     * @return <code>true</code> if no certificate is revoked and, unless soft
+     *         failing, the status of each certificate could be determined
+     */
+    boolean checkRevocation(
+            final List<? extends X509Certificate> chain,
+            final TrustAnchor anchor,
+            final Set<Option> options,
+            final long now) {
+        final int lastToCheck = options.contains(Option.ONLY_END_ENTITY) ? Math.min(1, chain.size()) : chain.size();
+        for (int i = 0; i < lastToCheck; i++) {
+            final X509Certificate aktCert = chain.get(i);
+            final X509Certificate issuerCert = i + 1 < chain.size() ? chain.get(i + 1) : anchor.getTrustedCert();
+            final PublicKey issuerKey = issuerCert != null ? issuerCert.getPublicKey() : anchor.getCAPublicKey();
+            boolean statusDetermined = false;
+            if (issuerCert == null
+                    || issuerCert.getKeyUsage() == null
+                    || issuerCert.getKeyUsage()[CRL_SIGN]) {
+                for (final IndexedCrl aktCrl :
+                        crlsByIssuer.getOrDefault(aktCert.getIssuerX500Principal(), Collections.emptyList())) {
+                    if (!aktCrl.isCurrent(now) || !aktCrl.isSignedBy(issuerKey)) {
+                        continue;
+                    }
+                    if (aktCrl.isRevoked(aktCert.getSerialNumber(), now)) {
+                        return false;
+                    }
+                    statusDetermined = true;
+                }
+            }
+            if (!statusDetermined && !options.contains(Option.SOFT_FAIL)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if all CRLs could be indexed
+     */
+    boolean isComplete() {
+        return complete;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.cryptoservices;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.cert.CRL;
+import java.security.cert.CRLSelector;
+import java.security.cert.CertSelector;
+import java.security.cert.CertStore;
+import java.security.cert.CertStoreParameters;
+import java.security.cert.CertStoreSpi;
+import java.security.cert.Certificate;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.security.auth.x500.X500Principal;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x509.Extension;
+
+/**
+ * immutable in-memory {@link CertStore} answering the selectors used during
+ * chain building, which ask for a subject or a subject key identifier, by index
+ * lookup instead of a linear scan
+ */
+class IndexedCertStore extends CertStore {
+
+    private static class IndexedCertStoreSpi extends CertStoreSpi {
+
+        private final CertStoreParameters params;
+
+        private final Collection<X509Certificate> allCerts;
+
+        private final Map<X500Principal, List<X509Certificate>> certsBySubject = new HashMap<>();
+
+        private final Map<ByteBuffer, List<X509Certificate>> certsBySubjectKeyIdentifier = new HashMap<>();
+
+        IndexedCertStoreSpi(final CertStoreParameters params, final Collection<X509Certificate> certs)
+                throws InvalidAlgorithmParameterException {
+            super(params);
+            this.params = params;
+            allCerts = Collections.unmodifiableCollection(certs);
+            for (final X509Certificate aktCert : certs) {
+                certsBySubject
+                        .computeIfAbsent(aktCert.getSubjectX500Principal(), x -> new ArrayList<>(1))
+                        .add(aktCert);
+                final byte[] subjectKeyIdentifier = getSubjectKeyIdentifier(aktCert);
+                if (subjectKeyIdentifier != null) {
+                    certsBySubjectKeyIdentifier
+                            .computeIfAbsent(ByteBuffer.wrap(subjectKeyIdentifier), x -> new ArrayList<>(1))
+                            .add(aktCert);
+                }
+            }
+        }
+
+        @Override
+        public Collection<? extends CRL> engineGetCRLs(final CRLSelector selector) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Collection<? extends Certificate> engineGetCertificates(final CertSelector selector) {
+            Collection<X509Certificate> candidates = allCerts;
+            if (selector instanceof X509CertSelector) {
+                final X509CertSelector x509Selector = (X509CertSelector) selector;
+                if (x509Selector.getSubject() != null) {
+                    candidates = certsBySubject.getOrDefault(x509Selector.getSubject(), Collections.emptyList());
+                } else if (x509Selector.getSubjectKeyIdentifier() != null) {
+                    try {
+                        // the selector holds the DER encoded OCTET STRING
+                        candidates = certsBySubjectKeyIdentifier.getOrDefault(
+                                ByteBuffer.wrap(ASN1OctetString.getInstance(x509Selector.getSubjectKeyIdentifier())
+                                        .getOctets()),
+                                Collections.emptyList());
+                    } catch (final IllegalArgumentException ex) {
+                        // malformed selector, fall back to a linear scan
+                    }
+                }
+            }
+            if (selector == null) {
+                return candidates;
+            }
+            final List<X509Certificate> ret = new ArrayList<>();
+            for (final X509Certificate aktCert : candidates) {
+                if (selector.match(aktCert)) {
+                    ret.add(aktCert);
+                }
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * @param cert a certificate
+     * @return the key identifier of the subject key identifier extension or
+     *         <code>null</code> if absent or malformed
+     */
+    static byte[] getSubjectKeyIdentifier(final X509Certificate cert) {
+        final byte[] extensionValue = cert.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+        if (extensionValue == null) {
+            return null;
+        }
+        try {
+            return ASN1OctetString.getInstance(
+                            ASN1OctetString.getInstance(extensionValue).getOctets())
+                    .getOctets();
+        } catch (final IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private final IndexedCertStoreSpi spi;
+
+    /**
+     * @param certs certificates to store, the collection must not change
+     *              afterwards
+     * @throws InvalidAlgorithmParameterException never for the parameters used
+     */
+    IndexedCertStore(final Collection<X509Certificate> certs) throws InvalidAlgorithmParameterException {
+        this(new IndexedCertStoreSpi(new CollectionCertStoreParameters(certs), certs));
+    }
+
+    private IndexedCertStore(final IndexedCertStoreSpi spi) {
+        // type "Collection" lets the PKIX builder search this store first
+        super(spi, null, "Collection", spi.params);
+        this.spi = spi;
+    }
+
+    /**
+     * @param subject subject to look up
+     * @return all certificates with the given subject
+     */
+    Collection<X509Certificate> getCertificatesBySubject(final X500Principal subject) {
+        return spi.certsBySubject.getOrDefault(subject, Collections.emptyList());
+    }
+}
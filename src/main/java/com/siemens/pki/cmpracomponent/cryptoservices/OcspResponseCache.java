@@ -0,0 +1,359 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.cryptoservices;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.CertException;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * size bounded cache of OCSP responses keyed by responder and CertID. A cached
+ * response is used until its nextUpdate. Responses close to their nextUpdate
+ * are refreshed in the background when accessed, so frequently validated
+ * certificates do not wait for the responder. Only responses with a valid
+ * signature of the certificate issuer or of a delegated responder are cached,
+ * the PKIX revocation checker verifies them again on each use.
+ */
+class OcspResponseCache {
+
+    private static final class CachedResponse {
+        private final byte[] encoded;
+        private final long nextUpdate;
+
+        private CachedResponse(final byte[] encoded, final long nextUpdate) {
+            this.encoded = encoded;
+            this.nextUpdate = nextUpdate;
+        }
+    }
+
+    private static final class Key {
+        private final URI responder;
+        private final CertificateID certId;
+
+        private Key(final URI responder, final CertificateID certId) {
+            this.responder = responder;
+            this.certId = certId;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return responder.equals(other.responder) && certId.equals(other.certId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(responder, certId);
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OcspResponseCache.class);
+
+    private static final int TIMEOUT_MILLIS = 15_000;
+
+    // responses without nextUpdate are accepted by the PKIX revocation checker
+    // only close to their thisUpdate
+    private static final long MAX_AGE_WITHOUT_NEXT_UPDATE = 5 * 60_000L;
+
+    private static final int MAX_REFRESH_THREADS = 8;
+
+    private static final long REFRESH_KEEP_ALIVE_SECONDS = 60;
+
+    private static final AtomicInteger REFRESH_THREAD_COUNT = new AtomicInteger();
+
+    private static boolean isSignedBy(final BasicOCSPResp response, final PublicKey key) {
+        try {
+            final ContentVerifierProvider verifierProvider = new JcaContentVerifierProviderBuilder()
+                    .setProvider(CertUtility.getBouncyCastleProvider())
+                    .build(key);
+            return response.isSignatureValid(verifierProvider);
+        } catch (final OperatorCreationException | OCSPException ex) {
+            return false;
+        }
+    }
+
+    private static boolean isSignedByIssuerOrDelegate(final BasicOCSPResp response, final X509Certificate issuer) {
+        if (isSignedBy(response, issuer.getPublicKey())) {
+            return true;
+        }
+        try {
+            final X509CertificateHolder issuerHolder = new JcaX509CertificateHolder(issuer);
+            final ContentVerifierProvider issuerVerifierProvider = new JcaContentVerifierProviderBuilder()
+                    .setProvider(CertUtility.getBouncyCastleProvider())
+                    .build(issuerHolder);
+            final Date now = new Date();
+            for (final X509CertificateHolder aktResponderCert : response.getCerts()) {
+                if (!aktResponderCert.getIssuer().equals(issuerHolder.getSubject())
+                        || !aktResponderCert.isValidOn(now)
+                        || !aktResponderCert.isSignatureValid(issuerVerifierProvider)) {
+                    continue;
+                }
+                final ExtendedKeyUsage extendedKeyUsage =
+                        ExtendedKeyUsage.fromExtensions(aktResponderCert.getExtensions());
+                if (extendedKeyUsage == null || !extendedKeyUsage.hasKeyPurposeId(KeyPurposeId.id_kp_OCSPSigning)) {
+                    continue;
+                }
+                final ContentVerifierProvider responderVerifierProvider = new JcaContentVerifierProviderBuilder()
+                        .setProvider(CertUtility.getBouncyCastleProvider())
+                        .build(aktResponderCert);
+                if (response.isSignatureValid(responderVerifierProvider)) {
+                    return true;
+                }
+            }
+        } catch (final CertificateException | CertException | OperatorCreationException | OCSPException ex) {
+            LOGGER.warn("could not verify delegated OCSP responder: " + ex.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * @param encodedResponse DER encoded OCSP response
+     * @return the earliest nextUpdate of the contained single responses in
+     *         milliseconds or 0 if the response could not be parsed
+     */
+    static long getNextUpdate(final byte[] encodedResponse) {
+        try {
+            final BasicOCSPResp basicResponse = (BasicOCSPResp) new OCSPResp(encodedResponse).getResponseObject();
+            long ret = Long.MAX_VALUE;
+            for (final SingleResp aktResponse : basicResponse.getResponses()) {
+                final Date nextUpdate = aktResponse.getNextUpdate();
+                ret = Math.min(
+                        ret,
+                        nextUpdate != null
+                                ? nextUpdate.getTime()
+                                : aktResponse.getThisUpdate().getTime() + MAX_AGE_WITHOUT_NEXT_UPDATE);
+            }
+            return ret;
+        } catch (final IOException | OCSPException | ClassCastException | NullPointerException ex) {
+            return 0L;
+        }
+    }
+
+    private final Map<Key, CachedResponse> cache;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Set<Key> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(
+            0,
+            MAX_REFRESH_THREADS,
+            REFRESH_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            runnable -> {
+                final Thread ret = new Thread(runnable, "ocsp-refresh-" + REFRESH_THREAD_COUNT.incrementAndGet());
+                ret.setDaemon(true);
+                return ret;
+            });
+
+    /**
+     * @param maximumSize maximum number of cached responses
+     */
+    OcspResponseCache(final int maximumSize) {
+        cache = new LinkedHashMap<Key, CachedResponse>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, CachedResponse> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    private CachedResponse fetch(final Key key, final X509Certificate issuer) {
+        try {
+            final byte[] request =
+                    new OCSPReqBuilder().addRequest(key.certId).build().getEncoded();
+            final URLConnection connection = key.responder.toURL().openConnection();
+            if (!(connection instanceof HttpURLConnection)) {
+                return null;
+            }
+            final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            httpConnection.setConnectTimeout(TIMEOUT_MILLIS);
+            httpConnection.setReadTimeout(TIMEOUT_MILLIS);
+            httpConnection.setRequestMethod("POST");
+            httpConnection.setDoOutput(true);
+            httpConnection.setRequestProperty("Content-Type", "application/ocsp-request");
+            httpConnection.setRequestProperty("Accept", "application/ocsp-response");
+            try (OutputStream out = httpConnection.getOutputStream()) {
+                out.write(request);
+            }
+            final byte[] encodedResponse;
+            try (InputStream in = httpConnection.getInputStream()) {
+                encodedResponse = in.readAllBytes();
+            }
+            final OCSPResp response = new OCSPResp(encodedResponse);
+            if (response.getStatus() != OCSPResp.SUCCESSFUL) {
+                LOGGER.warn("OCSP responder " + key.responder + " returned status " + response.getStatus());
+                return null;
+            }
+            final BasicOCSPResp basicResponse = (BasicOCSPResp) response.getResponseObject();
+            if (!isSignedByIssuerOrDelegate(basicResponse, issuer)) {
+                LOGGER.warn("OCSP response from " + key.responder + " not signed by issuer or delegated responder");
+                return null;
+            }
+            for (final SingleResp aktResponse : basicResponse.getResponses()) {
+                if (!key.certId.equals(aktResponse.getCertID())) {
+                    continue;
+                }
+                final Date nextUpdate = aktResponse.getNextUpdate();
+                return new CachedResponse(
+                        encodedResponse,
+                        nextUpdate != null
+                                ? nextUpdate.getTime()
+                                : aktResponse.getThisUpdate().getTime() + MAX_AGE_WITHOUT_NEXT_UPDATE);
+            }
+            return null;
+        } catch (final IOException | OCSPException | ClassCastException ex) {
+            LOGGER.warn("could not fetch OCSP response from " + key.responder + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private CachedResponse fetchAndStore(final Key key, final X509Certificate issuer) {
+        final CachedResponse ret = fetch(key, issuer);
+        if (ret != null && ret.nextUpdate > System.currentTimeMillis()) {
+            lock.lock();
+            try {
+                cache.put(key, ret);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * get an OCSP response for a certificate, from the cache if available
+     *
+     * @param responder            location of the OCSP responder
+     * @param cert                 certificate to get the status for
+     * @param issuer               issuer of the certificate
+     * @param refreshAhead         time in milliseconds before the nextUpdate of a
+     *                             cached response at which an access triggers a
+     *                             refresh in the background
+     * @param staleWhileRevalidate time in milliseconds after the nextUpdate of a
+     *                             cached response during which it is still
+     *                             returned while refreshed in the background
+     * @return DER encoded OCSP response or <code>null</code> if none could be
+     *         fetched
+     */
+    byte[] getResponse(
+            final URI responder,
+            final X509Certificate cert,
+            final X509Certificate issuer,
+            final long refreshAhead,
+            final long staleWhileRevalidate) {
+        final Key key;
+        try {
+            key = new Key(
+                    responder,
+                    new CertificateID(
+                            new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1),
+                            new JcaX509CertificateHolder(issuer),
+                            cert.getSerialNumber()));
+        } catch (final OperatorCreationException | OCSPException | CertificateEncodingException ex) {
+            LOGGER.warn("could not build OCSP CertID: " + ex.getMessage());
+            return null;
+        }
+        final CachedResponse cached;
+        lock.lock();
+        try {
+            cached = cache.get(key);
+        } finally {
+            lock.unlock();
+        }
+        final long now = System.currentTimeMillis();
+        if (cached != null) {
+            if (now < cached.nextUpdate) {
+                if (now >= cached.nextUpdate - refreshAhead) {
+                    refreshInBackground(key, issuer);
+                }
+                return cached.encoded;
+            }
+            if (now < cached.nextUpdate + staleWhileRevalidate) {
+                refreshInBackground(key, issuer);
+                return cached.encoded;
+            }
+        }
+        final CachedResponse fetched = fetchAndStore(key, issuer);
+        return fetched != null && fetched.nextUpdate > now ? fetched.encoded : null;
+    }
+
+    private void refreshInBackground(final Key key, final X509Certificate issuer) {
+        if (!refreshing.add(key)) {
+            // refresh already running
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    fetchAndStore(key, issuer);
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (final RejectedExecutionException ex) {
+            // all refresh threads are busy, retry on a later access
+            refreshing.remove(key);
+        }
+    }
+}
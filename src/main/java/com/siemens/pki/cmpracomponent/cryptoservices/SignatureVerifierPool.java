@@ -0,0 +1,186 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.cryptoservices;
+
+import com.siemens.pki.cmpracomponent.util.ObjectPool;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+
+/**
+ * pool of {@link Signature} objects initialized for verification, keyed by
+ * signature algorithm and encoded public key and shared by all threads.
+ * Messages protected or signed with the same key reuse the decoded key and the
+ * initialized verifier.
+ */
+public class SignatureVerifierPool {
+
+    private static final class Key {
+        private final String algorithmOid;
+        private final ByteBuffer encodedKey;
+
+        private Key(final String algorithmOid, final byte[] encodedKey) {
+            this.algorithmOid = algorithmOid;
+            this.encodedKey = ByteBuffer.wrap(encodedKey);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return algorithmOid.equals(other.algorithmOid) && encodedKey.equals(other.encodedKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(algorithmOid, encodedKey);
+        }
+    }
+
+    private static final int MAX_KEYS = 1024;
+
+    private static final int MAX_IDLE_VERIFIERS_PER_KEY = 16;
+
+    // least recently used keys are dropped first
+    private static final Map<Key, ObjectPool<Signature>> VERIFIERS =
+            new LinkedHashMap<Key, ObjectPool<Signature>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Key, ObjectPool<Signature>> eldest) {
+                    return size() > MAX_KEYS;
+                }
+            };
+
+    private static final ReentrantLock VERIFIERS_LOCK = new ReentrantLock();
+
+    private static Signature borrowVerifier(final Key key) {
+        final ObjectPool<Signature> pool;
+        VERIFIERS_LOCK.lock();
+        try {
+            pool = VERIFIERS.get(key);
+        } finally {
+            VERIFIERS_LOCK.unlock();
+        }
+        return pool == null ? null : pool.borrow();
+    }
+
+    private static Signature createVerifier(final String algorithmOid, final PublicKey publicKey)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        final Signature ret = Signature.getInstance(algorithmOid, CertUtility.getBouncyCastleProvider());
+        ret.initVerify(publicKey);
+        return ret;
+    }
+
+    private static boolean verifyAndKeep(
+            final Key key, final Signature verifier, final byte[] signedData, final byte[] signature)
+            throws SignatureException {
+        verifier.update(signedData);
+        final boolean ret = verifier.verify(signature);
+        // the verifier is reset to the state after initVerify. A verifier
+        // in undefined state after an exception is not reused.
+        final ObjectPool<Signature> pool;
+        VERIFIERS_LOCK.lock();
+        try {
+            pool = VERIFIERS.computeIfAbsent(key, k -> new ObjectPool<>(MAX_IDLE_VERIFIERS_PER_KEY));
+        } finally {
+            VERIFIERS_LOCK.unlock();
+        }
+        pool.release(verifier);
+        return ret;
+    }
+
+    /**
+     * verify a signature
+     *
+     * @param algorithmOid OID of the signature algorithm
+     * @param publicKey    public key of the signer
+     * @param signedData   the signed data
+     * @param signature    the signature
+     * @return <code>true</code> if the signature is valid
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     * @throws InvalidKeyException      if the key does not fit the algorithm
+     * @throws SignatureException       if the signature could not be processed
+     */
+    public static boolean verify(
+            final String algorithmOid, final PublicKey publicKey, final byte[] signedData, final byte[] signature)
+            throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+        final Key key = new Key(algorithmOid, publicKey.getEncoded());
+        Signature verifier = borrowVerifier(key);
+        if (verifier == null) {
+            verifier = createVerifier(algorithmOid, publicKey);
+        }
+        return verifyAndKeep(key, verifier, signedData, signature);
+    }
+
+    /**
+     * verify a signature, the public key is only decoded if no verifier for it is
+     * available
+     *
+     * @param algorithmOid  OID of the signature algorithm
+     * @param publicKeyInfo public key of the signer
+     * @param signedData    the signed data
+     * @param signature     the signature
+     * @return <code>true</code> if the signature is valid
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     * @throws InvalidKeyException      if the key does not fit the algorithm
+     * @throws InvalidKeySpecException  if the public key could not be decoded
+     * @throws SignatureException       if the signature could not be processed
+     * @throws IOException              if the public key could not be encoded
+     */
+    public static boolean verify(
+            final String algorithmOid,
+            final SubjectPublicKeyInfo publicKeyInfo,
+            final byte[] signedData,
+            final byte[] signature)
+            throws NoSuchAlgorithmException, InvalidKeyException, InvalidKeySpecException, SignatureException,
+                    IOException {
+        final byte[] encodedKey = publicKeyInfo.getEncoded(ASN1Encoding.DER);
+        final Key key = new Key(algorithmOid, encodedKey);
+        Signature verifier = borrowVerifier(key);
+        if (verifier == null) {
+            final PublicKey publicKey = KeyFactory.getInstance(
+                            publicKeyInfo.getAlgorithm().getAlgorithm().toString(),
+                            CertUtility.getBouncyCastleProvider())
+                    .generatePublic(new X509EncodedKeySpec(encodedKey));
+            verifier = createVerifier(algorithmOid, publicKey);
+        }
+        return verifyAndKeep(key, verifier, signedData, signature);
+    }
+
+    // utility class
+    private SignatureVerifierPool() {}
+}
@@ -18,29 +18,31 @@
 package com.siemens.pki.cmpracomponent.cryptoservices;
 
 import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
-import java.net.URI;
+import com.siemens.pki.cmpracomponent.util.ObjectPool;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertPathBuilder;
 import java.security.cert.CertPathBuilderException;
 import java.security.cert.CertStore;
-import java.security.cert.CertStoreParameters;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CollectionCertStoreParameters;
 import java.security.cert.PKIXBuilderParameters;
 import java.security.cert.PKIXCertPathBuilderResult;
-import java.security.cert.PKIXRevocationChecker;
 import java.security.cert.PKIXRevocationChecker.Option;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509CRL;
 import java.security.cert.X509CertSelector;
 import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.EnumSet;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,25 +56,50 @@ public class TrustCredentialAdapter {
     // private static final BouncyCastleProvider PROVIDER = CertUtility.getBouncyCastleProvider();
     private static final String PROVIDER = "SUN";
 
-    private static final String FALSE_STRING = "false";
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrustCredentialAdapter.class);
 
-    private static final String OCSP_ENABLE_PROP = "ocsp.enable";
+    // validations failing because of temporary problems should be retried soon
+    private static final long FAILED_VALIDATION_TIME_TO_LIVE = 10_000L;
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(TrustCredentialAdapter.class);
+    private static final int MAX_CACHED_VALIDATIONS = 10_000;
+
+    private static final ValidatedChainCache VALIDATED_CHAINS = new ValidatedChainCache(MAX_CACHED_VALIDATIONS);
+
+    private static final int MAX_CACHED_OCSP_RESPONSES = 10_000;
+
+    private static final OcspResponseCache OCSP_RESPONSES = new OcspResponseCache(MAX_CACHED_OCSP_RESPONSES);
+
+    private static final int MAX_IDLE_CERT_PATH_BUILDERS = 64;
+
+    // a builder keeps no state between builds
+    private static final ObjectPool<CertPathBuilder> CERT_PATH_BUILDERS = new ObjectPool<>(MAX_IDLE_CERT_PATH_BUILDERS);
+
+    /**
+     * @return snapshot of the statistics of the cache of validation results
+     *         shared by all {@link TrustCredentialAdapter} instances
+     */
+    public static ValidationCacheStatistics getValidationCacheStatistics() {
+        return VALIDATED_CHAINS.getStatistics();
+    }
 
     private final VerificationContext config;
 
+    private final ValidationSetup setup;
+
     /**
      * @param config specific configuration
      */
     public TrustCredentialAdapter(final VerificationContext config) {
         this.config = config;
+        setup = new ValidationSetup(config);
     }
 
     /**
      * Attempts to build a certification chain for given certificate and to verify
      * it. Relies on a set of root CA certificates (trust anchors) and a set of
-     * intermediate certificates (to be used as part of the chain).
+     * intermediate certificates (to be used as part of the chain). Results are
+     * reused as governed by
+     * {@link VerificationContext#getValidationCacheTimeToLive()}.
      *
      * @param cert                        certificate for validation
      * @param additionalIntermediateCerts set of intermediate certificates, must
@@ -82,8 +109,7 @@ public class TrustCredentialAdapter {
      *         <code>null</code> if the validation failed
      * @throws NoSuchProviderException if SUN provider is not available
      */
-    @SuppressWarnings("unchecked")
-    public synchronized List<? extends X509Certificate> validateCertAgainstTrust(
+    public List<? extends X509Certificate> validateCertAgainstTrust(
             final X509Certificate cert, final List<X509Certificate> additionalIntermediateCerts)
             throws NoSuchProviderException {
         final Collection<X509Certificate> trustedCertificates = config.getTrustedCertificates();
@@ -103,40 +129,74 @@ public class TrustCredentialAdapter {
                         "trust: " + aktCert.getSubjectX500Principal() + ", I: " + aktCert.getIssuerX500Principal());
             }
         }
+        final boolean[] leafKeyUsage = cert.getKeyUsage();
+        if (leafKeyUsage != null && !leafKeyUsage[0] // digitalSignature
+                || !config.isLeafCertAcceptable(cert)) {
+            return null;
+        }
+        final TrustStores trustStores;
         try {
-            final boolean[] leafKeyUsage = cert.getKeyUsage();
-            if (leafKeyUsage != null && !leafKeyUsage[0] // digitalSignature
-                    || !config.isLeafCertAcceptable(cert)) {
-                return null;
+            trustStores = TrustStores.get(config, trustedCertificates, config.getAdditionalCerts(), setup.getCrls());
+        } catch (final InvalidAlgorithmParameterException | NoSuchAlgorithmException ex) {
+            LOGGER.error("Exception while building certificate path:" + ex.getMessage());
+            return null;
+        }
+        final long timeToLive = config.getValidationCacheTimeToLive();
+        if (timeToLive <= 0) {
+            return buildAndValidateChain(cert, additionalIntermediateCerts, trustStores, new HashMap<>());
+        }
+        final ValidatedChainCache.Key key;
+        try {
+            key = ValidatedChainCache.buildKey(config, trustStores, cert, additionalIntermediateCerts);
+        } catch (final CertificateEncodingException | NoSuchAlgorithmException ex) {
+            LOGGER.warn("could not cache validation result: " + ex.getMessage());
+            return buildAndValidateChain(cert, additionalIntermediateCerts, trustStores, new HashMap<>());
+        }
+        final ValidatedChainCache.CachedResult cachedResult = VALIDATED_CHAINS.get(key);
+        if (cachedResult != null) {
+            return cachedResult.chain;
+        }
+        final Map<X509Certificate, byte[]> usedOcspResponses = new HashMap<>();
+        final List<? extends X509Certificate> ret =
+                buildAndValidateChain(cert, additionalIntermediateCerts, trustStores, usedOcspResponses);
+        final long now = System.currentTimeMillis();
+        if (ret == null) {
+            VALIDATED_CHAINS.put(key, null, now + Math.min(timeToLive, FAILED_VALIDATION_TIME_TO_LIVE));
+            return null;
+        }
+        long expiresAt = now + timeToLive;
+        if (setup.isRevocationStatusFetchedByChecker()) {
+            // the nextUpdate of revocation information fetched by the PKIX
+            // revocation checker is unknown
+            expiresAt = Math.min(expiresAt, now + FAILED_VALIDATION_TIME_TO_LIVE);
+        }
+        for (final X509Certificate aktCert : ret) {
+            expiresAt = Math.min(expiresAt, aktCert.getNotAfter().getTime());
+        }
+        for (final X509CRL aktCrl : setup.getCrls()) {
+            final Date nextUpdate = aktCrl.getNextUpdate();
+            if (nextUpdate != null) {
+                expiresAt = Math.min(expiresAt, nextUpdate.getTime());
             }
-            // initial state
-            java.security.Security.setProperty(OCSP_ENABLE_PROP, FALSE_STRING);
-            boolean revocationEnabled = false;
+        }
+        for (final byte[] aktResponse : usedOcspResponses.values()) {
+            expiresAt = Math.min(expiresAt, OcspResponseCache.getNextUpdate(aktResponse));
+        }
+        VALIDATED_CHAINS.put(key, ret, expiresAt);
+        return ret;
+    }
 
+    @SuppressWarnings("unchecked")
+    private List<? extends X509Certificate> buildAndValidateChain(
+            final X509Certificate cert,
+            final List<X509Certificate> additionalIntermediateCerts,
+            final TrustStores trustStores,
+            final Map<X509Certificate, byte[]> usedOcspResponses)
+            throws NoSuchProviderException {
+        try {
             final X509CertSelector targetConstraints = new X509CertSelector();
             targetConstraints.setCertificate(cert);
 
-            final Set<TrustAnchor> trust = trustedCertificates.stream()
-                    .map(trustedCert -> new TrustAnchor(trustedCert, null))
-                    .collect(Collectors.toSet());
-
-            final PKIXBuilderParameters params = new PKIXBuilderParameters(trust, targetConstraints);
-
-            if (config.isAIAsEnabled()) {
-                revocationEnabled = true;
-                java.security.Security.setProperty(OCSP_ENABLE_PROP, "true");
-                System.setProperty("com.sun.security.enableAIAcaIssuers", "true");
-            } else {
-                System.setProperty("com.sun.security.enableAIAcaIssuers", FALSE_STRING);
-            }
-
-            if (config.isCDPsEnabled()) {
-                revocationEnabled = true;
-                System.setProperty("com.sun.security.enableCRLDP", "true");
-            } else {
-                System.setProperty("com.sun.security.enableCRLDP", FALSE_STRING);
-            }
-
             final Set<Object> lstCertCrlStores = new HashSet<>();
 
             if (additionalIntermediateCerts != null) {
@@ -145,54 +205,86 @@ public class TrustCredentialAdapter {
                         .filter(CertUtility::isIntermediateCertificate)
                         .forEach(lstCertCrlStores::add);
             }
-
-            final Collection<X509Certificate> additionalCertsFromConfig = config.getAdditionalCerts();
-            if (additionalCertsFromConfig != null) {
-                lstCertCrlStores.addAll(additionalCertsFromConfig);
-            }
             lstCertCrlStores.add(cert);
-            final CertStore certStore =
-                    CertStore.getInstance("Collection", new CollectionCertStoreParameters(lstCertCrlStores), PROVIDER);
-            params.addCertStore(certStore);
 
-            final Collection<X509CRL> crlsFromConfig = config.getCRLs();
-            if (crlsFromConfig != null) {
-                if (!crlsFromConfig.isEmpty()) {
-                    revocationEnabled = true;
-                    final CertStoreParameters csp = new CollectionCertStoreParameters(crlsFromConfig);
-                    final CertStore crlStore = CertStore.getInstance("Collection", csp);
-                    params.addCertStore(crlStore);
+            Set<TrustAnchor> trust = trustStores.getTrustAnchors();
+            if (!setup.isAIAsEnabled()) {
+                // issuers loaded from AIA entries could lead to any anchor
+                final Set<TrustAnchor> reachableAnchors = trustStores.selectTrustAnchors(cert, lstCertCrlStores);
+                if (!reachableAnchors.isEmpty()) {
+                    trust = reachableAnchors;
                 }
             }
+            if (trust.isEmpty()) {
+                return null;
+            }
 
-            final CertPathBuilder cpb = CertPathBuilder.getInstance("PKIX", PROVIDER);
+            final PKIXBuilderParameters params = new PKIXBuilderParameters(trust, targetConstraints);
 
-            final PKIXRevocationChecker revChecker = (PKIXRevocationChecker) cpb.getRevocationChecker();
+            final CertStore certStore =
+                    CertStore.getInstance("Collection", new CollectionCertStoreParameters(lstCertCrlStores), PROVIDER);
+            params.addCertStore(certStore);
+            params.addCertStore(trustStores.getAdditionalCertStore());
 
-            final EnumSet<Option> pkixRevocationCheckerOptions = config.getPKIXRevocationCheckerOptions();
-            if (pkixRevocationCheckerOptions != null) {
-                revChecker.setOptions(pkixRevocationCheckerOptions);
+            CertPathBuilder cpb = CERT_PATH_BUILDERS.borrow();
+            if (cpb == null) {
+                cpb = CertPathBuilder.getInstance("PKIX", PROVIDER);
             }
-
-            final URI ocspResponder = config.getOCSPResponder();
-            if (ocspResponder != null) {
-                revocationEnabled = true;
-                java.security.Security.setProperty(OCSP_ENABLE_PROP, "true");
-                revChecker.setOcspResponder(ocspResponder);
+            final CrlIndex crlIndex = trustStores.getCrlIndex();
+            final boolean checkWithCrlIndex = setup.isRevocationCheckedByCrlsOnly() && crlIndex.isComplete();
+            if (checkWithCrlIndex) {
+                // revocation status is looked up after chain building
+                params.setRevocationEnabled(false);
+            } else {
+                if (trustStores.getCrlStore() != null) {
+                    params.addCertStore(trustStores.getCrlStore());
+                }
+                if (setup.isOcspResponseCachingEnabled()) {
+                    usedOcspResponses.putAll(getOcspResponses(cert, lstCertCrlStores, trustStores));
+                }
+                setup.configureRevocationChecking(cpb, params, usedOcspResponses);
             }
 
-            if (revocationEnabled) {
-                params.addCertPathChecker(revChecker);
+            PKIXCertPathBuilderResult result;
+            try {
+                result = (PKIXCertPathBuilderResult) cpb.build(params);
+            } catch (final CertPathBuilderException ex) {
+                if (!setup.isAIAsEnabled()) {
+                    throw ex;
+                }
+                // retry with the missing issuers loaded from AIA entries
+                final Set<Object> certsWithCaIssuers = new HashSet<>(lstCertCrlStores);
+                CaIssuersFetcher.addCaIssuers(cert, certsWithCaIssuers);
+                if (certsWithCaIssuers.size() == lstCertCrlStores.size()) {
+                    throw ex;
+                }
+                final PKIXBuilderParameters paramsWithCaIssuers = (PKIXBuilderParameters) params.clone();
+                paramsWithCaIssuers.setCertStores(null);
+                paramsWithCaIssuers.addCertStore(CertStore.getInstance(
+                        "Collection", new CollectionCertStoreParameters(certsWithCaIssuers), PROVIDER));
+                for (final CertStore aktStore : params.getCertStores()) {
+                    if (aktStore != certStore) {
+                        paramsWithCaIssuers.addCertStore(aktStore);
+                    }
+                }
+                result = (PKIXCertPathBuilderResult) cpb.build(paramsWithCaIssuers);
+            } finally {
+                CERT_PATH_BUILDERS.release(cpb);
             }
-            params.setRevocationEnabled(revocationEnabled);
-
-            final PKIXCertPathBuilderResult result = (PKIXCertPathBuilderResult) cpb.build(params);
 
             final List<? extends X509Certificate> resultChain =
                     (List<? extends X509Certificate>) result.getCertPath().getCertificates();
             if (resultChain == null) {
                 return null;
             }
+            if (checkWithCrlIndex
+                    && !crlIndex.checkRevocation(
+                            resultChain,
+                            result.getTrustAnchor(),
+                            setup.getRevocationCheckerOptions(),
+                            System.currentTimeMillis())) {
+                return null;
+            }
             for (final X509Certificate aktCert : resultChain) {
                 if (aktCert.equals(cert)) {
                     continue;
@@ -216,4 +308,40 @@ public class TrustCredentialAdapter {
             return null;
         }
     }
+
+    /**
+     * get cached or freshly fetched OCSP responses for the certificate and the
+     * issuers it could be validated with
+     */
+    private Map<X509Certificate, byte[]> getOcspResponses(
+            final X509Certificate cert, final Collection<Object> suppliedCerts, final TrustStores trustStores) {
+        final boolean onlyEndEntity = setup.getRevocationCheckerOptions().contains(Option.ONLY_END_ENTITY);
+        final Map<X509Certificate, byte[]> ret = new HashMap<>();
+        final Deque<X509Certificate> toCheck = new ArrayDeque<>();
+        toCheck.add(cert);
+        while (!toCheck.isEmpty()) {
+            final X509Certificate aktCert = toCheck.poll();
+            if (ret.containsKey(aktCert)
+                    || aktCert.getSubjectX500Principal().equals(aktCert.getIssuerX500Principal())) {
+                continue;
+            }
+            for (final X509Certificate aktIssuer : trustStores.findIssuers(aktCert, suppliedCerts)) {
+                final byte[] response = OCSP_RESPONSES.getResponse(
+                        setup.getOcspResponder(),
+                        aktCert,
+                        aktIssuer,
+                        setup.getOcspResponseRefreshAhead(),
+                        setup.getOcspResponseStaleWhileRevalidate());
+                if (response == null) {
+                    continue;
+                }
+                ret.put(aktCert, response);
+                if (!onlyEndEntity && !trustStores.isTrusted(aktIssuer)) {
+                    toCheck.add(aktIssuer);
+                }
+                break;
+            }
+        }
+        return ret;
+    }
 }
@@ -0,0 +1,281 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.cryptoservices;
+
+import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertStore;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * trust anchors, intermediate certificates and CRLs of a
+ * {@link VerificationContext} prepared for chain building. Instances are
+ * immutable and reused per {@link VerificationContext} until one of the
+ * collections returned by the context changes, detected by size and content
+ * hash. This also covers collections modified in place.
+ */
+class TrustStores {
+
+    private static final Map<VerificationContext, TrustStores> STORES_PER_CONTEXT = new WeakHashMap<>();
+
+    private static final ReentrantLock STORES_LOCK = new ReentrantLock();
+
+    private static int contentHash(final Collection<?> collection) {
+        if (collection == null) {
+            return 0;
+        }
+        int ret = 0;
+        for (final Object aktElement : collection) {
+            ret += aktElement.hashCode();
+        }
+        return ret;
+    }
+
+    /**
+     * get prepared stores for a verification context
+     *
+     * @param config              the verification context
+     * @param trustedCertificates trusted certificates returned by the context
+     * @param additionalCerts     additional certificates returned by the context
+     * @param crls                CRLs returned by the context
+     * @return prepared stores, built only if not yet available for the given
+     *         collections
+     * @throws InvalidAlgorithmParameterException if the CRL store could not be
+     *                                            built
+     * @throws NoSuchAlgorithmException           if the CRL store could not be
+     *                                            built
+     */
+    static TrustStores get(
+            final VerificationContext config,
+            final Collection<X509Certificate> trustedCertificates,
+            final Collection<X509Certificate> additionalCerts,
+            final Collection<X509CRL> crls)
+            throws InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        STORES_LOCK.lock();
+        try {
+            final TrustStores existing = STORES_PER_CONTEXT.get(config);
+            if (existing != null && existing.isBuiltFrom(trustedCertificates, additionalCerts, crls)) {
+                return existing;
+            }
+        } finally {
+            STORES_LOCK.unlock();
+        }
+        // concurrent builds for the same context are harmless, the last one wins
+        final TrustStores ret = new TrustStores(trustedCertificates, additionalCerts, crls);
+        STORES_LOCK.lock();
+        try {
+            STORES_PER_CONTEXT.put(config, ret);
+        } finally {
+            STORES_LOCK.unlock();
+        }
+        return ret;
+    }
+
+    private static boolean isUnchanged(final int sourceSize, final int sourceHash, final Collection<?> current) {
+        return (current == null ? 0 : current.size()) == sourceSize && contentHash(current) == sourceHash;
+    }
+
+    private final int trustedSize;
+
+    private final int trustedHash;
+
+    private final int additionalSize;
+
+    private final int additionalHash;
+
+    private final int crlSize;
+
+    private final int crlHash;
+
+    private final Set<TrustAnchor> trustAnchors;
+
+    private final Map<X500Principal, List<TrustAnchor>> trustAnchorsBySubject = new HashMap<>();
+
+    private final IndexedCertStore additionalCertStore;
+
+    private final CertStore crlStore;
+
+    private final CrlIndex crlIndex;
+
+    private TrustStores(
+            final Collection<X509Certificate> trustedCertificates,
+            final Collection<X509Certificate> additionalCerts,
+            final Collection<X509CRL> crls)
+            throws InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        trustedSize = trustedCertificates == null ? 0 : trustedCertificates.size();
+        trustedHash = contentHash(trustedCertificates);
+        additionalSize = additionalCerts == null ? 0 : additionalCerts.size();
+        additionalHash = contentHash(additionalCerts);
+        crlSize = crls == null ? 0 : crls.size();
+        crlHash = contentHash(crls);
+
+        final Set<TrustAnchor> anchors = new HashSet<>();
+        if (trustedCertificates != null) {
+            for (final X509Certificate aktCert : trustedCertificates) {
+                final TrustAnchor anchor = new TrustAnchor(aktCert, null);
+                if (anchors.add(anchor)) {
+                    trustAnchorsBySubject
+                            .computeIfAbsent(aktCert.getSubjectX500Principal(), x -> new ArrayList<>(1))
+                            .add(anchor);
+                }
+            }
+        }
+        trustAnchors = Collections.unmodifiableSet(anchors);
+        additionalCertStore = new IndexedCertStore(
+                additionalCerts == null ? Collections.emptyList() : new ArrayList<>(additionalCerts));
+        crlStore = crls == null || crls.isEmpty()
+                ? null
+                : CertStore.getInstance("Collection", new CollectionCertStoreParameters(new ArrayList<>(crls)));
+        crlIndex = new CrlIndex(crls == null ? Collections.emptyList() : crls);
+    }
+
+    /**
+     * find the possible issuers of a certificate by name
+     *
+     * @param cert          certificate to find the issuers for
+     * @param suppliedCerts certificates supplied for this validation
+     * @return trusted, supplied and additional certificates with the issuer of the
+     *         certificate as subject, trusted certificates first
+     */
+    List<X509Certificate> findIssuers(final X509Certificate cert, final Collection<?> suppliedCerts) {
+        final X500Principal issuer = cert.getIssuerX500Principal();
+        final List<X509Certificate> ret = new ArrayList<>();
+        for (final TrustAnchor aktAnchor : trustAnchorsBySubject.getOrDefault(issuer, Collections.emptyList())) {
+            ret.add(aktAnchor.getTrustedCert());
+        }
+        for (final Object aktCert : suppliedCerts) {
+            if (aktCert instanceof X509Certificate
+                    && issuer.equals(((X509Certificate) aktCert).getSubjectX500Principal())
+                    && !ret.contains(aktCert)) {
+                ret.add((X509Certificate) aktCert);
+            }
+        }
+        for (final X509Certificate aktCert : additionalCertStore.getCertificatesBySubject(issuer)) {
+            if (!ret.contains(aktCert)) {
+                ret.add(aktCert);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return indexed store of the additional certificates from the context
+     */
+    CertStore getAdditionalCertStore() {
+        return additionalCertStore;
+    }
+
+    /**
+     * @return index of the CRLs from the context
+     */
+    CrlIndex getCrlIndex() {
+        return crlIndex;
+    }
+
+    /**
+     * @return store of the CRLs from the context or <code>null</code> if the
+     *         context provides no CRLs
+     */
+    CertStore getCrlStore() {
+        return crlStore;
+    }
+
+    /**
+     * @return all trust anchors
+     */
+    Set<TrustAnchor> getTrustAnchors() {
+        return trustAnchors;
+    }
+
+    private boolean isBuiltFrom(
+            final Collection<X509Certificate> trustedCertificates,
+            final Collection<X509Certificate> additionalCerts,
+            final Collection<X509CRL> crls) {
+        return isUnchanged(trustedSize, trustedHash, trustedCertificates)
+                && isUnchanged(additionalSize, additionalHash, additionalCerts)
+                && isUnchanged(crlSize, crlHash, crls);
+    }
+
+    /**
+     * @param cert a certificate
+     * @return <code>true</code> if the certificate is a trust anchor
+     */
+    boolean isTrusted(final X509Certificate cert) {
+        for (final TrustAnchor aktAnchor :
+                trustAnchorsBySubject.getOrDefault(cert.getSubjectX500Principal(), Collections.emptyList())) {
+            if (cert.equals(aktAnchor.getTrustedCert())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * select the trust anchors a chain starting at the given certificate could end
+     * with, following issuer names through the given and the additional
+     * certificates
+     *
+     * @param cert         certificate to validate
+     * @param suppliedCerts certificates supplied for this validation
+     * @return trust anchors reachable by name chaining, possibly empty
+     */
+    Set<TrustAnchor> selectTrustAnchors(final X509Certificate cert, final Collection<?> suppliedCerts) {
+        final Map<X500Principal, List<X509Certificate>> suppliedBySubject = new HashMap<>();
+        for (final Object aktCert : suppliedCerts) {
+            if (aktCert instanceof X509Certificate) {
+                final X509Certificate aktX509 = (X509Certificate) aktCert;
+                suppliedBySubject
+                        .computeIfAbsent(aktX509.getSubjectX500Principal(), x -> new ArrayList<>(1))
+                        .add(aktX509);
+            }
+        }
+        // the certificate itself might be trusted
+        final Set<TrustAnchor> ret = new HashSet<>(
+                trustAnchorsBySubject.getOrDefault(cert.getSubjectX500Principal(), Collections.emptyList()));
+        final Set<X500Principal> visitedIssuers = new HashSet<>();
+        final Deque<X509Certificate> toVisit = new ArrayDeque<>();
+        toVisit.add(cert);
+        while (!toVisit.isEmpty()) {
+            final X500Principal issuer = toVisit.poll().getIssuerX500Principal();
+            if (!visitedIssuers.add(issuer)) {
+                continue;
+            }
+            ret.addAll(trustAnchorsBySubject.getOrDefault(issuer, Collections.emptyList()));
+            toVisit.addAll(suppliedBySubject.getOrDefault(issuer, Collections.emptyList()));
+            toVisit.addAll(additionalCertStore.getCertificatesBySubject(issuer));
+        }
+        return ret;
+    }
+}
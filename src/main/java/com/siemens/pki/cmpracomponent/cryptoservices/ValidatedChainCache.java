@@ -0,0 +1,210 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.cryptoservices;
+
+import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * size and time bounded cache of certificate path validation results, least
+ * recently used results are evicted first. Successful and failed validations
+ * are cached.
+ */
+class ValidatedChainCache {
+
+    /**
+     * a cached validation result
+     */
+    static final class CachedResult {
+        final List<? extends X509Certificate> chain;
+        final long expiresAt;
+
+        CachedResult(final List<? extends X509Certificate> chain, final long expiresAt) {
+            this.chain = chain;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * identifies a validation by the {@link VerificationContext} instance, the
+     * {@link TrustStores} built from its trusted certificates, additional
+     * certificates and CRLs, the certificate to validate and the supplied
+     * intermediate certificates
+     */
+    static final class Key {
+        private final VerificationContext context;
+        private final TrustStores trustStores;
+        private final byte[] fingerprint;
+        private final int hashCode;
+
+        private Key(final VerificationContext context, final TrustStores trustStores, final byte[] fingerprint) {
+            this.context = context;
+            this.trustStores = trustStores;
+            this.fingerprint = fingerprint;
+            hashCode = 31 * (31 * System.identityHashCode(context) + System.identityHashCode(trustStores))
+                    + Arrays.hashCode(fingerprint);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return context == other.context
+                    && trustStores == other.trustStores
+                    && Arrays.equals(fingerprint, other.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    /**
+     * @param context                     the verification context
+     * @param trustStores                 stores currently prepared for the context
+     * @param cert                        certificate to validate
+     * @param additionalIntermediateCerts supplied intermediate certificates or
+     *                                    <code>null</code>
+     * @return key of the validation, independent of the order of the
+     *         intermediate certificates
+     * @throws CertificateEncodingException if a certificate could not be encoded
+     * @throws NoSuchAlgorithmException     if SHA-256 is not available
+     */
+    static Key buildKey(
+            final VerificationContext context,
+            final TrustStores trustStores,
+            final X509Certificate cert,
+            final List<X509Certificate> additionalIntermediateCerts)
+            throws CertificateEncodingException, NoSuchAlgorithmException {
+        final MessageDigest digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+        final byte[] leafFingerprint = digest.digest(cert.getEncoded());
+        final List<byte[]> intermediateFingerprints = new ArrayList<>();
+        if (additionalIntermediateCerts != null) {
+            for (final X509Certificate aktCert : additionalIntermediateCerts) {
+                final byte[] aktFingerprint = digest.digest(aktCert.getEncoded());
+                if (!Arrays.equals(aktFingerprint, leafFingerprint)) {
+                    intermediateFingerprints.add(aktFingerprint);
+                }
+            }
+        }
+        intermediateFingerprints.sort(Arrays::compare);
+        digest.update(leafFingerprint);
+        byte[] lastFingerprint = null;
+        for (final byte[] aktFingerprint : intermediateFingerprints) {
+            if (!Arrays.equals(aktFingerprint, lastFingerprint)) {
+                digest.update(aktFingerprint);
+                lastFingerprint = aktFingerprint;
+            }
+        }
+        return new Key(context, trustStores, digest.digest());
+    }
+
+    private final Map<Key, CachedResult> cache;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maximumSize maximum number of cached results
+     */
+    ValidatedChainCache(final int maximumSize) {
+        cache = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, CachedResult> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * @param key validation to look up
+     * @return cached result or <code>null</code> if not cached or expired
+     */
+    CachedResult get(final Key key) {
+        lock.lock();
+        try {
+            final CachedResult ret = cache.get(key);
+            if (ret == null) {
+                misses.increment();
+                return null;
+            }
+            if (ret.expiresAt <= System.currentTimeMillis()) {
+                cache.remove(key);
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return ret;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return snapshot of the current statistics
+     */
+    ValidationCacheStatistics getStatistics() {
+        lock.lock();
+        try {
+            return new ValidationCacheStatistics(hits.sum(), misses.sum(), cache.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param key       validated certificates
+     * @param chain     the validated chain or <code>null</code> if the validation
+     *                  failed
+     * @param expiresAt time in milliseconds the result expires
+     */
+    void put(final Key key, final List<? extends X509Certificate> chain, final long expiresAt) {
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        lock.lock();
+        try {
+            cache.put(key, new CachedResult(chain, expiresAt));
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.cryptoservices;
+
+/**
+ * snapshot of the statistics of the certificate path validation cache used by
+ * {@link TrustCredentialAdapter}
+ */
+public final class ValidationCacheStatistics {
+
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final int size;
+
+    ValidationCacheStatistics(final long hitCount, final long missCount, final int size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.size = size;
+    }
+
+    /**
+     * @return number of validations answered from the cache
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return ratio of validations answered from the cache
+     */
+    public double getHitRate() {
+        final long requests = hitCount + missCount;
+        return requests == 0 ? 0.0 : (double) hitCount / requests;
+    }
+
+    /**
+     * @return number of validations not answered from the cache
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of cached validation results
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationCacheStatistics [hitCount=" + hitCount + ", missCount=" + missCount + ", hitRate="
+                + getHitRate() + ", size=" + size + "]";
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.cryptoservices;
+
+import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
+import java.net.URI;
+import java.security.cert.CertPathBuilder;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXRevocationChecker;
+import java.security.cert.PKIXRevocationChecker.Option;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * immutable certificate path validation settings derived from a
+ * {@link VerificationContext}. Revocation checking is configured per validation
+ * instead of through JVM global security and system properties, so validations
+ * with different settings can run concurrently.
+ */
+class ValidationSetup {
+
+    private final boolean aiasEnabled;
+
+    private final Collection<X509CRL> crls;
+
+    private final URI ocspResponder;
+
+    private final boolean ocspResponseCachingEnabled;
+
+    private final long ocspResponseRefreshAhead;
+
+    private final long ocspResponseStaleWhileRevalidate;
+
+    private final boolean revocationEnabled;
+
+    private final boolean revocationCheckedByCrlsOnly;
+
+    private final boolean revocationStatusFetchedByChecker;
+
+    private final Set<Option> revocationCheckerOptions;
+
+    /**
+     * @param config specific configuration
+     */
+    ValidationSetup(final VerificationContext config) {
+        aiasEnabled = config.isAIAsEnabled();
+        final Collection<X509CRL> crlsFromConfig = config.getCRLs();
+        crls = crlsFromConfig == null ? Collections.emptyList() : crlsFromConfig;
+        ocspResponder = config.getOCSPResponder();
+        ocspResponseCachingEnabled = ocspResponder != null && config.isOCSPResponseCachingEnabled();
+        ocspResponseRefreshAhead = config.getOCSPResponseRefreshAhead();
+        ocspResponseStaleWhileRevalidate = config.getOCSPResponseStaleWhileRevalidate();
+        final boolean ocspEnabled = aiasEnabled || ocspResponder != null;
+        final boolean cdpsEnabled = config.isCDPsEnabled();
+        revocationEnabled = ocspEnabled || cdpsEnabled || !crls.isEmpty();
+        revocationCheckedByCrlsOnly = !ocspEnabled && !cdpsEnabled && !crls.isEmpty();
+        revocationStatusFetchedByChecker =
+                aiasEnabled || cdpsEnabled || ocspResponder != null && !ocspResponseCachingEnabled;
+        final EnumSet<Option> options = EnumSet.noneOf(Option.class);
+        final EnumSet<Option> optionsFromConfig = config.getPKIXRevocationCheckerOptions();
+        if (optionsFromConfig != null) {
+            options.addAll(optionsFromConfig);
+        }
+        if (!ocspEnabled) {
+            // neither AIA nor an OCSP responder configured, check CRLs only
+            options.add(Option.PREFER_CRLS);
+            options.add(Option.NO_FALLBACK);
+        }
+        revocationCheckerOptions = Collections.unmodifiableSet(options);
+    }
+
+    /**
+     * add revocation checking to the parameters of a single validation
+     *
+     * @param certPathBuilder builder used for the validation
+     * @param params          parameters of the validation
+     * @param ocspResponses   OCSP responses already available, may be empty
+     */
+    void configureRevocationChecking(
+            final CertPathBuilder certPathBuilder,
+            final PKIXBuilderParameters params,
+            final Map<X509Certificate, byte[]> ocspResponses) {
+        params.setRevocationEnabled(revocationEnabled);
+        if (!revocationEnabled) {
+            return;
+        }
+        final PKIXRevocationChecker revChecker = (PKIXRevocationChecker) certPathBuilder.getRevocationChecker();
+        revChecker.setOptions(revocationCheckerOptions);
+        if (ocspResponder != null) {
+            revChecker.setOcspResponder(ocspResponder);
+        }
+        revChecker.setOcspResponses(ocspResponses);
+        params.addCertPathChecker(revChecker);
+    }
+
+    /**
+     * @return CRLs provided by the configuration, never <code>null</code>
+     */
+    Collection<X509CRL> getCrls() {
+        return crls;
+    }
+
+    /**
+     * @return location of the configured OCSP responder or <code>null</code>
+     */
+    URI getOcspResponder() {
+        return ocspResponder;
+    }
+
+    /**
+     * @return time in milliseconds before the nextUpdate of a cached OCSP
+     *         response at which it is refreshed
+     */
+    long getOcspResponseRefreshAhead() {
+        return ocspResponseRefreshAhead;
+    }
+
+    /**
+     * @return time in milliseconds after the nextUpdate of a cached OCSP response
+     *         during which it is still used
+     */
+    long getOcspResponseStaleWhileRevalidate() {
+        return ocspResponseStaleWhileRevalidate;
+    }
+
+    /**
+     * @return options of the revocation checking
+     */
+    Set<Option> getRevocationCheckerOptions() {
+        return revocationCheckerOptions;
+    }
+
+    /**
+     * @return <code>true</code> if CA issuers from AIA entries should be used for
+     *         chain building and OCSP responders from AIA entries for revocation
+     *         checking
+     */
+    boolean isAIAsEnabled() {
+        return aiasEnabled;
+    }
+
+    /**
+     * @return <code>true</code> if responses of the configured OCSP responder
+     *         should be cached
+     */
+    boolean isOcspResponseCachingEnabled() {
+        return ocspResponseCachingEnabled;
+    }
+
+    /**
+     * @return <code>true</code> if the revocation status is determined by the
+     *         CRLs provided by the configuration only
+     */
+    boolean isRevocationCheckedByCrlsOnly() {
+        return revocationCheckedByCrlsOnly;
+    }
+
+    /**
+     * @return <code>true</code> if the PKIX revocation checker may fetch OCSP
+     *         responses or CRLs on its own
+     */
+    boolean isRevocationStatusFetchedByChecker() {
+        return revocationStatusFetchedByChecker;
+    }
+}
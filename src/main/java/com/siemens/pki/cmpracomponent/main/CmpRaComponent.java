@@ -20,6 +20,10 @@ package com.siemens.pki.cmpracomponent.main;
 import com.siemens.pki.cmpracomponent.configuration.Configuration;
 import com.siemens.pki.cmpracomponent.msgprocessing.CmpRaImplementation;
 import com.siemens.pki.cmpracomponent.msgprocessing.P10X509RaImplementation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -42,6 +46,24 @@ public class CmpRaComponent {
         return new CmpRaImplementation(configuration, upstreamExchange);
     }
 
+    /**
+     * create an RA instance that can handle all CMP message types and use cases
+     * described in the Lightweight CMP Profile and that does not block a thread
+     * while waiting for upstream responses. Use
+     * {@link CmpRaInterface#processRequestAsync(byte[])} to benefit from it.
+     *
+     * @param configuration         RA configuration provided by embedding
+     *                              application
+     * @param asyncUpstreamExchange the {@link AsyncUpstreamExchange} interface
+     *                              implemented by the wrapping application.
+     * @return interface to access the RA instance (a)synchronously
+     * @throws Exception in case of invalid configuration
+     */
+    public static final CmpRaInterface instantiateAsyncCmpRaComponent(
+            final Configuration configuration, final AsyncUpstreamExchange asyncUpstreamExchange) throws Exception {
+        return new CmpRaImplementation(configuration, asyncUpstreamExchange);
+    }
+
     /**
      * create an RA instance that can directly respond to general messages and
      * handle certificate enrollment using p10cr as described in section "Requesting
@@ -103,6 +125,33 @@ public class CmpRaComponent {
          */
         void gotResponseAtUpstream(byte[] response) throws Exception;
 
+        /**
+         * application provides several responses received asynchronously from
+         * upstream at once, e.g. after the upstream worked off a backlog. All
+         * responses are processed, even if some of them are rejected.
+         *
+         * @param responses ASN.1 DER-encoded responses received from upstream
+         * @throws Exception if at least one response was rejected, the reasons are
+         *                   attached as suppressed exceptions
+         * @see #gotResponseAtUpstream(byte[])
+         */
+        default void gotResponsesAtUpstream(final Collection<byte[]> responses) throws Exception {
+            final List<Exception> failures = new ArrayList<>();
+            for (final byte[] aktResponse : responses) {
+                try {
+                    gotResponseAtUpstream(aktResponse);
+                } catch (final Exception ex) {
+                    failures.add(ex);
+                }
+            }
+            if (!failures.isEmpty()) {
+                final IllegalStateException ex = new IllegalStateException(
+                        failures.size() + " of " + responses.size() + " responses rejected at upstream");
+                failures.forEach(ex::addSuppressed);
+                throw ex;
+            }
+        }
+
         /**
          * used by application to provide CMP request from downstream to RA (which may
          * be a poll request) and obtain the corresponding response.
@@ -113,6 +162,24 @@ public class CmpRaComponent {
          * @throws Exception on error not handled at CMP level
          */
         byte[] processRequest(byte[] request) throws Exception;
+
+        /**
+         * used by application to provide CMP request from downstream to RA (which may
+         * be a poll request) and obtain the corresponding response without blocking
+         * the calling thread during upstream communication.
+         *
+         * @param request ASN.1 DER-encoded request
+         * @return future completed with the corresponding ASN.1 DER-encoded response
+         *         (which may be a waiting indication or error) or completed
+         *         exceptionally on error not handled at CMP level
+         */
+        default CompletableFuture<byte[]> processRequestAsync(final byte[] request) {
+            try {
+                return CompletableFuture.completedFuture(processRequest(request));
+            } catch (final Exception ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+        }
     }
 
     /**
@@ -145,4 +212,33 @@ public class CmpRaComponent {
          */
         byte[] sendReceiveMessage(byte[] request, String certProfile, int bodyTypeOfFirstRequest) throws Exception;
     }
+
+    /**
+     * this interface defines a function to send a ASN.1 DER-encoded CMP request
+     * upstream and to receive the related ASN.1 DER-encoded response later, without
+     * blocking the calling thread.
+     */
+    public interface AsyncUpstreamExchange {
+        /**
+         * a function to send a ASN.1 DER-encoded CMP request upstream and potentially
+         * receive the related ASN.1 DER-encoded response from upstream.
+         *
+         * @param request                the ASN.1 DER-encoded CMP request to send
+         * @param certProfile            certificate profile extracted from the CMP
+         *                               request header generalInfo field or
+         *                               <code>null</code> if no certificate profile was
+         *                               found in the header.
+         * @param bodyTypeOfFirstRequest PKIBody type of the first request in this
+         *                               transaction. e.g. 0 for ir, 2 for cr, 7 for
+         *                               kur, 11 for rr, 21 for genm.
+         * @return future completed with the ASN.1 DER-encoded CMP response or with
+         *         <code>null</code> to initiate delayed delivery (polling), see
+         *         {@link UpstreamExchange#sendReceiveMessage(byte[], String, int)}.
+         *         The future must be completed exceptionally with a suitable message
+         *         text in case the application-level request processing results in
+         *         an error or the upstream server responded with an error.
+         */
+        CompletableFuture<byte[]> sendReceiveMessageAsync(
+                byte[] request, String certProfile, int bodyTypeOfFirstRequest);
+    }
 }
@@ -0,0 +1,71 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.main;
+
+import com.siemens.pki.cmpracomponent.configuration.Configuration;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface;
+import com.siemens.pki.cmpracomponent.transport.HttpUpstreamExchange;
+import com.siemens.pki.cmpracomponent.transport.RaHttpServer;
+import com.siemens.pki.cmpracomponent.util.VirtualThreads;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * stand-alone RA receiving CMP messages by HTTP and forwarding them upstream by
+ * HTTP. The {@link Configuration} is provided by a class with a public no-arg
+ * constructor given on the command line.
+ */
+public class RA {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RA.class);
+
+    private static final Duration UPSTREAM_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * start the RA, it runs until the JVM is terminated
+     *
+     * @param args &lt;configuration class&gt; &lt;port&gt; &lt;upstream URI&gt;
+     * @throws Exception in case of invalid arguments or configuration
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("usage: java -jar CmpRaComponent.jar <configuration class> <port> <upstream URI>");
+            System.exit(1);
+        }
+        final Configuration configuration =
+                (Configuration) Class.forName(args[0]).getDeclaredConstructor().newInstance();
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateCmpRaComponent(
+                configuration, new HttpUpstreamExchange(new URI(args[2]), UPSTREAM_TIMEOUT));
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final RaHttpServer server = new RaHttpServer(
+                new InetSocketAddress(Integer.parseInt(args[1])),
+                raComponent,
+                2 * processors,
+                16 * processors,
+                RaHttpServer.DEFAULT_MAX_REQUEST_SIZE,
+                VirtualThreads.isSupported());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1)));
+        server.start();
+        LOGGER.info("RA listening on {}, forwarding to {}", server.getAddress(), args[2]);
+    }
+
+    private RA() {}
+}
@@ -278,31 +278,27 @@ public class PkiMessageGenerator {
             final PKIBody body,
             final List<CMPCertificate> issuingChain)
             throws Exception {
-        synchronized (protectionProvider) {
-            final GeneralName sender = computeDefaultIfNull(protectionProvider.getSender(), headerProvider::getSender);
-            final PKIHeaderBuilder headerBuilder = new PKIHeaderBuilder(
-                    headerProvider.getPvno(),
-                    defaultIfNull(sender, NULL_DN),
-                    defaultIfNull(headerProvider.getRecipient(), NULL_DN));
-            headerBuilder.setMessageTime(headerProvider.getMessageTime());
-            headerBuilder.setProtectionAlg(protectionProvider.getProtectionAlg());
-            headerBuilder.setSenderKID(protectionProvider.getSenderKID());
-            headerBuilder.setTransactionID(headerProvider.getTransactionID());
-            headerBuilder.setSenderNonce(headerProvider.getSenderNonce());
-            headerBuilder.setRecipNonce(headerProvider.getRecipNonce());
-            headerBuilder.setGeneralInfo(headerProvider.getGeneralInfo());
-            final PKIHeader generatedHeader = headerBuilder.build();
-            final CMPCertificate[] generatedExtraCerts = Stream.concat(
-                            defaultIfNull(protectionProvider.getProtectingExtraCerts(), Collections.emptyList())
-                                    .stream(),
-                            defaultIfNull(issuingChain, Collections.emptyList()).stream())
-                    .distinct()
-                    .toArray(CMPCertificate[]::new);
-            final DERBitString protection =
-                    protectionProvider.getProtectionFor(new ProtectedPart(generatedHeader, body));
-            return new PKIMessage(
-                    generatedHeader, body, protection, generatedExtraCerts.length == 0 ? null : generatedExtraCerts);
-        }
+        final GeneralName sender = computeDefaultIfNull(protectionProvider.getSender(), headerProvider::getSender);
+        final PKIHeaderBuilder headerBuilder = new PKIHeaderBuilder(
+                headerProvider.getPvno(),
+                defaultIfNull(sender, NULL_DN),
+                defaultIfNull(headerProvider.getRecipient(), NULL_DN));
+        headerBuilder.setMessageTime(headerProvider.getMessageTime());
+        headerBuilder.setProtectionAlg(protectionProvider.getProtectionAlg());
+        headerBuilder.setSenderKID(protectionProvider.getSenderKID());
+        headerBuilder.setTransactionID(headerProvider.getTransactionID());
+        headerBuilder.setSenderNonce(headerProvider.getSenderNonce());
+        headerBuilder.setRecipNonce(headerProvider.getRecipNonce());
+        headerBuilder.setGeneralInfo(headerProvider.getGeneralInfo());
+        final PKIHeader generatedHeader = headerBuilder.build();
+        final CMPCertificate[] generatedExtraCerts = Stream.concat(
+                        defaultIfNull(protectionProvider.getProtectingExtraCerts(), Collections.emptyList()).stream(),
+                        defaultIfNull(issuingChain, Collections.emptyList()).stream())
+                .distinct()
+                .toArray(CMPCertificate[]::new);
+        final DERBitString protection = protectionProvider.getProtectionFor(new ProtectedPart(generatedHeader, body));
+        return new PKIMessage(
+                generatedHeader, body, protection, generatedExtraCerts.length == 0 ? null : generatedExtraCerts);
     }
 
     /**
@@ -21,16 +21,23 @@ import static com.siemens.pki.cmpracomponent.util.NullUtil.ifNotNull;
 
 import com.siemens.pki.cmpracomponent.configuration.Configuration;
 import com.siemens.pki.cmpracomponent.main.CmpRaComponent;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.AsyncUpstreamExchange;
 import com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface;
 import com.siemens.pki.cmpracomponent.main.CmpRaComponent.UpstreamExchange;
 import com.siemens.pki.cmpracomponent.msgvalidation.CmpProcessingException;
 import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
 import com.siemens.pki.cmpracomponent.util.CmpFuncEx;
 import com.siemens.pki.cmpracomponent.util.FileTracer;
+import com.siemens.pki.cmpracomponent.util.FutureUtil;
 import com.siemens.pki.cmpracomponent.util.MessageDumper;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.bouncycastle.asn1.cmp.PKIBody;
 import org.bouncycastle.asn1.cmp.PKIFailureInfo;
 import org.bouncycastle.asn1.cmp.PKIMessage;
@@ -60,6 +67,17 @@ public class CmpRaImplementation implements CmpRaInterface {
             PKIBody.TYPE_GEN_MSG));
 
     private static final String INTERFACE_NAME = "upstream exchange";
+
+    private static AsyncUpstreamExchange asAsyncUpstreamExchange(final UpstreamExchange upstreamExchange) {
+        if (upstreamExchange == null) {
+            return null;
+        }
+        // don't block other transactions sharing the transaction lock while waiting
+        // for the upstream response
+        return (request, certProfile, bodyTypeOfFirstRequest) -> FutureUtil.callDeferred(
+                () -> upstreamExchange.sendReceiveMessage(request, certProfile, bodyTypeOfFirstRequest));
+    }
+
     private final CmpRaUpstream upstream;
 
     private final RaDownstream downstream;
@@ -72,35 +90,66 @@ public class CmpRaImplementation implements CmpRaInterface {
      */
     public CmpRaImplementation(final Configuration config, final UpstreamExchange rawUpstreamExchange)
             throws Exception {
+        this(config, asAsyncUpstreamExchange(rawUpstreamExchange));
+    }
+
+    /**
+     * @param config                   specific configuration
+     * @param rawAsyncUpstreamExchange asynchronous upstream interface function
+     * @throws Exception in case of error
+     * @see CmpRaComponent
+     */
+    public CmpRaImplementation(final Configuration config, final AsyncUpstreamExchange rawAsyncUpstreamExchange)
+            throws Exception {
         final PersistencyContextManager persistencyContextManager =
                 new PersistencyContextManager(config.getPersistency());
-        final CmpFuncEx<PKIMessage, PKIMessage> upstreamExchange = (request, certProfile, bodyTypeOfFirstRequest) -> {
-            final String atUpstream = " at upstream interface " + "for first bodyType " + bodyTypeOfFirstRequest
-                    + (certProfile == null ? "" : " and certProfile " + certProfile);
-            if (LOGGER.isTraceEnabled()) {
-                LOGGER.trace("REQUEST" + atUpstream + " >>>>>");
-                LOGGER.trace(MessageDumper.dumpPkiMessage(request));
-            }
-            FileTracer.logMessage(request, UPSTREAM_INTERFACE_NAME);
-            if (rawUpstreamExchange == null) {
-                throw new CmpProcessingException(
-                        INTERFACE_NAME, PKIFailureInfo.systemUnavail, "no upstream configured" + atUpstream);
-            }
-            try {
-                final byte[] rawResponse = rawUpstreamExchange.sendReceiveMessage(
-                        ifNotNull(request, PKIMessage::getEncoded), certProfile, bodyTypeOfFirstRequest);
-                final PKIMessage response = ifNotNull(rawResponse, PKIMessage::getInstance);
-                if (LOGGER.isTraceEnabled()) {
-                    LOGGER.trace("RESPONSE" + atUpstream + " <<<<");
-                    LOGGER.trace(MessageDumper.dumpPkiMessage(response));
-                }
-                FileTracer.logMessage(response, UPSTREAM_INTERFACE_NAME);
-                return response;
-            } catch (final Throwable th) {
-                throw new CmpProcessingException(
-                        INTERFACE_NAME, PKIFailureInfo.systemFailure, "exception processing request" + atUpstream, th);
-            }
-        };
+        final CmpFuncEx<PKIMessage, CompletableFuture<PKIMessage>> upstreamExchange =
+                (request, certProfile, bodyTypeOfFirstRequest) -> {
+                    final String atUpstream = " at upstream interface " + "for first bodyType " + bodyTypeOfFirstRequest
+                            + (certProfile == null ? "" : " and certProfile " + certProfile);
+                    if (LOGGER.isTraceEnabled()) {
+                        LOGGER.trace("REQUEST" + atUpstream + " >>>>>");
+                        LOGGER.trace(MessageDumper.dumpPkiMessage(request));
+                    }
+                    FileTracer.logMessage(request, UPSTREAM_INTERFACE_NAME);
+                    if (rawAsyncUpstreamExchange == null) {
+                        throw new CmpProcessingException(
+                                INTERFACE_NAME, PKIFailureInfo.systemUnavail, "no upstream configured" + atUpstream);
+                    }
+                    CompletableFuture<byte[]> rawResponse;
+                    try {
+                        rawResponse = rawAsyncUpstreamExchange.sendReceiveMessageAsync(
+                                ifNotNull(request, PKIMessage::getEncoded), certProfile, bodyTypeOfFirstRequest);
+                        if (rawResponse == null) {
+                            throw new CmpProcessingException(
+                                    INTERFACE_NAME,
+                                    PKIFailureInfo.systemFailure,
+                                    "no future returned by upstream exchange" + atUpstream);
+                        }
+                    } catch (final Throwable th) {
+                        rawResponse = CompletableFuture.failedFuture(th);
+                    }
+                    return rawResponse.handle((rawResponseBytes, th) -> {
+                        try {
+                            if (th != null) {
+                                throw FutureUtil.unwrap(th);
+                            }
+                            final PKIMessage response = ifNotNull(rawResponseBytes, PKIMessage::getInstance);
+                            if (LOGGER.isTraceEnabled()) {
+                                LOGGER.trace("RESPONSE" + atUpstream + " <<<<");
+                                LOGGER.trace(MessageDumper.dumpPkiMessage(response));
+                            }
+                            FileTracer.logMessage(response, UPSTREAM_INTERFACE_NAME);
+                            return response;
+                        } catch (final Throwable ex) {
+                            throw new CompletionException(new CmpProcessingException(
+                                    INTERFACE_NAME,
+                                    PKIFailureInfo.systemFailure,
+                                    "exception processing request" + atUpstream,
+                                    ex));
+                        }
+                    });
+                };
         this.upstream = new CmpRaUpstream(persistencyContextManager, config, upstreamExchange);
         this.downstream =
                 new RaDownstream(persistencyContextManager, config, upstream, supportedMessageTypesOnDownstream);
@@ -117,15 +166,67 @@ public class CmpRaImplementation implements CmpRaInterface {
         upstream.gotResponseAtUpstream(response);
     }
 
+    /**
+     * responses are stored with batched persistency requests
+     */
+    @Override
+    public void gotResponsesAtUpstream(final Collection<byte[]> rawResponses) throws Exception {
+        final List<Exception> failures = new ArrayList<>();
+        final List<PKIMessage> responses = new ArrayList<>(rawResponses.size());
+        for (final byte[] aktRawResponse : rawResponses) {
+            final PKIMessage response;
+            try {
+                response = PKIMessage.getInstance(aktRawResponse);
+            } catch (final RuntimeException ex) {
+                failures.add(ex);
+                continue;
+            }
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("ASYNC RESPONSE at upstream <<<<");
+                LOGGER.trace(MessageDumper.dumpPkiMessage(response));
+            }
+            FileTracer.logMessage(response, UPSTREAM_INTERFACE_NAME);
+            responses.add(response);
+        }
+        failures.addAll(upstream.gotResponsesAtUpstream(responses));
+        if (!failures.isEmpty()) {
+            final IllegalStateException ex = new IllegalStateException(
+                    failures.size() + " of " + rawResponses.size() + " responses rejected at upstream");
+            failures.forEach(ex::addSuppressed);
+            throw ex;
+        }
+    }
+
     @Override
     public byte[] processRequest(final byte[] rawRequest) throws Exception {
+        final PKIMessage response = downstream.handleInputMessage(parseRequest(rawRequest));
+        return encodeResponse(response);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> processRequestAsync(final byte[] rawRequest) {
+        final PKIMessage request;
+        try {
+            request = parseRequest(rawRequest);
+        } catch (final Exception ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return downstream
+                .handleInputMessageAsync(request)
+                .thenCompose(response -> FutureUtil.completeWith(() -> encodeResponse(response)));
+    }
+
+    private PKIMessage parseRequest(final byte[] rawRequest) {
         final PKIMessage request = PKIMessage.getInstance(rawRequest);
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("REQUEST at downstream >>>>>");
             LOGGER.trace(MessageDumper.dumpPkiMessage(request));
         }
         FileTracer.logMessage(request, DOWNSTREAM_INTERFACE_NAME);
-        final PKIMessage response = downstream.handleInputMessage(request);
+        return request;
+    }
+
+    private byte[] encodeResponse(final PKIMessage response) throws IOException {
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("RESPONSE at downstream <<<<");
             LOGGER.trace(MessageDumper.dumpPkiMessage(response));
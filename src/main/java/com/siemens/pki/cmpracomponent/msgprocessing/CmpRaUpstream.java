@@ -30,10 +30,20 @@ import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
 import com.siemens.pki.cmpracomponent.protection.ProtectionProvider;
 import com.siemens.pki.cmpracomponent.protection.ProtectionProviderFactory;
 import com.siemens.pki.cmpracomponent.util.CmpFuncEx;
+import com.siemens.pki.cmpracomponent.util.FutureUtil;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.cmp.PKIBody;
 import org.bouncycastle.asn1.cmp.PKIFailureInfo;
 import org.bouncycastle.asn1.cmp.PKIHeader;
@@ -51,6 +61,9 @@ class CmpRaUpstream implements RaUpstream {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CmpRaUpstream.class);
 
+    // number of delayed responses stored with one persistency request
+    private static final int RESPONSE_BATCH_SIZE = 256;
+
     private static final Collection<Integer> supportedMessageTypes = new HashSet<>(Arrays.asList(
             PKIBody.TYPE_INIT_REP,
             PKIBody.TYPE_CERT_REP,
@@ -62,7 +75,11 @@ class CmpRaUpstream implements RaUpstream {
             PKIBody.TYPE_GEN_REP,
             PKIBody.TYPE_ERROR));
 
-    private final CmpFuncEx<PKIMessage, PKIMessage> upstreamMsgHandler;
+    private static byte[] getTransactionId(final PKIMessage message) {
+        return message.getHeader().getTransactionID().getOctets();
+    }
+
+    private final CmpFuncEx<PKIMessage, CompletableFuture<PKIMessage>> upstreamMsgHandler;
 
     private final Configuration config;
     private final PersistencyContextManager persistencyContextManager;
@@ -70,13 +87,13 @@ class CmpRaUpstream implements RaUpstream {
     /**
      * @param persistencyContextManager persistency interface
      * @param config                    specific configuration
-     * @param upstreamExchange          upstream function
+     * @param upstreamExchange          asynchronous upstream function
      * @throws Exception in case of error
      */
     CmpRaUpstream(
             final PersistencyContextManager persistencyContextManager,
             final Configuration config,
-            final CmpFuncEx<PKIMessage, PKIMessage> upstreamExchange)
+            final CmpFuncEx<PKIMessage, CompletableFuture<PKIMessage>> upstreamExchange)
             throws Exception {
         this.persistencyContextManager = persistencyContextManager;
         this.config = config;
@@ -86,6 +103,12 @@ class CmpRaUpstream implements RaUpstream {
     @Override
     public PKIMessage handleRequest(final PKIMessage in, final PersistencyContext pesistencyContext)
             throws BaseCmpException {
+        return FutureUtil.getSynchronously(handleRequestAsync(in, pesistencyContext), INTERFACE_NAME);
+    }
+
+    @Override
+    public CompletableFuture<PKIMessage> handleRequestAsync(
+            final PKIMessage in, final PersistencyContext pesistencyContext) {
         try {
             final String certProfile = pesistencyContext.getCertProfile();
             if (pesistencyContext.getDelayedDeliveryInProgress()) {
@@ -93,9 +116,9 @@ class CmpRaUpstream implements RaUpstream {
                 // delayed delivery in progress
                 switch (in.getBody().getType()) {
                     case PKIBody.TYPE_CERT_CONFIRM:
-                        return PkiMessageGenerator.generateUnprotectMessage(
+                        return CompletableFuture.completedFuture(PkiMessageGenerator.generateUnprotectMessage(
                                 PkiMessageGenerator.buildRespondingHeaderProvider(in),
-                                PkiMessageGenerator.generatePkiConfirmBody());
+                                PkiMessageGenerator.generatePkiConfirmBody()));
                     case PKIBody.TYPE_POLL_REQ:
                         final PKIMessage delayedResponse = pesistencyContext.getPendingDelayedResponse();
                         if (delayedResponse != null) {
@@ -119,12 +142,12 @@ class CmpRaUpstream implements RaUpstream {
                                 throw new CmpValidationException(
                                         INTERFACE_NAME, PKIFailureInfo.badRecipientNonce, "nonce mismatch on upstream");
                             }
-                            return delayedResponse;
+                            return CompletableFuture.completedFuture(delayedResponse);
                         } else {
-                            return PkiMessageGenerator.generateUnprotectMessage(
+                            return CompletableFuture.completedFuture(PkiMessageGenerator.generateUnprotectMessage(
                                     PkiMessageGenerator.buildRespondingHeaderProvider(in),
                                     PkiMessageGenerator.generatePollRep(
-                                            config.getRetryAfterTimeInSeconds(certProfile, PKIBody.TYPE_POLL_REP)));
+                                            config.getRetryAfterTimeInSeconds(certProfile, PKIBody.TYPE_POLL_REP))));
                         }
                     default:
                         throw new CmpProcessingException(
@@ -160,9 +183,27 @@ class CmpRaUpstream implements RaUpstream {
                         nestedProtector,
                         new PKIBody(PKIBody.TYPE_NESTED, new PKIMessages(sentMessage)));
             }
-            final PKIMessage receivedMessage =
-                    upstreamMsgHandler.apply(sentMessage, certProfile, pesistencyContext.getRequestType());
+            final PKIMessage sentRequest = sentMessage;
+            return upstreamMsgHandler
+                    .apply(sentRequest, certProfile, pesistencyContext.getRequestType())
+                    .thenCompose(receivedMessage -> FutureUtil.completeWith(
+                            () -> processResponse(in, sentRequest, receivedMessage, pesistencyContext)));
+        } catch (final BaseCmpException ex) {
+            return CompletableFuture.failedFuture(ex);
+        } catch (final Exception ex) {
+            LOGGER.error("exception at upstream interface", ex);
+            return CompletableFuture.failedFuture(
+                    new CmpProcessingException(INTERFACE_NAME, PKIFailureInfo.systemFailure, ex));
+        }
+    }
 
+    private PKIMessage processResponse(
+            final PKIMessage in,
+            final PKIMessage sentMessage,
+            final PKIMessage receivedMessage,
+            final PersistencyContext pesistencyContext)
+            throws BaseCmpException {
+        try {
             if (receivedMessage != null) {
                 // synchronous transfer
                 final InputValidator inputValidator = new InputValidator(
@@ -198,13 +239,108 @@ class CmpRaUpstream implements RaUpstream {
         }
     }
 
+    /**
+     * store several delayed responses with one load and one save request to the
+     * persistency per batch of transactions
+     *
+     * @param responseMessages responses received asynchronously from upstream
+     * @return the reasons for all responses which could not be stored
+     * @throws IOException in case of persistency error
+     */
+    List<Exception> gotResponsesAtUpstream(final Collection<PKIMessage> responseMessages) throws IOException {
+        final List<Exception> ret = new ArrayList<>();
+        // validate and group by transaction
+        final Map<ASN1OctetString, PKIMessage> responsesPerTransaction = new LinkedHashMap<>();
+        for (final PKIMessage aktResponse : responseMessages) {
+            final ASN1OctetString transactionId = aktResponse.getHeader().getTransactionID();
+            if (transactionId == null) {
+                ret.add(new CmpValidationException(
+                        INTERFACE_NAME, PKIFailureInfo.badDataFormat, "missing transactionID in delayed response"));
+            } else if (!supportedMessageTypes.contains(aktResponse.getBody().getType())) {
+                ret.add(new CmpValidationException(
+                        INTERFACE_NAME,
+                        PKIFailureInfo.badMessageCheck,
+                        "unsupported message type " + aktResponse.getBody().getType() + " in delayed response"));
+            } else if (responsesPerTransaction.putIfAbsent(transactionId, aktResponse) != null) {
+                ret.add(new CmpProcessingException(
+                        INTERFACE_NAME,
+                        PKIFailureInfo.transactionIdInUse,
+                        "duplicate response for same transactionID"));
+            }
+        }
+        final List<PKIMessage> responsesToStore = new ArrayList<>(responsesPerTransaction.values());
+        for (int from = 0; from < responsesToStore.size(); from += RESPONSE_BATCH_SIZE) {
+            storeDelayedResponses(
+                    responsesToStore.subList(from, Math.min(from + RESPONSE_BATCH_SIZE, responsesToStore.size())), ret);
+        }
+        return ret;
+    }
+
+    // at most one response per transaction
+    private void storeDelayedResponses(final List<PKIMessage> responseMessages, final List<Exception> failures)
+            throws IOException {
+        List<PKIMessage> responsesToStore = responseMessages;
+        final List<Lock> transactionLocks = persistencyContextManager.getTransactionLocks(
+                responsesToStore.stream().map(CmpRaUpstream::getTransactionId).collect(Collectors.toList()));
+        transactionLocks.forEach(Lock::lock);
+        try {
+            while (!responsesToStore.isEmpty()) {
+                final List<PersistencyContext> persistencyContexts =
+                        persistencyContextManager.loadPersistencyContexts(responsesToStore.stream()
+                                .map(CmpRaUpstream::getTransactionId)
+                                .collect(Collectors.toList()));
+                final List<PersistencyContext> contextsToFlush = new ArrayList<>(persistencyContexts.size());
+                for (int i = 0; i < persistencyContexts.size(); i++) {
+                    final PersistencyContext aktContext = persistencyContexts.get(i);
+                    if (aktContext == null) {
+                        failures.add(new IllegalStateException("no related request known for provided response"));
+                        continue;
+                    }
+                    try {
+                        aktContext.setPendingDelayedResponse(responsesToStore.get(i));
+                        contextsToFlush.add(aktContext);
+                    } catch (final CmpProcessingException ex) {
+                        failures.add(ex);
+                    }
+                }
+                // concurrently updated by another RA instance, retry with the current state
+                responsesToStore = persistencyContextManager.flushPersistencyContexts(contextsToFlush).stream()
+                        .map(PersistencyContext::getPendingDelayedResponse)
+                        .collect(Collectors.toList());
+                if (!responsesToStore.isEmpty()) {
+                    LOGGER.debug("retry to store {} delayed responses", responsesToStore.size());
+                }
+            }
+        } finally {
+            for (int i = transactionLocks.size() - 1; i >= 0; i--) {
+                transactionLocks.get(i).unlock();
+            }
+        }
+    }
+
     void gotResponseAtUpstream(final PKIMessage responseMessage) throws Exception {
-        final PersistencyContext persistencyContext = persistencyContextManager.loadPersistencyContext(
-                responseMessage.getHeader().getTransactionID().getOctets());
-        if (persistencyContext == null) {
-            throw new IllegalStateException("no related request known for provided response");
+        final byte[] transactionId =
+                responseMessage.getHeader().getTransactionID().getOctets();
+        final Lock transactionLock = persistencyContextManager.getTransactionLock(transactionId);
+        transactionLock.lock();
+        try {
+            for (; ; ) {
+                final PersistencyContext persistencyContext =
+                        persistencyContextManager.loadPersistencyContext(transactionId);
+                if (persistencyContext == null) {
+                    throw new IllegalStateException("no related request known for provided response");
+                }
+                persistencyContext.setPendingDelayedResponse(responseMessage);
+                try {
+                    persistencyContext.flush();
+                    return;
+                } catch (final CmpProcessingException ex) {
+                    // concurrently updated by another RA instance, retry with the current state
+                    LOGGER.debug("retry to store delayed response: " + ex.getMessage());
+                }
+            }
+        } finally {
+            transactionLock.unlock();
         }
-        persistencyContext.setPendingDelayedResponse(responseMessage);
-        persistencyContext.flush();
     }
 }
@@ -78,7 +78,8 @@ public class MsgOutputProtector {
         protector = ProtectionProviderFactory.createProtectionProvider(outputCredentials);
     }
 
-    private synchronized PKIMessage stripRedundantExtraCerts(PKIMessage msg) {
+    // transactions are serialized by the caller, no monitor needed
+    private PKIMessage stripRedundantExtraCerts(PKIMessage msg) {
         if (!config.getSuppressRedundantExtraCerts() || persistencyContext == null) {
             return msg;
         }
@@ -105,7 +106,7 @@ public class MsgOutputProtector {
                             ? null
                             : extraCertsAsList.toArray(new CMPCertificate[extraCertsAsList.size()]));
         }
-        alreadySentExtraCerts.addAll(extraCertsAsList);
+        persistencyContext.addAlreadySentExtraCerts(extraCertsAsList);
         return msg;
     }
 
@@ -21,7 +21,6 @@ import static com.siemens.pki.cmpracomponent.util.NullUtil.ifNotNull;
 
 import com.siemens.pki.cmpracomponent.configuration.CheckAndModifyResult;
 import com.siemens.pki.cmpracomponent.configuration.CkgContext;
-import com.siemens.pki.cmpracomponent.configuration.CmpMessageInterface;
 import com.siemens.pki.cmpracomponent.configuration.Configuration;
 import com.siemens.pki.cmpracomponent.configuration.InventoryInterface;
 import com.siemens.pki.cmpracomponent.configuration.NestedEndpointContext;
@@ -33,6 +32,7 @@ import com.siemens.pki.cmpracomponent.cryptoservices.KeyAgreementEncryptor;
 import com.siemens.pki.cmpracomponent.cryptoservices.KeyPairGeneratorFactory;
 import com.siemens.pki.cmpracomponent.cryptoservices.KeyTransportEncryptor;
 import com.siemens.pki.cmpracomponent.cryptoservices.PasswordEncryptor;
+import com.siemens.pki.cmpracomponent.cryptoservices.SignatureVerifierPool;
 import com.siemens.pki.cmpracomponent.cryptoservices.TrustCredentialAdapter;
 import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
 import com.siemens.pki.cmpracomponent.msgvalidation.BaseCmpException;
@@ -45,26 +45,39 @@ import com.siemens.pki.cmpracomponent.msgvalidation.ProtectionValidator;
 import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
 import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
 import com.siemens.pki.cmpracomponent.protection.SignatureBasedProtection;
+import com.siemens.pki.cmpracomponent.util.FutureUtil;
 import com.siemens.pki.cmpracomponent.util.MessageDumper;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
-import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.PrivateKey;
-import java.security.PublicKey;
-import java.security.Signature;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
-import java.security.spec.X509EncodedKeySpec;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
+import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Encoding;
 import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.DERNull;
 import org.bouncycastle.asn1.cmp.CMPCertificate;
 import org.bouncycastle.asn1.cmp.CMPObjectIdentifiers;
 import org.bouncycastle.asn1.cmp.CertRepMessage;
@@ -89,6 +102,7 @@ import org.bouncycastle.asn1.edec.EdECObjectIdentifiers;
 import org.bouncycastle.asn1.pkcs.CertificationRequest;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.asn1.x509.GeneralName;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
@@ -111,6 +125,13 @@ class RaDownstream {
     private static final JcaX509ContentVerifierProviderBuilder X509_CVPB =
             new JcaX509ContentVerifierProviderBuilder().setProvider(CertUtility.getBouncyCastleProvider());
 
+    // upper bound of the threads shared by all incoming nested messages
+    private static final int MAX_NESTED_WORKER_THREADS = 64;
+
+    private static final long NESTED_WORKER_KEEP_ALIVE_SECONDS = 60;
+
+    private static final AtomicInteger NESTED_WORKER_COUNT = new AtomicInteger();
+
     private final Collection<Integer> supportedMessageTypes;
 
     private final Configuration config;
@@ -119,6 +140,24 @@ class RaDownstream {
 
     private final PersistencyContextManager persistencyContextManager;
 
+    // shared by all requests to coalesce identical GENM requests
+    private final ServiceImplementation serviceImplementation;
+
+    // transactions waiting for an asynchronous upstream response
+    private final Map<ASN1OctetString, CompletableFuture<PKIMessage>> pendingTransactions = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor nestedWorkerExecutor = new ThreadPoolExecutor(
+            0,
+            MAX_NESTED_WORKER_THREADS,
+            NESTED_WORKER_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            runnable -> {
+                final Thread ret = new Thread(runnable, "nested-worker-" + NESTED_WORKER_COUNT.incrementAndGet());
+                ret.setDaemon(true);
+                return ret;
+            });
+
     /**
      * @param persistencyContextManager persistency interface
      * @param config                    specific configuration
@@ -135,6 +174,7 @@ class RaDownstream {
         this.supportedMessageTypes = supportedmessagetypes;
         this.upstreamHandler = upstream;
         this.persistencyContextManager = persistencyContextManager;
+        serviceImplementation = new ServiceImplementation(config);
     }
 
     protected CmsEncryptorBase buildEncryptor(
@@ -172,6 +212,52 @@ class RaDownstream {
         return new KeyTransportEncryptor(ckgConfiguration, recipientCert, initialRequestType, interfaceName);
     }
 
+    /**
+     * group the embedded messages of a nested message by transaction
+     *
+     * @param embeddedMessages the embedded messages
+     * @return indices of the embedded messages per transaction, in order of the
+     *         first occurrence of each transaction
+     */
+    private static List<List<Integer>> groupByTransaction(final PKIMessage[] embeddedMessages) {
+        final Map<ASN1OctetString, List<Integer>> indicesPerTransactionId = new LinkedHashMap<>();
+        final List<List<Integer>> ret = new ArrayList<>();
+        for (int i = 0; i < embeddedMessages.length; i++) {
+            final ASN1OctetString transactionId =
+                    embeddedMessages[i].getHeader().getTransactionID();
+            if (transactionId == null) {
+                // will be rejected, don't wait for other messages
+                final List<Integer> indices = new ArrayList<>(1);
+                indices.add(i);
+                ret.add(indices);
+                continue;
+            }
+            List<Integer> indices = indicesPerTransactionId.get(transactionId);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                indicesPerTransactionId.put(transactionId, indices);
+                ret.add(indices);
+            }
+            indices.add(i);
+        }
+        return ret;
+    }
+
+    private static boolean isSignatureValid(final PKCS10CertificationRequest p10Request)
+            throws OperatorCreationException, PKCSException, GeneralSecurityException, IOException {
+        final AlgorithmIdentifier signatureAlgorithm = p10Request.getSignatureAlgorithm();
+        final ASN1Encodable parameters = signatureAlgorithm.getParameters();
+        if (parameters != null && !DERNull.INSTANCE.equals(parameters)) {
+            // parameterized algorithms like RSASSA-PSS need the full verifier
+            return p10Request.isSignatureValid(X509_CVPB.build(p10Request.getSubjectPublicKeyInfo()));
+        }
+        return SignatureVerifierPool.verify(
+                signatureAlgorithm.getAlgorithm().getId(),
+                p10Request.getSubjectPublicKeyInfo(),
+                p10Request.toASN1Structure().getCertificationRequestInfo().getEncoded(ASN1Encoding.DER),
+                p10Request.getSignature());
+    }
+
     private MsgOutputProtector getOutputProtector(final PersistencyContext persistencyContext, final int bodyType)
             throws Exception {
         return new MsgOutputProtector(
@@ -322,15 +408,11 @@ class RaDownstream {
 
         // initial POPO still there and maybe usable again
         final POPOSigningKey popoSigningKey = (POPOSigningKey) popo.getObject();
-        final PublicKey publicKey = KeyFactory.getInstance(
-                        subjectPublicKeyInfo.getAlgorithm().getAlgorithm().toString(),
-                        CertUtility.getBouncyCastleProvider())
-                .generatePublic(new X509EncodedKeySpec(subjectPublicKeyInfo.getEncoded(ASN1Encoding.DER)));
-        final Signature sig = Signature.getInstance(
-                popoSigningKey.getAlgorithmIdentifier().getAlgorithm().getId(), CertUtility.getBouncyCastleProvider());
-        sig.initVerify(publicKey);
-        sig.update(certRequest.getEncoded(ASN1Encoding.DER));
-        if (sig.verify(popoSigningKey.getSignature().getBytes())) {
+        if (SignatureVerifierPool.verify(
+                popoSigningKey.getAlgorithmIdentifier().getAlgorithm().getId(),
+                subjectPublicKeyInfo,
+                certRequest.getEncoded(ASN1Encoding.DER),
+                popoSigningKey.getSignature().getBytes())) {
             // POPO still valid, continue to use it
             return incomingCertificateRequest;
         }
@@ -350,46 +432,141 @@ class RaDownstream {
      * @return message to respond
      */
     PKIMessage handleInputMessage(final PKIMessage in) {
-        PersistencyContext persistencyContext = null;
-        int retryAfterTime = 0;
         try {
-            int responseBodyType = PKIBody.TYPE_ERROR;
-            try {
-                final int inBodyType = in.getBody().getType();
-                if (inBodyType == PKIBody.TYPE_NESTED) {
-                    final CmpMessageInterface downstreamConfiguration =
-                            config.getDownstreamConfiguration(null, inBodyType);
-                    final NestedEndpointContext nestedEndpointContext =
-                            downstreamConfiguration.getNestedEndpointContext();
+            if (in.getBody().getType() == PKIBody.TYPE_NESTED) {
+                try {
+                    final NestedEndpointContext nestedEndpointContext = getNestedEndpointContext();
                     if (nestedEndpointContext != null) {
-                        final String NESTED_STRING = "nested ";
-                        final MessageHeaderValidator headerValidator =
-                                new MessageHeaderValidator(NESTED_STRING + INTERFACE_NAME);
-                        headerValidator.validate(in);
-                        final ProtectionValidator protectionValidator = new ProtectionValidator(
-                                NESTED_STRING + INTERFACE_NAME, nestedEndpointContext.getInputVerification());
-                        protectionValidator.validate(in);
-                        final PKIMessage[] embeddedMessages = PKIMessages.getInstance(
-                                        in.getBody().getContent())
-                                .toPKIMessageArray();
-                        if (embeddedMessages == null || embeddedMessages.length == 0) {
-                            throw new CmpProcessingException(
-                                    NESTED_STRING + INTERFACE_NAME,
-                                    PKIFailureInfo.badMessageCheck,
-                                    "no embedded messages inside NESTED message");
-                        }
+                        final PKIMessage[] embeddedMessages = extractEmbeddedMessages(in, nestedEndpointContext);
                         if (embeddedMessages.length == 1) {
                             return handleInputMessage(embeddedMessages[0]);
                         }
-                        final PKIMessage[] responses = Arrays.stream(embeddedMessages)
-                                .map(this::handleInputMessage)
-                                .toArray(PKIMessage[]::new);
-                        return getOutputProtector(persistencyContext, PKIBody.TYPE_NESTED)
-                                .generateAndProtectMessage(
-                                        PkiMessageGenerator.buildRespondingHeaderProvider(in),
-                                        new PKIBody(PKIBody.TYPE_NESTED, new PKIMessages(responses)));
+                        return generateNestedResponse(
+                                in,
+                                handleEmbeddedMessages(
+                                        embeddedMessages, nestedEndpointContext.getMaximumParallelTransactions()));
+                    }
+                } catch (final BaseCmpException | RuntimeException ex) {
+                    return generateErrorResponse(in, null, ex);
+                }
+            }
+        } catch (final Exception ex) {
+            LOGGER.error("fatal exception at " + INTERFACE_NAME, ex);
+            throw new RuntimeException("fatal exception at " + INTERFACE_NAME, ex);
+        }
+        final CompletableFuture<PKIMessage> response = handleTransactionMessageAsync(in);
+        try {
+            return response.join();
+        } catch (final CompletionException ex) {
+            final Throwable cause = FutureUtil.unwrap(ex);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("fatal exception at " + INTERFACE_NAME, cause);
+        }
+    }
+
+    /**
+     * message handler implementation not blocking the calling thread while
+     * waiting for upstream responses
+     *
+     * @param in received message
+     * @return future completed with the message to respond
+     */
+    CompletableFuture<PKIMessage> handleInputMessageAsync(final PKIMessage in) {
+        if (in.getBody().getType() == PKIBody.TYPE_NESTED) {
+            try {
+                final NestedEndpointContext nestedEndpointContext = getNestedEndpointContext();
+                if (nestedEndpointContext != null) {
+                    final PKIMessage[] embeddedMessages = extractEmbeddedMessages(in, nestedEndpointContext);
+                    if (embeddedMessages.length == 1) {
+                        return handleInputMessageAsync(embeddedMessages[0]);
                     }
+                    return handleEmbeddedMessagesAsync(
+                                    embeddedMessages, nestedEndpointContext.getMaximumParallelTransactions())
+                            .thenCompose(
+                                    responses -> FutureUtil.completeWith(() -> generateNestedResponse(in, responses)));
                 }
+            } catch (final BaseCmpException | RuntimeException ex) {
+                return FutureUtil.completeWith(() -> generateErrorResponse(in, null, ex));
+            }
+        }
+        return handleTransactionMessageAsync(in);
+    }
+
+    private NestedEndpointContext getNestedEndpointContext() {
+        return config.getDownstreamConfiguration(null, PKIBody.TYPE_NESTED).getNestedEndpointContext();
+    }
+
+    private PKIMessage[] extractEmbeddedMessages(final PKIMessage in, final NestedEndpointContext nestedEndpointContext)
+            throws BaseCmpException {
+        final String NESTED_STRING = "nested ";
+        final MessageHeaderValidator headerValidator = new MessageHeaderValidator(NESTED_STRING + INTERFACE_NAME);
+        headerValidator.validate(in);
+        final ProtectionValidator protectionValidator =
+                new ProtectionValidator(NESTED_STRING + INTERFACE_NAME, nestedEndpointContext.getInputVerification());
+        protectionValidator.validate(in);
+        final PKIMessage[] embeddedMessages =
+                PKIMessages.getInstance(in.getBody().getContent()).toPKIMessageArray();
+        if (embeddedMessages == null || embeddedMessages.length == 0) {
+            throw new CmpProcessingException(
+                    NESTED_STRING + INTERFACE_NAME,
+                    PKIFailureInfo.badMessageCheck,
+                    "no embedded messages inside NESTED message");
+        }
+        return embeddedMessages;
+    }
+
+    private PKIMessage generateNestedResponse(final PKIMessage in, final PKIMessage[] responses) throws Exception {
+        return getOutputProtector(null, PKIBody.TYPE_NESTED)
+                .generateAndProtectMessage(
+                        PkiMessageGenerator.buildRespondingHeaderProvider(in),
+                        new PKIBody(PKIBody.TYPE_NESTED, new PKIMessages(responses)));
+    }
+
+    private static PKIBody asErrorBody(final Exception ex) {
+        return ex instanceof BaseCmpException
+                ? ((BaseCmpException) ex).asErrorBody()
+                : new CmpProcessingException(INTERFACE_NAME, ex).asErrorBody();
+    }
+
+    private PKIMessage generateErrorResponse(
+            final PKIMessage in, final PersistencyContext persistencyContext, final Exception ex) throws Exception {
+        return generateErrorResponse(in, persistencyContext, asErrorBody(ex));
+    }
+
+    private PKIMessage generateErrorResponse(
+            final PKIMessage in, final PersistencyContext persistencyContext, final PKIBody errorBody)
+            throws Exception {
+        return getOutputProtector(persistencyContext, errorBody.getType())
+                .generateAndProtectMessage(PkiMessageGenerator.buildRespondingHeaderProvider(in), errorBody);
+    }
+
+    /**
+     * handle a message which is not nested. The transaction lock is held while
+     * the request is validated and forwarded and again while the response is
+     * protected and the transaction is persisted, but not while waiting for the
+     * upstream response. Meanwhile further requests of the same
+     * transaction are queued behind the pending one.
+     *
+     * @param in received message
+     * @return future completed with the message to respond
+     */
+    private CompletableFuture<PKIMessage> handleTransactionMessageAsync(final PKIMessage in) {
+        final ASN1OctetString transactionId = in.getHeader().getTransactionID();
+        final Lock transactionLock =
+                transactionId != null ? persistencyContextManager.getTransactionLock(transactionId.getOctets()) : null;
+        // serialize requests of the same transaction, like retransmissions, a
+        // synchronous upstream exchange is called after the lock was released
+        return FutureUtil.runLocked(transactionLock, () -> {
+            final CompletableFuture<PKIMessage> pendingResponse =
+                    transactionId != null ? pendingTransactions.get(transactionId) : null;
+            if (pendingResponse != null) {
+                return pendingResponse.handle((x, y) -> null).thenCompose(x -> handleTransactionMessageAsync(in));
+            }
+            PersistencyContext persistencyContext = null;
+            CompletableFuture<PKIMessage> responseFromUpstream;
+            try {
                 final InputValidator inputValidator = new InputValidator(
                         INTERFACE_NAME,
                         config::getDownstreamConfiguration,
@@ -397,60 +574,271 @@ class RaDownstream {
                         supportedMessageTypes,
                         persistencyContextManager::loadCreatePersistencyContext);
                 persistencyContext = inputValidator.validate(in);
-                final PKIMessage responseFromUpstream = handleValidatedRequest(in, persistencyContext);
-                // apply downstream protection
-                final List<CMPCertificate> issuingChain;
-                responseBodyType = responseFromUpstream.getBody().getType();
-                switch (responseBodyType) {
-                    case PKIBody.TYPE_INIT_REP:
-                    case PKIBody.TYPE_CERT_REP:
-                    case PKIBody.TYPE_KEY_UPDATE_REP:
-                        issuingChain = persistencyContext.getIssuingChain();
-                        break;
-                    case PKIBody.TYPE_POLL_REP:
-                        retryAfterTime = ((PollRepContent)
-                                        responseFromUpstream.getBody().getContent())
-                                .getCheckAfter(0)
-                                .intPositiveValueExact();
-                        issuingChain = null;
-                        break;
-                    default:
-                        issuingChain = null;
-                }
-                return getOutputProtector(persistencyContext, responseBodyType)
-                        .protectAndForwardMessage(
-                                new PKIMessage(
-                                        responseFromUpstream.getHeader(),
-                                        responseFromUpstream.getBody(),
-                                        responseFromUpstream.getProtection(),
-                                        responseFromUpstream.getExtraCerts()),
-                                issuingChain);
-            } catch (final BaseCmpException e) {
-                final PKIBody errorBody = e.asErrorBody();
-                responseBodyType = errorBody.getType();
-                return getOutputProtector(persistencyContext, responseBodyType)
-                        .generateAndProtectMessage(PkiMessageGenerator.buildRespondingHeaderProvider(in), errorBody);
-            } catch (final RuntimeException ex) {
-                final PKIBody errorBody = new CmpProcessingException(INTERFACE_NAME, ex).asErrorBody();
-                responseBodyType = errorBody.getType();
-                return getOutputProtector(persistencyContext, responseBodyType)
-                        .generateAndProtectMessage(PkiMessageGenerator.buildRespondingHeaderProvider(in), errorBody);
-            } finally {
-                if (persistencyContext != null) {
-                    int offset = config.getDownstreamTimeout(
-                            ifNotNull(persistencyContext, PersistencyContext::getCertProfile), responseBodyType);
-                    if (offset == 0) {
-                        offset = Integer.MAX_VALUE / 2;
+                responseFromUpstream = handleValidatedRequestAsync(in, persistencyContext);
+            } catch (final Exception ex) {
+                responseFromUpstream = CompletableFuture.failedFuture(ex);
+            }
+            final PersistencyContext validatedContext = persistencyContext;
+            final CompletableFuture<PKIMessage> ret = responseFromUpstream.handle((response, th) ->
+                    finishTransaction(in, validatedContext, transactionLock, transactionId, response, th));
+            if (transactionId != null && !ret.isDone()) {
+                pendingTransactions.put(transactionId, ret);
+            }
+            return ret;
+        });
+    }
+
+    /**
+     * protect the response, persist the transaction and release a pending
+     * transaction
+     *
+     * @param in                   received message
+     * @param persistencyContext   context of the transaction or
+     *                             <code>null</code> if validation failed
+     * @param transactionLock      lock of the transaction or <code>null</code>
+     * @param transactionId        ID of the transaction or <code>null</code>
+     * @param responseFromUpstream processed response from upstream
+     * @param th                   exception raised instead of a response
+     * @return message to respond
+     */
+    private PKIMessage finishTransaction(
+            final PKIMessage in,
+            final PersistencyContext persistencyContext,
+            final Lock transactionLock,
+            final ASN1OctetString transactionId,
+            final PKIMessage responseFromUpstream,
+            final Throwable th) {
+        if (transactionLock != null) {
+            transactionLock.lock();
+        }
+        try {
+            if (transactionId != null) {
+                pendingTransactions.remove(transactionId);
+            }
+            int responseBodyType = PKIBody.TYPE_ERROR;
+            int retryAfterTime = 0;
+            try {
+                try {
+                    if (th != null) {
+                        final Throwable cause = FutureUtil.unwrap(th);
+                        if (cause instanceof Exception) {
+                            throw (Exception) cause;
+                        }
+                        throw new CmpProcessingException(INTERFACE_NAME, PKIFailureInfo.systemFailure, cause);
+                    }
+                    // apply downstream protection
+                    final List<CMPCertificate> issuingChain;
+                    responseBodyType = responseFromUpstream.getBody().getType();
+                    switch (responseBodyType) {
+                        case PKIBody.TYPE_INIT_REP:
+                        case PKIBody.TYPE_CERT_REP:
+                        case PKIBody.TYPE_KEY_UPDATE_REP:
+                            issuingChain = persistencyContext.getIssuingChain();
+                            break;
+                        case PKIBody.TYPE_POLL_REP:
+                            retryAfterTime = ((PollRepContent)
+                                            responseFromUpstream.getBody().getContent())
+                                    .getCheckAfter(0)
+                                    .intPositiveValueExact();
+                            issuingChain = null;
+                            break;
+                        default:
+                            issuingChain = null;
+                    }
+                    return getOutputProtector(persistencyContext, responseBodyType)
+                            .protectAndForwardMessage(
+                                    new PKIMessage(
+                                            responseFromUpstream.getHeader(),
+                                            responseFromUpstream.getBody(),
+                                            responseFromUpstream.getProtection(),
+                                            responseFromUpstream.getExtraCerts()),
+                                    issuingChain);
+                } catch (final BaseCmpException | RuntimeException e) {
+                    final PKIBody errorBody = asErrorBody(e);
+                    responseBodyType = errorBody.getType();
+                    return generateErrorResponse(in, persistencyContext, errorBody);
+                } finally {
+                    if (persistencyContext != null) {
+                        int offset = config.getDownstreamTimeout(
+                                ifNotNull(persistencyContext, PersistencyContext::getCertProfile), responseBodyType);
+                        if (offset == 0) {
+                            offset = Integer.MAX_VALUE / 2;
+                        }
+                        persistencyContext.updateTransactionExpirationTime(
+                                new Date(System.currentTimeMillis() + (offset + retryAfterTime) * 1000L));
+                        // a delayed response might have been stored while the upstream
+                        // request was pending
+                        persistencyContext.flushTakingOverDelayedResponse();
                     }
-                    persistencyContext.updateTransactionExpirationTime(
-                            new Date(System.currentTimeMillis() + (offset + retryAfterTime) * 1000L));
-                    persistencyContext.flush();
                 }
+            } catch (final BaseCmpException ex) {
+                // the transaction could not be persisted, most likely it was concurrently
+                // updated by another RA instance and the calculated response is outdated
+                LOGGER.warn("could not finish transaction at " + INTERFACE_NAME + ": " + ex.getMessage());
+                try {
+                    return getOutputProtector(persistencyContext, PKIBody.TYPE_ERROR)
+                            .generateAndProtectMessage(
+                                    PkiMessageGenerator.buildRespondingHeaderProvider(in), ex.asErrorBody());
+                } catch (final Exception e) {
+                    LOGGER.error("fatal exception at " + INTERFACE_NAME, e);
+                    throw new RuntimeException("fatal exception at " + INTERFACE_NAME, e);
+                }
+            } catch (final Exception ex) {
+                LOGGER.error("fatal exception at " + INTERFACE_NAME, ex);
+                throw new RuntimeException("fatal exception at " + INTERFACE_NAME, ex);
+            }
+        } finally {
+            if (transactionLock != null) {
+                transactionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * handle one message embedded in a nested message
+     *
+     * @param embeddedMessage the embedded message
+     * @return response or error message related to the embedded message
+     */
+    private PKIMessage handleEmbeddedMessage(final PKIMessage embeddedMessage) {
+        try {
+            return handleInputMessage(embeddedMessage);
+        } catch (final RuntimeException ex) {
+            // don't fail the responses to the other embedded messages
+            try {
+                return getOutputProtector(null, PKIBody.TYPE_ERROR)
+                        .generateAndProtectMessage(
+                                PkiMessageGenerator.buildRespondingHeaderProvider(embeddedMessage),
+                                new CmpProcessingException(INTERFACE_NAME, ex).asErrorBody());
+            } catch (final Exception e) {
+                throw new RuntimeException("fatal exception at " + INTERFACE_NAME, e);
+            }
+        }
+    }
+
+    /**
+     * handle the messages embedded in a nested message. Transactions are
+     * distributed among the calling thread and up to
+     * <code>maximumParallelTransactions - 1</code> worker threads, messages of
+     * the same transaction are handled by one thread in the given order.
+     *
+     * @param embeddedMessages            the embedded messages
+     * @param maximumParallelTransactions maximum number of transactions processed
+     *                                    concurrently
+     * @return responses in the order of the embedded messages
+     */
+    private PKIMessage[] handleEmbeddedMessages(
+            final PKIMessage[] embeddedMessages, final int maximumParallelTransactions) {
+        final PKIMessage[] ret = new PKIMessage[embeddedMessages.length];
+        final List<List<Integer>> transactions = groupByTransaction(embeddedMessages);
+        final AtomicInteger nextTransaction = new AtomicInteger();
+        final Runnable worker = () -> {
+            for (int aktTransaction = nextTransaction.getAndIncrement();
+                    aktTransaction < transactions.size();
+                    aktTransaction = nextTransaction.getAndIncrement()) {
+                for (final int aktIndex : transactions.get(aktTransaction)) {
+                    ret[aktIndex] = handleEmbeddedMessage(embeddedMessages[aktIndex]);
+                }
+            }
+        };
+        final int parallelism = Math.min(maximumParallelTransactions, transactions.size());
+        final List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < parallelism; i++) {
+            try {
+                helpers.add(nestedWorkerExecutor.submit(worker));
+            } catch (final RejectedExecutionException ex) {
+                // all worker threads are busy, the calling thread does the remaining work
+                break;
+            }
+        }
+        worker.run();
+        for (final Future<?> aktHelper : helpers) {
+            try {
+                aktHelper.get();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted at " + INTERFACE_NAME, ex);
+            } catch (final ExecutionException ex) {
+                throw new RuntimeException("fatal exception at " + INTERFACE_NAME, ex.getCause());
             }
-        } catch (final Exception ex) {
-            LOGGER.error("fatal exception at " + INTERFACE_NAME, ex);
-            throw new RuntimeException("fatal exception at " + INTERFACE_NAME, ex);
         }
+        return ret;
+    }
+
+    /**
+     * handle one message embedded in a nested message without blocking
+     *
+     * @param embeddedMessage the embedded message
+     * @return future completed with the response or error message related to
+     *         the embedded message
+     */
+    private CompletableFuture<PKIMessage> handleEmbeddedMessageAsync(final PKIMessage embeddedMessage) {
+        return handleInputMessageAsync(embeddedMessage).handle((response, th) -> {
+            if (th == null) {
+                return response;
+            }
+            // don't fail the responses to the other embedded messages
+            final Throwable cause = FutureUtil.unwrap(th);
+            try {
+                return generateErrorResponse(
+                        embeddedMessage,
+                        null,
+                        new CmpProcessingException(
+                                        INTERFACE_NAME,
+                                        cause instanceof Exception ? (Exception) cause : new RuntimeException(cause))
+                                .asErrorBody());
+            } catch (final Exception e) {
+                throw new RuntimeException("fatal exception at " + INTERFACE_NAME, e);
+            }
+        });
+    }
+
+    /**
+     * handle the messages embedded in a nested message without blocking. Up to
+     * <code>maximumParallelTransactions</code> transactions are in progress at
+     * the same time, messages of the same transaction are handled in the given
+     * order.
+     *
+     * @param embeddedMessages            the embedded messages
+     * @param maximumParallelTransactions maximum number of transactions processed
+     *                                    concurrently
+     * @return future completed with the responses in the order of the embedded
+     *         messages
+     */
+    private CompletableFuture<PKIMessage[]> handleEmbeddedMessagesAsync(
+            final PKIMessage[] embeddedMessages, final int maximumParallelTransactions) {
+        final PKIMessage[] ret = new PKIMessage[embeddedMessages.length];
+        final List<List<Integer>> transactions = groupByTransaction(embeddedMessages);
+        final AtomicInteger nextTransaction = new AtomicInteger();
+        final int parallelism = Math.max(1, Math.min(maximumParallelTransactions, transactions.size()));
+        final CompletableFuture<?>[] workers = new CompletableFuture<?>[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = handleRemainingTransactionsAsync(embeddedMessages, transactions, nextTransaction, ret);
+        }
+        return CompletableFuture.allOf(workers).thenApply(x -> ret);
+    }
+
+    private CompletableFuture<Void> handleRemainingTransactionsAsync(
+            final PKIMessage[] embeddedMessages,
+            final List<List<Integer>> transactions,
+            final AtomicInteger nextTransaction,
+            final PKIMessage[] responses) {
+        for (int aktTransaction = nextTransaction.getAndIncrement();
+                aktTransaction < transactions.size();
+                aktTransaction = nextTransaction.getAndIncrement()) {
+            CompletableFuture<Void> transactionDone = CompletableFuture.completedFuture(null);
+            for (final int aktIndex : transactions.get(aktTransaction)) {
+                transactionDone =
+                        transactionDone.thenCompose(x -> handleEmbeddedMessageAsync(embeddedMessages[aktIndex])
+                                .thenAccept(response -> responses[aktIndex] = response));
+            }
+            if (!transactionDone.isDone() || transactionDone.isCompletedExceptionally()) {
+                // continue when the upstream responded, don't grow the stack otherwise
+                return transactionDone.thenCompose(x ->
+                        handleRemainingTransactionsAsync(embeddedMessages, transactions, nextTransaction, responses));
+            }
+        }
+        return CompletableFuture.completedFuture(null);
     }
 
     private PKIMessage handleP10CertificateRequest(
@@ -460,7 +848,7 @@ class RaDownstream {
             persistencyContext.setRequestType(body.getType());
             final PKCS10CertificationRequest p10Request =
                     new PKCS10CertificationRequest((CertificationRequest) body.getContent());
-            if (!p10Request.isSignatureValid(X509_CVPB.build(p10Request.getSubjectPublicKeyInfo()))) {
+            if (!isSignatureValid(p10Request)) {
                 throw new CmpValidationException(
                         INTERFACE_NAME, PKIFailureInfo.badMessageCheck, "signature of PKCS#10 Request broken");
             }
@@ -493,22 +881,40 @@ class RaDownstream {
                 }
             }
             return incomingP10Request;
-        } catch (final IOException | OperatorCreationException | PKCSException e) {
+        } catch (final IOException | OperatorCreationException | PKCSException | GeneralSecurityException e) {
             throw new CmpProcessingException(INTERFACE_NAME, PKIFailureInfo.badMessageCheck, e);
         }
     }
 
-    private PKIMessage handleValidatedRequest(
+    private CompletableFuture<PKIMessage> handleValidatedRequestAsync(
             final PKIMessage incomingRequest, final PersistencyContext persistencyContext) throws Exception {
+        if (incomingRequest.getBody().getType() == PKIBody.TYPE_GEN_MSG) {
+            // try to handle locally
+            persistencyContext.setRequestType(incomingRequest.getBody().getType());
+            final CompletableFuture<PKIMessage> genmResponse =
+                    serviceImplementation.handleValidatedInputMessageAsync(incomingRequest, persistencyContext);
+            if (genmResponse != null) {
+                return genmResponse;
+            }
+        }
+        final PKIMessage preprocessedRequest = preprocessRequest(incomingRequest, persistencyContext);
+        persistencyContext.trackMessage(preprocessedRequest);
+        return upstreamHandler
+                .handleRequestAsync(preprocessedRequest, persistencyContext)
+                .thenCompose(responseFromUpstream -> FutureUtil.completeWith(() -> postprocessResponse(
+                        incomingRequest, preprocessedRequest, persistencyContext, responseFromUpstream)));
+    }
+
+    private PKIMessage preprocessRequest(final PKIMessage incomingRequest, final PersistencyContext persistencyContext)
+            throws Exception {
         // request pre processing
         // by default there is no pre processing
-        PKIMessage preprocessedRequest = incomingRequest;
         switch (incomingRequest.getBody().getType()) {
             case PKIBody.TYPE_INIT_REQ:
             case PKIBody.TYPE_CERT_REQ:
             case PKIBody.TYPE_KEY_UPDATE_REQ:
                 try {
-                    preprocessedRequest = handleCrmfCertificateRequest(incomingRequest, persistencyContext);
+                    return handleCrmfCertificateRequest(incomingRequest, persistencyContext);
                 } catch (final BaseCmpException ex) {
                     throw ex;
                 } catch (final Exception ex) {
@@ -518,26 +924,22 @@ class RaDownstream {
                             PKIFailureInfo.systemFailure,
                             ex.getLocalizedMessage());
                 }
-                break;
             case PKIBody.TYPE_P10_CERT_REQ:
-                preprocessedRequest = handleP10CertificateRequest(incomingRequest, persistencyContext);
-                break;
-            case PKIBody.TYPE_GEN_MSG:
-                // try to handle locally
-                persistencyContext.setRequestType(incomingRequest.getBody().getType());
-                final PKIMessage genmResponse = new ServiceImplementation(config)
-                        .handleValidatedInputMessage(incomingRequest, persistencyContext);
-                if (genmResponse != null) {
-                    return genmResponse;
-                }
-                break;
+                return handleP10CertificateRequest(incomingRequest, persistencyContext);
             case PKIBody.TYPE_REVOCATION_REQ:
                 persistencyContext.setRequestType(incomingRequest.getBody().getType());
-                break;
+                return incomingRequest;
             default:
+                return incomingRequest;
         }
-        persistencyContext.trackMessage(preprocessedRequest);
-        final PKIMessage responseFromUpstream = upstreamHandler.handleRequest(preprocessedRequest, persistencyContext);
+    }
+
+    private PKIMessage postprocessResponse(
+            final PKIMessage incomingRequest,
+            final PKIMessage preprocessedRequest,
+            final PersistencyContext persistencyContext,
+            final PKIMessage responseFromUpstream)
+            throws BaseCmpException, IOException {
         persistencyContext.trackMessage(responseFromUpstream);
         // response post processing
         switch (responseFromUpstream.getBody().getType()) {
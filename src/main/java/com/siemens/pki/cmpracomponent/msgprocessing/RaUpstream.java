@@ -19,6 +19,8 @@ package com.siemens.pki.cmpracomponent.msgprocessing;
 
 import com.siemens.pki.cmpracomponent.msgvalidation.BaseCmpException;
 import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
+import com.siemens.pki.cmpracomponent.util.FutureUtil;
+import java.util.concurrent.CompletableFuture;
 import org.bouncycastle.asn1.cmp.PKIMessage;
 
 /**
@@ -26,4 +28,16 @@ import org.bouncycastle.asn1.cmp.PKIMessage;
  */
 interface RaUpstream {
     PKIMessage handleRequest(final PKIMessage in, final PersistencyContext pesistencyContext) throws BaseCmpException;
+
+    /**
+     * handle a request without waiting for the upstream response
+     *
+     * @param in                request to forward
+     * @param pesistencyContext context of the related transaction
+     * @return future completed with the response
+     */
+    default CompletableFuture<PKIMessage> handleRequestAsync(
+            final PKIMessage in, final PersistencyContext pesistencyContext) {
+        return FutureUtil.completeWith(() -> handleRequest(in, pesistencyContext));
+    }
 }
@@ -27,13 +27,22 @@ import com.siemens.pki.cmpracomponent.msgvalidation.BaseCmpException;
 import com.siemens.pki.cmpracomponent.msgvalidation.CmpProcessingException;
 import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
 import com.siemens.pki.cmpracomponent.protection.ProtectionProviderFactory;
+import com.siemens.pki.cmpracomponent.util.FutureUtil;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.bouncycastle.asn1.*;
 import org.bouncycastle.asn1.cmp.*;
 import org.bouncycastle.asn1.x500.RDN;
@@ -41,18 +50,62 @@ import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.*;
 
 /**
- * implementation of a GENM service handler
+ * implementation of a GENM service handler. Concurrent identical requests
+ * (same certificate profile, info type and info value) share one invocation of
+ * the {@link SupportMessageHandlerInterface}, each of them still gets its own
+ * protected response.
  */
 class ServiceImplementation {
 
+    private static final class CoalescingKey {
+        private final String certProfile;
+        private final ASN1ObjectIdentifier infoType;
+        private final ByteBuffer encodedInfoValue;
+
+        private CoalescingKey(final String certProfile, final InfoTypeAndValue itav) throws IOException {
+            this.certProfile = certProfile;
+            infoType = itav.getInfoType();
+            final ASN1Encodable infoValue = itav.getInfoValue();
+            encodedInfoValue = ByteBuffer.wrap(
+                    infoValue == null
+                            ? new byte[0]
+                            : infoValue.toASN1Primitive().getEncoded(ASN1Encoding.DER));
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CoalescingKey)) {
+                return false;
+            }
+            final CoalescingKey other = (CoalescingKey) obj;
+            return Objects.equals(certProfile, other.certProfile)
+                    && infoType.equals(other.infoType)
+                    && encodedInfoValue.equals(other.encodedInfoValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(certProfile, infoType, encodedInfoValue);
+        }
+    }
+
     private static final String INTERFACE_NAME = "GENM service";
+
+    // maximum time to wait for the result of an identical request in process
+    private static final long MAX_WAIT_FOR_RUNNING_INVOCATION_SECONDS = 60;
+
     private final Configuration config;
 
+    // handler invocations in process, shared by identical requests
+    private final Map<CoalescingKey, CompletableFuture<PKIBody>> invocationsInFlight = new ConcurrentHashMap<>();
+
     /**
      * @param config specific configuration
-     * @throws Exception in case of error
      */
-    ServiceImplementation(final Configuration config) throws Exception {
+    ServiceImplementation(final Configuration config) {
         this.config = config;
     }
 
@@ -175,42 +228,100 @@ class ServiceImplementation {
         return new PKIBody(PKIBody.TYPE_GEN_REP, new GenRepContent(new InfoTypeAndValue(infoType)));
     }
 
-    protected PKIMessage handleValidatedInputMessage(final PKIMessage msg, final PersistencyContext persistencyContext)
-            throws BaseCmpException {
+    private PKIBody buildResponseBody(final InfoTypeAndValue itav, final SupportMessageHandlerInterface messageHandler)
+            throws Exception {
+        final ASN1ObjectIdentifier infoType = itav.getInfoType();
+        PKIBody body = null;
+        if (messageHandler instanceof GetCaCertificatesHandler) {
+            body = handleGetCaCertificates(infoType, (GetCaCertificatesHandler) messageHandler);
+        } else if (messageHandler instanceof GetCertificateRequestTemplateHandler) {
+            body = handleGetCertificateRequestTemplate(infoType, (GetCertificateRequestTemplateHandler) messageHandler);
+        } else if (messageHandler instanceof GetRootCaCertificateUpdateHandler) {
+            body = handleGetRootCaCertificateUpdate(itav, (GetRootCaCertificateUpdateHandler) messageHandler);
+        } else if (messageHandler instanceof CrlUpdateRetrievalHandler) {
+            body = handleCrlUpdateRetrieval(itav, (CrlUpdateRetrievalHandler) messageHandler);
+        } else {
+            throw new CmpProcessingException(INTERFACE_NAME, PKIFailureInfo.systemFailure, "internal error");
+        }
+        if (body == null) {
+            // no specific processing found, return empty response
+            body = new PKIBody(PKIBody.TYPE_GEN_REP, new GenRepContent(new InfoTypeAndValue(infoType)));
+        }
+        return body;
+    }
+
+    private CompletableFuture<PKIBody> getCoalescedResponseBody(
+            final String certProfile, final InfoTypeAndValue itav, final SupportMessageHandlerInterface messageHandler)
+            throws IOException {
+        final CoalescingKey key = new CoalescingKey(certProfile, itav);
+        final CompletableFuture<PKIBody> ownInvocation = new CompletableFuture<>();
+        final CompletableFuture<PKIBody> runningInvocation = invocationsInFlight.putIfAbsent(key, ownInvocation);
+        if (runningInvocation != null) {
+            // an identical request is in process, share its result without
+            // blocking the calling thread
+            return runningInvocation.copy().orTimeout(MAX_WAIT_FOR_RUNNING_INVOCATION_SECONDS, TimeUnit.SECONDS);
+        }
+        // call the handler after the transaction lock was released, so the
+        // requests sharing the result are not finished under a foreign lock
+        FutureUtil.callDeferred(() -> {
+            try {
+                ownInvocation.complete(buildResponseBody(itav, messageHandler));
+            } catch (final Throwable th) {
+                ownInvocation.completeExceptionally(th);
+            } finally {
+                invocationsInFlight.remove(key, ownInvocation);
+            }
+            return null;
+        });
+        return ownInvocation;
+    }
+
+    private static BaseCmpException asBaseCmpException(final Throwable th) {
+        if (th instanceof BaseCmpException) {
+            return (BaseCmpException) th;
+        }
+        if (th instanceof TimeoutException) {
+            return new CmpProcessingException(
+                    INTERFACE_NAME,
+                    PKIFailureInfo.systemUnavail,
+                    "timeout waiting for the result of an identical request");
+        }
+        if (th instanceof Exception) {
+            return new CmpProcessingException(INTERFACE_NAME, (Exception) th);
+        }
+        return new CmpProcessingException(INTERFACE_NAME, PKIFailureInfo.systemFailure, th);
+    }
+
+    /**
+     * handle a GENM request locally
+     *
+     * @param msg                the validated request
+     * @param persistencyContext context of the transaction
+     * @return future completed with the protected response or <code>null</code>
+     *         if no handler is configured for the request
+     * @throws BaseCmpException in case of error
+     */
+    protected CompletableFuture<PKIMessage> handleValidatedInputMessageAsync(
+            final PKIMessage msg, final PersistencyContext persistencyContext) throws BaseCmpException {
         try {
             final InfoTypeAndValue itav = ((GenMsgContent) msg.getBody().getContent()).toInfoTypeAndValueArray()[0];
-            final ASN1ObjectIdentifier infoType = itav.getInfoType();
-
-            final SupportMessageHandlerInterface messageHandler =
-                    config.getSupportMessageHandler(persistencyContext.getCertProfile(), infoType.getId());
+            final String certProfile = persistencyContext.getCertProfile();
+            final SupportMessageHandlerInterface messageHandler = config.getSupportMessageHandler(
+                    certProfile, itav.getInfoType().getId());
             if (messageHandler == null) {
                 return null;
             }
-            PKIBody body = null;
-            if (messageHandler instanceof GetCaCertificatesHandler) {
-                body = handleGetCaCertificates(infoType, (GetCaCertificatesHandler) messageHandler);
-            } else if (messageHandler instanceof GetCertificateRequestTemplateHandler) {
-                body = handleGetCertificateRequestTemplate(
-                        infoType, (GetCertificateRequestTemplateHandler) messageHandler);
-            } else if (messageHandler instanceof GetRootCaCertificateUpdateHandler) {
-                body = handleGetRootCaCertificateUpdate(itav, (GetRootCaCertificateUpdateHandler) messageHandler);
-            } else if (messageHandler instanceof CrlUpdateRetrievalHandler) {
-                body = handleCrlUpdateRetrieval(itav, (CrlUpdateRetrievalHandler) messageHandler);
-            } else {
-                throw new CmpProcessingException(INTERFACE_NAME, PKIFailureInfo.systemFailure, "internal error");
-            }
-            if (body == null) {
-                // no specific processing found, return empty response
-                body = new PKIBody(PKIBody.TYPE_GEN_REP, new GenRepContent(new InfoTypeAndValue(infoType)));
-            }
-            return PkiMessageGenerator.generateAndProtectMessage(
-                    PkiMessageGenerator.buildRespondingHeaderProvider(msg),
-                    ProtectionProviderFactory.createProtectionProvider(config.getDownstreamConfiguration(
-                                    ifNotNull(persistencyContext, PersistencyContext::getCertProfile), body.getType())
-                            .getOutputCredentials()),
-                    body);
-        } catch (final BaseCmpException ex) {
-            throw ex;
+            return getCoalescedResponseBody(certProfile, itav, messageHandler)
+                    .thenCompose(body -> FutureUtil.completeWith(() -> PkiMessageGenerator.generateAndProtectMessage(
+                            PkiMessageGenerator.buildRespondingHeaderProvider(msg),
+                            ProtectionProviderFactory.createProtectionProvider(config.getDownstreamConfiguration(
+                                            ifNotNull(persistencyContext, PersistencyContext::getCertProfile),
+                                            body.getType())
+                                    .getOutputCredentials()),
+                            body)))
+                    .exceptionally(th -> {
+                        throw new CompletionException(asBaseCmpException(FutureUtil.unwrap(th)));
+                    });
         } catch (final Exception e) {
             throw new CmpProcessingException(INTERFACE_NAME, e);
         }
@@ -0,0 +1,175 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.msgvalidation;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * bounded cache of MAC keys derived from shared secrets, keyed by sender KID,
+ * salt, iteration count, PRF and key length. Each entry remembers a digest of
+ * the shared secret it was derived from and is dropped as soon as the shared
+ * secret provided for the sender KID changes. Cached keys are zeroized on
+ * eviction, callers only get copies.
+ */
+class DerivedKeyCache {
+
+    /**
+     * derivation of a key from a shared secret
+     */
+    interface KeyDerivation {
+        byte[] deriveKey() throws GeneralSecurityException;
+    }
+
+    private static final class CachedKey {
+        private final byte[] secretDigest;
+        private final byte[] derivedKey;
+
+        private CachedKey(final byte[] secretDigest, final byte[] derivedKey) {
+            this.secretDigest = secretDigest;
+            this.derivedKey = derivedKey;
+        }
+
+        private void zeroize() {
+            Arrays.fill(derivedKey, (byte) 0);
+        }
+    }
+
+    private static final class Key {
+        private final ByteBuffer senderKid;
+        private final ByteBuffer salt;
+        private final int iterationCount;
+        private final String prfOid;
+        private final int keyLength;
+
+        private Key(
+                final byte[] senderKid,
+                final byte[] salt,
+                final int iterationCount,
+                final String prfOid,
+                final int keyLength) {
+            this.senderKid = ByteBuffer.wrap(senderKid != null ? senderKid.clone() : new byte[0]);
+            this.salt = ByteBuffer.wrap(salt.clone());
+            this.iterationCount = iterationCount;
+            this.prfOid = prfOid;
+            this.keyLength = keyLength;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return iterationCount == other.iterationCount
+                    && keyLength == other.keyLength
+                    && prfOid.equals(other.prfOid)
+                    && senderKid.equals(other.senderKid)
+                    && salt.equals(other.salt);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(senderKid, salt, iterationCount, prfOid, keyLength);
+        }
+    }
+
+    private static final int MAX_CACHED_KEYS = 1000;
+
+    private static final ReentrantLock DERIVED_KEYS_LOCK = new ReentrantLock();
+
+    private static final Map<Key, CachedKey> DERIVED_KEYS = new LinkedHashMap<Key, CachedKey>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, CachedKey> eldest) {
+            if (size() > MAX_CACHED_KEYS) {
+                eldest.getValue().zeroize();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * get a derived key from the cache or derive and cache it
+     *
+     * @param senderKid      sender KID the shared secret belongs to, may be
+     *                       <code>null</code>
+     * @param sharedSecret   shared secret the key is derived from
+     * @param salt           salt used for the derivation
+     * @param iterationCount iteration count used for the derivation
+     * @param prfOid         OID of the PRF or one-way function used for the
+     *                       derivation
+     * @param keyLength      length of the derived key
+     * @param derivation     function deriving the key on a cache miss, the
+     *                       returned key is owned and zeroized by the cache
+     * @return a copy of the derived key, the caller may zeroize it
+     * @throws GeneralSecurityException if the key derivation failed
+     */
+    static byte[] getDerivedKey(
+            final byte[] senderKid,
+            final byte[] sharedSecret,
+            final byte[] salt,
+            final int iterationCount,
+            final String prfOid,
+            final int keyLength,
+            final KeyDerivation derivation)
+            throws GeneralSecurityException {
+        final Key key = new Key(senderKid, salt, iterationCount, prfOid, keyLength);
+        final byte[] secretDigest = MessageDigest.getInstance("SHA-256").digest(sharedSecret);
+        DERIVED_KEYS_LOCK.lock();
+        try {
+            final CachedKey cached = DERIVED_KEYS.get(key);
+            if (cached != null) {
+                if (MessageDigest.isEqual(cached.secretDigest, secretDigest)) {
+                    return cached.derivedKey.clone();
+                }
+                // shared secret changed, forget the outdated key
+                DERIVED_KEYS.remove(key);
+                cached.zeroize();
+            }
+        } finally {
+            DERIVED_KEYS_LOCK.unlock();
+        }
+        final byte[] derivedKey = derivation.deriveKey();
+        DERIVED_KEYS_LOCK.lock();
+        try {
+            // the cache owns the derived key, the caller gets a copy
+            final CachedKey replaced = DERIVED_KEYS.put(key, new CachedKey(secretDigest, derivedKey));
+            if (replaced != null) {
+                replaced.zeroize();
+            }
+        } finally {
+            DERIVED_KEYS_LOCK.unlock();
+        }
+        return derivedKey.clone();
+    }
+
+    // utility class
+    private DerivedKeyCache() {}
+}
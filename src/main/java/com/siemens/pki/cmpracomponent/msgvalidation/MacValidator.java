@@ -42,8 +42,7 @@ public abstract class MacValidator implements ValidatorIF<Void> {
     }
 
     protected byte[] getSharedSecret(final PKIHeader header) throws CmpValidationException {
-        final byte[] passwordAsBytes =
-                config.getSharedSecret(ifNotNull(header.getSenderKID(), ASN1OctetString::getOctets));
+        final byte[] passwordAsBytes = config.getSharedSecret(getSenderKid(header));
 
         if (passwordAsBytes == null) {
             throw new CmpValidationException(
@@ -53,4 +52,8 @@ public abstract class MacValidator implements ValidatorIF<Void> {
         }
         return passwordAsBytes;
     }
+
+    protected byte[] getSenderKid(final PKIHeader header) {
+        return ifNotNull(header.getSenderKID(), ASN1OctetString::getOctets);
+    }
 }
@@ -19,17 +19,14 @@ package com.siemens.pki.cmpracomponent.msgvalidation;
 
 import com.siemens.pki.cmpracomponent.configuration.CmpMessageInterface;
 import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import com.siemens.pki.cmpracomponent.cryptoservices.SignatureVerifierPool;
 import com.siemens.pki.cmpracomponent.util.MessageDumper;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
-import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
-import java.security.PublicKey;
-import java.security.Signature;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
 import java.util.Date;
 import java.util.Objects;
 import java.util.function.BiPredicate;
@@ -335,22 +332,14 @@ public class MessageBodyValidator implements ValidatorIF<String> {
                                 popoSigningKey.getPoposkInput(),
                                 PKIFailureInfo.badPOP,
                                 "PoposkInput must be absent");
-                        final PublicKey publicKey = KeyFactory.getInstance(
-                                        publicKeyInfo
-                                                .getAlgorithm()
-                                                .getAlgorithm()
-                                                .toString(),
-                                        CertUtility.getBouncyCastleProvider())
-                                .generatePublic(new X509EncodedKeySpec(publicKeyInfo.getEncoded(ASN1Encoding.DER)));
-                        final Signature sig = Signature.getInstance(
+                        if (!SignatureVerifierPool.verify(
                                 popoSigningKey
                                         .getAlgorithmIdentifier()
                                         .getAlgorithm()
                                         .getId(),
-                                CertUtility.getBouncyCastleProvider());
-                        sig.initVerify(publicKey);
-                        sig.update(certReq.getEncoded(ASN1Encoding.DER));
-                        if (!sig.verify(popoSigningKey.getSignature().getBytes())) {
+                                publicKeyInfo,
+                                certReq.getEncoded(ASN1Encoding.DER),
+                                popoSigningKey.getSignature().getBytes())) {
                             throw new CmpEnrollmentException(
                                     enrollmentType, interfaceName, PKIFailureInfo.badPOP, "POPO broken");
                         }
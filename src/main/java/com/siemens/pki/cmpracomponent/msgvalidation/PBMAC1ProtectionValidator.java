@@ -22,7 +22,6 @@ import com.siemens.pki.cmpracomponent.cryptoservices.AlgorithmHelper;
 import com.siemens.pki.cmpracomponent.cryptoservices.WrappedMac;
 import com.siemens.pki.cmpracomponent.cryptoservices.WrappedMacFactory;
 import java.util.Arrays;
-import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import org.bouncycastle.asn1.ASN1Encoding;
@@ -60,16 +59,22 @@ public class PBMAC1ProtectionValidator extends MacValidator {
                         "PBKDF2 protection check failed, unsupported keyDerivationFunc");
             }
             final PBKDF2Params params = PBKDF2Params.getInstance(keyDerivationFunc.getParameters());
-            final SecretKeyFactory keyFact = AlgorithmHelper.getSecretKeyFactory(
-                    params.getPrf().getAlgorithm().getId());
-
-            final SecretKey key = keyFact.generateSecret(new PBEKeySpec(
-                    new String(passwordAsBytes).toCharArray(),
-                    params.getSalt(),
-                    params.getIterationCount().intValue(),
-                    params.getKeyLength().intValue()));
-            final WrappedMac mac =
-                    WrappedMacFactory.createWrappedMac(pbmac1Params.getMessageAuthScheme(), key.getEncoded());
+            final String prfOid = params.getPrf().getAlgorithm().getId();
+            final int iterationCount = params.getIterationCount().intValue();
+            final int keyLength = params.getKeyLength().intValue();
+            final byte[] derivedKey = DerivedKeyCache.getDerivedKey(
+                    getSenderKid(header), passwordAsBytes, params.getSalt(), iterationCount, prfOid, keyLength, () -> {
+                        final SecretKeyFactory keyFact = AlgorithmHelper.getSecretKeyFactory(prfOid);
+                        final PBEKeySpec keySpec = new PBEKeySpec(
+                                new String(passwordAsBytes).toCharArray(), params.getSalt(), iterationCount, keyLength);
+                        try {
+                            return keyFact.generateSecret(keySpec).getEncoded();
+                        } finally {
+                            keySpec.clearPassword();
+                        }
+                    });
+            final WrappedMac mac = WrappedMacFactory.createWrappedMac(pbmac1Params.getMessageAuthScheme(), derivedKey);
+            Arrays.fill(derivedKey, (byte) 0);
             final byte[] protectedBytes = new ProtectedPart(header, message.getBody()).getEncoded(ASN1Encoding.DER);
             final byte[] recalculatedProtection = mac.calculateMac(protectedBytes);
             final byte[] protectionBytes = message.getProtection().getBytes();
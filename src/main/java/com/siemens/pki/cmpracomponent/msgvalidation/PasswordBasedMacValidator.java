@@ -50,18 +50,32 @@ public class PasswordBasedMacValidator extends MacValidator {
             final int iterationCount =
                     pbmParameter.getIterationCount().getValue().intValue();
             final AlgorithmIdentifier owf = pbmParameter.getOwf();
-            byte[] basekey = new byte[passwordAsBytes.length + salt.length];
-            System.arraycopy(passwordAsBytes, 0, basekey, 0, passwordAsBytes.length);
-            System.arraycopy(salt, 0, basekey, passwordAsBytes.length, salt.length);
-            final MessageDigest dig =
-                    AlgorithmHelper.getMessageDigest(owf.getAlgorithm().getId());
-            for (int i = 0; i < iterationCount; i++) {
-                basekey = dig.digest(basekey);
-                dig.reset();
-            }
+            // the base key length is given by the owf
+            final byte[] basekey = DerivedKeyCache.getDerivedKey(
+                    getSenderKid(header),
+                    passwordAsBytes,
+                    salt,
+                    iterationCount,
+                    owf.getAlgorithm().getId(),
+                    0,
+                    () -> {
+                        byte[] derivedKey = new byte[passwordAsBytes.length + salt.length];
+                        System.arraycopy(passwordAsBytes, 0, derivedKey, 0, passwordAsBytes.length);
+                        System.arraycopy(salt, 0, derivedKey, passwordAsBytes.length, salt.length);
+                        final MessageDigest dig = AlgorithmHelper.getMessageDigest(
+                                owf.getAlgorithm().getId());
+                        for (int i = 0; i < iterationCount; i++) {
+                            final byte[] previousKey = derivedKey;
+                            derivedKey = dig.digest(derivedKey);
+                            Arrays.fill(previousKey, (byte) 0);
+                            dig.reset();
+                        }
+                        return derivedKey;
+                    });
             final String macId = pbmParameter.getMac().getAlgorithm().getId();
             final Mac mac = AlgorithmHelper.getMac(macId);
             mac.init(new SecretKeySpec(basekey, macId));
+            Arrays.fill(basekey, (byte) 0);
             final byte[] protectedBytes = new ProtectedPart(header, message.getBody()).getEncoded(ASN1Encoding.DER);
             mac.update(protectedBytes);
             final byte[] recalculatedProtection = mac.doFinal();
@@ -19,6 +19,7 @@ package com.siemens.pki.cmpracomponent.msgvalidation;
 
 import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
 import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import com.siemens.pki.cmpracomponent.cryptoservices.SignatureVerifierPool;
 import com.siemens.pki.cmpracomponent.cryptoservices.TrustCredentialAdapter;
 import com.siemens.pki.cmpracomponent.util.MessageDumper;
 import java.io.IOException;
@@ -104,10 +105,8 @@ class SignatureProtectionValidator implements ValidatorIF<Void> {
         final PKIHeader header = message.getHeader();
         final byte[] protectedBytes = new ProtectedPart(header, message.getBody()).getEncoded(ASN1Encoding.DER);
         final byte[] protectionBytes = message.getProtection().getBytes();
-        final Signature sig = Signature.getInstance(algorithm.getId(), CertUtility.getBouncyCastleProvider());
-        sig.initVerify(protectingCert.getPublicKey());
-        sig.update(protectedBytes);
-        if (!sig.verify(protectionBytes, 0, protectionBytes.length)) {
+        if (!SignatureVerifierPool.verify(
+                algorithm.getId(), protectingCert.getPublicKey(), protectedBytes, protectionBytes)) {
             final String errorDetails = "signature-based protection check failed, signature broken";
             LOGGER.warn(errorDetails);
             throw new CmpValidationException(interfaceName, PKIFailureInfo.wrongIntegrity, errorDetails);
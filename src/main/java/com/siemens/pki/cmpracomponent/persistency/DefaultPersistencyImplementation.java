@@ -17,64 +17,89 @@
  */
 package com.siemens.pki.cmpracomponent.persistency;
 
-import static com.siemens.pki.cmpracomponent.util.NullUtil.ifNotNull;
-
 import com.siemens.pki.cmpracomponent.configuration.PersistencyInterface;
+import com.siemens.pki.cmpracomponent.configuration.VersionedMessage;
 import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * a {@link Map} based default implementation of {@link PersistencyInterface}
+ * a {@link Map} based default implementation of {@link PersistencyInterface}.
+ * Transactions are held in a {@link ConcurrentHashMap} keyed by
+ * {@link TransactionKey}, so concurrent requests for different transactions
+ * don't contend on a common lock. Expired transactions are dropped by an
+ * {@link ExpiryWheel}, so each housekeeping tick only visits the transactions
+ * expiring within this tick. Every save assigns a new, unique version to the
+ * saved message, so versioned saves detect concurrent updates.
  *
  */
 public class DefaultPersistencyImplementation implements PersistencyInterface {
 
-    class ValueType {
-        byte[] message;
-        Date expirationTime;
+    static final class ValueType extends ExpiryWheel.Entry implements VersionedMessage {
+        final TransactionKey key;
+        final byte[] message;
+        final long version;
 
-        ValueType(final byte[] message, final Date expirationTime) {
+        ValueType(final TransactionKey key, final byte[] message, final Date expirationTime, final long version) {
+            super(expirationTime.getTime());
+            this.key = key;
             this.message = message;
-            this.expirationTime = expirationTime;
+            this.version = version;
+        }
+
+        @Override
+        public byte[] getMessage() {
+            return message;
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
         }
     }
 
-    // do housekeeping every minute
-    private static final long HOUSEKEEPING_PERIOD = 60 * 60 * 1000L;
+    // do housekeeping every second
+    private static final long HOUSEKEEPING_PERIOD = 1000L;
 
-    private static DefaultPersistencyImplementation instance;
+    // with a one second tick one revolution of the wheel covers about 8 minutes
+    private static final int WHEEL_SIZE = 512;
+
+    // lazy initialized on first use by the class loader
+    private static class InstanceHolder {
+        private static final DefaultPersistencyImplementation INSTANCE =
+                new DefaultPersistencyImplementation(HOUSEKEEPING_PERIOD);
+    }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultPersistencyImplementation.class);
 
-    public static synchronized PersistencyInterface getInstance() {
-        if (instance == null) {
-            instance = new DefaultPersistencyImplementation(HOUSEKEEPING_PERIOD);
-        }
-        return instance;
+    public static PersistencyInterface getInstance() {
+        return InstanceHolder.INSTANCE;
     }
 
     private final Timer houskeepingTimer = new Timer("PersistencyHouskeeping", true);
 
     private final byte[] aesKey = CertUtility.generateRandomBytes(16);
 
-    private final Map<byte[], ValueType> persistencyMap =
-            Collections.synchronizedSortedMap(new TreeMap<>(Arrays::compare));
+    private final ConcurrentMap<TransactionKey, ValueType> persistencyMap = new ConcurrentHashMap<>();
+
+    private final ExpiryWheel expiryWheel;
+
+    // versions are never reused, even not after a transaction was cleared
+    private final AtomicLong lastVersion = new AtomicLong(VersionedMessage.NOT_SAVED);
 
     /**
      *
-     * @param housekeepingPeriod time in seconds between two checks for expired transactions
+     * @param housekeepingPeriod time in milliseconds between two checks for expired transactions
      */
     public DefaultPersistencyImplementation(final long housekeepingPeriod) {
+        expiryWheel = new ExpiryWheel(housekeepingPeriod, WHEEL_SIZE);
         houskeepingTimer.schedule(
                 new TimerTask() {
 
@@ -89,7 +114,10 @@ public class DefaultPersistencyImplementation implements PersistencyInterface {
 
     @Override
     public void clearLastSavedMessage(final byte[] transactionId) {
-        persistencyMap.remove(transactionId);
+        final ValueType previousValue = persistencyMap.remove(new TransactionKey(transactionId));
+        if (previousValue != null) {
+            expiryWheel.remove(previousValue);
+        }
     }
 
     @Override
@@ -99,26 +127,98 @@ public class DefaultPersistencyImplementation implements PersistencyInterface {
 
     @Override
     public byte[] getLastSavedMessage(final byte[] transactionId) {
-        return ifNotNull(persistencyMap.get(transactionId), x -> x.message);
+        final ValueType value = getValidValue(new TransactionKey(transactionId));
+        return value == null ? null : value.message;
+    }
+
+    @Override
+    public long getLastSavedVersion(final byte[] transactionId) {
+        final ValueType value = getValidValue(new TransactionKey(transactionId));
+        return value == null ? VersionedMessage.NOT_SAVED : value.version;
+    }
+
+    @Override
+    public VersionedMessage getLastSavedVersionedMessage(final byte[] transactionId) {
+        return getValidValue(new TransactionKey(transactionId));
     }
 
+    /**
+     * save a message, the expiration time also covers updates done by
+     * {@link PersistencyContext#updateTransactionExpirationTime(Date)} as they are
+     * written via {@link PersistencyContext#flush()}.
+     */
     @Override
     public void saveLastMessage(final byte[] transactionId, final byte[] message, final Date expirationTime) {
-        persistencyMap.put(transactionId, new ValueType(message, expirationTime));
+        final TransactionKey key = new TransactionKey(transactionId);
+        final ValueType value = new ValueType(key, message, expirationTime, lastVersion.incrementAndGet());
+        final ValueType previousValue = persistencyMap.put(key, value);
+        expiryWheel.add(value);
+        if (previousValue != null) {
+            expiryWheel.remove(previousValue);
+        }
     }
 
-    private void doHousekeeping() {
-        final Date now = new Date();
-        for (final Iterator<Entry<byte[], ValueType>> it =
-                        persistencyMap.entrySet().iterator();
-                it.hasNext(); ) {
-            final Entry<byte[], ValueType> currentEntry = it.next();
-            if (now.after(currentEntry.getValue().expirationTime)) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("transaction {} expired", Arrays.toString(currentEntry.getKey()));
-                }
-                it.remove();
+    @Override
+    public boolean updateExpirationTime(final byte[] transactionId, final Date expirationTime) {
+        final TransactionKey key = new TransactionKey(transactionId);
+        for (; ; ) {
+            final ValueType previousValue = persistencyMap.get(key);
+            if (previousValue == null || previousValue.isExpired(System.currentTimeMillis())) {
+                return false;
+            }
+            final ValueType value = new ValueType(key, previousValue.message, expirationTime, previousValue.version);
+            // retry if the transaction was concurrently saved or cleared
+            if (persistencyMap.replace(key, previousValue, value)) {
+                expiryWheel.add(value);
+                expiryWheel.remove(previousValue);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public long saveLastMessageIfUnchanged(
+            final byte[] transactionId, final byte[] message, final Date expirationTime, final long expectedVersion) {
+        final TransactionKey key = new TransactionKey(transactionId);
+        final ValueType value = new ValueType(key, message, expirationTime, lastVersion.incrementAndGet());
+        final ValueType previousValue = getValidValue(key);
+        if (previousValue == null) {
+            if (expectedVersion != VersionedMessage.NOT_SAVED || persistencyMap.putIfAbsent(key, value) != null) {
+                return VersionedMessage.NOT_SAVED;
             }
+        } else if (previousValue.version != expectedVersion || !persistencyMap.replace(key, previousValue, value)) {
+            return VersionedMessage.NOT_SAVED;
         }
+        expiryWheel.add(value);
+        if (previousValue != null) {
+            expiryWheel.remove(previousValue);
+        }
+        return value.version;
+    }
+
+    private ValueType getValidValue(final TransactionKey key) {
+        final ValueType value = persistencyMap.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (value.isExpired(System.currentTimeMillis())) {
+            // expired but not yet reached by the housekeeping
+            expire(value);
+            return null;
+        }
+        return value;
+    }
+
+    private void expire(final ValueType value) {
+        // remove only the expired value, so concurrent saves of the same
+        // transaction are never lost
+        if (persistencyMap.remove(value.key, value)) {
+            expiryWheel.remove(value);
+            LOGGER.debug("transaction {} expired", value.key);
+        }
+    }
+
+    private void doHousekeeping() {
+        expiryWheel.advance(System.currentTimeMillis(), x -> expire((ValueType) x));
     }
 }
@@ -0,0 +1,138 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.persistency;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * a hashed timing wheel used to expire persisted transactions. Registering,
+ * deregistering and expiring an entry costs O(1), each tick only visits the
+ * entries hashed to the current bucket.
+ */
+class ExpiryWheel {
+
+    /**
+     * base class of all entries managed by an {@link ExpiryWheel}
+     */
+    abstract static class Entry {
+
+        private final long expirationTime;
+
+        private volatile int bucket = -1;
+
+        /**
+         * @param expirationTime point in time (ms since epoch) when the entry expires
+         */
+        Entry(final long expirationTime) {
+            this.expirationTime = expirationTime;
+        }
+
+        long getExpirationTime() {
+            return expirationTime;
+        }
+
+        boolean isExpired(final long now) {
+            return now >= expirationTime;
+        }
+    }
+
+    private final long tickDuration;
+
+    private final Set<Entry>[] buckets;
+
+    private volatile long lastProcessedTick;
+
+    /**
+     * @param tickDuration  duration of one tick in ms
+     * @param numberOfBuckets number of buckets in the wheel
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ExpiryWheel(final long tickDuration, final int numberOfBuckets) {
+        this.tickDuration = tickDuration;
+        buckets = new Set[numberOfBuckets];
+        for (int i = 0; i < numberOfBuckets; i++) {
+            buckets[i] = ConcurrentHashMap.newKeySet();
+        }
+        lastProcessedTick = System.currentTimeMillis() / tickDuration;
+    }
+
+    /**
+     * register an entry for expiration
+     *
+     * @param entry entry to register
+     */
+    void add(final Entry entry) {
+        // round up, so the entry is expired when its tick is processed;
+        // entries expiring in the past are handled with the next tick
+        long tick = Math.max((entry.getExpirationTime() + tickDuration - 1) / tickDuration, lastProcessedTick + 1);
+        for (; ; ) {
+            final int bucket = (int) (tick % buckets.length);
+            entry.bucket = bucket;
+            buckets[bucket].add(entry);
+            final long processedTick = lastProcessedTick;
+            // a concurrent advance started processing the tick before the entry
+            // was added, it might have missed the entry. Move the entry to the
+            // next tick unless the advance already expired it.
+            if (tick > processedTick || !buckets[bucket].remove(entry)) {
+                return;
+            }
+            tick = processedTick + 1;
+        }
+    }
+
+    /**
+     * process all buckets up to the current time
+     *
+     * @param now            current time in ms since epoch
+     * @param expiredHandler called for every expired entry, if an entry is
+     *                       added concurrently it may be called twice for
+     *                       this entry
+     */
+    void advance(final long now, final Consumer<Entry> expiredHandler) {
+        final long currentTick = now / tickDuration;
+        // a full revolution visits every bucket
+        for (long tick = Math.max(lastProcessedTick + 1, currentTick - buckets.length + 1);
+                tick <= currentTick;
+                tick++) {
+            lastProcessedTick = tick;
+            for (final Iterator<Entry> it = buckets[(int) (tick % buckets.length)].iterator(); it.hasNext(); ) {
+                final Entry entry = it.next();
+                // entries of later rounds stay in the bucket
+                if (entry.isExpired(now)) {
+                    it.remove();
+                    expiredHandler.accept(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * deregister an entry
+     *
+     * @param entry entry to deregister
+     */
+    void remove(final Entry entry) {
+        final int bucket = entry.bucket;
+        if (bucket >= 0) {
+            buckets[bucket].remove(entry);
+        }
+    }
+}
@@ -0,0 +1,876 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.persistency;
+
+import com.siemens.pki.cmpracomponent.configuration.MessageToSave;
+import com.siemens.pki.cmpracomponent.configuration.PersistencyInterface;
+import com.siemens.pki.cmpracomponent.configuration.VersionedMessage;
+import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * a file based implementation of {@link PersistencyInterface} surviving RA
+ * restarts. Every save and clear is appended as record to a log of
+ * preallocated, memory mapped segment files. An in-memory index maps each
+ * transaction to its last record, so reads are served from the mapped files
+ * without any system call. Writers wait until their record was forced to disk,
+ * concurrent writers share one force (group commit). Expired records are
+ * dropped from the index by an {@link ExpiryWheel}, segments holding mostly
+ * dropped or overwritten records are compacted in the background. On startup
+ * the index is rebuilt by replaying all segments in order.
+ */
+public class FilePersistencyImplementation implements PersistencyInterface, AutoCloseable {
+
+    /**
+     * last record of a transaction, either a saved message or a tombstone of a
+     * cleared transaction
+     */
+    private static final class IndexEntry extends ExpiryWheel.Entry implements VersionedMessage {
+        final TransactionKey key;
+        final Segment segment;
+        final int offset;
+        final int length;
+        final long version;
+        // latest expiration time of all records written for this transaction
+        final long retentionTime;
+        final boolean cleared;
+
+        IndexEntry(
+                final TransactionKey key,
+                final Segment segment,
+                final int offset,
+                final int length,
+                final long version,
+                final long expirationTime,
+                final long retentionTime,
+                final boolean cleared) {
+            // a tombstone is needed until all hidden records expired
+            super(cleared ? retentionTime : expirationTime);
+            this.key = key;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.version = version;
+            this.retentionTime = retentionTime;
+            this.cleared = cleared;
+        }
+
+        @Override
+        public byte[] getMessage() {
+            final ByteBuffer buffer = segment.buffer.duplicate();
+            final int tidLength = buffer.getShort(offset + OFFSET_TID_LENGTH);
+            final byte[] ret = new byte[buffer.getInt(offset + OFFSET_MESSAGE_LENGTH)];
+            buffer.position(offset + RECORD_HEADER_SIZE + tidLength);
+            buffer.get(ret);
+            return ret;
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
+        }
+
+        IndexEntry moveTo(final Segment newSegment, final int newOffset) {
+            return new IndexEntry(
+                    key,
+                    newSegment,
+                    newOffset,
+                    length,
+                    version,
+                    cleared ? retentionTime : getExpirationTime(),
+                    retentionTime,
+                    cleared);
+        }
+    }
+
+    /**
+     * one preallocated, memory mapped segment file
+     */
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        // guarded by writeLock
+        int writePosition = SEGMENT_HEADER_SIZE;
+        // guarded by writeLock, bytes of records still referenced by the index
+        long liveBytes;
+
+        Segment(final long id, final Path path, final MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FilePersistencyImplementation.class);
+
+    private static final int SEGMENT_MAGIC = 0x434D5053;
+
+    private static final int SEGMENT_FORMAT_VERSION = 1;
+
+    private static final int SEGMENT_HEADER_SIZE = 8;
+
+    private static final byte RECORD_TYPE_SAVE = 1;
+
+    private static final byte RECORD_TYPE_CLEAR = 2;
+
+    // record layout: length, crc, type, version, expirationTime, retentionTime,
+    // length of transactionId, length of message, transactionId, message
+    private static final int OFFSET_CRC = 4;
+    private static final int OFFSET_TYPE = 8;
+    private static final int OFFSET_VERSION = 9;
+    private static final int OFFSET_EXPIRATION_TIME = 17;
+    private static final int OFFSET_RETENTION_TIME = 25;
+    private static final int OFFSET_TID_LENGTH = 33;
+    private static final int OFFSET_MESSAGE_LENGTH = 35;
+    private static final int RECORD_HEADER_SIZE = 39;
+
+    private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile("(\\d{20})\\.segment");
+
+    private static final String LOCK_FILE_NAME = "lock";
+
+    // 64 MiB
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+    private static final long DEFAULT_HOUSEKEEPING_PERIOD = 1000L;
+
+    private static final int WHEEL_SIZE = 512;
+
+    private static int crcOf(final ByteBuffer buffer, final int offset, final int length) {
+        final ByteBuffer covered = buffer.duplicate();
+        covered.limit(offset + length).position(offset + OFFSET_TYPE);
+        final CRC32 crc = new CRC32();
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * load a key for wrapping private keys from a file or create the file with a
+     * new random key. Keep the file apart from the persistency directory and its
+     * backups, anyone holding both can unwrap the persisted private keys. Prefer
+     * a key from a key store or secret management if available.
+     *
+     * @param keyFile file holding the raw AES key
+     * @return the AES key
+     * @throws IOException if the file could not be read or created
+     */
+    public static byte[] loadOrCreateKeyWrappingKey(final Path keyFile) throws IOException {
+        if (!Files.exists(keyFile)) {
+            final byte[] aesKey = CertUtility.generateRandomBytes(16);
+            try {
+                Files.write(keyFile, aesKey, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                try {
+                    Files.setPosixFilePermissions(keyFile, PosixFilePermissions.fromString("rw-------"));
+                } catch (final UnsupportedOperationException ex) {
+                    LOGGER.warn("could not restrict access to " + keyFile);
+                }
+                return aesKey;
+            } catch (final FileAlreadyExistsException ex) {
+                // created concurrently
+            }
+        }
+        final byte[] aesKey = Files.readAllBytes(keyFile);
+        if (aesKey.length != 16) {
+            throw new IOException("broken key file " + keyFile);
+        }
+        return aesKey;
+    }
+
+    private static Segment mapSegment(final long id, final Path path, final int size, final boolean create)
+            throws IOException {
+        try (final FileChannel channel = create
+                ? FileChannel.open(
+                        path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel was closed
+            final MappedByteBuffer buffer =
+                    channel.map(MapMode.READ_WRITE, 0, create ? size : (int) Math.min(channel.size(), size));
+            if (create) {
+                buffer.putInt(0, SEGMENT_MAGIC);
+                buffer.putInt(4, SEGMENT_FORMAT_VERSION);
+                buffer.force();
+            } else if (buffer.capacity() < SEGMENT_HEADER_SIZE
+                    || buffer.getInt(0) != SEGMENT_MAGIC
+                    || buffer.getInt(4) != SEGMENT_FORMAT_VERSION) {
+                throw new IOException("unsupported segment file " + path);
+            }
+            return new Segment(id, path, buffer);
+        }
+    }
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final boolean syncWrites;
+
+    private final byte[] aesKey;
+
+    // prevents concurrent use of the directory by other processes
+    private final FileLock directoryLock;
+
+    private final Map<TransactionKey, IndexEntry> index = new ConcurrentHashMap<>();
+
+    // transactions cleared while older records may still be replayed
+    private final Map<TransactionKey, IndexEntry> tombstones = new ConcurrentHashMap<>();
+
+    private final ExpiryWheel expiryWheel;
+
+    private final Timer houskeepingTimer = new Timer("FilePersistencyHousekeeping", true);
+
+    // serializes all modifications of the log and the index
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // guarded by writeLock
+    private final List<Segment> sealedSegments = new ArrayList<>();
+
+    // guarded by writeLock
+    private Segment activeSegment;
+
+    // guarded by writeLock
+    private long lastVersion = VersionedMessage.NOT_SAVED;
+
+    // guarded by writeLock, number of records appended so far
+    private long appendedSequence;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    private final Condition syncDone = syncLock.newCondition();
+
+    // guarded by syncLock, number of records forced to disk
+    private long durableSequence;
+
+    // guarded by syncLock
+    private boolean syncInProgress;
+
+    /**
+     * open or create a persistency with default settings: segments of 64 MiB,
+     * housekeeping every second and every write forced to disk
+     *
+     * @param directory      directory holding the segment files
+     * @param keyWrappingKey AES key (16, 24 or 32 bytes) used to wrap private
+     *                       keys, must be the same after a restart. It is not
+     *                       stored in the directory.
+     * @throws IOException if the directory could not be opened
+     * @see #loadOrCreateKeyWrappingKey(Path)
+     */
+    public FilePersistencyImplementation(final Path directory, final byte[] keyWrappingKey) throws IOException {
+        this(directory, keyWrappingKey, DEFAULT_SEGMENT_SIZE, DEFAULT_HOUSEKEEPING_PERIOD, true);
+    }
+
+    /**
+     * open or create a persistency
+     *
+     * @param directory          directory holding the segment files, must not
+     *                           be used by another instance
+     * @param keyWrappingKey     AES key (16, 24 or 32 bytes) used to wrap
+     *                           private keys, must be the same after a
+     *                           restart. It is not stored in the directory.
+     * @param segmentSize        size of a segment file in bytes, limits the size
+     *                           of a single saved message
+     * @param housekeepingPeriod time in milliseconds between two checks for
+     *                           expired transactions and segments to compact
+     * @param syncWrites         if <code>true</code> a save or clear returns
+     *                           after the record was forced to disk, otherwise
+     *                           the operating system decides when to write
+     * @throws IOException if the directory could not be opened
+     */
+    public FilePersistencyImplementation(
+            final Path directory,
+            final byte[] keyWrappingKey,
+            final int segmentSize,
+            final long housekeepingPeriod,
+            final boolean syncWrites)
+            throws IOException {
+        if (segmentSize < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("segment size too small");
+        }
+        if (keyWrappingKey == null
+                || keyWrappingKey.length != 16 && keyWrappingKey.length != 24 && keyWrappingKey.length != 32) {
+            throw new IllegalArgumentException("key wrapping key must be an AES key of 16, 24 or 32 bytes");
+        }
+        this.directory = directory;
+        aesKey = keyWrappingKey.clone();
+        this.segmentSize = segmentSize;
+        this.syncWrites = syncWrites;
+        Files.createDirectories(directory);
+        final FileChannel lockChannel = FileChannel.open(
+                directory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            directoryLock = lockChannel.tryLock();
+        } catch (final OverlappingFileLockException ex) {
+            lockChannel.close();
+            throw new IOException(directory + " already in use", ex);
+        }
+        if (directoryLock == null) {
+            lockChannel.close();
+            throw new IOException(directory + " already in use by another process");
+        }
+        try {
+            expiryWheel = new ExpiryWheel(housekeepingPeriod, WHEEL_SIZE);
+            rebuildIndex();
+        } catch (final IOException | RuntimeException ex) {
+            houskeepingTimer.cancel();
+            lockChannel.close();
+            throw ex;
+        }
+        houskeepingTimer.schedule(
+                new TimerTask() {
+
+                    @Override
+                    public void run() {
+                        doHousekeeping();
+                    }
+                },
+                housekeepingPeriod,
+                housekeepingPeriod);
+    }
+
+    @Override
+    public void clearLastSavedMessage(final byte[] transactionId) {
+        clearLastSavedMessages(Collections.singletonList(transactionId));
+    }
+
+    /**
+     * all tombstones are appended at once and share one force to disk
+     */
+    @Override
+    public void clearLastSavedMessages(final Collection<byte[]> transactionIds) {
+        long sequence = 0;
+        writeLock.lock();
+        try {
+            for (final byte[] aktTransactionId : transactionIds) {
+                if (clear(new TransactionKey(aktTransactionId))) {
+                    sequence = appendedSequence;
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * stop housekeeping, force all records to disk and release the directory
+     *
+     * @throws IOException if the directory lock could not be released
+     */
+    @Override
+    public void close() throws IOException {
+        houskeepingTimer.cancel();
+        writeLock.lock();
+        try {
+            activeSegment.buffer.force();
+        } finally {
+            writeLock.unlock();
+        }
+        directoryLock.channel().close();
+    }
+
+    /**
+     * the key given by the caller, so private keys wrapped before a restart can
+     * be unwrapped afterwards
+     */
+    @Override
+    public byte[] getAesKeyForKeyWrapping() {
+        return aesKey;
+    }
+
+    @Override
+    public byte[] getLastSavedMessage(final byte[] transactionId) {
+        final IndexEntry entry = getValidEntry(new TransactionKey(transactionId));
+        return entry == null ? null : entry.getMessage();
+    }
+
+    @Override
+    public long getLastSavedVersion(final byte[] transactionId) {
+        final IndexEntry entry = getValidEntry(new TransactionKey(transactionId));
+        return entry == null ? VersionedMessage.NOT_SAVED : entry.version;
+    }
+
+    @Override
+    public VersionedMessage getLastSavedVersionedMessage(final byte[] transactionId) {
+        return getValidEntry(new TransactionKey(transactionId));
+    }
+
+    @Override
+    public void saveLastMessage(final byte[] transactionId, final byte[] message, final Date expirationTime) {
+        final long sequence;
+        writeLock.lock();
+        try {
+            save(new TransactionKey(transactionId), message, expirationTime.getTime());
+            sequence = appendedSequence;
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public long saveLastMessageIfUnchanged(
+            final byte[] transactionId, final byte[] message, final Date expirationTime, final long expectedVersion) {
+        final long newVersion;
+        final long sequence;
+        writeLock.lock();
+        try {
+            newVersion = saveIfUnchanged(
+                    new TransactionKey(transactionId), message, expirationTime.getTime(), expectedVersion);
+            if (newVersion == VersionedMessage.NOT_SAVED) {
+                return VersionedMessage.NOT_SAVED;
+            }
+            sequence = appendedSequence;
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(sequence);
+        return newVersion;
+    }
+
+    /**
+     * all records are appended at once and share one force to disk
+     */
+    @Override
+    public long[] saveLastMessagesIfUnchanged(final List<MessageToSave> messages) {
+        final long[] ret = new long[messages.size()];
+        long sequence = 0;
+        writeLock.lock();
+        try {
+            for (int i = 0; i < ret.length; i++) {
+                final MessageToSave aktMessage = messages.get(i);
+                ret[i] = saveIfUnchanged(
+                        new TransactionKey(aktMessage.getTransactionId()),
+                        aktMessage.getMessage(),
+                        aktMessage.getExpirationTime().getTime(),
+                        aktMessage.getExpectedVersion());
+                if (ret[i] != VersionedMessage.NOT_SAVED) {
+                    sequence = appendedSequence;
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(sequence);
+        return ret;
+    }
+
+    /**
+     * a new expiration time costs an appended record anyway, so let the caller
+     * save the whole message
+     */
+    @Override
+    public boolean updateExpirationTime(final byte[] transactionId, final Date expirationTime) {
+        return false;
+    }
+
+    // writeLock held
+    private IndexEntry append(
+            final TransactionKey key,
+            final byte recordType,
+            final long version,
+            final long expirationTime,
+            final long retentionTime,
+            final byte[] message) {
+        final byte[] transactionId = key.getTransactionId();
+        if (transactionId.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("transactionId too long");
+        }
+        final int messageLength = message == null ? 0 : message.length;
+        final int length = RECORD_HEADER_SIZE + transactionId.length + messageLength;
+        if (length > segmentSize - SEGMENT_HEADER_SIZE) {
+            throw new IllegalArgumentException("message too large for segment size " + segmentSize);
+        }
+        ensureCapacity(length);
+        final Segment segment = activeSegment;
+        final int offset = segment.writePosition;
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(offset + OFFSET_TYPE);
+        buffer.put(recordType)
+                .putLong(version)
+                .putLong(expirationTime)
+                .putLong(retentionTime)
+                .putShort((short) transactionId.length)
+                .putInt(messageLength)
+                .put(transactionId);
+        if (message != null) {
+            buffer.put(message);
+        }
+        buffer.putInt(offset + OFFSET_CRC, crcOf(buffer, offset, length));
+        // the length is written last, a record is complete if its length is set
+        buffer.putInt(offset, length);
+        return commitAppend(key, segment, offset, length, recordType, version, expirationTime, retentionTime);
+    }
+
+    private void awaitDurable(final long sequence) {
+        if (!syncWrites) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            while (durableSequence < sequence) {
+                if (syncInProgress) {
+                    // another writer forces the log, maybe including this record
+                    syncDone.awaitUninterruptibly();
+                    continue;
+                }
+                syncInProgress = true;
+                long syncedSequence = durableSequence;
+                syncLock.unlock();
+                try {
+                    final Segment segmentToSync;
+                    writeLock.lock();
+                    try {
+                        // former segments were forced when they were sealed
+                        syncedSequence = appendedSequence;
+                        segmentToSync = activeSegment;
+                    } finally {
+                        writeLock.unlock();
+                    }
+                    segmentToSync.buffer.force();
+                } finally {
+                    syncLock.lock();
+                    syncInProgress = false;
+                    durableSequence = Math.max(durableSequence, syncedSequence);
+                    syncDone.signalAll();
+                }
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // writeLock held, returns true if a tombstone was appended
+    private boolean clear(final TransactionKey key) {
+        final IndexEntry previousEntry = index.remove(key);
+        if (previousEntry == null) {
+            return false;
+        }
+        release(previousEntry);
+        if (previousEntry.retentionTime <= System.currentTimeMillis()) {
+            // all records of this transaction are expired and ignored on replay
+            return false;
+        }
+        installTombstone(key, previousEntry.retentionTime);
+        return true;
+    }
+
+    // writeLock held
+    private IndexEntry commitAppend(
+            final TransactionKey key,
+            final Segment segment,
+            final int offset,
+            final int length,
+            final byte recordType,
+            final long version,
+            final long expirationTime,
+            final long retentionTime) {
+        segment.writePosition += length;
+        segment.liveBytes += length;
+        appendedSequence++;
+        return new IndexEntry(
+                key, segment, offset, length, version, expirationTime, retentionTime, recordType == RECORD_TYPE_CLEAR);
+    }
+
+    private void compact(final Segment segment) {
+        // a sealed segment is never written again, so it can be read unlocked
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        for (int offset = SEGMENT_HEADER_SIZE; offset < segment.writePosition; ) {
+            final int length = buffer.getInt(offset);
+            final byte[] transactionId = new byte[buffer.getShort(offset + OFFSET_TID_LENGTH)];
+            buffer.position(offset + RECORD_HEADER_SIZE);
+            buffer.get(transactionId);
+            final TransactionKey key = new TransactionKey(transactionId);
+            final Map<TransactionKey, IndexEntry> entries =
+                    buffer.get(offset + OFFSET_TYPE) == RECORD_TYPE_CLEAR ? tombstones : index;
+            writeLock.lock();
+            try {
+                final IndexEntry entry = entries.get(key);
+                if (entry != null && entry.segment == segment && entry.offset == offset) {
+                    // still referenced, copy the record as it is to the active segment
+                    ensureCapacity(length);
+                    final Segment target = activeSegment;
+                    final ByteBuffer record = buffer.duplicate();
+                    record.limit(offset + length).position(offset);
+                    final ByteBuffer targetBuffer = target.buffer.duplicate();
+                    targetBuffer.position(target.writePosition);
+                    targetBuffer.put(record);
+                    final IndexEntry movedEntry = entry.moveTo(target, target.writePosition);
+                    target.writePosition += length;
+                    target.liveBytes += length;
+                    appendedSequence++;
+                    entries.put(key, movedEntry);
+                    release(entry);
+                    expiryWheel.add(movedEntry);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            offset += length;
+        }
+        final Segment segmentToSync;
+        writeLock.lock();
+        try {
+            sealedSegments.remove(segment);
+            segmentToSync = activeSegment;
+        } finally {
+            writeLock.unlock();
+        }
+        // the copies must be on disk before the originals are deleted
+        segmentToSync.buffer.force();
+        try {
+            Files.delete(segment.path);
+            LOGGER.debug("segment {} compacted", segment.path);
+        } catch (final IOException ex) {
+            // the copies shadow all records of the segment, so replaying it is harmless
+            LOGGER.warn("could not delete compacted segment " + segment.path, ex);
+        }
+    }
+
+    private void doHousekeeping() {
+        try {
+            final long now = System.currentTimeMillis();
+            final List<Segment> segmentsToCompact;
+            writeLock.lock();
+            try {
+                expiryWheel.advance(now, x -> expire((IndexEntry) x, now));
+                // compact segments holding less than half of live records
+                segmentsToCompact = sealedSegments.stream()
+                        .filter(x -> x.liveBytes * 2 < x.writePosition - SEGMENT_HEADER_SIZE)
+                        .collect(Collectors.toList());
+            } finally {
+                writeLock.unlock();
+            }
+            segmentsToCompact.forEach(this::compact);
+        } catch (final RuntimeException ex) {
+            // don't kill the housekeeping timer
+            LOGGER.error("housekeeping failed", ex);
+        }
+    }
+
+    // writeLock held
+    private void ensureCapacity(final int length) {
+        if (activeSegment.writePosition + length <= activeSegment.buffer.capacity()) {
+            return;
+        }
+        // everything in a sealed segment is durable
+        activeSegment.buffer.force();
+        sealedSegments.add(activeSegment);
+        try {
+            activeSegment = newSegment(activeSegment.id + 1);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("could not create new segment", ex);
+        }
+    }
+
+    // writeLock held
+    private void expire(final IndexEntry entry, final long now) {
+        if (entry.cleared) {
+            if (tombstones.remove(entry.key, entry)) {
+                entry.segment.liveBytes -= entry.length;
+            }
+            return;
+        }
+        if (index.remove(entry.key, entry)) {
+            entry.segment.liveBytes -= entry.length;
+            LOGGER.debug("transaction {} expired", entry.key);
+            if (entry.retentionTime > now) {
+                // an older record of this transaction expires later, hide it on replay
+                installTombstone(entry.key, entry.retentionTime);
+            }
+        }
+    }
+
+    private IndexEntry getValidEntry(final TransactionKey key) {
+        final IndexEntry entry = index.get(key);
+        if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+            // expired but not yet reached by the housekeeping
+            return null;
+        }
+        return entry;
+    }
+
+    // writeLock held
+    private void installTombstone(final TransactionKey key, final long retentionTime) {
+        final IndexEntry tombstone = append(key, RECORD_TYPE_CLEAR, 0, retentionTime, retentionTime, null);
+        final IndexEntry previousTombstone = tombstones.put(key, tombstone);
+        if (previousTombstone != null) {
+            release(previousTombstone);
+        }
+        expiryWheel.add(tombstone);
+    }
+
+    private Segment newSegment(final long id) throws IOException {
+        return mapSegment(id, directory.resolve(String.format("%020d.segment", id)), segmentSize, true);
+    }
+
+    private void rebuildIndex() throws IOException {
+        final List<Segment> segments = new ArrayList<>();
+        try (final Stream<Path> files = Files.list(directory)) {
+            for (final Path aktFile : files.sorted().collect(Collectors.toList())) {
+                final Matcher matcher =
+                        SEGMENT_FILE_PATTERN.matcher(aktFile.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.add(mapSegment(Long.parseLong(matcher.group(1)), aktFile, Integer.MAX_VALUE, false));
+                }
+            }
+        }
+        writeLock.lock();
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                replay(segments.get(i), i == segments.size() - 1);
+            }
+            index.values().forEach(expiryWheel::add);
+            tombstones.values().forEach(expiryWheel::add);
+            if (segments.isEmpty()) {
+                activeSegment = newSegment(1);
+            } else {
+                activeSegment = segments.remove(segments.size() - 1);
+                sealedSegments.addAll(segments);
+            }
+            LOGGER.info(
+                    "{} transactions restored from {} segments in {}", index.size(), segments.size() + 1, directory);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // writeLock held
+    private void release(final IndexEntry entry) {
+        expiryWheel.remove(entry);
+        entry.segment.liveBytes -= entry.length;
+    }
+
+    // writeLock held
+    private void replay(final Segment segment, final boolean isLastSegment) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        final int capacity = buffer.capacity();
+        int offset = SEGMENT_HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= capacity) {
+            final int length = buffer.getInt(offset);
+            if (length == 0) {
+                // end of log
+                break;
+            }
+            if (length < RECORD_HEADER_SIZE
+                    || length > capacity - offset
+                    || buffer.getInt(offset + OFFSET_CRC) != crcOf(buffer, offset, length)) {
+                LOGGER.warn("broken record in segment {} at offset {}, ignoring the rest", segment.path, offset);
+                if (isLastSegment) {
+                    // torn write at the end of the log, the following records were never acknowledged
+                    for (int i = offset; i < capacity; i++) {
+                        buffer.put(i, (byte) 0);
+                    }
+                    segment.buffer.force();
+                }
+                break;
+            }
+            final byte recordType = buffer.get(offset + OFFSET_TYPE);
+            final long version = buffer.getLong(offset + OFFSET_VERSION);
+            final byte[] transactionId = new byte[buffer.getShort(offset + OFFSET_TID_LENGTH)];
+            buffer.position(offset + RECORD_HEADER_SIZE);
+            buffer.get(transactionId);
+            final TransactionKey key = new TransactionKey(transactionId);
+            segment.writePosition = offset;
+            final IndexEntry entry = commitAppend(
+                    key,
+                    segment,
+                    offset,
+                    length,
+                    recordType,
+                    version,
+                    buffer.getLong(offset + OFFSET_EXPIRATION_TIME),
+                    buffer.getLong(offset + OFFSET_RETENTION_TIME));
+            lastVersion = Math.max(lastVersion, version);
+            final IndexEntry previousEntry = index.remove(key);
+            if (previousEntry != null) {
+                previousEntry.segment.liveBytes -= previousEntry.length;
+            }
+            final IndexEntry previousTombstone = tombstones.remove(key);
+            if (previousTombstone != null) {
+                previousTombstone.segment.liveBytes -= previousTombstone.length;
+            }
+            (entry.cleared ? tombstones : index).put(key, entry);
+            offset += length;
+        }
+        segment.writePosition = offset;
+    }
+
+    // writeLock held
+    private long save(final TransactionKey key, final byte[] message, final long expirationTime) {
+        final IndexEntry previousEntry = index.get(key);
+        final IndexEntry previousTombstone = tombstones.get(key);
+        long retentionTime = expirationTime;
+        if (previousEntry != null) {
+            retentionTime = Math.max(retentionTime, previousEntry.retentionTime);
+        }
+        if (previousTombstone != null) {
+            retentionTime = Math.max(retentionTime, previousTombstone.retentionTime);
+        }
+        final IndexEntry entry = append(key, RECORD_TYPE_SAVE, ++lastVersion, expirationTime, retentionTime, message);
+        index.put(key, entry);
+        if (previousEntry != null) {
+            release(previousEntry);
+        }
+        if (previousTombstone != null) {
+            // the new record hides all older records
+            tombstones.remove(key);
+            release(previousTombstone);
+        }
+        expiryWheel.add(entry);
+        return entry.version;
+    }
+
+    // writeLock held
+    private long saveIfUnchanged(
+            final TransactionKey key, final byte[] message, final long expirationTime, final long expectedVersion) {
+        final IndexEntry previousEntry = getValidEntry(key);
+        if ((previousEntry == null ? VersionedMessage.NOT_SAVED : previousEntry.version) != expectedVersion) {
+            return VersionedMessage.NOT_SAVED;
+        }
+        return save(key, message, expirationTime);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.persistency;
+
+/**
+ * snapshot of the statistics of the near cache of a
+ * {@link PersistencyContextManager}
+ */
+public final class NearCacheStatistics {
+
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long loadCount;
+
+    private final long totalLoadNanos;
+
+    private final int size;
+
+    NearCacheStatistics(
+            final long hitCount,
+            final long missCount,
+            final long loadCount,
+            final long totalLoadNanos,
+            final int size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadCount = loadCount;
+        this.totalLoadNanos = totalLoadNanos;
+        this.size = size;
+    }
+
+    /**
+     * @return average time in nanoseconds to load and decode a context from the
+     *         backing persistency
+     */
+    public long getAverageLoadNanos() {
+        return loadCount == 0 ? 0 : totalLoadNanos / loadCount;
+    }
+
+    /**
+     * @return number of loads served from the cache
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return ratio of loads served from the cache
+     */
+    public double getHitRate() {
+        final long requests = hitCount + missCount;
+        return requests == 0 ? 0.0 : (double) hitCount / requests;
+    }
+
+    /**
+     * @return number of loads from the backing persistency
+     */
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * @return number of loads not served from the cache
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of cached contexts
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "NearCacheStatistics [hitCount=" + hitCount + ", missCount=" + missCount + ", hitRate=" + getHitRate()
+                + ", loadCount=" + loadCount + ", averageLoadNanos=" + getAverageLoadNanos() + ", size=" + size
+                + "]";
+    }
+}
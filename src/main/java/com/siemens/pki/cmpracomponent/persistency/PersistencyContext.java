@@ -18,23 +18,39 @@
 package com.siemens.pki.cmpracomponent.persistency;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.siemens.pki.cmpracomponent.configuration.VersionedMessage;
 import com.siemens.pki.cmpracomponent.msgvalidation.BaseCmpException;
 import com.siemens.pki.cmpracomponent.msgvalidation.CmpProcessingException;
 import java.io.IOException;
 import java.security.PrivateKey;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import org.bouncycastle.asn1.cmp.CMPCertificate;
 import org.bouncycastle.asn1.cmp.PKIFailureInfo;
 import org.bouncycastle.asn1.cmp.PKIMessage;
 
 /**
- * holder for all persistent data
+ * holder for all persistent data. Modifications are tracked, so
+ * {@link #flush()} writes only if something changed.
  */
 public class PersistencyContext {
 
+    /**
+     * what a flush needs to write
+     */
+    enum FlushAction {
+        CLEAR,
+        SAVE,
+        UPDATE_EXPIRATION_TIME,
+        NONE
+    }
+
     @JsonIgnore
     private final TransactionStateTracker transactionStateTracker = new TransactionStateTracker(this);
 
@@ -57,6 +73,17 @@ public class PersistencyContext {
     @JsonIgnore
     private PersistencyContextManager contextManager;
 
+    // any persistent field except expirationTime was changed since last load or flush
+    @JsonIgnore
+    private boolean modified;
+
+    @JsonIgnore
+    private boolean expirationTimeModified;
+
+    // version of the loaded context as provided by the persistency
+    @JsonIgnore
+    private long version = VersionedMessage.NOT_SAVED;
+
     private int certificateRequestType;
     private boolean delayedDeliveryInProgress;
 
@@ -67,21 +94,114 @@ public class PersistencyContext {
         this.contextManager = contextManager;
         lastTransactionState = LastTransactionState.INITIAL_STATE;
         this.certificateRequestType = -1;
+        // never persisted before
+        modified = true;
     }
 
-    public void flush() throws IOException {
-        if (transactionStateTracker.isTransactionTerminated()) {
-            contextManager.clearPersistencyContext(transactionId);
-        } else {
-            contextManager.flushPersistencyContext(this);
+    /**
+     * remember extra certs sent in the current transaction
+     *
+     * @param sentExtraCerts certificates sent
+     */
+    public void addAlreadySentExtraCerts(final Collection<CMPCertificate> sentExtraCerts) {
+        if (alreadySentExtraCerts == null) {
+            alreadySentExtraCerts = new HashSet<>();
+        }
+        modified |= alreadySentExtraCerts.addAll(sentExtraCerts);
+    }
+
+    /**
+     * drop all fields the current state of the transaction doesn't need anymore
+     */
+    @SuppressWarnings("fallthrough")
+    private void dropUnneededFields() {
+        switch (lastTransactionState) {
+            case CERTIFICATE_CONFIRMEND:
+                if (digestToConfirm != null) {
+                    digestToConfirm = null;
+                    modified = true;
+                }
+                // fall through
+            case CERTIFICATE_RECEIVED:
+                // certificate response was already delivered downstream
+                if (requestedPublicKey != null
+                        || newGeneratedPrivateKey != null
+                        || pendingDelayedResponse != null
+                        || initialRequest != null) {
+                    requestedPublicKey = null;
+                    newGeneratedPrivateKey = null;
+                    pendingDelayedResponse = null;
+                    initialRequest = null;
+                    modified = true;
+                }
+                break;
+            default:
+                // the initial request is only needed to answer poll requests
+                if (!delayedDeliveryInProgress && initialRequest != null) {
+                    initialRequest = null;
+                    modified = true;
+                }
+        }
+    }
+
+    /**
+     * write all modifications to the persistency or remove the transaction from
+     * persistency, if the transaction is terminated. A context with only an
+     * updated expiration time is not rewritten completely, if the persistency
+     * supports this.
+     *
+     * @throws IOException            in case of persistency error
+     * @throws CmpProcessingException if the transaction was concurrently updated
+     *                                by another RA instance
+     */
+    public void flush() throws IOException, CmpProcessingException {
+        switch (prepareFlush()) {
+            case CLEAR:
+                contextManager.clearPersistencyContext(transactionId);
+                break;
+            case SAVE:
+                contextManager.flushPersistencyContext(this);
+                break;
+            case UPDATE_EXPIRATION_TIME:
+                contextManager.updateExpirationTime(this);
+                break;
+            default:
+        }
+        resetModifications();
+    }
+
+    /**
+     * like {@link #flush()}, for a context which was not locked for a while, e.g.
+     * while an asynchronous upstream request was pending. If a delayed response
+     * was stored for the transaction meanwhile, it is taken over and the flush is
+     * retried. Other concurrent updates still fail the flush.
+     *
+     * @throws IOException            in case of persistency error
+     * @throws CmpProcessingException if the transaction was concurrently updated
+     *                                otherwise
+     */
+    public void flushTakingOverDelayedResponse() throws IOException, CmpProcessingException {
+        for (; ; ) {
+            try {
+                flush();
+                return;
+            } catch (final CmpProcessingException ex) {
+                final PersistencyContext current = contextManager.loadPersistencyContext(transactionId);
+                if (current == null || pendingDelayedResponse != null || current.pendingDelayedResponse == null) {
+                    throw ex;
+                }
+                pendingDelayedResponse = current.pendingDelayedResponse;
+                version = current.version;
+                modified = true;
+            }
         }
     }
 
     public Set<CMPCertificate> getAlreadySentExtraCerts() {
         if (alreadySentExtraCerts == null) {
-            alreadySentExtraCerts = new HashSet<>();
+            return Collections.emptySet();
         }
-        return alreadySentExtraCerts;
+        return Collections.unmodifiableSet(alreadySentExtraCerts);
     }
 
     public String getCertProfile() {
@@ -142,11 +262,13 @@ public class PersistencyContext {
 
     public void setAlreadySentExtraCerts(final Set<CMPCertificate> alreadySentExtraCerts) {
         this.alreadySentExtraCerts = alreadySentExtraCerts;
+        modified = true;
     }
 
     public void setCertProfile(final String certProfile) {
-        if (certProfile != null) {
+        if (certProfile != null && !certProfile.equals(this.certProfile)) {
             this.certProfile = certProfile;
+            modified = true;
         }
     }
 
@@ -155,23 +277,38 @@ public class PersistencyContext {
     }
 
     public void setDelayedDeliveryInProgress(final boolean delayedDeliveryInProgress) {
-        this.delayedDeliveryInProgress = delayedDeliveryInProgress;
+        if (this.delayedDeliveryInProgress != delayedDeliveryInProgress) {
+            this.delayedDeliveryInProgress = delayedDeliveryInProgress;
+            modified = true;
+        }
     }
 
     public void setDigestToConfirm(final byte[] digestToConfirm) {
-        this.digestToConfirm = digestToConfirm;
+        if (!Arrays.equals(this.digestToConfirm, digestToConfirm)) {
+            this.digestToConfirm = digestToConfirm;
+            modified = true;
+        }
     }
 
     public void setExpirationTime(final Date expirationTime) {
-        this.expirationTime = expirationTime;
+        if (!Objects.equals(this.expirationTime, expirationTime)) {
+            this.expirationTime = expirationTime;
+            expirationTimeModified = true;
+        }
     }
 
     public void setImplicitConfirmGranted(final boolean implicitConfirmGranted) {
-        this.implicitConfirmGranted = implicitConfirmGranted;
+        if (this.implicitConfirmGranted != implicitConfirmGranted) {
+            this.implicitConfirmGranted = implicitConfirmGranted;
+            modified = true;
+        }
     }
 
     public void setInitialRequest(final PKIMessage initialRequest) {
-        this.initialRequest = initialRequest;
+        if (this.initialRequest != initialRequest) {
+            this.initialRequest = initialRequest;
+            modified = true;
+        }
     }
 
     public void setIssuingChain(final List<CMPCertificate> issuingChain) {
@@ -179,15 +316,24 @@ public class PersistencyContext {
     }
 
     public void setLastSenderNonce(final byte[] lastSenderNonce) {
-        this.lastSenderNonce = lastSenderNonce;
+        if (!Arrays.equals(this.lastSenderNonce, lastSenderNonce)) {
+            this.lastSenderNonce = lastSenderNonce;
+            modified = true;
+        }
     }
 
     public void setLastTransactionState(final LastTransactionState lastTransactionState) {
-        this.lastTransactionState = lastTransactionState;
+        if (this.lastTransactionState != lastTransactionState) {
+            this.lastTransactionState = lastTransactionState;
+            modified = true;
+        }
     }
 
     public void setNewGeneratedPrivateKey(final PrivateKey newGeneratedPrivateKey) {
-        this.newGeneratedPrivateKey = newGeneratedPrivateKey;
+        if (this.newGeneratedPrivateKey != newGeneratedPrivateKey) {
+            this.newGeneratedPrivateKey = newGeneratedPrivateKey;
+            modified = true;
+        }
     }
 
     public void setPendingDelayedResponse(final PKIMessage delayedResponse) throws CmpProcessingException {
@@ -198,14 +344,21 @@ public class PersistencyContext {
                     "duplicate response for same transactionID");
         }
         this.pendingDelayedResponse = delayedResponse;
+        modified |= delayedResponse != null;
     }
 
     public void setRequestedPublicKey(final byte[] requestedPublicKey) {
-        this.requestedPublicKey = requestedPublicKey;
+        if (!Arrays.equals(this.requestedPublicKey, requestedPublicKey)) {
+            this.requestedPublicKey = requestedPublicKey;
+            modified = true;
+        }
     }
 
     public void setRequestType(final int certificateRequestType) {
-        this.certificateRequestType = certificateRequestType;
+        if (this.certificateRequestType != certificateRequestType) {
+            this.certificateRequestType = certificateRequestType;
+            modified = true;
+        }
     }
 
     public void trackMessage(final PKIMessage msg) throws BaseCmpException, IOException {
@@ -214,6 +367,69 @@ public class PersistencyContext {
 
     public void updateTransactionExpirationTime(final Date expirationTime) {
         // only downstream can expire
-        this.expirationTime = expirationTime;
+        setExpirationTime(expirationTime);
+    }
+
+    /**
+     * create an unmodified copy sharing all immutable field values
+     *
+     * @return the copy
+     */
+    PersistencyContext copy() {
+        final PersistencyContext ret = new PersistencyContext();
+        ret.contextManager = contextManager;
+        ret.expirationTime = expirationTime;
+        ret.transactionId = transactionId;
+        ret.certProfile = certProfile;
+        ret.newGeneratedPrivateKey = newGeneratedPrivateKey;
+        if (alreadySentExtraCerts != null) {
+            ret.alreadySentExtraCerts = new HashSet<>(alreadySentExtraCerts);
+        }
+        ret.initialRequest = initialRequest;
+        ret.pendingDelayedResponse = pendingDelayedResponse;
+        ret.lastTransactionState = lastTransactionState;
+        ret.lastSenderNonce = lastSenderNonce;
+        ret.digestToConfirm = digestToConfirm;
+        ret.implicitConfirmGranted = implicitConfirmGranted;
+        ret.requestedPublicKey = requestedPublicKey;
+        ret.certificateRequestType = certificateRequestType;
+        ret.delayedDeliveryInProgress = delayedDeliveryInProgress;
+        ret.version = version;
+        return ret;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    void setVersion(final long version) {
+        this.version = version;
+    }
+
+    /**
+     * drop unneeded fields and determine what a flush needs to write
+     *
+     * @return the action needed to write all modifications
+     */
+    FlushAction prepareFlush() {
+        if (transactionStateTracker.isTransactionTerminated()) {
+            return FlushAction.CLEAR;
+        }
+        dropUnneededFields();
+        if (modified) {
+            return FlushAction.SAVE;
+        }
+        if (expirationTimeModified) {
+            return FlushAction.UPDATE_EXPIRATION_TIME;
+        }
+        return FlushAction.NONE;
+    }
+
+    /**
+     * forget all tracked modifications, called after load or flush
+     */
+    void resetModifications() {
+        modified = false;
+        expirationTimeModified = false;
     }
 }
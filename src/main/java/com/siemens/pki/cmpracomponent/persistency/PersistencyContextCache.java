@@ -0,0 +1,147 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.persistency;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * size and time bounded cache of {@link PersistencyContext} snapshots, least
+ * recently used contexts are evicted first. The cache holds private copies, so
+ * modifications of loaded contexts never leak into the cache before they were
+ * flushed.
+ */
+class PersistencyContextCache {
+
+    /**
+     * a cached snapshot together with the version it was loaded or saved with
+     */
+    static final class CachedContext {
+        final PersistencyContext snapshot;
+        final long version;
+        final long cachedAt;
+
+        CachedContext(final PersistencyContext snapshot, final long version, final long cachedAt) {
+            this.snapshot = snapshot;
+            this.version = version;
+            this.cachedAt = cachedAt;
+        }
+    }
+
+    private final long timeToLive;
+
+    private final Map<TransactionKey, CachedContext> cache;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder loads = new LongAdder();
+
+    private final LongAdder loadNanos = new LongAdder();
+
+    /**
+     * @param maximumSize maximum number of cached contexts
+     * @param timeToLive  time in milliseconds a context stays cached
+     */
+    PersistencyContextCache(final int maximumSize, final long timeToLive) {
+        this.timeToLive = timeToLive;
+        cache = new LinkedHashMap<TransactionKey, CachedContext>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<TransactionKey, CachedContext> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * @param key transaction to look up
+     * @return cached context or <code>null</code> if not cached or outdated
+     */
+    CachedContext get(final TransactionKey key) {
+        lock.lock();
+        try {
+            final CachedContext ret = cache.get(key);
+            if (ret != null && System.currentTimeMillis() - ret.cachedAt > timeToLive) {
+                cache.remove(key);
+                return null;
+            }
+            return ret;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    NearCacheStatistics getStatistics() {
+        final int size;
+        lock.lock();
+        try {
+            size = cache.size();
+        } finally {
+            lock.unlock();
+        }
+        return new NearCacheStatistics(hits.sum(), misses.sum(), loads.sum(), loadNanos.sum(), size);
+    }
+
+    void invalidate(final TransactionKey key) {
+        lock.lock();
+        try {
+            cache.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param key      transaction of the context
+     * @param snapshot a private copy of the context
+     * @param version  version of the context in the backing persistency
+     */
+    void put(final TransactionKey key, final PersistencyContext snapshot, final long version) {
+        final CachedContext cachedContext = new CachedContext(snapshot, version, System.currentTimeMillis());
+        lock.lock();
+        try {
+            cache.put(key, cachedContext);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    /**
+     * @param nanos time spent to load and decode a context from the backing
+     *              persistency
+     */
+    void recordLoad(final long nanos) {
+        loads.increment();
+        loadNanos.add(nanos);
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.persistency;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.cmp.CMPCertificate;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+
+/**
+ * compact, versioned binary encoding of a {@link PersistencyContext}. All
+ * fields are written in a fixed order, variable length fields are prefixed
+ * with their length (-1 for <code>null</code>), ASN.1 objects are stored as
+ * plain length-prefixed DER produced by {@link ASN1Object#getEncoded()}.
+ */
+class PersistencyContextCodec {
+
+    /**
+     * first byte of a binary encoded context, a JSON encoded context always
+     * starts with '{'
+     */
+    static final byte MAGIC = (byte) 0xCB;
+
+    static final byte VERSION_1 = 1;
+
+    private static final int FLAG_IMPLICIT_CONFIRM_GRANTED = 1;
+
+    private static final int FLAG_DELAYED_DELIVERY_IN_PROGRESS = 2;
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    /**
+     * @param encodedContext encoded context
+     * @return <code>true</code> if encodedContext was encoded by this codec
+     */
+    static boolean isBinaryEncoded(final byte[] encodedContext) {
+        return encodedContext.length > 1 && encodedContext[0] == MAGIC;
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] ret = new byte[length];
+        in.readFully(ret);
+        return ret;
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeAsn1(final DataOutputStream out, final ASN1Object value) throws IOException {
+        // the parsed objects don't keep their received encoding
+        writeBytes(out, value == null ? null : value.getEncoded());
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private final PersistencyContextManager contextManager;
+
+    /**
+     * @param contextManager manager used to wrap and unwrap private keys
+     */
+    PersistencyContextCodec(final PersistencyContextManager contextManager) {
+        this.contextManager = contextManager;
+    }
+
+    /**
+     * recreate a context
+     *
+     * @param encodedContext context encoded by {@link #encode(PersistencyContext)}
+     * @return the decoded context
+     * @throws IOException in case of unknown version or broken encoding
+     */
+    PersistencyContext decode(final byte[] encodedContext) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(encodedContext))) {
+            if (in.readByte() != MAGIC) {
+                throw new IOException("not a binary encoded persistency context");
+            }
+            final byte version = in.readByte();
+            if (version != VERSION_1) {
+                throw new IOException("unsupported persistency context version " + version);
+            }
+            final PersistencyContext ret = new PersistencyContext(contextManager, readBytes(in));
+            final long expirationTime = in.readLong();
+            ret.setExpirationTime(expirationTime == NO_DATE ? null : new Date(expirationTime));
+            ret.setCertProfile(readString(in));
+            final String lastTransactionState = readString(in);
+            ret.setLastTransactionState(
+                    lastTransactionState == null ? null : LastTransactionState.valueOf(lastTransactionState));
+            ret.setRequestType(in.readInt());
+            final int flags = in.readUnsignedByte();
+            ret.setImplicitConfirmGranted((flags & FLAG_IMPLICIT_CONFIRM_GRANTED) != 0);
+            ret.setDelayedDeliveryInProgress((flags & FLAG_DELAYED_DELIVERY_IN_PROGRESS) != 0);
+            ret.setLastSenderNonce(readBytes(in));
+            ret.setDigestToConfirm(readBytes(in));
+            ret.setRequestedPublicKey(readBytes(in));
+            final byte[] initialRequest = readBytes(in);
+            if (initialRequest != null) {
+                ret.setInitialRequest(PKIMessage.getInstance(initialRequest));
+            }
+            final byte[] pendingDelayedResponse = readBytes(in);
+            if (pendingDelayedResponse != null) {
+                ret.setPendingDelayedResponse(PKIMessage.getInstance(pendingDelayedResponse));
+            }
+            final int numberOfExtraCerts = in.readInt();
+            if (numberOfExtraCerts >= 0) {
+                final Set<CMPCertificate> alreadySentExtraCerts = new HashSet<>(numberOfExtraCerts * 2);
+                for (int i = 0; i < numberOfExtraCerts; i++) {
+                    alreadySentExtraCerts.add(CMPCertificate.getInstance(readBytes(in)));
+                }
+                ret.setAlreadySentExtraCerts(alreadySentExtraCerts);
+            }
+            final byte[] wrappedPrivateKey = readBytes(in);
+            if (wrappedPrivateKey != null) {
+                ret.setNewGeneratedPrivateKey(contextManager.unwrapPrivateKey(wrappedPrivateKey));
+            }
+            return ret;
+        } catch (final IOException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            throw new IOException("could not decode persistency context", ex);
+        }
+    }
+
+    /**
+     * encode a context
+     *
+     * @param context context to encode
+     * @return the encoded context
+     * @throws IOException in case of encoding error
+     */
+    byte[] encode(final PersistencyContext context) throws IOException {
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream(1024);
+        try (final DataOutputStream out = new DataOutputStream(bout)) {
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION_1);
+            writeBytes(out, context.getTransactionId());
+            final Date expirationTime = context.getExpirationTime();
+            out.writeLong(expirationTime == null ? NO_DATE : expirationTime.getTime());
+            writeString(out, context.getCertProfile());
+            final LastTransactionState lastTransactionState = context.getLastTransactionState();
+            writeString(out, lastTransactionState == null ? null : lastTransactionState.name());
+            out.writeInt(context.getRequestType());
+            out.writeByte((context.isImplicitConfirmGranted() ? FLAG_IMPLICIT_CONFIRM_GRANTED : 0)
+                    | (context.getDelayedDeliveryInProgress() ? FLAG_DELAYED_DELIVERY_IN_PROGRESS : 0));
+            writeBytes(out, context.getLastSenderNonce());
+            writeBytes(out, context.getDigestToConfirm());
+            writeBytes(out, context.getRequestedPublicKey());
+            writeAsn1(out, context.getInitialRequest());
+            writeAsn1(out, context.getPendingDelayedResponse());
+            final Set<CMPCertificate> alreadySentExtraCerts = context.getAlreadySentExtraCerts();
+            out.writeInt(alreadySentExtraCerts.size());
+            for (final CMPCertificate aktCert : alreadySentExtraCerts) {
+                writeAsn1(out, aktCert);
+            }
+            writeBytes(
+                    out,
+                    context.getNewGeneratedPrivateKey() == null
+                            ? null
+                            : contextManager.wrapPrivateKey(context.getNewGeneratedPrivateKey()));
+        }
+        return bout.toByteArray();
+    }
+}
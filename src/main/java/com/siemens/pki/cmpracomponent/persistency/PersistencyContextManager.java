@@ -26,20 +26,39 @@ import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.siemens.pki.cmpracomponent.configuration.MessageToSave;
 import com.siemens.pki.cmpracomponent.configuration.PersistencyInterface;
+import com.siemens.pki.cmpracomponent.configuration.VersionedMessage;
+import com.siemens.pki.cmpracomponent.msgvalidation.CmpProcessingException;
+import com.siemens.pki.cmpracomponent.util.ObjectPool;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import org.bouncycastle.asn1.ASN1Object;
 import org.bouncycastle.asn1.cmp.CMPCertificate;
+import org.bouncycastle.asn1.cmp.PKIFailureInfo;
 import org.bouncycastle.asn1.cmp.PKIMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -100,6 +119,36 @@ public class PersistencyContextManager {
         }
     }
 
+    private static final class ContextToSave implements MessageToSave {
+        private final PersistencyContext context;
+        private final byte[] message;
+
+        private ContextToSave(final PersistencyContext context, final byte[] message) {
+            this.context = context;
+            this.message = message;
+        }
+
+        @Override
+        public long getExpectedVersion() {
+            return context.getVersion();
+        }
+
+        @Override
+        public Date getExpirationTime() {
+            return context.getExpirationTime();
+        }
+
+        @Override
+        public byte[] getMessage() {
+            return message;
+        }
+
+        @Override
+        public byte[] getTransactionId() {
+            return context.getTransactionId();
+        }
+    }
+
     public static class KeySerializer extends JsonSerializer<PrivateKey> {
 
         private final SecretKeySpec secretKey;
@@ -119,19 +168,9 @@ public class PersistencyContextManager {
                 throws IOException {
             if (key == null) {
                 jsonGenerator.writeNull();
+                return;
             }
-            try {
-                // private key obfuscation
-                final Cipher c = Cipher.getInstance(KEY_WRAP_CIPHER);
-                c.init(Cipher.WRAP_MODE, secretKey, iv);
-                jsonGenerator.writeBinary(c.wrap(key));
-            } catch (NoSuchAlgorithmException
-                    | NoSuchPaddingException
-                    | InvalidKeyException
-                    | IllegalBlockSizeException
-                    | InvalidAlgorithmParameterException e) {
-                throw new IOException(e);
-            }
+            jsonGenerator.writeBinary(wrapPrivateKey(secretKey, key));
         }
     }
 
@@ -148,42 +187,214 @@ public class PersistencyContextManager {
             if (binaryValue == null || binaryValue.length == 0) {
                 return null;
             }
-            try {
-                final Cipher c = Cipher.getInstance(KEY_WRAP_CIPHER);
-                c.init(Cipher.UNWRAP_MODE, secretKey, iv);
-                for (final String keyType : new String[] {"RSA", "EC", "Ed448", "Ed25519"}) {
-                    try {
-                        return (PrivateKey) c.unwrap(binaryValue, keyType, Cipher.PRIVATE_KEY);
-                    } catch (final Exception e) {
-                        // try next keyType
-                    }
-                }
-                LOGGER.error("cold not load private key");
-                return null;
-            } catch (final InvalidKeyException
-                    | NoSuchAlgorithmException
-                    | NoSuchPaddingException
-                    | InvalidAlgorithmParameterException e1) {
-                throw new IOException(e1);
-            }
+            return unwrapPrivateKey(secretKey, binaryValue);
         }
     }
 
+    /**
+     * format used to write {@link PersistencyContext}s, both formats are
+     * accepted on read
+     */
+    public enum SerializationFormat {
+        /**
+         * compact, versioned binary format with raw DER encoded ASN.1 objects
+         */
+        BINARY,
+        /**
+         * Jackson based JSON format, as written by former versions
+         */
+        JSON
+    }
+
     private static final String KEY_WRAP_CIPHER = "AES/GCM/NoPadding";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PersistencyContextManager.class);
 
-    private static final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private static final String INTERFACE_NAME = "persistency";
+
+    // the lock of a transaction is held during upstream communication, so keep
+    // the probability of two active transactions sharing a lock low
+    private static final int NUMBER_OF_TRANSACTION_LOCKS = 1024;
+
+    private static final int GCM_TAG_BITS = 128;
+
+    // untagged keys written by former versions used a fixed IV and carry no key
+    // type. Use a GCMParameterSpec as the reused cipher is bound to the provider
+    // selected at first init, and not all providers accept an IvParameterSpec.
+    private static final GCMParameterSpec LEGACY_IV = new GCMParameterSpec(GCM_TAG_BITS, "The IV for PrivK".getBytes());
+
+    private static final String[] LEGACY_KEY_TYPES = {"RSA", "EC", "Ed448", "Ed25519"};
 
-    private static final IvParameterSpec iv = new IvParameterSpec("The IV for PrivK".getBytes());
+    // tagged key: magic, IV length, IV, algorithm length, algorithm, wrapped key
+    private static final byte[] TAGGED_KEY_MAGIC = {(byte) 0xA5, 'W', 'K', 1};
+
+    private static final int GCM_IV_LENGTH = 12;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final int MAX_IDLE_KEY_WRAP_CIPHERS = 64;
+
+    // each use starts with init(), so a cipher is reusable even after a failure
+    private static final ObjectPool<Cipher> KEY_WRAP_CIPHERS = new ObjectPool<>(MAX_IDLE_KEY_WRAP_CIPHERS);
+
+    private static Cipher borrowKeyWrapCipher() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        final Cipher ret = KEY_WRAP_CIPHERS.borrow();
+        return ret != null ? ret : Cipher.getInstance(KEY_WRAP_CIPHER);
+    }
+
+    private static boolean isTaggedWrappedKey(final byte[] wrappedKey) {
+        if (wrappedKey.length <= TAGGED_KEY_MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < TAGGED_KEY_MAGIC.length; i++) {
+            if (wrappedKey[i] != TAGGED_KEY_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static PrivateKey unwrapPrivateKey(
+            final Cipher c,
+            final SecretKeySpec secretKey,
+            final AlgorithmParameterSpec params,
+            final byte[] wrappedKey,
+            final String... keyTypes)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        for (final String keyType : keyTypes) {
+            // a failed unwrap may leave the cipher unusable
+            c.init(Cipher.UNWRAP_MODE, secretKey, params);
+            try {
+                return (PrivateKey) c.unwrap(wrappedKey, keyType, Cipher.PRIVATE_KEY);
+            } catch (final Exception e) {
+                // try next keyType
+            }
+        }
+        return null;
+    }
+
+    private static PrivateKey unwrapPrivateKey(final SecretKeySpec secretKey, final byte[] wrappedKey)
+            throws IOException {
+        final Cipher c;
+        try {
+            c = borrowKeyWrapCipher();
+        } catch (final NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IOException(e);
+        }
+        try {
+            if (isTaggedWrappedKey(wrappedKey)) {
+                PrivateKey ret = null;
+                try {
+                    final ByteBuffer in = ByteBuffer.wrap(wrappedKey);
+                    in.position(TAGGED_KEY_MAGIC.length);
+                    final byte[] iv = new byte[in.get() & 0xff];
+                    in.get(iv);
+                    final byte[] algorithm = new byte[in.get() & 0xff];
+                    in.get(algorithm);
+                    final String[] keyTypes = new String[LEGACY_KEY_TYPES.length + 1];
+                    keyTypes[0] = new String(algorithm, StandardCharsets.US_ASCII);
+                    System.arraycopy(LEGACY_KEY_TYPES, 0, keyTypes, 1, LEGACY_KEY_TYPES.length);
+                    ret = unwrapPrivateKey(
+                            c,
+                            secretKey,
+                            new GCMParameterSpec(GCM_TAG_BITS, iv),
+                            Arrays.copyOfRange(wrappedKey, in.position(), wrappedKey.length),
+                            keyTypes);
+                } catch (final BufferUnderflowException | InvalidAlgorithmParameterException e) {
+                    // not a tagged key, by chance an untagged key started with the magic
+                }
+                if (ret != null) {
+                    return ret;
+                }
+            }
+            final PrivateKey ret = unwrapPrivateKey(c, secretKey, LEGACY_IV, wrappedKey, LEGACY_KEY_TYPES);
+            if (ret == null) {
+                LOGGER.error("cold not load private key");
+            }
+            return ret;
+        } catch (final InvalidKeyException | InvalidAlgorithmParameterException e1) {
+            throw new IOException(e1);
+        } finally {
+            KEY_WRAP_CIPHERS.release(c);
+        }
+    }
+
+    private static byte[] wrapPrivateKey(final SecretKeySpec secretKey, final PrivateKey key) throws IOException {
+        try {
+            // private key obfuscation, GCM requires a fresh IV per wrap
+            final byte[] iv = new byte[GCM_IV_LENGTH];
+            RANDOM.nextBytes(iv);
+            final Cipher c = borrowKeyWrapCipher();
+            final byte[] wrappedKey;
+            try {
+                c.init(Cipher.WRAP_MODE, secretKey, new GCMParameterSpec(GCM_TAG_BITS, iv));
+                wrappedKey = c.wrap(key);
+            } finally {
+                KEY_WRAP_CIPHERS.release(c);
+            }
+            final byte[] algorithm = key.getAlgorithm().getBytes(StandardCharsets.US_ASCII);
+            return ByteBuffer.allocate(TAGGED_KEY_MAGIC.length + 2 + iv.length + algorithm.length + wrappedKey.length)
+                    .put(TAGGED_KEY_MAGIC)
+                    .put((byte) iv.length)
+                    .put(iv)
+                    .put((byte) algorithm.length)
+                    .put(algorithm)
+                    .put(wrappedKey)
+                    .array();
+        } catch (NoSuchAlgorithmException
+                | NoSuchPaddingException
+                | InvalidKeyException
+                | IllegalBlockSizeException
+                | InvalidAlgorithmParameterException e) {
+            throw new IOException(e);
+        }
+    }
 
     final SimpleModule simpleModule = new SimpleModule("BCModule", new Version(1, 0, 0, null, null, null));
 
+    // per instance, the module holds the key wrapping key of the wrapped interface
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
     private final PersistencyInterface wrappedInterface;
 
+    private final SecretKeySpec secretKey;
+
+    private final PersistencyContextCodec codec = new PersistencyContextCodec(this);
+
+    private final SerializationFormat serializationFormat;
+
+    private final Lock[] transactionLocks = new Lock[NUMBER_OF_TRANSACTION_LOCKS];
+
+    // null if disabled
+    private final PersistencyContextCache nearCache;
+
+    /**
+     * @param wrappedInterface persistency to use, contexts are written in
+     *                         {@link SerializationFormat#BINARY} format
+     */
     public PersistencyContextManager(final PersistencyInterface wrappedInterface) {
+        this(wrappedInterface, SerializationFormat.BINARY);
+    }
+
+    /**
+     * @param wrappedInterface    persistency to use
+     * @param serializationFormat format used to write contexts, use
+     *                            {@link SerializationFormat#JSON} as long as RA
+     *                            instances of former versions share the same
+     *                            persistency
+     */
+    public PersistencyContextManager(
+            final PersistencyInterface wrappedInterface, final SerializationFormat serializationFormat) {
         this.wrappedInterface = wrappedInterface;
-        final SecretKeySpec secretKey = new SecretKeySpec(wrappedInterface.getAesKeyForKeyWrapping(), "AES");
+        this.serializationFormat = serializationFormat;
+        for (int i = 0; i < transactionLocks.length; i++) {
+            transactionLocks[i] = new ReentrantLock();
+        }
+        final int nearCacheSize = wrappedInterface.getNearCacheSize();
+        nearCache = nearCacheSize > 0
+                ? new PersistencyContextCache(nearCacheSize, wrappedInterface.getNearCacheTimeToLive())
+                : null;
+        secretKey = new SecretKeySpec(wrappedInterface.getAesKeyForKeyWrapping(), "AES");
         simpleModule.addSerializer(new Asn1ObjectSerializer());
         simpleModule.addSerializer(new KeySerializer(secretKey));
         simpleModule.addDeserializer(CMPCertificate.class, new Asn1ObjectDeserializer<>(CMPCertificate.class));
@@ -193,9 +404,21 @@ public class PersistencyContextManager {
     }
 
     public void clearPersistencyContext(final byte[] transactionId) {
+        if (nearCache != null) {
+            nearCache.invalidate(new TransactionKey(transactionId));
+        }
         wrappedInterface.clearLastSavedMessage(transactionId);
     }
 
+    /**
+     * @return statistics of the near cache or <code>null</code> if the near cache
+     *         is disabled
+     * @see PersistencyInterface#getNearCacheSize()
+     */
+    public NearCacheStatistics getNearCacheStatistics() {
+        return nearCache == null ? null : nearCache.getStatistics();
+    }
+
     public PersistencyContext loadCreatePersistencyContext(final byte[] transactionId) throws IOException {
         final PersistencyContext ret = loadPersistencyContext(transactionId);
         if (ret != null) {
@@ -205,23 +428,240 @@ public class PersistencyContextManager {
         return new PersistencyContext(this, transactionId);
     }
 
+    /**
+     * get the lock serializing the processing of a specific transaction inside
+     * this RA instance. The lock must be held from loading the
+     * {@link PersistencyContext} until it was flushed. Don't acquire a second
+     * transaction lock while holding one, different transactions may share the
+     * same lock. Use {@link #getTransactionLocks(Collection)} to lock several
+     * transactions at once.
+     *
+     * @param transactionId Id of a specific transaction
+     * @return a reentrant lock
+     */
+    public Lock getTransactionLock(final byte[] transactionId) {
+        return transactionLocks[getTransactionLockIndex(transactionId)];
+    }
+
+    /**
+     * get the locks serializing the processing of several transactions. The
+     * locks must be acquired in the returned order, which is the same for all
+     * callers, and must not be combined with other transaction locks.
+     *
+     * @param transactionIds Ids of the transactions
+     * @return distinct reentrant locks in locking order
+     * @see #getTransactionLock(byte[])
+     */
+    public List<Lock> getTransactionLocks(final Collection<byte[]> transactionIds) {
+        final BitSet lockIndices = new BitSet(transactionLocks.length);
+        for (final byte[] aktTransactionId : transactionIds) {
+            lockIndices.set(getTransactionLockIndex(aktTransactionId));
+        }
+        return lockIndices.stream().mapToObj(x -> transactionLocks[x]).collect(Collectors.toList());
+    }
+
+    private int getTransactionLockIndex(final byte[] transactionId) {
+        return Math.floorMod(Arrays.hashCode(transactionId), transactionLocks.length);
+    }
+
     public PersistencyContext loadPersistencyContext(final byte[] transactionId) throws IOException {
-        final byte[] serializedPersistency = wrappedInterface.getLastSavedMessage(transactionId);
-        if (serializedPersistency == null) {
+        if (nearCache == null) {
+            return loadFromPersistency(transactionId);
+        }
+        final TransactionKey key = new TransactionKey(transactionId);
+        final PersistencyContextCache.CachedContext cachedContext = nearCache.get(key);
+        // the version check detects updates done by other RA instances
+        if (cachedContext != null && cachedContext.version == wrappedInterface.getLastSavedVersion(transactionId)) {
+            nearCache.recordHit();
+            return cachedContext.snapshot.copy();
+        }
+        nearCache.recordMiss();
+        final long startTime = System.nanoTime();
+        final PersistencyContext ret = loadFromPersistency(transactionId);
+        nearCache.recordLoad(System.nanoTime() - startTime);
+        if (ret == null) {
+            nearCache.invalidate(key);
+        } else {
+            nearCache.put(key, ret.copy(), ret.getVersion());
+        }
+        return ret;
+    }
+
+    /**
+     * load several contexts with one request to the persistency. The near cache
+     * is not consulted, validating cached contexts would cost one request per
+     * transaction.
+     *
+     * @param transactionIds Ids of the transactions to load
+     * @return the contexts in the order of the transactionIds, <code>null</code>
+     *         for unknown transactions
+     * @throws IOException in case of persistency error
+     */
+    public List<PersistencyContext> loadPersistencyContexts(final List<byte[]> transactionIds) throws IOException {
+        final List<VersionedMessage> versionedMessages = wrappedInterface.getLastSavedVersionedMessages(transactionIds);
+        final List<PersistencyContext> ret = new ArrayList<>(versionedMessages.size());
+        for (final VersionedMessage aktMessage : versionedMessages) {
+            final PersistencyContext aktContext = decode(aktMessage);
+            if (nearCache != null && aktContext != null) {
+                nearCache.put(
+                        new TransactionKey(aktContext.getTransactionId()), aktContext.copy(), aktContext.getVersion());
+            }
+            ret.add(aktContext);
+        }
+        return ret;
+    }
+
+    /**
+     * flush several contexts with one request to the persistency per kind of
+     * write
+     *
+     * @param contexts contexts to flush, at most one per transaction
+     * @return the contexts not written because they were concurrently updated by
+     *         another RA instance
+     * @throws IOException in case of persistency error
+     * @see PersistencyContext#flush()
+     */
+    public List<PersistencyContext> flushPersistencyContexts(final List<PersistencyContext> contexts)
+            throws IOException {
+        final List<PersistencyContext> ret = new ArrayList<>();
+        final List<PersistencyContext> contextsToClear = new ArrayList<>();
+        final List<byte[]> transactionsToClear = new ArrayList<>();
+        final List<PersistencyContext> contextsToSave = new ArrayList<>();
+        final List<MessageToSave> messagesToSave = new ArrayList<>();
+        for (final PersistencyContext aktContext : contexts) {
+            switch (aktContext.prepareFlush()) {
+                case CLEAR:
+                    contextsToClear.add(aktContext);
+                    transactionsToClear.add(aktContext.getTransactionId());
+                    break;
+                case SAVE:
+                    contextsToSave.add(aktContext);
+                    messagesToSave.add(new ContextToSave(aktContext, encode(aktContext)));
+                    break;
+                case UPDATE_EXPIRATION_TIME:
+                    // rare, no need for a bulk operation
+                    try {
+                        updateExpirationTime(aktContext);
+                        aktContext.resetModifications();
+                    } catch (final CmpProcessingException ex) {
+                        ret.add(aktContext);
+                    }
+                    break;
+                default:
+            }
+        }
+        if (!transactionsToClear.isEmpty()) {
+            if (nearCache != null) {
+                transactionsToClear.forEach(x -> nearCache.invalidate(new TransactionKey(x)));
+            }
+            wrappedInterface.clearLastSavedMessages(transactionsToClear);
+        }
+        contextsToClear.forEach(PersistencyContext::resetModifications);
+        if (messagesToSave.isEmpty()) {
+            return ret;
+        }
+        final long[] newVersions;
+        try {
+            newVersions = wrappedInterface.saveLastMessagesIfUnchanged(messagesToSave);
+        } catch (final RuntimeException ex) {
+            if (nearCache != null) {
+                contextsToSave.forEach(x -> nearCache.invalidate(new TransactionKey(x.getTransactionId())));
+            }
+            throw ex;
+        }
+        for (int i = 0; i < newVersions.length; i++) {
+            final PersistencyContext aktContext = contextsToSave.get(i);
+            final TransactionKey key = new TransactionKey(aktContext.getTransactionId());
+            if (newVersions[i] == VersionedMessage.NOT_SAVED) {
+                if (nearCache != null) {
+                    nearCache.invalidate(key);
+                }
+                ret.add(aktContext);
+                continue;
+            }
+            aktContext.setVersion(newVersions[i]);
+            aktContext.resetModifications();
+            if (nearCache != null) {
+                nearCache.put(key, aktContext.copy(), newVersions[i]);
+            }
+        }
+        return ret;
+    }
+
+    private PersistencyContext loadFromPersistency(final byte[] transactionId) throws IOException {
+        return decode(wrappedInterface.getLastSavedVersionedMessage(transactionId));
+    }
+
+    private PersistencyContext decode(final VersionedMessage versionedMessage) throws IOException {
+        if (versionedMessage == null) {
             // transactionId never seen before
             return null;
         }
+        final byte[] serializedPersistency = versionedMessage.getMessage();
         // recreate from persistency
-        final PersistencyContext ret = objectMapper.readValue(serializedPersistency, PersistencyContext.class);
-        ret.setContextManager(this);
+        final PersistencyContext ret;
+        if (PersistencyContextCodec.isBinaryEncoded(serializedPersistency)) {
+            ret = codec.decode(serializedPersistency);
+        } else {
+            ret = objectMapper.readValue(serializedPersistency, PersistencyContext.class);
+            ret.setContextManager(this);
+        }
+        ret.setVersion(versionedMessage.getVersion());
+        ret.resetModifications();
         return ret;
     }
 
-    void flushPersistencyContext(final PersistencyContext context) throws IOException {
+    void flushPersistencyContext(final PersistencyContext context) throws IOException, CmpProcessingException {
+        if (nearCache == null) {
+            saveToPersistency(context);
+            return;
+        }
+        final TransactionKey key = new TransactionKey(context.getTransactionId());
+        try {
+            saveToPersistency(context);
+        } catch (final IOException | CmpProcessingException | RuntimeException ex) {
+            nearCache.invalidate(key);
+            throw ex;
+        }
+        // write through
+        nearCache.put(key, context.copy(), context.getVersion());
+    }
+
+    private byte[] encode(final PersistencyContext context) throws IOException {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(context));
         }
-        wrappedInterface.saveLastMessage(
-                context.getTransactionId(), objectMapper.writeValueAsBytes(context), context.getExpirationTime());
+        return serializationFormat == SerializationFormat.BINARY
+                ? codec.encode(context)
+                : objectMapper.writeValueAsBytes(context);
+    }
+
+    private void saveToPersistency(final PersistencyContext context) throws IOException, CmpProcessingException {
+        final long newVersion = wrappedInterface.saveLastMessageIfUnchanged(
+                context.getTransactionId(), encode(context), context.getExpirationTime(), context.getVersion());
+        if (newVersion == VersionedMessage.NOT_SAVED) {
+            throw new CmpProcessingException(
+                    INTERFACE_NAME,
+                    PKIFailureInfo.transactionIdInUse,
+                    "transaction was concurrently updated by another RA instance");
+        }
+        context.setVersion(newVersion);
+    }
+
+    void updateExpirationTime(final PersistencyContext context) throws IOException, CmpProcessingException {
+        if (!wrappedInterface.updateExpirationTime(context.getTransactionId(), context.getExpirationTime())) {
+            flushPersistencyContext(context);
+        } else if (nearCache != null) {
+            // the version doesn't change if only the expiration time was updated
+            nearCache.put(new TransactionKey(context.getTransactionId()), context.copy(), context.getVersion());
+        }
+    }
+
+    PrivateKey unwrapPrivateKey(final byte[] wrappedKey) throws IOException {
+        return unwrapPrivateKey(secretKey, wrappedKey);
+    }
+
+    byte[] wrapPrivateKey(final PrivateKey key) throws IOException {
+        return wrapPrivateKey(secretKey, key);
     }
 }
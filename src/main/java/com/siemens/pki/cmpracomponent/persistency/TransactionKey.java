@@ -0,0 +1,68 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.persistency;
+
+import java.util.Arrays;
+
+/**
+ * immutable, hashable representation of a transactionId usable as key in hash
+ * based maps
+ */
+final class TransactionKey {
+
+    private final byte[] transactionId;
+
+    private final int hash;
+
+    /**
+     * @param transactionId transactionId to wrap, a private copy is taken
+     */
+    TransactionKey(final byte[] transactionId) {
+        this.transactionId = transactionId.clone();
+        this.hash = Arrays.hashCode(this.transactionId);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TransactionKey)) {
+            return false;
+        }
+        final TransactionKey other = (TransactionKey) obj;
+        return hash == other.hash && Arrays.equals(transactionId, other.transactionId);
+    }
+
+    /**
+     * @return a copy of the wrapped transactionId
+     */
+    byte[] getTransactionId() {
+        return transactionId.clone();
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(transactionId);
+    }
+}
@@ -22,6 +22,9 @@ import static com.siemens.pki.cmpracomponent.util.NullUtil.ifNotNull;
 
 import com.siemens.pki.cmpracomponent.configuration.SharedSecretCredentialContext;
 import com.siemens.pki.cmpracomponent.cryptoservices.WrappedMac;
+import com.siemens.pki.cmpracomponent.util.ObjectPool;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import org.bouncycastle.asn1.ASN1Encoding;
 import org.bouncycastle.asn1.DERBitString;
@@ -32,10 +35,20 @@ import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.asn1.x509.GeneralName;
 
 /**
- * base class for MAC protection provider
+ * base class for MAC protection provider. The key is derived once, the
+ * {@link WrappedMac}s initialized with it are pooled.
  */
 public abstract class MacProtection implements ProtectionProvider {
 
+    /**
+     * creates a {@link WrappedMac} initialized with the derived key
+     */
+    protected interface WrappedMacSupplier {
+        WrappedMac get() throws InvalidKeyException, NoSuchAlgorithmException;
+    }
+
+    private static final int MAX_IDLE_MACS = 16;
+
     private final SharedSecretCredentialContext config;
 
     public byte[] getSharedSecret() {
@@ -43,7 +56,8 @@ public abstract class MacProtection implements ProtectionProvider {
     }
 
     private AlgorithmIdentifier protectionAlg;
-    private WrappedMac protectingMac;
+    private WrappedMacSupplier protectingMacSupplier;
+    private final ObjectPool<WrappedMac> protectingMacs = new ObjectPool<>(MAX_IDLE_MACS);
 
     protected MacProtection(final SharedSecretCredentialContext config) {
         this.config = config;
@@ -60,8 +74,14 @@ public abstract class MacProtection implements ProtectionProvider {
     }
 
     @Override
-    public synchronized DERBitString getProtectionFor(final ProtectedPart protectedPart) throws Exception {
-        return new DERBitString(protectingMac.calculateMac(protectedPart.getEncoded(ASN1Encoding.DER)));
+    public DERBitString getProtectionFor(final ProtectedPart protectedPart) throws Exception {
+        WrappedMac protectingMac = protectingMacs.borrow();
+        if (protectingMac == null) {
+            protectingMac = protectingMacSupplier.get();
+        }
+        final byte[] mac = protectingMac.calculateMac(protectedPart.getEncoded(ASN1Encoding.DER));
+        protectingMacs.release(protectingMac);
+        return new DERBitString(mac);
     }
 
     @Override
@@ -74,8 +94,11 @@ public abstract class MacProtection implements ProtectionProvider {
         return ifNotNull(config.getSenderKID(), DEROctetString::new);
     }
 
-    protected void init(final AlgorithmIdentifier protectionAlg, final WrappedMac protectingMac) {
-        this.protectingMac = protectingMac;
+    protected void init(final AlgorithmIdentifier protectionAlg, final WrappedMacSupplier protectingMacSupplier)
+            throws InvalidKeyException, NoSuchAlgorithmException {
+        // fail early on a broken configuration
+        protectingMacs.release(protectingMacSupplier.get());
+        this.protectingMacSupplier = protectingMacSupplier;
         this.protectionAlg = protectionAlg;
     }
 }
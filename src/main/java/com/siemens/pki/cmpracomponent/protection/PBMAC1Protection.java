@@ -19,7 +19,6 @@ package com.siemens.pki.cmpracomponent.protection;
 
 import com.siemens.pki.cmpracomponent.configuration.SharedSecretCredentialContext;
 import com.siemens.pki.cmpracomponent.cryptoservices.AlgorithmHelper;
-import com.siemens.pki.cmpracomponent.cryptoservices.WrappedMac;
 import com.siemens.pki.cmpracomponent.cryptoservices.WrappedMacFactory;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -64,7 +63,7 @@ public class PBMAC1Protection extends MacProtection {
                 new AlgorithmIdentifier(AlgorithmHelper.getOidForMac(config.getMacAlgorithm()));
         final AlgorithmIdentifier protectionAlg = new AlgorithmIdentifier(
                 PKCSObjectIdentifiers.id_PBMAC1, new PBMAC1Params(keyDerivationFunc, messageAuthScheme));
-        final WrappedMac wrappedMac = WrappedMacFactory.createWrappedMac(messageAuthScheme, key.getEncoded());
-        init(protectionAlg, wrappedMac);
+        final byte[] derivedKey = key.getEncoded();
+        init(protectionAlg, () -> WrappedMacFactory.createWrappedMac(messageAuthScheme, derivedKey));
     }
 }
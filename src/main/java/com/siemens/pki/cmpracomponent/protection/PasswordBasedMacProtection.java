@@ -19,7 +19,6 @@ package com.siemens.pki.cmpracomponent.protection;
 
 import com.siemens.pki.cmpracomponent.configuration.SharedSecretCredentialContext;
 import com.siemens.pki.cmpracomponent.cryptoservices.AlgorithmHelper;
-import com.siemens.pki.cmpracomponent.cryptoservices.WrappedMac;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -58,14 +57,19 @@ public class PasswordBasedMacProtection extends MacProtection {
         }
         final AlgorithmIdentifier macAlgorithm =
                 new AlgorithmIdentifier(AlgorithmHelper.getOidForMac(config.getMacAlgorithm()));
-        final Mac protectingMac =
-                AlgorithmHelper.getMac(macAlgorithm.getAlgorithm().getId());
-        protectingMac.init(new SecretKeySpec(calculatingBaseKey, protectingMac.getAlgorithm()));
-        final WrappedMac wrappedMac = in -> {
-            protectingMac.update(in);
-            final byte[] ret = protectingMac.doFinal();
-            protectingMac.reset();
-            return ret;
+        final String macAlgorithmName =
+                AlgorithmHelper.getMac(macAlgorithm.getAlgorithm().getId()).getAlgorithm();
+        final byte[] baseKey = calculatingBaseKey;
+        final WrappedMacSupplier wrappedMacSupplier = () -> {
+            final Mac protectingMac =
+                    AlgorithmHelper.getMac(macAlgorithm.getAlgorithm().getId());
+            protectingMac.init(new SecretKeySpec(baseKey, macAlgorithmName));
+            return in -> {
+                protectingMac.update(in);
+                final byte[] ret = protectingMac.doFinal();
+                protectingMac.reset();
+                return ret;
+            };
         };
         final AlgorithmIdentifier protectionAlg = new AlgorithmIdentifier(
                 CMPObjectIdentifiers.passwordBasedMac,
@@ -73,7 +77,7 @@ public class PasswordBasedMacProtection extends MacProtection {
                         protectionSalt,
                         AlgorithmHelper.findDigestAlgoritm(dig),
                         iterationCount,
-                        new AlgorithmIdentifier(AlgorithmHelper.getOidForMac(protectingMac.getAlgorithm()))));
-        init(protectionAlg, wrappedMac);
+                        new AlgorithmIdentifier(AlgorithmHelper.getOidForMac(macAlgorithmName))));
+        init(protectionAlg, wrappedMacSupplier);
     }
 }
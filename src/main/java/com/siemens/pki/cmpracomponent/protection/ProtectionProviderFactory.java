@@ -21,22 +21,189 @@ import com.siemens.pki.cmpracomponent.configuration.CredentialContext;
 import com.siemens.pki.cmpracomponent.configuration.SharedSecretCredentialContext;
 import com.siemens.pki.cmpracomponent.configuration.SignatureCredentialContext;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * a factory for {@link ProtectionProvider}
  */
 public class ProtectionProviderFactory {
 
+    /**
+     * the values a {@link SharedSecretCredentialContext} returned for a single
+     * call, identifying a MAC based provider by shared secret, sender KID and
+     * algorithm parameters. The salt is not part of the identity, it is read
+     * once when the provider is built and reused for all its messages.
+     */
+    private static final class SharedSecretSnapshot implements SharedSecretCredentialContext {
+        private final String passwordBasedMacAlgorithm;
+        private final byte[] sharedSecret;
+        private final byte[] secretDigest;
+        private byte[] salt;
+        private final int iterationCount;
+        private final int keyLength;
+        private final String macAlgorithm;
+        private final String prf;
+        private final byte[] senderKid;
+        private final int hashCode;
+
+        private SharedSecretSnapshot(final SharedSecretCredentialContext config) throws NoSuchAlgorithmException {
+            passwordBasedMacAlgorithm = config.getPasswordBasedMacAlgorithm();
+            sharedSecret = config.getSharedSecret();
+            secretDigest = MessageDigest.getInstance("SHA-256").digest(sharedSecret);
+            iterationCount = config.getIterationCount();
+            keyLength = config.getkeyLength();
+            macAlgorithm = config.getMacAlgorithm();
+            prf = config.getPrf();
+            senderKid = config.getSenderKID();
+            hashCode = Objects.hash(
+                    passwordBasedMacAlgorithm,
+                    iterationCount,
+                    keyLength,
+                    macAlgorithm,
+                    prf,
+                    Arrays.hashCode(secretDigest),
+                    Arrays.hashCode(senderKid));
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof SharedSecretSnapshot)) {
+                return false;
+            }
+            final SharedSecretSnapshot other = (SharedSecretSnapshot) obj;
+            return iterationCount == other.iterationCount
+                    && keyLength == other.keyLength
+                    && Objects.equals(passwordBasedMacAlgorithm, other.passwordBasedMacAlgorithm)
+                    && Objects.equals(macAlgorithm, other.macAlgorithm)
+                    && Objects.equals(prf, other.prf)
+                    && MessageDigest.isEqual(secretDigest, other.secretDigest)
+                    && Arrays.equals(senderKid, other.senderKid);
+        }
+
+        @Override
+        public int getIterationCount() {
+            return iterationCount;
+        }
+
+        @Override
+        public int getkeyLength() {
+            return keyLength;
+        }
+
+        @Override
+        public String getMacAlgorithm() {
+            return macAlgorithm;
+        }
+
+        @Override
+        public String getPasswordBasedMacAlgorithm() {
+            return passwordBasedMacAlgorithm;
+        }
+
+        @Override
+        public String getPrf() {
+            return prf;
+        }
+
+        @Override
+        public byte[] getSalt() {
+            return salt;
+        }
+
+        @Override
+        public byte[] getSenderKID() {
+            return senderKid;
+        }
+
+        @Override
+        public byte[] getSharedSecret() {
+            return sharedSecret;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final int MAX_CACHED_PROVIDERS = 256;
+
+    private static final ReentrantLock PROVIDERS_LOCK = new ReentrantLock();
+
+    private static final Map<SharedSecretSnapshot, ProtectionProvider> MAC_PROVIDERS =
+            new LinkedHashMap<SharedSecretSnapshot, ProtectionProvider>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<SharedSecretSnapshot, ProtectionProvider> eldest) {
+                    return size() > MAX_CACHED_PROVIDERS;
+                }
+            };
+
     // utility class
     private ProtectionProviderFactory() {}
 
+    private static ProtectionProvider buildMacProtectionProvider(final SharedSecretCredentialContext ssConfig)
+            throws InvalidKeyException, NoSuchAlgorithmException, InvalidKeySpecException {
+        switch (ssConfig.getPasswordBasedMacAlgorithm().toLowerCase()) {
+            case "1.2.840.113533.7.66.13":
+            case "id-passwordbasedmac":
+            case "passwordbasedmac":
+            case "pbm":
+                return new PasswordBasedMacProtection(ssConfig);
+            case "1.2.840.113549.1.5.14":
+            case "id-pbmac1":
+            case "pbmac1":
+                return new PBMAC1Protection(ssConfig);
+            default:
+                throw new NoSuchAlgorithmException(ssConfig.getPasswordBasedMacAlgorithm());
+        }
+    }
+
+    private static ProtectionProvider getMacProtectionProvider(final SharedSecretCredentialContext config)
+            throws InvalidKeyException, NoSuchAlgorithmException, InvalidKeySpecException {
+        final SharedSecretSnapshot key = new SharedSecretSnapshot(config);
+        PROVIDERS_LOCK.lock();
+        try {
+            final ProtectionProvider cached = MAC_PROVIDERS.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        } finally {
+            PROVIDERS_LOCK.unlock();
+        }
+        // a context might return a fresh random salt for every call
+        key.salt = config.getSalt();
+        final ProtectionProvider ret = buildMacProtectionProvider(key);
+        PROVIDERS_LOCK.lock();
+        try {
+            final ProtectionProvider concurrentlyCreated = MAC_PROVIDERS.putIfAbsent(key, ret);
+            return concurrentlyCreated != null ? concurrentlyCreated : ret;
+        } finally {
+            PROVIDERS_LOCK.unlock();
+        }
+    }
+
     /**
-     * create a {@link ProtectionProvider} according to the given configuration
+     * get the {@link ProtectionProvider} for the given configuration. MAC based
+     * providers are shared between calls returning the same shared secret,
+     * sender KID and algorithm parameters, so the key derivation is not repeated
+     * for every message. The salt is taken when the provider is built and then
+     * reused. A changed shared secret results in a new provider. Signature based
+     * providers read the current credentials of the configuration on each use.
      *
      * @param config specific configuration
-     * @return a new {@link ProtectionProvider}
+     * @return a {@link ProtectionProvider}, safe for concurrent use
      * @throws NoSuchAlgorithmException in case of unknown algorithm
      * @throws InvalidKeyException      in case of internal error
      * @throws InvalidKeySpecException  in case of internal error
@@ -44,20 +211,7 @@ public class ProtectionProviderFactory {
     public static ProtectionProvider createProtectionProvider(final CredentialContext config)
             throws InvalidKeyException, NoSuchAlgorithmException, InvalidKeySpecException {
         if (config instanceof SharedSecretCredentialContext) {
-            final SharedSecretCredentialContext ssConfig = (SharedSecretCredentialContext) config;
-            switch (ssConfig.getPasswordBasedMacAlgorithm().toLowerCase()) {
-                case "1.2.840.113533.7.66.13":
-                case "id-passwordbasedmac":
-                case "passwordbasedmac":
-                case "pbm":
-                    return new PasswordBasedMacProtection(ssConfig);
-                case "1.2.840.113549.1.5.14":
-                case "id-pbmac1":
-                case "pbmac1":
-                    return new PBMAC1Protection(ssConfig);
-                default:
-                    throw new NoSuchAlgorithmException(ssConfig.getPasswordBasedMacAlgorithm());
-            }
+            return getMacProtectionProvider((SharedSecretCredentialContext) config);
         }
         if (config instanceof SignatureCredentialContext) {
             return new SignatureBasedProtection((SignatureCredentialContext) config);
@@ -0,0 +1,202 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.transport;
+
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.AsyncUpstreamExchange;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.UpstreamExchange;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link UpstreamExchange} and {@link AsyncUpstreamExchange} sending CMP
+ * messages by HTTP POST (RFC 6712). It can be used as upstream of an RA and as
+ * transport of a CmpClient. All exchanges share one {@link HttpClient}, which
+ * keeps HTTP/1.1 connections open for reuse and multiplexes concurrent
+ * exchanges over one connection if the server supports HTTP/2. The endpoint is
+ * selected by the certificate profile of the transaction.
+ */
+public class HttpUpstreamExchange implements UpstreamExchange, AsyncUpstreamExchange {
+
+    private static final int HTTP_OK = 200;
+
+    private final HttpClient httpClient;
+
+    private final Map<String, URI> endpointsByCertProfile;
+
+    private final URI defaultUri;
+
+    private final Duration requestTimeout;
+
+    private final LongAdder requestCount = new LongAdder();
+
+    private final LongAdder failureCount = new LongAdder();
+
+    private final LongAdder http2ResponseCount = new LongAdder();
+
+    private final LongAdder inFlightCount = new LongAdder();
+
+    private final LongAdder totalLatencyNanos = new LongAdder();
+
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Long::max, 0);
+
+    /**
+     * create an exchange sending all messages to one URI by HTTP/1.1
+     *
+     * @param upstreamUri URI of the upstream CMP server
+     * @param timeout     timeout for connecting and for each exchange
+     */
+    public HttpUpstreamExchange(final URI upstreamUri, final Duration timeout) {
+        this(Collections.emptyMap(), upstreamUri, HttpClient.Version.HTTP_1_1, timeout, timeout);
+    }
+
+    /**
+     * create an exchange
+     *
+     * @param endpointsByCertProfile URIs of the upstream CMP servers per
+     *                               certificate profile
+     * @param defaultUri             URI used if there is no endpoint for the
+     *                               certificate profile, or <code>null</code>
+     *                               to reject such messages
+     * @param version                preferred HTTP version, with
+     *                               {@link HttpClient.Version#HTTP_2} the
+     *                               exchange falls back to HTTP/1.1 if the
+     *                               server does not support HTTP/2
+     * @param connectTimeout         timeout for establishing a connection
+     * @param requestTimeout         timeout for each exchange
+     */
+    public HttpUpstreamExchange(
+            final Map<String, URI> endpointsByCertProfile,
+            final URI defaultUri,
+            final HttpClient.Version version,
+            final Duration connectTimeout,
+            final Duration requestTimeout) {
+        this.endpointsByCertProfile = new HashMap<>(endpointsByCertProfile);
+        this.defaultUri = defaultUri;
+        this.requestTimeout = requestTimeout;
+        httpClient = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    private HttpRequest buildRequest(final byte[] request, final String certProfile) throws IOException {
+        final URI uri = certProfile == null ? defaultUri : endpointsByCertProfile.getOrDefault(certProfile, defaultUri);
+        if (uri == null) {
+            throw new IOException("no upstream endpoint for certificate profile " + certProfile);
+        }
+        return HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("Content-Type", RaHttpServer.CMP_CONTENT_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(request))
+                .build();
+    }
+
+    private byte[] evaluateResponse(final HttpResponse<byte[]> response, final long startNanos) throws IOException {
+        exchangeFinished(startNanos);
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2ResponseCount.increment();
+        }
+        if (response.statusCode() != HTTP_OK) {
+            failureCount.increment();
+            throw new IOException(
+                    "upstream " + response.uri() + " responded with HTTP status " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private void exchangeFinished(final long startNanos) {
+        final long latency = System.nanoTime() - startNanos;
+        inFlightCount.decrement();
+        totalLatencyNanos.add(latency);
+        maxLatencyNanos.accumulate(latency);
+    }
+
+    private long exchangeStarted() {
+        requestCount.increment();
+        inFlightCount.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * @return current statistics of this exchange
+     */
+    public UpstreamStatistics getStatistics() {
+        return new UpstreamStatistics(
+                requestCount.sum(),
+                failureCount.sum(),
+                http2ResponseCount.sum(),
+                inFlightCount.sum(),
+                totalLatencyNanos.sum(),
+                maxLatencyNanos.get());
+    }
+
+    @Override
+    public byte[] sendReceiveMessage(final byte[] request, final String certProfile, final int bodyTypeOfFirstRequest)
+            throws Exception {
+        final HttpRequest httpRequest = buildRequest(request, certProfile);
+        final long startNanos = exchangeStarted();
+        final HttpResponse<byte[]> response;
+        try {
+            response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (final IOException | InterruptedException | RuntimeException ex) {
+            exchangeFinished(startNanos);
+            failureCount.increment();
+            throw ex;
+        }
+        return evaluateResponse(response, startNanos);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> sendReceiveMessageAsync(
+            final byte[] request, final String certProfile, final int bodyTypeOfFirstRequest) {
+        final HttpRequest httpRequest;
+        try {
+            httpRequest = buildRequest(request, certProfile);
+        } catch (final IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        final long startNanos = exchangeStarted();
+        final CompletableFuture<byte[]> ret = new CompletableFuture<>();
+        httpClient
+                .sendAsync(httpRequest, HttpResponse.BodyHandlers.ofByteArray())
+                .whenComplete((response, ex) -> {
+                    if (ex != null) {
+                        exchangeFinished(startNanos);
+                        failureCount.increment();
+                        ret.completeExceptionally(ex);
+                        return;
+                    }
+                    try {
+                        ret.complete(evaluateResponse(response, startNanos));
+                    } catch (final IOException ioex) {
+                        ret.completeExceptionally(ioex);
+                    }
+                });
+        return ret;
+    }
+}
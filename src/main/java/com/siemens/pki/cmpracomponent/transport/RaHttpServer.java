@@ -0,0 +1,275 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.transport;
+
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface;
+import com.siemens.pki.cmpracomponent.util.VirtualThreads;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * embeddable HTTP server passing CMP messages (content type
+ * application/pkixcmp, RFC 6712) to a {@link CmpRaInterface}, based on the JDK
+ * HTTP server. Connections are kept alive between requests. Requests are
+ * processed by a bounded worker pool, requests exceeding the configured number
+ * of concurrent requests are rejected with HTTP status 503.
+ */
+public class RaHttpServer implements AutoCloseable {
+
+    /**
+     * content type of CMP messages
+     */
+    public static final String CMP_CONTENT_TYPE = "application/pkixcmp";
+
+    /**
+     * default maximum size of a request in bytes
+     */
+    public static final int DEFAULT_MAX_REQUEST_SIZE = 1024 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RaHttpServer.class);
+
+    private static final AtomicInteger WORKER_COUNT = new AtomicInteger();
+
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+
+    private static final int HTTP_OK = 200;
+
+    private static final int HTTP_BAD_METHOD = 405;
+
+    private static final int HTTP_ENTITY_TOO_LARGE = 413;
+
+    private static final int HTTP_UNSUPPORTED_TYPE = 415;
+
+    private static final int HTTP_INTERNAL_ERROR = 500;
+
+    private static final int HTTP_UNAVAILABLE = 503;
+
+    private static ExecutorService createWorkerPool(final int workerThreads) {
+        final ThreadPoolExecutor ret = new ThreadPoolExecutor(
+                workerThreads,
+                workerThreads,
+                WORKER_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                // the queue is bounded by the admission control
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "cmp-http-worker-" + WORKER_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        ret.allowCoreThreadTimeOut(true);
+        return ret;
+    }
+
+    private static void sendStatus(final HttpExchange exchange, final int status) throws IOException {
+        if (status == HTTP_UNAVAILABLE) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private final HttpServer server;
+
+    private final CmpRaInterface raComponent;
+
+    private final ExecutorService workers;
+
+    private final Semaphore admittedRequests;
+
+    private final int maxRequestSize;
+
+    /**
+     * create a server with a worker pool of twice the number of processors, up
+     * to 16 times the number of processors concurrent requests and a maximum
+     * request size of {@link #DEFAULT_MAX_REQUEST_SIZE}
+     *
+     * @param address     address to listen on
+     * @param raComponent RA to pass the requests to
+     * @throws IOException if the server socket could not be bound
+     */
+    public RaHttpServer(final InetSocketAddress address, final CmpRaInterface raComponent) throws IOException {
+        this(
+                address,
+                raComponent,
+                2 * Runtime.getRuntime().availableProcessors(),
+                16 * Runtime.getRuntime().availableProcessors(),
+                DEFAULT_MAX_REQUEST_SIZE,
+                false);
+    }
+
+    /**
+     * create a server
+     *
+     * @param address               address to listen on
+     * @param raComponent           RA to pass the requests to
+     * @param workerThreads         number of threads processing requests, not
+     *                              used if virtual threads are used
+     * @param maxConcurrentRequests maximum number of requests in process or
+     *                              waiting for a worker, further requests are
+     *                              rejected with HTTP status 503
+     * @param maxRequestSize        maximum size of a request in bytes, larger
+     *                              requests are rejected with HTTP status 413
+     * @param useVirtualThreads     process each request in a new virtual thread
+     *                              if the runtime provides virtual threads
+     * @throws IOException if the server socket could not be bound
+     */
+    public RaHttpServer(
+            final InetSocketAddress address,
+            final CmpRaInterface raComponent,
+            final int workerThreads,
+            final int maxConcurrentRequests,
+            final int maxRequestSize,
+            final boolean useVirtualThreads)
+            throws IOException {
+        this.raComponent = raComponent;
+        this.maxRequestSize = maxRequestSize;
+        admittedRequests = new Semaphore(maxConcurrentRequests);
+        workers = useVirtualThreads
+                ? VirtualThreads.newVirtualThreadPerTaskExecutor(() -> createWorkerPool(workerThreads))
+                : createWorkerPool(workerThreads);
+        server = HttpServer.create(address, 0);
+        // no executor set, the admission control runs on the dispatcher thread
+        // and must not block it. Request bodies are only read by the workers.
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * stop the server immediately
+     */
+    @Override
+    public void close() {
+        stop(0);
+    }
+
+    /**
+     * @return the address the server listens on
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            reject(exchange, HTTP_BAD_METHOD);
+            return;
+        }
+        final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && !contentType.toLowerCase(Locale.ROOT).startsWith(CMP_CONTENT_TYPE)) {
+            reject(exchange, HTTP_UNSUPPORTED_TYPE);
+            return;
+        }
+        final String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            if (contentLength != null && Long.parseLong(contentLength) > maxRequestSize) {
+                reject(exchange, HTTP_ENTITY_TOO_LARGE);
+                return;
+            }
+        } catch (final NumberFormatException ex) {
+            reject(exchange, HTTP_ENTITY_TOO_LARGE);
+            return;
+        }
+        if (!admittedRequests.tryAcquire()) {
+            reject(exchange, HTTP_UNAVAILABLE);
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    process(exchange);
+                } finally {
+                    admittedRequests.release();
+                }
+            });
+        } catch (final RuntimeException ex) {
+            // worker pool shut down
+            admittedRequests.release();
+            reject(exchange, HTTP_UNAVAILABLE);
+        }
+    }
+
+    private void process(final HttpExchange exchange) {
+        try {
+            final byte[] request;
+            try (InputStream in = exchange.getRequestBody()) {
+                request = in.readNBytes(maxRequestSize + 1);
+            }
+            if (request.length > maxRequestSize) {
+                // the rest of the request is not read
+                reject(exchange, HTTP_ENTITY_TOO_LARGE);
+                return;
+            }
+            final byte[] response;
+            try {
+                response = raComponent.processRequest(request);
+            } catch (final Exception ex) {
+                LOGGER.error("request processing failed", ex);
+                sendStatus(exchange, HTTP_INTERNAL_ERROR);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CMP_CONTENT_TYPE);
+            exchange.sendResponseHeaders(HTTP_OK, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (final IOException ex) {
+            LOGGER.warn("HTTP exchange with " + exchange.getRemoteAddress() + " failed", ex);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void reject(final HttpExchange exchange, final int status) throws IOException {
+        // the request body is not read, reading it could block the dispatcher
+        // thread. Announce that the connection is closed after the response
+        // instead of keeping it alive with unread data.
+        exchange.getResponseHeaders().set("Connection", "close");
+        sendStatus(exchange, status);
+    }
+
+    /**
+     * start the server
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * stop the server
+     *
+     * @param delaySeconds maximum time in seconds to wait for the completion of
+     *                     current exchanges
+     */
+    public void stop(final int delaySeconds) {
+        server.stop(delaySeconds);
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.transport;
+
+/**
+ * snapshot of the statistics of a {@link HttpUpstreamExchange}
+ */
+public final class UpstreamStatistics {
+
+    private final long requestCount;
+
+    private final long failureCount;
+
+    private final long http2ResponseCount;
+
+    private final long inFlightCount;
+
+    private final long totalLatencyNanos;
+
+    private final long maxLatencyNanos;
+
+    UpstreamStatistics(
+            final long requestCount,
+            final long failureCount,
+            final long http2ResponseCount,
+            final long inFlightCount,
+            final long totalLatencyNanos,
+            final long maxLatencyNanos) {
+        this.requestCount = requestCount;
+        this.failureCount = failureCount;
+        this.http2ResponseCount = http2ResponseCount;
+        this.inFlightCount = inFlightCount;
+        this.totalLatencyNanos = totalLatencyNanos;
+        this.maxLatencyNanos = maxLatencyNanos;
+    }
+
+    /**
+     * @return average time in nanoseconds of a completed exchange
+     */
+    public long getAverageLatencyNanos() {
+        final long completed = requestCount - inFlightCount;
+        return completed <= 0 ? 0 : totalLatencyNanos / completed;
+    }
+
+    /**
+     * @return number of exchanges failed by a transport error or an HTTP status
+     *         other than 200
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return number of responses received by HTTP/2, these exchanges shared
+     *         connections with other exchanges
+     */
+    public long getHttp2ResponseCount() {
+        return http2ResponseCount;
+    }
+
+    /**
+     * @return number of exchanges waiting for the response
+     */
+    public long getInFlightCount() {
+        return inFlightCount;
+    }
+
+    /**
+     * @return longest time in nanoseconds of a completed exchange
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * @return number of started exchanges
+     */
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    @Override
+    public String toString() {
+        return "UpstreamStatistics [requestCount=" + requestCount + ", failureCount=" + failureCount
+                + ", http2ResponseCount=" + http2ResponseCount + ", inFlightCount=" + inFlightCount
+                + ", averageLatencyNanos=" + getAverageLatencyNanos() + ", maxLatencyNanos=" + maxLatencyNanos + "]";
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.util;
+
+import com.siemens.pki.cmpracomponent.msgvalidation.BaseCmpException;
+import com.siemens.pki.cmpracomponent.msgvalidation.CmpProcessingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+import org.bouncycastle.asn1.cmp.PKIFailureInfo;
+
+/**
+ * utility functions to handle {@link CompletableFuture}s
+ */
+public class FutureUtil {
+
+    // calls requested by callDeferred() inside of runLocked() on this thread
+    private static final ThreadLocal<List<Runnable>> DEFERRED_CALLS = new ThreadLocal<>();
+
+    private FutureUtil() {}
+
+    /**
+     * call a blocking function after the lock held by the calling thread in
+     * {@link #runLocked(Lock, Supplier)} was released. Outside of
+     * {@link #runLocked(Lock, Supplier)} the function is called immediately.
+     *
+     * @param <T>      result type
+     * @param callable function to call
+     * @return a future completed with the result or exception of the function
+     */
+    public static <T> CompletableFuture<T> callDeferred(final Callable<T> callable) {
+        final List<Runnable> deferredCalls = DEFERRED_CALLS.get();
+        if (deferredCalls == null) {
+            return completeWith(callable);
+        }
+        final CompletableFuture<T> ret = new CompletableFuture<>();
+        deferredCalls.add(() -> {
+            try {
+                ret.complete(callable.call());
+            } catch (final Throwable th) {
+                ret.completeExceptionally(th);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * run a section holding a lock, the functions passed to
+     * {@link #callDeferred(Callable)} within the section are called by the
+     * calling thread after the lock was released
+     *
+     * @param <T>     result type
+     * @param lock    lock to hold or <code>null</code>
+     * @param section section to run
+     * @return result of the section
+     */
+    public static <T> T runLocked(final Lock lock, final Supplier<T> section) {
+        final List<Runnable> outerDeferredCalls = DEFERRED_CALLS.get();
+        final List<Runnable> deferredCalls = new ArrayList<>();
+        final T ret;
+        DEFERRED_CALLS.set(deferredCalls);
+        try {
+            if (lock != null) {
+                lock.lock();
+            }
+            try {
+                ret = section.get();
+            } finally {
+                if (lock != null) {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            if (outerDeferredCalls != null) {
+                DEFERRED_CALLS.set(outerDeferredCalls);
+            } else {
+                DEFERRED_CALLS.remove();
+            }
+            for (final Runnable aktCall : deferredCalls) {
+                aktCall.run();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * call a function and provide its result or exception as completed future
+     *
+     * @param <T>      result type
+     * @param callable function to call
+     * @return a completed future
+     */
+    public static <T> CompletableFuture<T> completeWith(final Callable<T> callable) {
+        try {
+            return CompletableFuture.completedFuture(callable.call());
+        } catch (final Exception ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    /**
+     * wait for a future
+     *
+     * @param <T>           result type
+     * @param future        future to wait for
+     * @param interfaceName interface name used for error reporting
+     * @return result of the future
+     * @throws BaseCmpException if the future failed
+     */
+    public static <T> T getSynchronously(final CompletableFuture<T> future, final String interfaceName)
+            throws BaseCmpException {
+        try {
+            return future.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CmpProcessingException(interfaceName, PKIFailureInfo.systemFailure, ex);
+        } catch (final ExecutionException ex) {
+            final Throwable cause = unwrap(ex);
+            if (cause instanceof BaseCmpException) {
+                throw (BaseCmpException) cause;
+            }
+            throw new CmpProcessingException(interfaceName, PKIFailureInfo.systemFailure, cause);
+        }
+    }
+
+    /**
+     * strip the wrapping exceptions added by {@link CompletableFuture}
+     *
+     * @param th exception thrown by or passed to a stage
+     * @return the original exception
+     */
+    public static Throwable unwrap(final Throwable th) {
+        Throwable ret = th;
+        while ((ret instanceof CompletionException || ret instanceof ExecutionException) && ret.getCause() != null) {
+            ret = ret.getCause();
+        }
+        return ret;
+    }
+}
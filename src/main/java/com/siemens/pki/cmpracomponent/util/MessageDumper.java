@@ -75,7 +75,6 @@ public class MessageDumper {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MessageDumper.class);
     private static final Map<Integer, String> TYPE_MAP = new ConcurrentHashMap<>();
-    private static Map<ASN1ObjectIdentifier, OidDescription> oidToKeyMap;
 
     static {
         // load symbolic names defined in PKIBody
@@ -174,8 +173,7 @@ public class MessageDumper {
      * @return OID Description for a given OID (ASN.1 representation)
      */
     public static OidDescription getOidDescriptionForOid(final ASN1ObjectIdentifier oid) {
-        initNameOidMaps();
-        final OidDescription ret = oidToKeyMap.get(oid);
+        final OidDescription ret = NameOidMapHolder.OID_TO_KEY_MAP.get(oid);
         if (ret == null) {
             return new OidDescription(null, "<unknown>", oid);
         }
@@ -424,15 +422,16 @@ public class MessageDumper {
         ret.append(": <could not decode, skipped> ==============\n");
     }
 
+    // lazy initialized on first use by the class loader
+    private static class NameOidMapHolder {
+        private static final Map<ASN1ObjectIdentifier, OidDescription> OID_TO_KEY_MAP = initNameOidMaps();
+    }
+
     /**
      * // load ObjectIdentifiers defined somewhere in BouncyCastle
      */
-    private static synchronized void initNameOidMaps() {
-        if (oidToKeyMap != null) {
-            // already initialized
-            return;
-        }
-        oidToKeyMap = new HashMap<>();
+    private static Map<ASN1ObjectIdentifier, OidDescription> initNameOidMaps() {
+        final Map<ASN1ObjectIdentifier, OidDescription> oidToKeyMap = new HashMap<>();
         for (final Class<?> aktClass : Arrays.asList(
                 CMPObjectIdentifiers.class,
                 PKCSObjectIdentifiers.class,
@@ -483,6 +482,7 @@ public class MessageDumper {
                 }
             }
         }
+        return oidToKeyMap;
     }
 
     /**
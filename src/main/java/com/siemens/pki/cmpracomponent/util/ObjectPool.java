@@ -0,0 +1,74 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * bounded pool of objects which are expensive to create and not thread-safe,
+ * shared by all threads. Unlike a {@link ThreadLocal} the pool also serves
+ * short-lived virtual threads. An object is used by one thread between
+ * {@link #borrow()} and {@link #release(Object)}.
+ *
+ * @param <T> type of the pooled objects
+ */
+public class ObjectPool<T> {
+
+    private final ConcurrentLinkedQueue<T> idleObjects = new ConcurrentLinkedQueue<>();
+
+    // ConcurrentLinkedQueue.size() is not a constant-time operation
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final int maxIdleObjects;
+
+    /**
+     * @param maxIdleObjects maximum number of objects kept for reuse
+     */
+    public ObjectPool(final int maxIdleObjects) {
+        this.maxIdleObjects = maxIdleObjects;
+    }
+
+    /**
+     * take an idle object from the pool
+     *
+     * @return an object used exclusively by the caller until it is released or
+     *         <code>null</code> if the caller has to create a new one
+     */
+    public T borrow() {
+        final T ret = idleObjects.poll();
+        if (ret != null) {
+            idleCount.decrementAndGet();
+        }
+        return ret;
+    }
+
+    /**
+     * give a borrowed object back to the pool. Objects left in an undefined
+     * state by a failed operation must not be released.
+     *
+     * @param object the borrowed object, dropped if the pool is full
+     */
+    public void release(final T object) {
+        if (idleCount.incrementAndGet() > maxIdleObjects) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        idleObjects.offer(object);
+    }
+}
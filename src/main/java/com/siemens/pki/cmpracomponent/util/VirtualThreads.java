@@ -0,0 +1,75 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * access to virtual threads if the runtime provides them. The component is
+ * compiled for Java 11, so the Java 21 API is looked up at runtime.
+ */
+public class VirtualThreads {
+
+    // null if the runtime does not provide virtual threads
+    private static final MethodHandle NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookupExecutorFactory();
+
+    private static MethodHandle lookupExecutorFactory() {
+        try {
+            return MethodHandles.publicLookup()
+                    .findStatic(
+                            Executors.class,
+                            "newVirtualThreadPerTaskExecutor",
+                            MethodType.methodType(ExecutorService.class));
+        } catch (final NoSuchMethodException | IllegalAccessException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the runtime provides virtual threads
+     */
+    public static boolean isSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * create an executor starting a new virtual thread for each task
+     *
+     * @param fallback provides the executor to use if the runtime does not
+     *                 provide virtual threads
+     * @return a virtual thread per task executor or the fallback executor
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(final Supplier<ExecutorService> fallback) {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invokeExact();
+            } catch (final Throwable ex) {
+                // fall through to the fallback executor
+            }
+        }
+        return fallback.get();
+    }
+
+    // utility class
+    private VirtualThreads() {}
+}
@@ -0,0 +1,102 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpclientcomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.siemens.pki.cmpclientcomponent.main.CmpClient.EnrollmentResult;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent;
+import com.siemens.pki.cmpracomponent.test.framework.CmpCaMock;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HttpCaStub;
+import com.siemens.pki.cmpracomponent.transport.HttpUpstreamExchange;
+import com.siemens.pki.cmpracomponent.transport.RaHttpServer;
+import com.siemens.pki.cmpracomponent.transport.UpstreamStatistics;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Collections;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * client, RA and CA connected by {@link HttpUpstreamExchange}s
+ */
+public class TestCrOverHttp extends EnrollmentTestcaseBase {
+
+    private static final String UPSTREAM_TRUST_PATH = "credentials/CMP_CA_Root.pem";
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private HttpCaStub caStub;
+
+    private RaHttpServer raServer;
+
+    private HttpUpstreamExchange raUpstream;
+
+    private HttpUpstreamExchange clientUpstream;
+
+    @Before
+    public void setUp() throws Exception {
+        caStub = new HttpCaStub(new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12"), 2);
+        raUpstream = new HttpUpstreamExchange(
+                Collections.emptyMap(), caStub.getUri("/ca"), HttpClient.Version.HTTP_2, TIMEOUT, TIMEOUT);
+        raServer = new RaHttpServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                CmpRaComponent.instantiateAsyncCmpRaComponent(
+                        ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(), raUpstream));
+        raServer.start();
+        clientUpstream = new HttpUpstreamExchange(
+                URI.create("http://localhost:" + raServer.getAddress().getPort() + "/ra"), TIMEOUT);
+        upstreamExchange = clientUpstream;
+    }
+
+    @After
+    public void tearDown() {
+        raServer.close();
+        caStub.close();
+    }
+
+    @Test
+    public void testCr() throws Exception {
+        final EnrollmentResult ret = getSignatureBasedCmpClient(
+                        "theCertProfileForOnlineEnrollment",
+                        getClientContext(
+                                PKIBody.TYPE_CERT_REQ,
+                                ConfigurationFactory.getKeyGenerator().generateKeyPair(),
+                                null),
+                        UPSTREAM_TRUST_PATH)
+                .invokeEnrollment();
+        assertNotNull(ret);
+        final UpstreamStatistics clientStatistics = clientUpstream.getStatistics();
+        // cr and certConf
+        assertEquals(2, clientStatistics.getRequestCount());
+        assertEquals(0, clientStatistics.getFailureCount());
+        assertEquals(0, clientStatistics.getInFlightCount());
+        final UpstreamStatistics raStatistics = raUpstream.getStatistics();
+        assertEquals(caStub.getRequestCount(), raStatistics.getRequestCount());
+        assertEquals(0, raStatistics.getFailureCount());
+        // the connection to the CA was reused
+        assertEquals(1, caStub.getConnectionCount());
+    }
+}
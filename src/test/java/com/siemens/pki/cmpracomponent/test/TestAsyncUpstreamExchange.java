@@ -0,0 +1,158 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.protection.ProtectionProvider;
+import com.siemens.pki.cmpracomponent.test.framework.CmpCaMock;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.asn1.cmp.CertRepMessage;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Test;
+
+/**
+ * requests processed with {@link CmpRaInterface#processRequestAsync(byte[])}
+ * must not block the calling thread while the upstream exchange is pending
+ */
+public class TestAsyncUpstreamExchange extends CmpTestcaseBase {
+
+    private static final int NUMBER_OF_REQUESTS = 20;
+
+    private static final class PendingExchange {
+        private final byte[] request;
+        private final String certProfile;
+        private final int bodyTypeOfFirstRequest;
+        private final CompletableFuture<byte[]> response = new CompletableFuture<>();
+
+        private PendingExchange(final byte[] request, final String certProfile, final int bodyTypeOfFirstRequest) {
+            this.request = request;
+            this.certProfile = certProfile;
+            this.bodyTypeOfFirstRequest = bodyTypeOfFirstRequest;
+        }
+    }
+
+    private static PKIMessage generateCr(final ProtectionProvider protectionProvider, final int index)
+            throws Exception {
+        final KeyPair keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        return PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest("theCertProfileForOnlineEnrollment"),
+                protectionProvider,
+                PkiMessageGenerator.generateIrCrKurBody(
+                        PKIBody.TYPE_CERT_REQ,
+                        new CertTemplateBuilder()
+                                .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                        keyPair.getPublic().getEncoded()))
+                                .setSubject(new X500Name("CN=Subject" + index))
+                                .build(),
+                        null,
+                        keyPair.getPrivate()));
+    }
+
+    @Test
+    public void testPendingUpstreamExchanges() throws Exception {
+        final CmpCaMock caMock = new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12");
+        final ConcurrentLinkedQueue<PendingExchange> pendingExchanges = new ConcurrentLinkedQueue<>();
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateAsyncCmpRaComponent(
+                ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(),
+                (request, certProfile, bodyTypeOfFirstRequest) -> {
+                    final PendingExchange exchange = new PendingExchange(request, certProfile, bodyTypeOfFirstRequest);
+                    pendingExchanges.add(exchange);
+                    return exchange.response;
+                });
+        final ProtectionProvider protectionProvider = ConfigurationFactory.getEeSignaturebasedProtectionProvider();
+        final List<CompletableFuture<byte[]>> responses = new ArrayList<>(NUMBER_OF_REQUESTS);
+        for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+            responses.add(raComponent.processRequestAsync(
+                    generateCr(protectionProvider, i).getEncoded()));
+        }
+        // all transactions wait for upstream, none of them holds a thread
+        assertEquals(NUMBER_OF_REQUESTS, pendingExchanges.size());
+        for (final CompletableFuture<byte[]> aktResponse : responses) {
+            assertFalse(aktResponse.isDone());
+        }
+
+        final ExecutorService upstream = Executors.newFixedThreadPool(2);
+        try {
+            for (final PendingExchange aktExchange : pendingExchanges) {
+                upstream.execute(() -> {
+                    try {
+                        aktExchange.response.complete(caMock.sendReceiveMessage(
+                                aktExchange.request, aktExchange.certProfile, aktExchange.bodyTypeOfFirstRequest));
+                    } catch (final Exception ex) {
+                        aktExchange.response.completeExceptionally(ex);
+                    }
+                });
+            }
+            for (final CompletableFuture<byte[]> aktResponse : responses) {
+                final PKIMessage response = PKIMessage.getInstance(aktResponse.get(60, TimeUnit.SECONDS));
+                assertEquals(PKIBody.TYPE_CERT_REP, response.getBody().getType());
+                assertNotNull(((CertRepMessage) response.getBody().getContent())
+                        .getResponse()[0]
+                        .getCertifiedKeyPair()
+                        .getCertOrEncCert()
+                        .getCertificate());
+            }
+        } finally {
+            upstream.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailingUpstreamExchange() throws Exception {
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateAsyncCmpRaComponent(
+                ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(),
+                (request, certProfile, bodyTypeOfFirstRequest) ->
+                        CompletableFuture.failedFuture(new IllegalStateException("upstream broken")));
+        final PKIMessage response = PKIMessage.getInstance(raComponent
+                .processRequestAsync(generateCr(ConfigurationFactory.getEeSignaturebasedProtectionProvider(), 0)
+                        .getEncoded())
+                .get(60, TimeUnit.SECONDS));
+        assertEquals(PKIBody.TYPE_ERROR, response.getBody().getType());
+    }
+
+    @Test
+    public void testNullFutureFromUpstreamExchange() throws Exception {
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateAsyncCmpRaComponent(
+                ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(),
+                (request, certProfile, bodyTypeOfFirstRequest) -> null);
+        final PKIMessage response = PKIMessage.getInstance(raComponent
+                .processRequestAsync(generateCr(ConfigurationFactory.getEeSignaturebasedProtectionProvider(), 0)
+                        .getEncoded())
+                .get(60, TimeUnit.SECONDS));
+        assertEquals(PKIBody.TYPE_ERROR, response.getBody().getType());
+    }
+}
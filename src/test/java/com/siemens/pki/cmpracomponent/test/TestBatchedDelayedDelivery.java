@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.protection.ProtectionProvider;
+import com.siemens.pki.cmpracomponent.test.framework.CmpCaMock;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import org.bouncycastle.asn1.cmp.CMPCertificate;
+import org.bouncycastle.asn1.cmp.CertRepMessage;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.cmp.PKIStatus;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Test;
+
+/**
+ * delivery of several delayed responses at once via
+ * {@link CmpRaInterface#gotResponsesAtUpstream(java.util.Collection)}
+ */
+public class TestBatchedDelayedDelivery extends CmpTestcaseBase {
+
+    private static final int NUMBER_OF_TRANSACTIONS = 3;
+
+    private static PKIMessage sendToRa(final CmpRaInterface raComponent, final PKIMessage request) throws Exception {
+        return PKIMessage.getInstance(raComponent.processRequest(request.getEncoded()));
+    }
+
+    @Test
+    public void testBatchedDelivery() throws Exception {
+        final List<byte[]> requestsAtUpstream = new ArrayList<>();
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateCmpRaComponent(
+                ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(),
+                (request, certProfile, bodyTypeOfFirstRequest) -> {
+                    requestsAtUpstream.add(request);
+                    // trigger delayed delivery
+                    return null;
+                });
+        final ProtectionProvider protectionProvider = ConfigurationFactory.getEeSignaturebasedProtectionProvider();
+        final List<PKIMessage> waitingResponses = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+            final KeyPair keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+            final PKIMessage cr = PkiMessageGenerator.generateAndProtectMessage(
+                    new HeaderProviderForTest("theCertProfileForDelayedEnrollment"),
+                    protectionProvider,
+                    PkiMessageGenerator.generateIrCrKurBody(
+                            PKIBody.TYPE_CERT_REQ,
+                            new CertTemplateBuilder()
+                                    .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                            keyPair.getPublic().getEncoded()))
+                                    .setSubject(new X500Name("CN=Subject" + i))
+                                    .build(),
+                            null,
+                            keyPair.getPrivate()));
+            final PKIMessage waitingResponse = sendToRa(raComponent, cr);
+            assertEquals(PKIBody.TYPE_CERT_REP, waitingResponse.getBody().getType());
+            assertEquals(
+                    PKIStatus.WAITING,
+                    ((CertRepMessage) waitingResponse.getBody().getContent())
+                            .getResponse()[0]
+                            .getStatus()
+                            .getStatus()
+                            .intValue());
+            waitingResponses.add(waitingResponse);
+        }
+
+        // the CA works off its backlog and all responses are delivered at once
+        final CmpCaMock caMock = new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12");
+        final List<byte[]> delayedResponses = new ArrayList<>();
+        for (final byte[] aktRequest : requestsAtUpstream) {
+            delayedResponses.add(
+                    caMock.sendReceiveMessage(aktRequest, "theCertProfileForDelayedEnrollment", PKIBody.TYPE_CERT_REQ));
+        }
+        // a duplicate and a garbled response are rejected, the others are stored
+        delayedResponses.add(delayedResponses.get(0));
+        delayedResponses.add(new byte[] {1, 2, 3});
+        try {
+            raComponent.gotResponsesAtUpstream(delayedResponses);
+            fail("rejected responses not reported");
+        } catch (final IllegalStateException ex) {
+            assertEquals(2, ex.getSuppressed().length);
+        }
+
+        for (final PKIMessage aktWaitingResponse : waitingResponses) {
+            final PKIMessage pollReq = PkiMessageGenerator.generateAndProtectMessage(
+                    new HeaderProviderForTest(aktWaitingResponse.getHeader()),
+                    protectionProvider,
+                    PkiMessageGenerator.generatePollReq());
+            final PKIMessage certResponse = sendToRa(raComponent, pollReq);
+            assertEquals(PKIBody.TYPE_CERT_REP, certResponse.getBody().getType());
+            final CMPCertificate enrolledCertificate = ((CertRepMessage)
+                            certResponse.getBody().getContent())
+                    .getResponse()[0]
+                    .getCertifiedKeyPair()
+                    .getCertOrEncCert()
+                    .getCertificate();
+            assertNotNull(enrolledCertificate);
+            final PKIMessage certConf = PkiMessageGenerator.generateAndProtectMessage(
+                    new HeaderProviderForTest(certResponse.getHeader()),
+                    protectionProvider,
+                    PkiMessageGenerator.generateCertConfBody(enrolledCertificate));
+            assertEquals(
+                    PKIBody.TYPE_CONFIRM,
+                    sendToRa(raComponent, certConf).getBody().getType());
+        }
+    }
+}
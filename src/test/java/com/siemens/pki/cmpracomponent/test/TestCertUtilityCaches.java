@@ -0,0 +1,226 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Test;
+
+/**
+ * results memorized and certificates cached by {@link CertUtility}
+ */
+public class TestCertUtilityCaches {
+
+    private static final X500Name SUBJECT = new X500Name("CN=CertUtility Test");
+
+    private static KeyPair generateKeyPair() throws Exception {
+        return KeyPairGenerator.getInstance("Ed25519", CertUtility.getBouncyCastleProvider())
+                .generateKeyPair();
+    }
+
+    /**
+     * build a certificate with the given subject, issuer is {@link #SUBJECT}
+     *
+     * @param withKeyIdentifiers add authority and subject key identifier
+     */
+    private static X509Certificate createCertificate(
+            final X500Name subject,
+            final BigInteger serialNumber,
+            final PublicKey publicKey,
+            final PublicKey issuerPublicKey,
+            final PrivateKey issuerKey,
+            final boolean withKeyIdentifiers)
+            throws Exception {
+        final long now = System.currentTimeMillis();
+        final X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                SUBJECT, serialNumber, new Date(now - 60_000L), new Date(now + 3_600_000L), subject, publicKey);
+        if (withKeyIdentifiers) {
+            final JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+            builder.addExtension(
+                    Extension.authorityKeyIdentifier,
+                    false,
+                    extensionUtils.createAuthorityKeyIdentifier(issuerPublicKey));
+            builder.addExtension(
+                    Extension.subjectKeyIdentifier, false, extensionUtils.createSubjectKeyIdentifier(publicKey));
+        }
+        return new JcaX509CertificateConverter()
+                .setProvider(CertUtility.getBouncyCastleProvider())
+                .getCertificate(builder.build(new JcaContentSignerBuilder("Ed25519")
+                        .setProvider(CertUtility.getBouncyCastleProvider())
+                        .build(issuerKey)));
+    }
+
+    @Test
+    public void testIsIntermediateCertificate() throws Exception {
+        final KeyPair issuerKeyPair = generateKeyPair();
+        final KeyPair keyPair = generateKeyPair();
+        final X509Certificate selfSigned = createCertificate(
+                SUBJECT,
+                BigInteger.ONE,
+                issuerKeyPair.getPublic(),
+                issuerKeyPair.getPublic(),
+                issuerKeyPair.getPrivate(),
+                true);
+        final X509Certificate otherSubject = createCertificate(
+                new X500Name("CN=Other"),
+                BigInteger.TWO,
+                keyPair.getPublic(),
+                issuerKeyPair.getPublic(),
+                issuerKeyPair.getPrivate(),
+                false);
+        // self-issued with another key, recognized by the key identifiers
+        final X509Certificate keyRollover = createCertificate(
+                SUBJECT,
+                BigInteger.valueOf(3),
+                keyPair.getPublic(),
+                issuerKeyPair.getPublic(),
+                issuerKeyPair.getPrivate(),
+                true);
+        // self-issued with another key, recognized by signature verification
+        final X509Certificate keyRolloverWithoutIdentifiers = createCertificate(
+                SUBJECT,
+                BigInteger.valueOf(4),
+                keyPair.getPublic(),
+                issuerKeyPair.getPublic(),
+                issuerKeyPair.getPrivate(),
+                false);
+        final X509Certificate selfSignedWithoutIdentifiers = createCertificate(
+                SUBJECT, BigInteger.valueOf(5), keyPair.getPublic(), keyPair.getPublic(), keyPair.getPrivate(), false);
+        // the second round is answered from the memorized results
+        for (int round = 0; round < 2; round++) {
+            assertFalse(CertUtility.isIntermediateCertificate(selfSigned));
+            assertTrue(CertUtility.isIntermediateCertificate(otherSubject));
+            assertTrue(CertUtility.isIntermediateCertificate(keyRollover));
+            assertTrue(CertUtility.isIntermediateCertificate(keyRolloverWithoutIdentifiers));
+            assertFalse(CertUtility.isIntermediateCertificate(selfSignedWithoutIdentifiers));
+        }
+    }
+
+    @Test
+    public void testDecodedCertificateCache() throws Exception {
+        final KeyPair keyPair = generateKeyPair();
+        final X509Certificate cert = createCertificate(
+                SUBJECT, BigInteger.valueOf(6), keyPair.getPublic(), keyPair.getPublic(), keyPair.getPrivate(), true);
+        final byte[] encoded = cert.getEncoded();
+        final X509Certificate decoded = CertUtility.asX509Certificate(encoded);
+        assertEquals(cert, decoded);
+        // a hit returns the cached certificate
+        assertSame(decoded, CertUtility.asX509Certificate(encoded.clone()));
+        // modifying the encoding after decoding must not affect the cache
+        Arrays.fill(encoded, (byte) 0);
+        assertEquals(cert, CertUtility.asX509Certificate(cert.getEncoded()));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedCertificatesEvicted() throws Exception {
+        final KeyPair keyPair = generateKeyPair();
+        final X509Certificate frequentlyUsed = createCertificate(
+                new X500Name("CN=Frequently used"),
+                BigInteger.valueOf(7),
+                keyPair.getPublic(),
+                keyPair.getPublic(),
+                keyPair.getPrivate(),
+                false);
+        final X509Certificate usedOnce = createCertificate(
+                new X500Name("CN=Used once"),
+                BigInteger.valueOf(8),
+                keyPair.getPublic(),
+                keyPair.getPublic(),
+                keyPair.getPrivate(),
+                false);
+        final X509Certificate cachedFrequentlyUsed = CertUtility.asX509Certificate(frequentlyUsed.getEncoded());
+        final X509Certificate cachedUsedOnce = CertUtility.asX509Certificate(usedOnce.getEncoded());
+        // more certificates than the 10000 kept in the cache
+        for (int i = 0; i < 10_100; i++) {
+            final X509Certificate cert = createCertificate(
+                    new X500Name("CN=Decoded " + i),
+                    BigInteger.valueOf(i + 100),
+                    keyPair.getPublic(),
+                    keyPair.getPublic(),
+                    keyPair.getPrivate(),
+                    false);
+            assertEquals(cert, CertUtility.asX509Certificate(cert.getEncoded()));
+            if (i % 1000 == 0) {
+                assertSame(cachedFrequentlyUsed, CertUtility.asX509Certificate(frequentlyUsed.getEncoded()));
+            }
+        }
+        assertSame(cachedFrequentlyUsed, CertUtility.asX509Certificate(frequentlyUsed.getEncoded()));
+        assertNotSame(cachedUsedOnce, CertUtility.asX509Certificate(usedOnce.getEncoded()));
+    }
+
+    @Test
+    public void testConcurrentDecoding() throws Exception {
+        final KeyPair keyPair = generateKeyPair();
+        final List<X509Certificate> certs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            certs.add(createCertificate(
+                    new X500Name("CN=Concurrent " + i),
+                    BigInteger.valueOf(i + 1),
+                    keyPair.getPublic(),
+                    keyPair.getPublic(),
+                    keyPair.getPrivate(),
+                    false));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int round = 0; round < 20; round++) {
+                        for (final X509Certificate aktCert : certs) {
+                            assertEquals(aktCert, CertUtility.asX509Certificate(aktCert.getEncoded()));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> aktFuture : futures) {
+                aktFuture.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.siemens.pki.cmpracomponent.configuration.PersistencyInterface;
+import com.siemens.pki.cmpracomponent.msgvalidation.CmpProcessingException;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * several RA instances, each with multiple threads, update the same
+ * transaction in a shared persistency. Every update is a load, modify and
+ * flush cycle, no update may get lost.
+ */
+public class TestConcurrentTransactionUpdates {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestConcurrentTransactionUpdates.class);
+
+    private static final int RA_INSTANCES = 3;
+
+    private static final int THREADS_PER_INSTANCE = 4;
+
+    private static final int UPDATES_PER_THREAD = 200;
+
+    private static final byte[] TRANSACTION_ID = "concurrentTransaction".getBytes();
+
+    @Test
+    public void testNoLostUpdates() throws Exception {
+        final PersistencyInterface sharedPersistency = new DefaultPersistencyImplementation(1000);
+        final AtomicInteger conflicts = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(RA_INSTANCES * THREADS_PER_INSTANCE);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int instance = 0; instance < RA_INSTANCES; instance++) {
+                // every RA instance has its own manager and in-process locks
+                final PersistencyContextManager manager = new PersistencyContextManager(sharedPersistency);
+                for (int t = 0; t < THREADS_PER_INSTANCE; t++) {
+                    futures.add(executor.submit(() -> {
+                        final Lock transactionLock = manager.getTransactionLock(TRANSACTION_ID);
+                        for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                            transactionLock.lock();
+                            try {
+                                for (; ; ) {
+                                    final PersistencyContext context =
+                                            manager.loadCreatePersistencyContext(TRANSACTION_ID);
+                                    // abuse the request type as counter
+                                    context.setRequestType(Math.max(context.getRequestType(), 0) + 1);
+                                    context.updateTransactionExpirationTime(
+                                            new Date(System.currentTimeMillis() + 3_600_000L));
+                                    try {
+                                        context.flush();
+                                        break;
+                                    } catch (final CmpProcessingException ex) {
+                                        // concurrently updated by another instance
+                                        conflicts.incrementAndGet();
+                                    }
+                                }
+                            } finally {
+                                transactionLock.unlock();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (final Future<?> aktFuture : futures) {
+                aktFuture.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        final PersistencyContext result =
+                new PersistencyContextManager(sharedPersistency).loadPersistencyContext(TRANSACTION_ID);
+        LOGGER.info("{} updates, {} conflicts detected and retried", result.getRequestType(), conflicts.get());
+        assertEquals(RA_INSTANCES * THREADS_PER_INSTANCE * UPDATES_PER_THREAD, result.getRequestType());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.siemens.pki.cmpracomponent.cryptoservices.TrustCredentialAdapter;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.SignatureValidationCredentials;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+/**
+ * concurrent certificate path validations with different revocation settings
+ * must neither influence each other nor JVM global properties
+ */
+public class TestConcurrentTrustValidation extends CmpTestcaseBase {
+
+    private static final int THREADS = 4;
+
+    private static final int ROUNDS = 25;
+
+    private static final String[] SYSTEM_PROPERTIES = {
+        "com.sun.security.enableAIAcaIssuers", "com.sun.security.enableCRLDP"
+    };
+
+    private static final String OCSP_ENABLE_PROP = "ocsp.enable";
+
+    @Test
+    public void testConcurrentValidation() throws Exception {
+        final List<X509Certificate> extraCerts =
+                ConfigurationFactory.getEeSignaturebasedCredentials().getCertificateChain();
+        // no revocation checking, validation succeeds
+        final SignatureValidationCredentials withoutRevocation =
+                new SignatureValidationCredentials("credentials/CMP_EE_Root.pem", null) {
+                    @Override
+                    public long getValidationCacheTimeToLive() {
+                        return 0;
+                    }
+                };
+        // revocation checking without any revocation information, validation fails
+        final SignatureValidationCredentials withRevocation =
+                new SignatureValidationCredentials("credentials/CMP_EE_Root.pem", null) {
+                    @Override
+                    public long getValidationCacheTimeToLive() {
+                        return 0;
+                    }
+
+                    @Override
+                    public boolean isAIAsEnabled() {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isCDPsEnabled() {
+                        return true;
+                    }
+                };
+        final String[] systemPropertiesBefore = new String[SYSTEM_PROPERTIES.length];
+        for (int i = 0; i < SYSTEM_PROPERTIES.length; i++) {
+            systemPropertiesBefore[i] = System.getProperty(SYSTEM_PROPERTIES[i]);
+        }
+        final String ocspEnableBefore = Security.getProperty(OCSP_ENABLE_PROP);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final boolean startWithRevocation = t % 2 == 0;
+                results.add(executor.submit((Callable<Void>) () -> {
+                    for (int i = 0; i < ROUNDS; i++) {
+                        if (startWithRevocation) {
+                            assertNull(new TrustCredentialAdapter(withRevocation)
+                                    .validateCertAgainstTrust(extraCerts.get(0), extraCerts));
+                        }
+                        assertNotNull(new TrustCredentialAdapter(withoutRevocation)
+                                .validateCertAgainstTrust(extraCerts.get(0), extraCerts));
+                        if (!startWithRevocation) {
+                            assertNull(new TrustCredentialAdapter(withRevocation)
+                                    .validateCertAgainstTrust(extraCerts.get(0), extraCerts));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<Void> aktResult : results) {
+                aktResult.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 0; i < SYSTEM_PROPERTIES.length; i++) {
+            assertEquals(SYSTEM_PROPERTIES[i], systemPropertiesBefore[i], System.getProperty(SYSTEM_PROPERTIES[i]));
+        }
+        assertEquals(OCSP_ENABLE_PROP, ocspEnableBefore, Security.getProperty(OCSP_ENABLE_PROP));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
+import com.siemens.pki.cmpracomponent.cryptoservices.TrustCredentialAdapter;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertUtility;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertificateFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.PKIXRevocationChecker;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * revocation checking against CRLs provided by the {@link VerificationContext}
+ * must give the same results with and without the CRL index
+ */
+public class TestCrlRevocation extends CmpTestcaseBase {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+    private static X509Certificate rootCert;
+
+    private static X509Certificate issuerCert;
+
+    private static X509Certificate revokedCert;
+
+    private static X509Certificate validCert;
+
+    private static X509CRL rootCrl;
+
+    private static X509CRL issuerCrl;
+
+    private static X509CRL buildCrl(
+            final X509Certificate issuer, final PrivateKey issuerKey, final X509Certificate... revoked)
+            throws Exception {
+        final long now = System.currentTimeMillis();
+        final X509v2CRLBuilder crlBuilder = new JcaX509v2CRLBuilder(issuer, new Date(now - 60_000L));
+        crlBuilder.setNextUpdate(new Date(now + 24 * 60 * 60 * 1000L));
+        for (final X509Certificate aktCert : revoked) {
+            crlBuilder.addCRLEntry(aktCert.getSerialNumber(), new Date(now - 30_000L), CRLReason.keyCompromise);
+        }
+        return new JcaX509CRLConverter()
+                .setProvider(TestCertUtility.BOUNCY_CASTLE_PROVIDER)
+                .getCRL(crlBuilder.build(new JcaContentSignerBuilder(SIGNATURE_ALGORITHM)
+                        .setProvider(TestCertUtility.BOUNCY_CASTLE_PROVIDER)
+                        .build(issuerKey)));
+    }
+
+    @BeforeClass
+    public static void setUpChain() throws Exception {
+        final KeyPair rootKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        final KeyPair issuerKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        final KeyPair eeKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        rootCert = TestCertificateFactory.createRootCertificate("CRL_TEST", rootKeyPair, SIGNATURE_ALGORITHM);
+        issuerCert = TestCertificateFactory.createIssuerCertificate(
+                "CRL_TEST", rootCert, rootKeyPair.getPrivate(), issuerKeyPair.getPublic(), SIGNATURE_ALGORITHM);
+        revokedCert = TestCertificateFactory.createEndEntityCertificate(
+                "CRL_TEST_REVOKED", issuerCert, issuerKeyPair.getPrivate(), eeKeyPair.getPublic(), SIGNATURE_ALGORITHM);
+        validCert = TestCertificateFactory.createEndEntityCertificate(
+                "CRL_TEST_VALID", issuerCert, issuerKeyPair.getPrivate(), eeKeyPair.getPublic(), SIGNATURE_ALGORITHM);
+        rootCrl = buildCrl(rootCert, rootKeyPair.getPrivate());
+        issuerCrl = buildCrl(issuerCert, issuerKeyPair.getPrivate(), revokedCert);
+    }
+
+    private static VerificationContext createContext(
+            final Collection<X509CRL> crls,
+            final boolean cdpsEnabled,
+            final EnumSet<PKIXRevocationChecker.Option> options) {
+        return new VerificationContext() {
+            @Override
+            public Collection<X509Certificate> getAdditionalCerts() {
+                return Collections.singletonList(issuerCert);
+            }
+
+            @Override
+            public Collection<X509CRL> getCRLs() {
+                return crls;
+            }
+
+            @Override
+            public EnumSet<PKIXRevocationChecker.Option> getPKIXRevocationCheckerOptions() {
+                return options;
+            }
+
+            @Override
+            public Collection<X509Certificate> getTrustedCertificates() {
+                return Collections.singletonList(rootCert);
+            }
+
+            @Override
+            public long getValidationCacheTimeToLive() {
+                return 0;
+            }
+
+            @Override
+            public boolean isCDPsEnabled() {
+                // CDPs enabled means the PKIX revocation checker is used
+                return cdpsEnabled;
+            }
+        };
+    }
+
+    private static void assertValidation(
+            final boolean expectedValid,
+            final X509Certificate cert,
+            final Collection<X509CRL> crls,
+            final EnumSet<PKIXRevocationChecker.Option> options)
+            throws Exception {
+        final List<X509Certificate> chain = Arrays.asList(cert, issuerCert);
+        final List<? extends X509Certificate> indexed =
+                new TrustCredentialAdapter(createContext(crls, false, options)).validateCertAgainstTrust(cert, chain);
+        final List<? extends X509Certificate> checkedByPkix =
+                new TrustCredentialAdapter(createContext(crls, true, options)).validateCertAgainstTrust(cert, chain);
+        if (expectedValid) {
+            assertNotNull("validation with CRL index", indexed);
+            assertNotNull("validation with PKIX revocation checker", checkedByPkix);
+            assertEquals(checkedByPkix, indexed);
+        } else {
+            assertNull("validation with CRL index", indexed);
+            assertNull("validation with PKIX revocation checker", checkedByPkix);
+        }
+    }
+
+    @Test
+    public void testRevocationStatus() throws Exception {
+        final List<X509CRL> allCrls = Arrays.asList(rootCrl, issuerCrl);
+        assertValidation(true, validCert, allCrls, null);
+        assertValidation(false, revokedCert, allCrls, null);
+    }
+
+    @Test
+    public void testMissingCrl() throws Exception {
+        final List<X509CRL> issuerCrlOnly = Collections.singletonList(issuerCrl);
+        // status of the issuer certificate unknown
+        assertValidation(false, validCert, issuerCrlOnly, null);
+        assertValidation(true, validCert, issuerCrlOnly, EnumSet.of(PKIXRevocationChecker.Option.ONLY_END_ENTITY));
+        assertValidation(true, validCert, issuerCrlOnly, EnumSet.of(PKIXRevocationChecker.Option.SOFT_FAIL));
+        assertValidation(false, revokedCert, issuerCrlOnly, EnumSet.of(PKIXRevocationChecker.Option.ONLY_END_ENTITY));
+    }
+}
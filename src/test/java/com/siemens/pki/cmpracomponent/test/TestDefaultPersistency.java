@@ -0,0 +1,131 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.siemens.pki.cmpracomponent.configuration.PersistencyInterface;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * concurrent saves, loads and clears of the
+ * {@link DefaultPersistencyImplementation} while the housekeeping runs
+ */
+public class TestDefaultPersistency {
+
+    private static final int THREADS = 8;
+
+    private static final int TRANSACTIONS_PER_THREAD = 100;
+
+    private static final int OPERATIONS_PER_THREAD = 20_000;
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        // housekeeping runs concurrently every 10 ms
+        final PersistencyInterface persistency = new DefaultPersistencyImplementation(10);
+        final Date expiration = new Date(System.currentTimeMillis() + 3_600_000L);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<?>> futures = new ArrayList<>(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                final int threadIndex = t;
+                futures.add(executor.submit(() -> {
+                    final Random random = new Random(threadIndex);
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        // every thread works on its own slice of transactions
+                        final byte[] transactionId =
+                                ("tid" + threadIndex + "_" + random.nextInt(TRANSACTIONS_PER_THREAD)).getBytes();
+                        final byte[] message = {(byte) threadIndex, (byte) i};
+                        persistency.saveLastMessage(transactionId, message, expiration);
+                        assertArrayEquals(message, persistency.getLastSavedMessage(transactionId));
+                        if (i % 4 == 0) {
+                            persistency.clearLastSavedMessage(transactionId);
+                            assertNull(persistency.getLastSavedMessage(transactionId));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> aktFuture : futures) {
+                aktFuture.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void testExpiredTransactionsReleased() throws Exception {
+        // housekeeping runs concurrently every ms
+        final PersistencyInterface persistency = new DefaultPersistencyImplementation(1);
+        final List<WeakReference<byte[]>> messages = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            // expires within the tick processed right now, never read again
+            final byte[] message = ("message" + i).getBytes();
+            messages.add(new WeakReference<>(message));
+            persistency.saveLastMessage(("tid" + i).getBytes(), message, new Date(System.currentTimeMillis()));
+        }
+        // the housekeeping drops every expired transaction
+        for (int i = 0; i < 100 && messages.stream().anyMatch(x -> x.get() != null); i++) {
+            Thread.sleep(50);
+            System.gc();
+        }
+        assertTrue(messages.stream().allMatch(x -> x.get() == null));
+    }
+
+    @Test
+    public void testExpirationAfterSeveralRevolutions() throws Exception {
+        // 1 ms ticks, one revolution of the housekeeping takes less than a second
+        final PersistencyInterface persistency = new DefaultPersistencyImplementation(1);
+        final long start = System.currentTimeMillis();
+        persistency.saveLastMessage("longLived".getBytes(), "message".getBytes(), new Date(start + 2_500L));
+        persistency.saveLastMessage("cleared".getBytes(), "message".getBytes(), new Date(start + 100L));
+        persistency.clearLastSavedMessage("cleared".getBytes());
+        Thread.sleep(2_000L);
+        // passed its bucket several times, but not yet expired
+        assertArrayEquals("message".getBytes(), persistency.getLastSavedMessage("longLived".getBytes()));
+        assertNull(persistency.getLastSavedMessage("cleared".getBytes()));
+        Thread.sleep(1_000L);
+        assertNull(persistency.getLastSavedMessage("longLived".getBytes()));
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        final PersistencyInterface persistency = new DefaultPersistencyImplementation(10);
+        persistency.saveLastMessage(
+                "shortLived".getBytes(), "message".getBytes(), new Date(System.currentTimeMillis() + 50));
+        persistency.saveLastMessage(
+                "longLived".getBytes(), "message".getBytes(), new Date(System.currentTimeMillis() + 3_600_000L));
+        Thread.sleep(200);
+        assertNull(persistency.getLastSavedMessage("shortLived".getBytes()));
+        assertArrayEquals("message".getBytes(), persistency.getLastSavedMessage("longLived".getBytes()));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.msgvalidation.CmpProcessingException;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import java.security.KeyPair;
+import java.util.Date;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * a delayed response stored while the downstream processing of the same
+ * transaction waited for an asynchronous upstream response must not make the
+ * downstream processing fail
+ */
+public class TestDelayedResponseTakeover extends CmpTestcaseBase {
+
+    private PKIMessage ir;
+
+    private byte[] transactionId;
+
+    private PersistencyContextManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        final KeyPair keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        ir = PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest("theCertProfile"),
+                ConfigurationFactory.getEeSignaturebasedProtectionProvider(),
+                PkiMessageGenerator.generateIrCrKurBody(
+                        PKIBody.TYPE_INIT_REQ,
+                        new CertTemplateBuilder()
+                                .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                        keyPair.getPublic().getEncoded()))
+                                .setSubject(new X500Name("CN=Subject"))
+                                .build(),
+                        null,
+                        keyPair.getPrivate()));
+        transactionId = ir.getHeader().getTransactionID().getOctets();
+        manager = new PersistencyContextManager(new DefaultPersistencyImplementation(1000));
+        final PersistencyContext context = manager.loadCreatePersistencyContext(transactionId);
+        context.setCertProfile("theCertProfile");
+        context.setRequestType(PKIBody.TYPE_INIT_REQ);
+        context.trackMessage(ir);
+        context.updateTransactionExpirationTime(new Date(System.currentTimeMillis() + 3_600_000L));
+        context.flush();
+    }
+
+    @Test
+    public void testDelayedResponseTakenOver() throws Exception {
+        final PersistencyContext downstreamContext = manager.loadPersistencyContext(transactionId);
+        // meanwhile the delayed response arrives at upstream
+        final PersistencyContext upstreamContext = manager.loadPersistencyContext(transactionId);
+        upstreamContext.setPendingDelayedResponse(ir);
+        upstreamContext.flush();
+
+        downstreamContext.setDelayedDeliveryInProgress(true);
+        downstreamContext.flushTakingOverDelayedResponse();
+        final PersistencyContext reloaded = manager.loadPersistencyContext(transactionId);
+        assertTrue(reloaded.getDelayedDeliveryInProgress());
+        assertEquals(ir, reloaded.getPendingDelayedResponse());
+    }
+
+    @Test(expected = CmpProcessingException.class)
+    public void testOtherUpdateNotTakenOver() throws Exception {
+        final PersistencyContext downstreamContext = manager.loadPersistencyContext(transactionId);
+        final PersistencyContext otherContext = manager.loadPersistencyContext(transactionId);
+        otherContext.setCertProfile("anotherCertProfile");
+        otherContext.flush();
+
+        downstreamContext.setDelayedDeliveryInProgress(true);
+        downstreamContext.flushTakingOverDelayedResponse();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.msgvalidation.BaseCmpException;
+import com.siemens.pki.cmpracomponent.msgvalidation.ProtectionValidator;
+import com.siemens.pki.cmpracomponent.protection.ProtectionProviderFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import com.siemens.pki.cmpracomponent.test.framework.SharedSecret;
+import java.nio.ByteBuffer;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.junit.Test;
+
+/**
+ * keys derived for the validation of MAC protected messages are cached per
+ * salt and parameters, but must not outlive a changed shared secret
+ */
+public class TestDerivedKeyCache {
+
+    /**
+     * shared secret which might be changed at runtime
+     */
+    private static class ChangingVerificationContext implements VerificationContext {
+        private volatile byte[] sharedSecret = "firstSecret".getBytes();
+
+        @Override
+        public byte[] getSharedSecret(final byte[] senderKID) {
+            return sharedSecret;
+        }
+    }
+
+    private static final byte[] SENDER_KID = "derivedKeyCacheKid".getBytes();
+
+    private static PKIMessage generateMessage(final String macAlgorithm, final byte[] sharedSecret, final byte[] salt)
+            throws Exception {
+        return PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest("theCertProfile"),
+                ProtectionProviderFactory.createProtectionProvider(
+                        new SharedSecret(macAlgorithm, sharedSecret, "SHA256", SENDER_KID, salt, "SHA256", 1000)),
+                PkiMessageGenerator.generatePkiConfirmBody());
+    }
+
+    private static boolean isValid(final VerificationContext context, final PKIMessage message) {
+        try {
+            new ProtectionValidator("test", context).validate(message);
+            return true;
+        } catch (final BaseCmpException ex) {
+            return false;
+        }
+    }
+
+    private static void assertChangedSecret(final String macAlgorithm) throws Exception {
+        final ChangingVerificationContext context = new ChangingVerificationContext();
+        final byte[] salt = {1, 2, 3};
+        final PKIMessage withFirstSecret = generateMessage(macAlgorithm, "firstSecret".getBytes(), salt);
+        // the second validation uses the cached key
+        assertTrue(isValid(context, withFirstSecret));
+        assertTrue(isValid(context, withFirstSecret));
+        context.sharedSecret = "secondSecret".getBytes();
+        assertFalse(isValid(context, withFirstSecret));
+        assertTrue(isValid(context, generateMessage(macAlgorithm, "secondSecret".getBytes(), salt)));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        // PBMAC1 keys share the same cache
+        final String macAlgorithm = "PASSWORDBASEDMAC";
+        final ChangingVerificationContext context = new ChangingVerificationContext();
+        final PKIMessage firstMessage = generateMessage(macAlgorithm, context.sharedSecret, new byte[] {1});
+        assertTrue(isValid(context, firstMessage));
+        // more salts than the 1000 keys kept in the cache
+        for (int i = 0; i < 1100; i++) {
+            assertTrue(isValid(
+                    context,
+                    generateMessage(
+                            macAlgorithm,
+                            context.sharedSecret,
+                            ByteBuffer.allocate(4).putInt(i).array())));
+        }
+        // the evicted key is derived again
+        assertTrue(isValid(context, firstMessage));
+        context.sharedSecret = "secondSecret".getBytes();
+        assertFalse(isValid(context, firstMessage));
+    }
+
+    @Test
+    public void testPasswordBasedMacChangedSecret() throws Exception {
+        assertChangedSecret("PASSWORDBASEDMAC");
+    }
+
+    @Test
+    public void testPbmac1ChangedSecret() throws Exception {
+        assertChangedSecret("PBMAC1");
+    }
+}
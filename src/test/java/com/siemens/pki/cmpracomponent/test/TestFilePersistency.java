@@ -0,0 +1,179 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.siemens.pki.cmpracomponent.configuration.VersionedMessage;
+import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import com.siemens.pki.cmpracomponent.persistency.FilePersistencyImplementation;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * save, restart, recovery and compaction of the
+ * {@link FilePersistencyImplementation}
+ */
+public class TestFilePersistency {
+
+    private static final Date FAR_FUTURE = new Date(System.currentTimeMillis() + 3_600_000L);
+
+    private static final byte[] KEY_WRAPPING_KEY = CertUtility.generateRandomBytes(16);
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes();
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<Path> listSegments(final Path directory) throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files.filter(x -> x.toString().endsWith(".segment")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        final Path directory = folder.newFolder().toPath();
+        try (final FilePersistencyImplementation persistency =
+                new FilePersistencyImplementation(directory, KEY_WRAPPING_KEY, 4096, 20, false)) {
+            // overwrite the same transactions over and over, filling many segments
+            for (int i = 0; i < 2000; i++) {
+                persistency.saveLastMessage(bytes("tid" + i % 3), bytes("message " + i), FAR_FUTURE);
+            }
+            persistency.saveLastMessage(bytes("short"), bytes("shortLived"), new Date());
+            for (int i = 0; i < 100 && listSegments(directory).size() > 2; i++) {
+                Thread.sleep(50);
+            }
+            final List<Path> segments = listSegments(directory);
+            assertTrue(segments.size() <= 2);
+            // many segments were written and compacted
+            assertTrue(Long.parseLong(segments.get(0).getFileName().toString().split("\\.")[0]) > 10);
+            assertArrayEquals(bytes("message 1999"), persistency.getLastSavedMessage(bytes("tid" + 1999 % 3)));
+        }
+        try (final FilePersistencyImplementation persistency =
+                new FilePersistencyImplementation(directory, KEY_WRAPPING_KEY)) {
+            assertArrayEquals(bytes("message 1997"), persistency.getLastSavedMessage(bytes("tid" + 1997 % 3)));
+            assertArrayEquals(bytes("message 1998"), persistency.getLastSavedMessage(bytes("tid" + 1998 % 3)));
+            assertArrayEquals(bytes("message 1999"), persistency.getLastSavedMessage(bytes("tid" + 1999 % 3)));
+            assertNull(persistency.getLastSavedMessage(bytes("short")));
+        }
+    }
+
+    @Test
+    public void testKeyWrappingKey() throws Exception {
+        final Path directory = folder.newFolder().toPath();
+        final Path keyFile = folder.newFolder().toPath().resolve("keywrapping.key");
+        final byte[] key = FilePersistencyImplementation.loadOrCreateKeyWrappingKey(keyFile);
+        assertEquals(16, key.length);
+        assertArrayEquals(key, FilePersistencyImplementation.loadOrCreateKeyWrappingKey(keyFile));
+        try (final FilePersistencyImplementation persistency = new FilePersistencyImplementation(directory, key)) {
+            persistency.saveLastMessage(bytes("tid1"), bytes("message"), FAR_FUTURE);
+            assertArrayEquals(key, persistency.getAesKeyForKeyWrapping());
+        }
+        // the key is not stored along with the persisted data
+        try (final Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.map(x -> x.getFileName().toString())
+                    .allMatch(x -> x.endsWith(".segment") || x.equals("lock")));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidKeyWrappingKey() throws Exception {
+        new FilePersistencyImplementation(folder.newFolder().toPath(), new byte[7]).close();
+    }
+
+    @Test
+    public void testRecoveryOfTornWrite() throws Exception {
+        final Path directory = folder.newFolder().toPath();
+        try (final FilePersistencyImplementation persistency =
+                new FilePersistencyImplementation(directory, KEY_WRAPPING_KEY)) {
+            persistency.saveLastMessage(bytes("tid1"), bytes("complete"), FAR_FUTURE);
+            persistency.saveLastMessage(bytes("tid2"), bytes("torn"), FAR_FUTURE);
+        }
+        // damage the last record
+        final Path segment = listSegments(directory).get(0);
+        final byte[] content = Files.readAllBytes(segment);
+        int end = content.length;
+        while (content[end - 1] == 0) {
+            end--;
+        }
+        try (final RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(end - 1);
+            file.write(0x55);
+        }
+        try (final FilePersistencyImplementation persistency =
+                new FilePersistencyImplementation(directory, KEY_WRAPPING_KEY)) {
+            assertArrayEquals(bytes("complete"), persistency.getLastSavedMessage(bytes("tid1")));
+            assertNull(persistency.getLastSavedMessage(bytes("tid2")));
+            persistency.saveLastMessage(bytes("tid3"), bytes("after recovery"), FAR_FUTURE);
+        }
+        try (final FilePersistencyImplementation persistency =
+                new FilePersistencyImplementation(directory, KEY_WRAPPING_KEY)) {
+            assertArrayEquals(bytes("complete"), persistency.getLastSavedMessage(bytes("tid1")));
+            assertNull(persistency.getLastSavedMessage(bytes("tid2")));
+            assertArrayEquals(bytes("after recovery"), persistency.getLastSavedMessage(bytes("tid3")));
+        }
+    }
+
+    @Test
+    public void testSaveRestartAndClear() throws Exception {
+        final Path directory = folder.newFolder().toPath();
+        final long version;
+        try (final FilePersistencyImplementation persistency =
+                new FilePersistencyImplementation(directory, KEY_WRAPPING_KEY)) {
+            persistency.saveLastMessage(bytes("tid1"), bytes("first"), FAR_FUTURE);
+            persistency.saveLastMessage(bytes("tid1"), bytes("second"), FAR_FUTURE);
+            persistency.saveLastMessage(bytes("tid2"), bytes("cleared"), FAR_FUTURE);
+            persistency.clearLastSavedMessage(bytes("tid2"));
+            persistency.saveLastMessage(bytes("tid3"), bytes("expired"), new Date(System.currentTimeMillis() - 1));
+            version = persistency.getLastSavedVersionedMessage(bytes("tid1")).getVersion();
+            assertEquals(
+                    VersionedMessage.NOT_SAVED,
+                    persistency.saveLastMessageIfUnchanged(bytes("tid1"), bytes("stale"), FAR_FUTURE, version - 1));
+            assertArrayEquals(bytes("second"), persistency.getLastSavedMessage(bytes("tid1")));
+            assertNull(persistency.getLastSavedMessage(bytes("tid2")));
+            assertNull(persistency.getLastSavedMessage(bytes("tid3")));
+        }
+        try (final FilePersistencyImplementation persistency =
+                new FilePersistencyImplementation(directory, KEY_WRAPPING_KEY)) {
+            assertArrayEquals(KEY_WRAPPING_KEY, persistency.getAesKeyForKeyWrapping());
+            final VersionedMessage restored = persistency.getLastSavedVersionedMessage(bytes("tid1"));
+            assertArrayEquals(bytes("second"), restored.getMessage());
+            assertEquals(version, restored.getVersion());
+            assertNull(persistency.getLastSavedMessage(bytes("tid2")));
+            assertNull(persistency.getLastSavedMessage(bytes("tid3")));
+            assertTrue(persistency.saveLastMessageIfUnchanged(bytes("tid1"), bytes("third"), FAR_FUTURE, version)
+                    > version);
+            assertArrayEquals(bytes("third"), persistency.getLastSavedMessage(bytes("tid1")));
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.siemens.pki.cmpracomponent.configuration.GetCaCertificatesHandler;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertUtility;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.cmp.CMPObjectIdentifiers;
+import org.bouncycastle.asn1.cmp.GenMsgContent;
+import org.bouncycastle.asn1.cmp.GenRepContent;
+import org.bouncycastle.asn1.cmp.InfoTypeAndValue;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.junit.Test;
+
+/**
+ * concurrent identical GENM requests share one invocation of the support
+ * message handler
+ */
+public class TestGenmCoalescing extends CmpTestcaseBase {
+
+    private static final int NUMBER_OF_REQUESTS = 8;
+
+    private final AtomicInteger handlerInvocations = new AtomicInteger();
+
+    // counted down for each request looking up the handler
+    private final CountDownLatch requestsArrived = new CountDownLatch(NUMBER_OF_REQUESTS);
+
+    private final Set<Thread> arrivedThreads = ConcurrentHashMap.newKeySet();
+
+    private final CountDownLatch handlerEntered = new CountDownLatch(1);
+
+    private final CountDownLatch releaseHandler = new CountDownLatch(1);
+
+    private GetCaCertificatesHandler arrivingAtBlockingHandler() {
+        arrivedThreads.add(Thread.currentThread());
+        requestsArrived.countDown();
+        return () -> {
+            handlerInvocations.incrementAndGet();
+            handlerEntered.countDown();
+            try {
+                releaseHandler.await(60, TimeUnit.SECONDS);
+                return TestCertUtility.loadCertificatesFromFile("credentials/CaCerts.pem");
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    /**
+     * generate a request of another transaction sharing the given lock, it
+     * needs not to be valid to wait for the lock
+     */
+    private static PKIMessage generateRequestSharingLock(final PersistencyContextManager lockProvider, final Lock lock)
+            throws Exception {
+        while (true) {
+            final PKIMessage ret = PkiMessageGenerator.generateUnprotectMessage(
+                    new HeaderProviderForTest("GetCaCertsCertProfile"), PkiMessageGenerator.generatePkiConfirmBody());
+            if (lockProvider.getTransactionLock(
+                            ret.getHeader().getTransactionID().getOctets())
+                    == lock) {
+                return ret;
+            }
+        }
+    }
+
+    private static PKIMessage generateGetCaCerts() throws Exception {
+        return PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest("GetCaCertsCertProfile"),
+                ConfigurationFactory.getEeSignaturebasedProtectionProvider(),
+                new PKIBody(
+                        PKIBody.TYPE_GEN_MSG,
+                        new GenMsgContent(new InfoTypeAndValue(CMPObjectIdentifiers.id_it_caCerts))));
+    }
+
+    private static void assertResponse(final PKIMessage request, final byte[] encodedResponse) {
+        final PKIMessage response = PKIMessage.getInstance(encodedResponse);
+        assertEquals(PKIBody.TYPE_GEN_REP, response.getBody().getType());
+        assertEquals(
+                request.getHeader().getTransactionID(), response.getHeader().getTransactionID());
+        assertEquals(request.getHeader().getSenderNonce(), response.getHeader().getRecipNonce());
+        final InfoTypeAndValue itav = ((GenRepContent) response.getBody().getContent()).toInfoTypeAndValueArray()[0];
+        assertEquals(CMPObjectIdentifiers.id_it_caCerts, itav.getInfoType());
+        assertTrue(ASN1Sequence.getInstance(itav.getInfoValue()).size() > 0);
+    }
+
+    @Test
+    public void testConcurrentGetCaCerts() throws Exception {
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateCmpRaComponent(
+                ConfigurationFactory.buildSignatureBasedDownstreamOnlyConfiguration(this::arrivingAtBlockingHandler),
+                (request, certProfile, bodyTypeOfFirstRequest) -> null);
+        // transactions sharing a lock would be processed one after the other
+        final PersistencyContextManager lockProvider =
+                new PersistencyContextManager(new DefaultPersistencyImplementation(1000));
+        final Set<Lock> usedLocks = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<PKIMessage> requests = new ArrayList<>(NUMBER_OF_REQUESTS);
+        while (requests.size() < NUMBER_OF_REQUESTS) {
+            final PKIMessage request = generateGetCaCerts();
+            if (usedLocks.add(lockProvider.getTransactionLock(
+                    request.getHeader().getTransactionID().getOctets()))) {
+                requests.add(request);
+            }
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_REQUESTS);
+        try {
+            final List<Future<byte[]>> responses = new ArrayList<>(NUMBER_OF_REQUESTS);
+            for (final PKIMessage aktRequest : requests) {
+                responses.add(executor.submit(() -> raComponent.processRequest(aktRequest.getEncoded())));
+            }
+            // all requests reached the handler lookup while the first invocation blocks
+            assertTrue(handlerEntered.await(60, TimeUnit.SECONDS));
+            assertTrue(requestsArrived.await(60, TimeUnit.SECONDS));
+            // after the lookup a request blocks only in the handler or while
+            // waiting for the running invocation
+            for (final Thread aktThread : arrivedThreads) {
+                while (aktThread.getState() != Thread.State.WAITING
+                        && aktThread.getState() != Thread.State.TIMED_WAITING) {
+                    Thread.sleep(1);
+                }
+            }
+            releaseHandler.countDown();
+            for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+                assertResponse(requests.get(i), responses.get(i).get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, handlerInvocations.get());
+
+        // results are not cached beyond the running invocation
+        final PKIMessage laterRequest = generateGetCaCerts();
+        assertResponse(laterRequest, raComponent.processRequest(laterRequest.getEncoded()));
+        assertEquals(2, handlerInvocations.get());
+    }
+
+    @Test
+    public void testTransactionLocksReleasedWhileWaiting() throws Exception {
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateCmpRaComponent(
+                ConfigurationFactory.buildSignatureBasedDownstreamOnlyConfiguration(this::arrivingAtBlockingHandler),
+                (request, certProfile, bodyTypeOfFirstRequest) -> null);
+        final PersistencyContextManager lockProvider =
+                new PersistencyContextManager(new DefaultPersistencyImplementation(1000));
+        final PKIMessage firstRequest = generateGetCaCerts();
+        final Lock firstLock = lockProvider.getTransactionLock(
+                firstRequest.getHeader().getTransactionID().getOctets());
+        PKIMessage waitingRequest;
+        do {
+            waitingRequest = generateGetCaCerts();
+        } while (lockProvider.getTransactionLock(
+                        waitingRequest.getHeader().getTransactionID().getOctets())
+                == firstLock);
+        final Lock waitingLock = lockProvider.getTransactionLock(
+                waitingRequest.getHeader().getTransactionID().getOctets());
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final Future<byte[]> firstResponse =
+                    executor.submit(() -> raComponent.processRequest(firstRequest.getEncoded()));
+            assertTrue(handlerEntered.await(60, TimeUnit.SECONDS));
+            final PKIMessage secondRequest = waitingRequest;
+            final Future<byte[]> waitingResponse =
+                    executor.submit(() -> raComponent.processRequest(secondRequest.getEncoded()));
+            while (arrivedThreads.size() < 2) {
+                Thread.sleep(1);
+            }
+            for (final Thread aktThread : arrivedThreads) {
+                while (aktThread.getState() != Thread.State.WAITING
+                        && aktThread.getState() != Thread.State.TIMED_WAITING) {
+                    Thread.sleep(1);
+                }
+            }
+            // neither the invoking nor the waiting request holds its transaction
+            // lock, well before the blocked handler gives up
+            for (final Lock aktLock : Arrays.asList(firstLock, waitingLock)) {
+                final PKIMessage otherRequest = generateRequestSharingLock(lockProvider, aktLock);
+                assertEquals(
+                        PKIBody.TYPE_ERROR,
+                        PKIMessage.getInstance(
+                                        executor.submit(() -> raComponent.processRequest(otherRequest.getEncoded()))
+                                                .get(10, TimeUnit.SECONDS))
+                                .getBody()
+                                .getType());
+            }
+            releaseHandler.countDown();
+            assertResponse(firstRequest, firstResponse.get(60, TimeUnit.SECONDS));
+            assertResponse(waitingRequest, waitingResponse.get(60, TimeUnit.SECONDS));
+        } finally {
+            releaseHandler.countDown();
+            executor.shutdown();
+        }
+        assertEquals(1, handlerInvocations.get());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.test.framework.CmpCaMock;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import com.siemens.pki.cmpracomponent.test.framework.HttpCaStub;
+import com.siemens.pki.cmpracomponent.transport.HttpUpstreamExchange;
+import com.siemens.pki.cmpracomponent.transport.UpstreamStatistics;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * RA upstream by {@link HttpUpstreamExchange} to local HTTP stubs of the CA
+ */
+public class TestHttpUpstreamExchange extends CmpTestcaseBase {
+
+    private static final String CERT_PROFILE = "theCertProfileForOnlineEnrollment";
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private HttpCaStub profileCaStub;
+
+    private HttpCaStub defaultCaStub;
+
+    private static byte[] generateCr(final String certProfile, final int index) throws Exception {
+        final KeyPair keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        return PkiMessageGenerator.generateAndProtectMessage(
+                        new HeaderProviderForTest(certProfile),
+                        ConfigurationFactory.getEeSignaturebasedProtectionProvider(),
+                        PkiMessageGenerator.generateIrCrKurBody(
+                                PKIBody.TYPE_CERT_REQ,
+                                new CertTemplateBuilder()
+                                        .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                                keyPair.getPublic().getEncoded()))
+                                        .setSubject(new X500Name("CN=Subject" + index))
+                                        .build(),
+                                null,
+                                keyPair.getPrivate()))
+                .getEncoded();
+    }
+
+    private static int getResponseType(final byte[] response) {
+        return PKIMessage.getInstance(response).getBody().getType();
+    }
+
+    @Before
+    public void startCaStubs() throws Exception {
+        final CmpCaMock caMock = new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12");
+        profileCaStub = new HttpCaStub(caMock, 2);
+        defaultCaStub = new HttpCaStub(caMock, 2);
+    }
+
+    @After
+    public void stopCaStubs() {
+        profileCaStub.close();
+        defaultCaStub.close();
+    }
+
+    @Test
+    public void testEndpointsAndConnectionReuse() throws Exception {
+        final HttpUpstreamExchange upstream = new HttpUpstreamExchange(
+                Collections.singletonMap(CERT_PROFILE, profileCaStub.getUri("/profile")),
+                defaultCaStub.getUri("/default"),
+                HttpClient.Version.HTTP_1_1,
+                TIMEOUT,
+                TIMEOUT);
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateCmpRaComponent(
+                ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(), upstream);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(
+                    PKIBody.TYPE_CERT_REP, getResponseType(raComponent.processRequest(generateCr(CERT_PROFILE, i))));
+        }
+        assertEquals(
+                PKIBody.TYPE_CERT_REP, getResponseType(raComponent.processRequest(generateCr("anotherProfile", 5))));
+        assertEquals(5, profileCaStub.getRequestCount());
+        assertEquals(1, defaultCaStub.getRequestCount());
+        // sequential requests share one connection
+        assertEquals(1, profileCaStub.getConnectionCount());
+        final UpstreamStatistics statistics = upstream.getStatistics();
+        assertEquals(6, statistics.getRequestCount());
+        assertEquals(0, statistics.getFailureCount());
+        assertEquals(0, statistics.getInFlightCount());
+    }
+
+    @Test
+    public void testAsyncExchangeWithFailures() throws Exception {
+        final URI unreachable;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            unreachable = URI.create("http://localhost:" + socket.getLocalPort() + "/closed");
+        }
+        // HTTP/2 is negotiated down to HTTP/1.1 by the stub
+        final HttpUpstreamExchange upstream = new HttpUpstreamExchange(
+                Collections.singletonMap("unreachableProfile", unreachable),
+                defaultCaStub.getUri("/default"),
+                HttpClient.Version.HTTP_2,
+                TIMEOUT,
+                TIMEOUT);
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateAsyncCmpRaComponent(
+                ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(), upstream);
+        final List<CompletableFuture<byte[]>> responses = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            responses.add(raComponent.processRequestAsync(generateCr(CERT_PROFILE, i)));
+        }
+        final CompletableFuture<byte[]> failed = raComponent.processRequestAsync(generateCr("unreachableProfile", 4));
+        for (final CompletableFuture<byte[]> aktResponse : responses) {
+            assertEquals(PKIBody.TYPE_CERT_REP, getResponseType(aktResponse.get(60, TimeUnit.SECONDS)));
+        }
+        assertEquals(PKIBody.TYPE_ERROR, getResponseType(failed.get(60, TimeUnit.SECONDS)));
+        final UpstreamStatistics statistics = upstream.getStatistics();
+        assertEquals(5, statistics.getRequestCount());
+        assertEquals(1, statistics.getFailureCount());
+        assertEquals(0, statistics.getInFlightCount());
+        assertEquals(0, statistics.getHttp2ResponseCount());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
+import com.siemens.pki.cmpracomponent.cryptoservices.TrustCredentialAdapter;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertificateFactory;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * validation against a large trust list, with the prepared trust anchors
+ * reused for the same {@link VerificationContext}
+ */
+public class TestLargeTrustList extends CmpTestcaseBase {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+    private static final int OTHER_ROOTS = 500;
+
+    private static X509Certificate rootCert;
+
+    // same subject as the root, but another key
+    private static X509Certificate decoyRootCert;
+
+    private static X509Certificate issuerCert;
+
+    private static X509Certificate eeCert;
+
+    private static Set<X509Certificate> otherRoots;
+
+    @BeforeClass
+    public static void setUpTrustList() throws Exception {
+        final KeyPair rootKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        final KeyPair issuerKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        final KeyPair otherKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        rootCert = TestCertificateFactory.createRootCertificate("LARGE_TRUST", rootKeyPair, SIGNATURE_ALGORITHM);
+        decoyRootCert = TestCertificateFactory.createRootCertificate("LARGE_TRUST", otherKeyPair, SIGNATURE_ALGORITHM);
+        issuerCert = TestCertificateFactory.createIssuerCertificate(
+                "LARGE_TRUST", rootCert, rootKeyPair.getPrivate(), issuerKeyPair.getPublic(), SIGNATURE_ALGORITHM);
+        eeCert = TestCertificateFactory.createEndEntityCertificate(
+                "LARGE_TRUST_EE",
+                issuerCert,
+                issuerKeyPair.getPrivate(),
+                otherKeyPair.getPublic(),
+                SIGNATURE_ALGORITHM);
+        otherRoots = new HashSet<>();
+        for (int i = 0; i < OTHER_ROOTS; i++) {
+            otherRoots.add(
+                    TestCertificateFactory.createRootCertificate("OTHER_" + i, otherKeyPair, SIGNATURE_ALGORITHM));
+        }
+    }
+
+    private static VerificationContext withLargeTrustList(final X509Certificate... roots) {
+        final Set<X509Certificate> trust = new HashSet<>(otherRoots);
+        trust.addAll(Arrays.asList(roots));
+        return new VerificationContext() {
+            @Override
+            public Collection<X509Certificate> getTrustedCertificates() {
+                return trust;
+            }
+        };
+    }
+
+    private static List<? extends X509Certificate> validate(final VerificationContext context) throws Exception {
+        return new TrustCredentialAdapter(context).validateCertAgainstTrust(eeCert, Arrays.asList(eeCert, issuerCert));
+    }
+
+    @Test
+    public void testDecoyRootOnly() throws Exception {
+        assertNull(validate(withLargeTrustList(decoyRootCert)));
+    }
+
+    @Test
+    public void testRootMissing() throws Exception {
+        assertNull(validate(withLargeTrustList()));
+    }
+
+    @Test
+    public void testValidation() throws Exception {
+        final List<X509Certificate> expectedChain = Arrays.asList(eeCert, issuerCert);
+        // a new context per validation
+        assertEquals(expectedChain, validate(withLargeTrustList(rootCert)));
+        assertEquals(expectedChain, validate(withLargeTrustList(decoyRootCert, rootCert)));
+        // the same context for consecutive validations
+        final VerificationContext sharedContext = withLargeTrustList(decoyRootCert, rootCert);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expectedChain, validate(sharedContext));
+        }
+        // another certificate validated against the prepared trust anchors
+        assertNotNull(new TrustCredentialAdapter(sharedContext)
+                .validateCertAgainstTrust(issuerCert, Collections.singletonList(issuerCert)));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.siemens.pki.cmpracomponent.util.ObjectPool;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * reuse and bounds of the {@link ObjectPool}
+ */
+public class TestObjectPool {
+
+    private static int drain(final ObjectPool<Object> pool) {
+        int ret = 0;
+        while (pool.borrow() != null) {
+            ret++;
+        }
+        return ret;
+    }
+
+    @Test
+    public void testBounded() {
+        final ObjectPool<Object> pool = new ObjectPool<>(2);
+        assertNull(pool.borrow());
+        for (int i = 0; i < 5; i++) {
+            pool.release(new Object());
+        }
+        assertEquals(2, drain(pool));
+        assertNull(pool.borrow());
+    }
+
+    @Test
+    public void testReuse() {
+        final ObjectPool<Object> pool = new ObjectPool<>(2);
+        final Object released = new Object();
+        pool.release(released);
+        assertSame(released, pool.borrow());
+        assertNull(pool.borrow());
+    }
+
+    @Test
+    public void testSharedByShortLivedThreads() throws Exception {
+        final ObjectPool<Object> pool = new ObjectPool<>(16);
+        final AtomicInteger created = new AtomicInteger();
+        final Set<Object> inUse = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        final AtomicInteger sharedUses = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        // a new thread per task, like a virtual thread per task executor
+        for (int i = 0; i < 200; i++) {
+            final Thread thread = new Thread(() -> {
+                Object borrowed = pool.borrow();
+                if (borrowed == null) {
+                    created.incrementAndGet();
+                    borrowed = new Object();
+                }
+                if (!inUse.add(borrowed)) {
+                    sharedUses.incrementAndGet();
+                }
+                inUse.remove(borrowed);
+                pool.release(borrowed);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (final Thread aktThread : threads) {
+            aktThread.join();
+        }
+        assertEquals(0, sharedUses.get());
+        // objects created by finished threads are reused
+        assertTrue(created.get() < 200);
+        assertTrue(drain(pool) <= 16);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
+import com.siemens.pki.cmpracomponent.cryptoservices.TrustCredentialAdapter;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertUtility;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertificateFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.jcajce.JcaBasicOCSPRespBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * caching of OCSP responses from the responder configured in the
+ * {@link VerificationContext}, tested against a local stub responder
+ */
+public class TestOcspResponseCache extends CmpTestcaseBase {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+    private static final long WAIT_FOR_REFRESH_MILLIS = 5_000L;
+
+    private static KeyPair rootKeyPair;
+
+    private static KeyPair eeKeyPair;
+
+    private static X509Certificate rootCert;
+
+    private static HttpServer responder;
+
+    private static URI responderUri;
+
+    private static final AtomicInteger requestCount = new AtomicInteger();
+
+    private static final Set<BigInteger> revokedSerials = ConcurrentHashMap.newKeySet();
+
+    private static volatile long responseValidity;
+
+    private static volatile boolean responderAvailable;
+
+    private static byte[] buildResponse(final byte[] encodedRequest) throws Exception {
+        final OCSPReq request = new OCSPReq(encodedRequest);
+        final BasicOCSPRespBuilder responseBuilder = new JcaBasicOCSPRespBuilder(
+                rootKeyPair.getPublic(),
+                new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1));
+        final long now = System.currentTimeMillis();
+        for (final Req aktRequest : request.getRequestList()) {
+            final CertificateID certId = aktRequest.getCertID();
+            responseBuilder.addResponse(
+                    certId,
+                    revokedSerials.contains(certId.getSerialNumber())
+                            ? new RevokedStatus(new Date(now - 60_000L), CRLReason.keyCompromise)
+                            : CertificateStatus.GOOD,
+                    new Date(now - 1000L),
+                    new Date(now + responseValidity));
+        }
+        final BasicOCSPResp basicResponse = responseBuilder.build(
+                new JcaContentSignerBuilder(SIGNATURE_ALGORITHM)
+                        .setProvider(TestCertUtility.BOUNCY_CASTLE_PROVIDER)
+                        .build(rootKeyPair.getPrivate()),
+                null,
+                new Date(now));
+        return new OCSPRespBuilder()
+                .build(OCSPRespBuilder.SUCCESSFUL, basicResponse)
+                .getEncoded();
+    }
+
+    private static void handleRequest(final HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try {
+            if (!responderAvailable) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            final byte[] encodedRequest;
+            if ("GET".equals(exchange.getRequestMethod())) {
+                final String path = exchange.getRequestURI().getRawPath();
+                encodedRequest = Base64.getDecoder()
+                        .decode(URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), StandardCharsets.UTF_8));
+            } else {
+                try (InputStream in = exchange.getRequestBody()) {
+                    encodedRequest = in.readAllBytes();
+                }
+            }
+            final byte[] response = buildResponse(encodedRequest);
+            exchange.getResponseHeaders().add("Content-Type", "application/ocsp-response");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (final Exception ex) {
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @BeforeClass
+    public static void setUpResponder() throws Exception {
+        rootKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        eeKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        rootCert = TestCertificateFactory.createRootCertificate("OCSP_TEST", rootKeyPair, SIGNATURE_ALGORITHM);
+        responder = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        responder.createContext("/ocsp", TestOcspResponseCache::handleRequest);
+        responder.start();
+        responderUri = new URI("http", null, "localhost", responder.getAddress().getPort(), "/ocsp", null, null);
+    }
+
+    @AfterClass
+    public static void stopResponder() {
+        responder.stop(0);
+    }
+
+    private static VerificationContext createContext(
+            final boolean cachingEnabled, final long refreshAhead, final long staleWhileRevalidate) {
+        return new VerificationContext() {
+
+            @Override
+            public URI getOCSPResponder() {
+                return responderUri;
+            }
+
+            @Override
+            public long getOCSPResponseRefreshAhead() {
+                return refreshAhead;
+            }
+
+            @Override
+            public long getOCSPResponseStaleWhileRevalidate() {
+                return staleWhileRevalidate;
+            }
+
+            @Override
+            public Collection<X509Certificate> getTrustedCertificates() {
+                return Collections.singletonList(rootCert);
+            }
+
+            @Override
+            public long getValidationCacheTimeToLive() {
+                return 0;
+            }
+
+            @Override
+            public boolean isOCSPResponseCachingEnabled() {
+                return cachingEnabled;
+            }
+        };
+    }
+
+    private static X509Certificate createEndEntityCertificate() throws Exception {
+        return TestCertificateFactory.createEndEntityCertificate(
+                "OCSP_TEST", rootCert, rootKeyPair.getPrivate(), eeKeyPair.getPublic(), SIGNATURE_ALGORITHM);
+    }
+
+    private static List<? extends X509Certificate> validate(
+            final VerificationContext context, final X509Certificate cert) throws Exception {
+        return new TrustCredentialAdapter(context).validateCertAgainstTrust(cert, Collections.singletonList(cert));
+    }
+
+    private static void waitForRequestCount(final int expectedCount) throws InterruptedException {
+        final long waitUntil = System.currentTimeMillis() + WAIT_FOR_REFRESH_MILLIS;
+        while (requestCount.get() < expectedCount && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10);
+        }
+        assertEquals(expectedCount, requestCount.get());
+    }
+
+    @Before
+    public void resetResponder() {
+        requestCount.set(0);
+        responseValidity = 60 * 60_000L;
+        responderAvailable = true;
+    }
+
+    @Test
+    public void testCachedResponses() throws Exception {
+        final VerificationContext context = createContext(true, 0, 0);
+        final X509Certificate validCert = createEndEntityCertificate();
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(validate(context, validCert));
+        }
+        assertEquals(1, requestCount.get());
+
+        final X509Certificate revokedCert = createEndEntityCertificate();
+        revokedSerials.add(revokedCert.getSerialNumber());
+        assertNull(validate(context, revokedCert));
+        assertNull(validate(context, revokedCert));
+        assertEquals(2, requestCount.get());
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        // every use of the cached response is within the refresh ahead time
+        final VerificationContext context = createContext(true, 2 * responseValidity, 0);
+        final X509Certificate cert = createEndEntityCertificate();
+        assertNotNull(validate(context, cert));
+        assertEquals(1, requestCount.get());
+        responderAvailable = false;
+        // answered from the cache although the background refresh fails
+        assertNotNull(validate(context, cert));
+        waitForRequestCount(2);
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        responseValidity = 1000L;
+        final X509Certificate cert = createEndEntityCertificate();
+        final VerificationContext staleContext = createContext(true, 0, 60_000L);
+        assertNotNull(validate(staleContext, cert));
+        assertEquals(1, requestCount.get());
+        Thread.sleep(responseValidity + 500L);
+        responderAvailable = false;
+        // expired response used while it is refreshed in the background
+        assertNotNull(validate(staleContext, cert));
+        waitForRequestCount(2);
+        // without stale responses the responder must be asked
+        assertNull(validate(createContext(true, 0, 0), cert));
+    }
+
+    @Test
+    public void testWithoutCaching() throws Exception {
+        final VerificationContext context = createContext(false, 0, 0);
+        final X509Certificate cert = createEndEntityCertificate();
+        assertNotNull(validate(context, cert));
+        assertNotNull(validate(context, cert));
+        assertEquals(2, requestCount.get());
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.siemens.pki.cmpracomponent.configuration.CkgContext;
+import com.siemens.pki.cmpracomponent.configuration.CmpMessageInterface;
+import com.siemens.pki.cmpracomponent.configuration.Configuration;
+import com.siemens.pki.cmpracomponent.configuration.CredentialContext;
+import com.siemens.pki.cmpracomponent.configuration.InventoryInterface;
+import com.siemens.pki.cmpracomponent.configuration.NestedEndpointContext;
+import com.siemens.pki.cmpracomponent.configuration.PersistencyInterface;
+import com.siemens.pki.cmpracomponent.configuration.SupportMessageHandlerInterface;
+import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.protection.ProtectionProvider;
+import com.siemens.pki.cmpracomponent.test.framework.CmpCaMock;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import com.siemens.pki.cmpracomponent.test.framework.SignatureValidationCredentials;
+import java.security.KeyPair;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bouncycastle.asn1.cmp.CertRepMessage;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.cmp.PKIMessages;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Test;
+
+/**
+ * parallel processing of the messages embedded in a nested message received
+ * from a downstream gateway RA
+ */
+public class TestParallelNestedBatch extends CmpTestcaseBase {
+
+    private static final int NUMBER_OF_REQUESTS = 4;
+
+    private static final int MAXIMUM_PARALLEL_TRANSACTIONS = 3;
+
+    private static final long UPSTREAM_DELAY_MILLIS = 200;
+
+    // accept nested messages protected by an EE on downstream
+    private static Configuration withNestedEndpoint(final Configuration base) {
+        final NestedEndpointContext nestedEndpointContext = new NestedEndpointContext() {
+
+            @Override
+            public VerificationContext getInputVerification() {
+                return new SignatureValidationCredentials("credentials/CMP_EE_Root.pem", null);
+            }
+
+            @Override
+            public int getMaximumParallelTransactions() {
+                return MAXIMUM_PARALLEL_TRANSACTIONS;
+            }
+
+            @Override
+            public CredentialContext getOutputCredentials() {
+                return null;
+            }
+
+            @Override
+            public boolean isIncomingRecipientValid(final String recipient) {
+                return true;
+            }
+        };
+        return new Configuration() {
+
+            @Override
+            public CkgContext getCkgConfiguration(final String certProfile, final int bodyType) {
+                return base.getCkgConfiguration(certProfile, bodyType);
+            }
+
+            @Override
+            public CmpMessageInterface getDownstreamConfiguration(final String certProfile, final int bodyType) {
+                final CmpMessageInterface downstreamConfiguration =
+                        base.getDownstreamConfiguration(certProfile, bodyType);
+                return new CmpMessageInterface() {
+
+                    @Override
+                    public VerificationContext getInputVerification() {
+                        return downstreamConfiguration.getInputVerification();
+                    }
+
+                    @Override
+                    public NestedEndpointContext getNestedEndpointContext() {
+                        return nestedEndpointContext;
+                    }
+
+                    @Override
+                    public CredentialContext getOutputCredentials() {
+                        return downstreamConfiguration.getOutputCredentials();
+                    }
+
+                    @Override
+                    public ReprotectMode getReprotectMode() {
+                        return downstreamConfiguration.getReprotectMode();
+                    }
+
+                    @Override
+                    public boolean getSuppressRedundantExtraCerts() {
+                        return downstreamConfiguration.getSuppressRedundantExtraCerts();
+                    }
+
+                    @Override
+                    public boolean isCacheExtraCerts() {
+                        return downstreamConfiguration.isCacheExtraCerts();
+                    }
+
+                    @Override
+                    public boolean isMessageTimeDeviationAllowed(final long deviation) {
+                        return downstreamConfiguration.isMessageTimeDeviationAllowed(deviation);
+                    }
+                };
+            }
+
+            @Override
+            public int getDownstreamTimeout(final String certProfile, final int bodyType) {
+                return base.getDownstreamTimeout(certProfile, bodyType);
+            }
+
+            @Override
+            public VerificationContext getEnrollmentTrust(final String certProfile, final int bodyType) {
+                return base.getEnrollmentTrust(certProfile, bodyType);
+            }
+
+            @Override
+            public boolean getForceRaVerifyOnUpstream(final String certProfile, final int bodyType) {
+                return base.getForceRaVerifyOnUpstream(certProfile, bodyType);
+            }
+
+            @Override
+            public InventoryInterface getInventory(final String certProfile, final int bodyType) {
+                return base.getInventory(certProfile, bodyType);
+            }
+
+            @Override
+            public PersistencyInterface getPersistency() {
+                return base.getPersistency();
+            }
+
+            @Override
+            public int getRetryAfterTimeInSeconds(final String certProfile, final int bodyType) {
+                return base.getRetryAfterTimeInSeconds(certProfile, bodyType);
+            }
+
+            @Override
+            public SupportMessageHandlerInterface getSupportMessageHandler(
+                    final String certProfile, final String infoTypeOid) {
+                return base.getSupportMessageHandler(certProfile, infoTypeOid);
+            }
+
+            @Override
+            public CmpMessageInterface getUpstreamConfiguration(final String certProfile, final int bodyType) {
+                return base.getUpstreamConfiguration(certProfile, bodyType);
+            }
+
+            @Override
+            public boolean isRaVerifiedAcceptable(final String certProfile, final int bodyType) {
+                return base.isRaVerifiedAcceptable(certProfile, bodyType);
+            }
+        };
+    }
+
+    private static PKIMessage generateNestedBatch() throws Exception {
+        final ProtectionProvider protectionProvider = ConfigurationFactory.getEeSignaturebasedProtectionProvider();
+        final PKIMessage[] requests = new PKIMessage[NUMBER_OF_REQUESTS + 1];
+        for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+            requests[i] = generateCr(protectionProvider, i);
+        }
+        // the downstream trust doesn't accept password based protection
+        requests[NUMBER_OF_REQUESTS] =
+                generateCr(ConfigurationFactory.getEePasswordbasedProtectionProvider(), NUMBER_OF_REQUESTS);
+        return PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest("theCertProfileForOnlineEnrollment"),
+                protectionProvider,
+                new PKIBody(PKIBody.TYPE_NESTED, new PKIMessages(requests)));
+    }
+
+    private static void assertNestedResponse(
+            final PKIMessage nested, final PKIMessage nestedResponse, final int maximumConcurrentUpstreamCalls) {
+        final PKIMessage[] requests =
+                PKIMessages.getInstance(nested.getBody().getContent()).toPKIMessageArray();
+        assertEquals(PKIBody.TYPE_NESTED, nestedResponse.getBody().getType());
+        final PKIMessage[] responses =
+                PKIMessages.getInstance(nestedResponse.getBody().getContent()).toPKIMessageArray();
+        assertEquals(requests.length, responses.length);
+        for (int i = 0; i < requests.length; i++) {
+            assertEquals(
+                    "response order",
+                    requests[i].getHeader().getTransactionID(),
+                    responses[i].getHeader().getTransactionID());
+        }
+        for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+            assertEquals(PKIBody.TYPE_CERT_REP, responses[i].getBody().getType());
+            assertNotNull(((CertRepMessage) responses[i].getBody().getContent())
+                    .getResponse()[0]
+                    .getCertifiedKeyPair()
+                    .getCertOrEncCert()
+                    .getCertificate());
+        }
+        assertEquals(PKIBody.TYPE_ERROR, responses[NUMBER_OF_REQUESTS].getBody().getType());
+        assertTrue(
+                "transactions processed concurrently",
+                maximumConcurrentUpstreamCalls > 1 && maximumConcurrentUpstreamCalls <= MAXIMUM_PARALLEL_TRANSACTIONS);
+    }
+
+    private static PKIMessage generateCr(final ProtectionProvider protectionProvider, final int index)
+            throws Exception {
+        final KeyPair keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        return PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest("theCertProfileForOnlineEnrollment"),
+                protectionProvider,
+                PkiMessageGenerator.generateIrCrKurBody(
+                        PKIBody.TYPE_CERT_REQ,
+                        new CertTemplateBuilder()
+                                .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                        keyPair.getPublic().getEncoded()))
+                                .setSubject(new X500Name("CN=Subject" + index))
+                                .build(),
+                        null,
+                        keyPair.getPrivate()));
+    }
+
+    @Test
+    public void testParallelNestedBatch() throws Exception {
+        final CmpCaMock caMock = new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12");
+        final AtomicInteger concurrentUpstreamCalls = new AtomicInteger();
+        final AtomicInteger maximumConcurrentUpstreamCalls = new AtomicInteger();
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateCmpRaComponent(
+                withNestedEndpoint(ConfigurationFactory.buildSignatureBasedDownstreamConfiguration()),
+                (request, certProfile, bodyTypeOfFirstRequest) -> {
+                    maximumConcurrentUpstreamCalls.accumulateAndGet(
+                            concurrentUpstreamCalls.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(UPSTREAM_DELAY_MILLIS);
+                        return caMock.sendReceiveMessage(request, certProfile, bodyTypeOfFirstRequest);
+                    } catch (final InterruptedException e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        concurrentUpstreamCalls.decrementAndGet();
+                    }
+                });
+        final PKIMessage nested = generateNestedBatch();
+
+        final PKIMessage nestedResponse = PKIMessage.getInstance(raComponent.processRequest(nested.getEncoded()));
+
+        assertNestedResponse(nested, nestedResponse, maximumConcurrentUpstreamCalls.get());
+    }
+
+    @Test
+    public void testParallelNestedBatchAsync() throws Exception {
+        final CmpCaMock caMock = new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12");
+        final AtomicInteger concurrentUpstreamCalls = new AtomicInteger();
+        final AtomicInteger maximumConcurrentUpstreamCalls = new AtomicInteger();
+        final ScheduledExecutorService upstream = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final CmpRaInterface raComponent = CmpRaComponent.instantiateAsyncCmpRaComponent(
+                    withNestedEndpoint(ConfigurationFactory.buildSignatureBasedDownstreamConfiguration()),
+                    (request, certProfile, bodyTypeOfFirstRequest) -> {
+                        maximumConcurrentUpstreamCalls.accumulateAndGet(
+                                concurrentUpstreamCalls.incrementAndGet(), Math::max);
+                        final CompletableFuture<byte[]> ret = new CompletableFuture<>();
+                        upstream.schedule(
+                                () -> {
+                                    concurrentUpstreamCalls.decrementAndGet();
+                                    try {
+                                        ret.complete(caMock.sendReceiveMessage(
+                                                request, certProfile, bodyTypeOfFirstRequest));
+                                    } catch (final Exception ex) {
+                                        ret.completeExceptionally(ex);
+                                    }
+                                },
+                                UPSTREAM_DELAY_MILLIS,
+                                TimeUnit.MILLISECONDS);
+                        return ret;
+                    });
+            final PKIMessage nested = generateNestedBatch();
+
+            final PKIMessage nestedResponse = PKIMessage.getInstance(
+                    raComponent.processRequestAsync(nested.getEncoded()).get(60, TimeUnit.SECONDS));
+
+            assertNestedResponse(nested, nestedResponse, maximumConcurrentUpstreamCalls.get());
+        } finally {
+            upstream.shutdown();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.siemens.pki.cmpracomponent.configuration.PersistencyInterface;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager.SerializationFormat;
+import com.siemens.pki.cmpracomponent.test.framework.CmpCaMock;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Date;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * round trip of typical {@link PersistencyContext}s through the
+ * {@link SerializationFormat#BINARY} and {@link SerializationFormat#JSON}
+ * persistency formats
+ */
+public class TestPersistencyContextCodec extends CmpTestcaseBase {
+
+    private interface PersistencyContextInitializer {
+        void init(PersistencyContext context) throws Exception;
+    }
+
+    private static final String CERT_PROFILE = "theCertProfile";
+
+    private static void assertSameContent(final PersistencyContext expected, final PersistencyContext actual) {
+        assertEquals(expected.getCertProfile(), actual.getCertProfile());
+        assertEquals(expected.getRequestType(), actual.getRequestType());
+        assertEquals(expected.getExpirationTime(), actual.getExpirationTime());
+        assertEquals(expected.getDelayedDeliveryInProgress(), actual.getDelayedDeliveryInProgress());
+        assertEquals(expected.getLastTransactionState(), actual.getLastTransactionState());
+        assertEquals(expected.isImplicitConfirmGranted(), actual.isImplicitConfirmGranted());
+        assertArrayEquals(expected.getLastSenderNonce(), actual.getLastSenderNonce());
+        assertEquals(expected.getInitialRequest(), actual.getInitialRequest());
+        assertEquals(expected.getPendingDelayedResponse(), actual.getPendingDelayedResponse());
+        assertEquals(expected.getAlreadySentExtraCerts(), actual.getAlreadySentExtraCerts());
+        assertEquals(expected.getNewGeneratedPrivateKey(), actual.getNewGeneratedPrivateKey());
+        assertArrayEquals(expected.getDigestToConfirm(), actual.getDigestToConfirm());
+    }
+
+    private PKIMessage ir;
+
+    private PKIMessage ip;
+
+    private KeyPair keyPair;
+
+    private void initIrContext(final PersistencyContext context) throws Exception {
+        context.setCertProfile(CERT_PROFILE);
+        context.setRequestType(PKIBody.TYPE_INIT_REQ);
+        context.trackMessage(ir);
+        context.setInitialRequest(ir);
+        context.updateTransactionExpirationTime(new Date(System.currentTimeMillis() + 3_600_000L));
+    }
+
+    /**
+     * write a context with the writer and read it back with the reader
+     */
+    private void roundTrip(
+            final SerializationFormat writerFormat,
+            final SerializationFormat readerFormat,
+            final PersistencyContextInitializer contextInitializer)
+            throws Exception {
+        final byte[] transactionId = ir.getHeader().getTransactionID().getOctets();
+        final PersistencyInterface persistency = new DefaultPersistencyImplementation(1000);
+        final PersistencyContext context =
+                new PersistencyContextManager(persistency, writerFormat).loadCreatePersistencyContext(transactionId);
+        contextInitializer.init(context);
+        context.flush();
+        final PersistencyContext reloaded =
+                new PersistencyContextManager(persistency, readerFormat).loadPersistencyContext(transactionId);
+        assertSameContent(context, reloaded);
+        // a reloaded context can be written again
+        reloaded.setCertProfile("anotherCertProfile");
+        reloaded.flush();
+        assertSameContent(
+                reloaded,
+                new PersistencyContextManager(persistency, writerFormat).loadPersistencyContext(transactionId));
+    }
+
+    private void roundTripAllFormats(final PersistencyContextInitializer contextInitializer) throws Exception {
+        for (final SerializationFormat aktWriterFormat : SerializationFormat.values()) {
+            for (final SerializationFormat aktReaderFormat : SerializationFormat.values()) {
+                roundTrip(aktWriterFormat, aktReaderFormat, contextInitializer);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        ir = PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest(CERT_PROFILE),
+                ConfigurationFactory.getEeSignaturebasedProtectionProvider(),
+                PkiMessageGenerator.generateIrCrKurBody(
+                        PKIBody.TYPE_INIT_REQ,
+                        new CertTemplateBuilder()
+                                .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                        keyPair.getPublic().getEncoded()))
+                                .setSubject(new X500Name("CN=Subject"))
+                                .build(),
+                        null,
+                        keyPair.getPrivate()));
+        ip = PKIMessage.getInstance(new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12")
+                .sendReceiveMessage(ir.getEncoded(), CERT_PROFILE, PKIBody.TYPE_INIT_REQ));
+    }
+
+    @Test
+    public void testCertConfContext() throws Exception {
+        roundTripAllFormats(context -> {
+            initIrContext(context);
+            context.trackMessage(ip);
+            context.addAlreadySentExtraCerts(Arrays.asList(ir.getExtraCerts()));
+        });
+    }
+
+    @Test
+    public void testCkgContext() throws Exception {
+        roundTripAllFormats(context -> {
+            initIrContext(context);
+            context.setNewGeneratedPrivateKey(keyPair.getPrivate());
+        });
+    }
+
+    @Test
+    public void testDelayedDeliveryContext() throws Exception {
+        roundTripAllFormats(context -> {
+            initIrContext(context);
+            context.setDelayedDeliveryInProgress(true);
+            context.setPendingDelayedResponse(ip);
+        });
+    }
+
+    @Test
+    public void testIrContext() throws Exception {
+        roundTripAllFormats(this::initIrContext);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import com.siemens.pki.cmpracomponent.test.framework.RemotePersistencyStub;
+import java.security.KeyPair;
+import java.util.Date;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * consistency of the near cache of the {@link PersistencyContextManager} if two
+ * RA instances share the same persistency
+ */
+public class TestPersistencyNearCache extends CmpTestcaseBase {
+
+    private static final Date EXPIRATION = new Date(System.currentTimeMillis() + 3_600_000L);
+
+    private PKIMessage ir;
+
+    private byte[] transactionId;
+
+    private RemotePersistencyStub remoteA;
+
+    private PersistencyContextManager managerA;
+
+    private PersistencyContextManager managerB;
+
+    private void createIrContext(final PersistencyContextManager manager) throws Exception {
+        final PersistencyContext context = manager.loadCreatePersistencyContext(transactionId);
+        context.setCertProfile("theCertProfile");
+        context.setRequestType(PKIBody.TYPE_INIT_REQ);
+        context.trackMessage(ir);
+        // keep the request like in a delayed delivery
+        context.setDelayedDeliveryInProgress(true);
+        context.setInitialRequest(ir);
+        context.updateTransactionExpirationTime(EXPIRATION);
+        context.flush();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final KeyPair keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        ir = PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest("theCertProfile"),
+                ConfigurationFactory.getEeSignaturebasedProtectionProvider(),
+                PkiMessageGenerator.generateIrCrKurBody(
+                        PKIBody.TYPE_INIT_REQ,
+                        new CertTemplateBuilder()
+                                .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                        keyPair.getPublic().getEncoded()))
+                                .setSubject(new X500Name("CN=Subject"))
+                                .build(),
+                        null,
+                        keyPair.getPrivate()));
+        transactionId = ir.getHeader().getTransactionID().getOctets();
+        // two RA instances with near cache sharing the same store
+        final DefaultPersistencyImplementation store = new DefaultPersistencyImplementation(1000);
+        remoteA = new RemotePersistencyStub(store, 1000);
+        managerA = new PersistencyContextManager(remoteA);
+        managerB = new PersistencyContextManager(new RemotePersistencyStub(store, 1000));
+    }
+
+    @Test
+    public void testCachedContextIsCopied() throws Exception {
+        createIrContext(managerA);
+        final PersistencyContext loaded = managerA.loadPersistencyContext(transactionId);
+        // modifications without flush don't leak into the cache
+        loaded.setCertProfile("notFlushed");
+        assertEquals(
+                "theCertProfile", managerA.loadPersistencyContext(transactionId).getCertProfile());
+    }
+
+    @Test
+    public void testHitValidatedByVersion() throws Exception {
+        createIrContext(managerA);
+        remoteA.resetTransferredBytes();
+        final long hitsBefore = managerA.getNearCacheStatistics().getHitCount();
+        assertEquals(
+                "theCertProfile", managerA.loadPersistencyContext(transactionId).getCertProfile());
+        assertEquals(hitsBefore + 1, managerA.getNearCacheStatistics().getHitCount());
+        // a hit only reads the version
+        assertEquals(Long.BYTES, remoteA.getTransferredBytes());
+    }
+
+    @Test
+    public void testInvalidationByOtherInstance() throws Exception {
+        createIrContext(managerA);
+        assertEquals(
+                "theCertProfile", managerA.loadPersistencyContext(transactionId).getCertProfile());
+        final PersistencyContext updatedByB = managerB.loadPersistencyContext(transactionId);
+        updatedByB.setCertProfile("changedByB");
+        updatedByB.flush();
+        // the cached context of A is outdated
+        final long missesBefore = managerA.getNearCacheStatistics().getMissCount();
+        assertEquals(
+                "changedByB", managerA.loadPersistencyContext(transactionId).getCertProfile());
+        assertEquals(missesBefore + 1, managerA.getNearCacheStatistics().getMissCount());
+        managerB.clearPersistencyContext(transactionId);
+        assertNull(managerA.loadPersistencyContext(transactionId));
+    }
+
+    @Test
+    public void testInvalidationOnClear() throws Exception {
+        createIrContext(managerA);
+        managerA.loadPersistencyContext(transactionId);
+        managerA.clearPersistencyContext(transactionId);
+        assertNull(managerA.loadPersistencyContext(transactionId));
+        createIrContext(managerB);
+        assertEquals(
+                "theCertProfile", managerA.loadPersistencyContext(transactionId).getCertProfile());
+    }
+}
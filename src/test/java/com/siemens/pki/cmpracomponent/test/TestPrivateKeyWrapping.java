@@ -0,0 +1,154 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager.SerializationFormat;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Date;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * persisted private keys of central key generation transactions, wrapped in
+ * the tagged format and in the untagged format written by former versions
+ */
+public class TestPrivateKeyWrapping {
+
+    private static final String[] KEY_TYPES = {"RSA", "EC", "Ed448", "Ed25519"};
+
+    private static final byte[] TAGGED_KEY_MAGIC = {(byte) 0xA5, 'W', 'K', 1};
+
+    private static final Date EXPIRATION = new Date(System.currentTimeMillis() + 3_600_000L);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static PrivateKey generateKey(final String keyType) throws Exception {
+        return KeyPairGenerator.getInstance(keyType).generateKeyPair().getPrivate();
+    }
+
+    private static byte[] getWrappedKey(final DefaultPersistencyImplementation store, final byte[] transactionId)
+            throws Exception {
+        return MAPPER.readTree(store.getLastSavedMessage(transactionId))
+                .get("newGeneratedPrivateKey")
+                .binaryValue();
+    }
+
+    private static void saveCkgContext(
+            final PersistencyContextManager manager, final byte[] transactionId, final PrivateKey key)
+            throws Exception {
+        final PersistencyContext context = manager.loadCreatePersistencyContext(transactionId);
+        context.setCertProfile("theCertProfile");
+        context.setRequestType(PKIBody.TYPE_INIT_REQ);
+        context.setNewGeneratedPrivateKey(key);
+        context.updateTransactionExpirationTime(EXPIRATION);
+        context.flush();
+    }
+
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        Security.addProvider(CertUtility.getBouncyCastleProvider());
+    }
+
+    // the key wrapping as done by former versions, only Bouncy Castle accepted
+    // the IvParameterSpec
+    private static byte[] wrapUntagged(final byte[] aesKey, final PrivateKey key) throws Exception {
+        final Cipher c = Cipher.getInstance("AES/GCM/NoPadding", CertUtility.getBouncyCastleProvider());
+        c.init(Cipher.WRAP_MODE, new SecretKeySpec(aesKey, "AES"), new IvParameterSpec("The IV for PrivK".getBytes()));
+        return c.wrap(key);
+    }
+
+    @Test
+    public void testTaggedRoundTrip() throws Exception {
+        for (final SerializationFormat aktFormat : SerializationFormat.values()) {
+            final DefaultPersistencyImplementation store = new DefaultPersistencyImplementation(1000);
+            final PersistencyContextManager manager = new PersistencyContextManager(store, aktFormat);
+            for (final String aktKeyType : KEY_TYPES) {
+                final PrivateKey key = generateKey(aktKeyType);
+                final byte[] transactionId = aktKeyType.getBytes();
+                saveCkgContext(manager, transactionId, key);
+                final PrivateKey reloaded =
+                        manager.loadPersistencyContext(transactionId).getNewGeneratedPrivateKey();
+                assertEquals(aktFormat + " " + aktKeyType, key.getAlgorithm(), reloaded.getAlgorithm());
+                assertArrayEquals(aktFormat + " " + aktKeyType, key.getEncoded(), reloaded.getEncoded());
+            }
+        }
+    }
+
+    @Test
+    public void testTaggedFormat() throws Exception {
+        final DefaultPersistencyImplementation store = new DefaultPersistencyImplementation(1000);
+        final PersistencyContextManager manager = new PersistencyContextManager(store, SerializationFormat.JSON);
+        final byte[] transactionId = "tagged".getBytes();
+        saveCkgContext(manager, transactionId, generateKey("EC"));
+        final byte[] wrappedKey = getWrappedKey(store, transactionId);
+        assertArrayEquals(TAGGED_KEY_MAGIC, Arrays.copyOf(wrappedKey, TAGGED_KEY_MAGIC.length));
+        // magic, IV length, IV, algorithm length, algorithm
+        final int ivLength = wrappedKey[TAGGED_KEY_MAGIC.length];
+        final int algorithmOffset = TAGGED_KEY_MAGIC.length + 1 + ivLength;
+        assertEquals(
+                "EC",
+                new String(wrappedKey, algorithmOffset + 1, wrappedKey[algorithmOffset], StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testUntaggedKeyOfFormerVersion() throws Exception {
+        final DefaultPersistencyImplementation store = new DefaultPersistencyImplementation(1000);
+        final PersistencyContextManager manager = new PersistencyContextManager(store, SerializationFormat.JSON);
+        for (final String aktKeyType : KEY_TYPES) {
+            final PrivateKey key = generateKey(aktKeyType);
+            final byte[] transactionId = aktKeyType.getBytes();
+            saveCkgContext(manager, transactionId, key);
+            // replace the key by a key wrapped like former versions did
+            final ObjectNode untaggedContext = (ObjectNode) MAPPER.readTree(store.getLastSavedMessage(transactionId));
+            untaggedContext.put("newGeneratedPrivateKey", wrapUntagged(store.getAesKeyForKeyWrapping(), key));
+            store.saveLastMessage(transactionId, MAPPER.writeValueAsBytes(untaggedContext), EXPIRATION);
+            final PrivateKey reloaded =
+                    manager.loadPersistencyContext(transactionId).getNewGeneratedPrivateKey();
+            assertArrayEquals(aktKeyType, key.getEncoded(), reloaded.getEncoded());
+            // a reloaded key is written in the tagged format
+            final PersistencyContext context = manager.loadPersistencyContext(transactionId);
+            context.setCertProfile("rewritten");
+            context.flush();
+            assertArrayEquals(
+                    TAGGED_KEY_MAGIC, Arrays.copyOf(getWrappedKey(store, transactionId), TAGGED_KEY_MAGIC.length));
+            assertArrayEquals(
+                    aktKeyType,
+                    key.getEncoded(),
+                    manager.loadPersistencyContext(transactionId)
+                            .getNewGeneratedPrivateKey()
+                            .getEncoded());
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.siemens.pki.cmpracomponent.configuration.CredentialContext;
+import com.siemens.pki.cmpracomponent.configuration.SharedSecretCredentialContext;
+import com.siemens.pki.cmpracomponent.configuration.SignatureCredentialContext;
+import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import com.siemens.pki.cmpracomponent.protection.PBMAC1Protection;
+import com.siemens.pki.cmpracomponent.protection.PasswordBasedMacProtection;
+import com.siemens.pki.cmpracomponent.protection.ProtectionProvider;
+import com.siemens.pki.cmpracomponent.protection.ProtectionProviderFactory;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.SharedSecret;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertificateFactory;
+import com.siemens.pki.cmpracomponent.test.framework.TestUtils;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIConfirmContent;
+import org.bouncycastle.asn1.cmp.PKIHeader;
+import org.bouncycastle.asn1.cmp.ProtectedPart;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.junit.Test;
+
+/**
+ * MAC based {@link ProtectionProvider}s are shared per shared secret and
+ * parameters of a {@link CredentialContext} and must protect concurrently
+ * generated messages correctly. Rotated credentials must be used immediately.
+ */
+public class TestProtectionProviderCache {
+
+    /**
+     * shared secret credentials which might be rotated at runtime
+     */
+    private static class RotatingSharedSecret implements SharedSecretCredentialContext {
+        private final String style;
+        private final byte[] salt = CertUtility.generateRandomBytes(20);
+        private volatile byte[] sharedSecret = "firstSecret".getBytes();
+
+        private RotatingSharedSecret(final String style) {
+            this.style = style;
+        }
+
+        @Override
+        public int getIterationCount() {
+            return 1000;
+        }
+
+        @Override
+        public String getPasswordBasedMacAlgorithm() {
+            return style;
+        }
+
+        @Override
+        public byte[] getSalt() {
+            return salt;
+        }
+
+        @Override
+        public byte[] getSharedSecret() {
+            return sharedSecret;
+        }
+    }
+
+    /**
+     * signature credentials which might be rotated at runtime
+     */
+    private static class RotatingSignatureCredentials implements SignatureCredentialContext {
+        private volatile List<X509Certificate> certificateChain;
+        private volatile PrivateKey privateKey;
+
+        @Override
+        public List<X509Certificate> getCertificateChain() {
+            return certificateChain;
+        }
+
+        @Override
+        public PrivateKey getPrivateKey() {
+            return privateKey;
+        }
+
+        private void rotate(final String name) throws Exception {
+            final KeyPair rootKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+            final KeyPair issuerKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+            final KeyPair eeKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+            final X509Certificate root =
+                    TestCertificateFactory.createRootCertificate(name, rootKeyPair, "SHA256withRSA");
+            final X509Certificate issuer = TestCertificateFactory.createIssuerCertificate(
+                    name, root, rootKeyPair.getPrivate(), issuerKeyPair.getPublic(), "SHA256withRSA");
+            final X509Certificate ee = TestCertificateFactory.createEndEntityCertificate(
+                    name + "_EE", issuer, issuerKeyPair.getPrivate(), eeKeyPair.getPublic(), "SHA256withRSA");
+            privateKey = eeKeyPair.getPrivate();
+            certificateChain = Arrays.asList(ee, issuer, root);
+        }
+    }
+
+    private static final int THREADS = 8;
+
+    private static final int MESSAGES_PER_THREAD = 50;
+
+    private static ProtectedPart createProtectedPart(final int index) {
+        final GeneralName sender = new GeneralName(new X500Name("CN=Sender " + index));
+        final GeneralName recipient = new GeneralName(new X500Name("CN=Recipient"));
+        return new ProtectedPart(
+                new PKIHeader(PKIHeader.CMP_2000, sender, recipient),
+                new PKIBody(PKIBody.TYPE_CONFIRM, new PKIConfirmContent()));
+    }
+
+    private static void assertConcurrentProtection(final String macAlgorithm) throws Exception {
+        final byte[] salt = CertUtility.generateRandomBytes(20);
+        final CredentialContext credentials = new SharedSecret(
+                macAlgorithm, TestUtils.PASSWORD.getBytes(), "SHA256", "senderKid".getBytes(), salt, "SHA256", 10_000);
+        final ProtectionProvider provider = ProtectionProviderFactory.createProtectionProvider(credentials);
+        assertSame(provider, ProtectionProviderFactory.createProtectionProvider(credentials));
+        // another context instance with the same values
+        assertSame(
+                provider,
+                ProtectionProviderFactory.createProtectionProvider(new SharedSecret(
+                        macAlgorithm,
+                        TestUtils.PASSWORD.getBytes(),
+                        "SHA256",
+                        "senderKid".getBytes(),
+                        salt.clone(),
+                        "SHA256",
+                        10_000)));
+        // another salt, the salt of the shared provider is reused
+        assertSame(
+                provider,
+                ProtectionProviderFactory.createProtectionProvider(new SharedSecret(macAlgorithm, TestUtils.PASSWORD)));
+
+        final List<DERBitString> expected = new ArrayList<>(MESSAGES_PER_THREAD);
+        for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+            expected.add(provider.getProtectionFor(createProtectedPart(i)));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<List<DERBitString>>> results = new ArrayList<>(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                results.add(executor.submit(() -> {
+                    final List<DERBitString> ret = new ArrayList<>(MESSAGES_PER_THREAD);
+                    for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                        ret.add(provider.getProtectionFor(createProtectedPart(i)));
+                    }
+                    return ret;
+                }));
+            }
+            for (final Future<List<DERBitString>> aktResult : results) {
+                assertEquals(expected, aktResult.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPasswordBasedMac() throws Exception {
+        assertConcurrentProtection("PASSWORDBASEDMAC");
+    }
+
+    @Test
+    public void testPbmac1() throws Exception {
+        assertConcurrentProtection("PBMAC1");
+    }
+
+    private static void assertMacSecretRotation(final String macAlgorithm) throws Exception {
+        final RotatingSharedSecret credentials = new RotatingSharedSecret(macAlgorithm);
+        final ProtectionProvider firstProvider = ProtectionProviderFactory.createProtectionProvider(credentials);
+        final DERBitString firstProtection = firstProvider.getProtectionFor(createProtectedPart(0));
+        credentials.sharedSecret = "secondSecret".getBytes();
+        final ProtectionProvider secondProvider = ProtectionProviderFactory.createProtectionProvider(credentials);
+        assertNotSame(firstProvider, secondProvider);
+        final DERBitString secondProtection = secondProvider.getProtectionFor(createProtectedPart(0));
+        assertNotEquals(firstProtection, secondProtection);
+        // same result as a provider built without cache for the new secret
+        final ProtectionProvider uncachedProvider = "PBMAC1".equals(macAlgorithm)
+                ? new PBMAC1Protection(credentials)
+                : new PasswordBasedMacProtection(credentials);
+        assertEquals(uncachedProvider.getProtectionFor(createProtectedPart(0)), secondProtection);
+    }
+
+    @Test
+    public void testPasswordBasedMacSecretRotation() throws Exception {
+        assertMacSecretRotation("PASSWORDBASEDMAC");
+    }
+
+    @Test
+    public void testPbmac1SecretRotation() throws Exception {
+        assertMacSecretRotation("PBMAC1");
+    }
+
+    @Test
+    public void testRandomSalt() throws Exception {
+        // a context returning a fresh salt for every call
+        final SharedSecretCredentialContext credentials = () -> "randomSaltSecret".getBytes();
+        final ProtectionProvider firstProvider = ProtectionProviderFactory.createProtectionProvider(credentials);
+        final ProtectionProvider secondProvider = ProtectionProviderFactory.createProtectionProvider(credentials);
+        // the salt drawn for the first provider is reused
+        assertSame(firstProvider, secondProvider);
+        assertEquals(firstProvider.getProtectionAlg(), secondProvider.getProtectionAlg());
+    }
+
+    @Test
+    public void testSignatureCredentialRotation() throws Exception {
+        final RotatingSignatureCredentials credentials = new RotatingSignatureCredentials();
+        credentials.rotate("FIRST");
+        final ProtectionProvider provider = ProtectionProviderFactory.createProtectionProvider(credentials);
+        // the self-signed root is not sent
+        assertEquals(
+                Arrays.asList(CertUtility.asCmpCertificates(
+                        credentials.getCertificateChain().subList(0, 2))),
+                provider.getProtectingExtraCerts());
+        credentials.rotate("SECOND");
+        final List<X509Certificate> rotatedChain =
+                credentials.getCertificateChain().subList(0, 2);
+        assertEquals(Arrays.asList(CertUtility.asCmpCertificates(rotatedChain)), provider.getProtectingExtraCerts());
+        assertEquals(
+                Arrays.asList(CertUtility.asCmpCertificates(rotatedChain)),
+                ProtectionProviderFactory.createProtectionProvider(credentials).getProtectingExtraCerts());
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.test.framework.CmpCaMock;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import com.siemens.pki.cmpracomponent.test.framework.HttpCaStub;
+import com.siemens.pki.cmpracomponent.transport.HttpUpstreamExchange;
+import com.siemens.pki.cmpracomponent.transport.RaHttpServer;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.asn1.cmp.CertRepMessage;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * requests sent by HTTP to the {@link RaHttpServer} and forwarded by HTTP to a
+ * mocked CA
+ */
+public class TestRaHttpServer extends CmpTestcaseBase {
+
+    private static final HttpClient HTTP_CLIENT =
+            HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private RaHttpServer raServer;
+
+    private HttpCaStub caStub;
+
+    private static byte[] generateCr() throws Exception {
+        final KeyPair keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        return PkiMessageGenerator.generateAndProtectMessage(
+                        new HeaderProviderForTest("theCertProfileForOnlineEnrollment"),
+                        ConfigurationFactory.getEeSignaturebasedProtectionProvider(),
+                        PkiMessageGenerator.generateIrCrKurBody(
+                                PKIBody.TYPE_CERT_REQ,
+                                new CertTemplateBuilder()
+                                        .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                                keyPair.getPublic().getEncoded()))
+                                        .setSubject(new X500Name("CN=Subject"))
+                                        .build(),
+                                null,
+                                keyPair.getPrivate()))
+                .getEncoded();
+    }
+
+    private static HttpRequest.Builder requestTo(final RaHttpServer server) {
+        return HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + server.getAddress().getPort() + "/cmp"))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", RaHttpServer.CMP_CONTENT_TYPE);
+    }
+
+    private static HttpResponse<byte[]> post(final RaHttpServer server, final byte[] request) throws Exception {
+        return HTTP_CLIENT.send(
+                requestTo(server)
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(request))
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private RaHttpServer startServer(
+            final CmpRaInterface raComponent, final int maxConcurrentRequests, final int maxRequestSize)
+            throws Exception {
+        raServer = new RaHttpServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                raComponent,
+                2,
+                maxConcurrentRequests,
+                maxRequestSize,
+                false);
+        raServer.start();
+        return raServer;
+    }
+
+    @After
+    public void stopServers() {
+        if (raServer != null) {
+            raServer.close();
+        }
+        if (caStub != null) {
+            caStub.close();
+        }
+    }
+
+    @Test
+    public void testEnrollmentOverHttp() throws Exception {
+        caStub = new HttpCaStub(new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12"), 2);
+        final RaHttpServer server = startServer(
+                CmpRaComponent.instantiateCmpRaComponent(
+                        ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(),
+                        new HttpUpstreamExchange(caStub.getUri("/ca"), Duration.ofSeconds(30))),
+                10,
+                RaHttpServer.DEFAULT_MAX_REQUEST_SIZE);
+        final HttpResponse<byte[]> response = post(server, generateCr());
+        assertEquals(200, response.statusCode());
+        assertEquals(
+                RaHttpServer.CMP_CONTENT_TYPE,
+                response.headers().firstValue("Content-Type").orElse(null));
+        final PKIMessage responseMessage = PKIMessage.getInstance(response.body());
+        assertEquals(PKIBody.TYPE_CERT_REP, responseMessage.getBody().getType());
+        assertNotNull(((CertRepMessage) responseMessage.getBody().getContent())
+                .getResponse()[0]
+                .getCertifiedKeyPair()
+                .getCertOrEncCert()
+                .getCertificate());
+        assertEquals(1, caStub.getRequestCount());
+    }
+
+    @Test
+    public void testRejectedRequests() throws Exception {
+        final RaHttpServer server = startServer(
+                CmpRaComponent.instantiateCmpRaComponent(
+                        ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(),
+                        (request, certProfile, bodyTypeOfFirstRequest) -> null),
+                10,
+                100);
+        final HttpResponse<Void> badMethod =
+                HTTP_CLIENT.send(requestTo(server).GET().build(), HttpResponse.BodyHandlers.discarding());
+        assertEquals(405, badMethod.statusCode());
+        assertEquals("close", badMethod.headers().firstValue("Connection").orElse(null));
+        final HttpResponse<byte[]> tooLarge = post(server, new byte[101]);
+        assertEquals(413, tooLarge.statusCode());
+        assertEquals("close", tooLarge.headers().firstValue("Connection").orElse(null));
+    }
+
+    @Test
+    public void testRejectWithoutReadingBody() throws Exception {
+        final RaHttpServer server = startServer(
+                CmpRaComponent.instantiateCmpRaComponent(
+                        ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(),
+                        (request, certProfile, bodyTypeOfFirstRequest) -> null),
+                10,
+                100);
+        try (Socket socket =
+                new Socket(InetAddress.getLoopbackAddress(), server.getAddress().getPort())) {
+            socket.setSoTimeout(10_000);
+            // the announced body is never sent
+            socket.getOutputStream()
+                    .write(("PUT /cmp HTTP/1.1\r\nHost: localhost\r\nContent-Length: 50\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+            final BufferedReader in =
+                    new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            assertEquals("HTTP/1.1 405 Method Not Allowed", in.readLine());
+            // the dispatcher is not blocked by the pending body
+            assertEquals(
+                    405,
+                    HTTP_CLIENT
+                            .send(requestTo(server).GET().build(), HttpResponse.BodyHandlers.discarding())
+                            .statusCode());
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final CountDownLatch upstreamEntered = new CountDownLatch(1);
+        final CountDownLatch releaseUpstream = new CountDownLatch(1);
+        final RaHttpServer server = startServer(
+                CmpRaComponent.instantiateCmpRaComponent(
+                        ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(),
+                        (request, certProfile, bodyTypeOfFirstRequest) -> {
+                            upstreamEntered.countDown();
+                            releaseUpstream.await(60, TimeUnit.SECONDS);
+                            return null;
+                        }),
+                1,
+                RaHttpServer.DEFAULT_MAX_REQUEST_SIZE);
+        final byte[] request = generateCr();
+        final CompletableFuture<HttpResponse<byte[]>> pending = HTTP_CLIENT.sendAsync(
+                requestTo(server)
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(request))
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        upstreamEntered.await(60, TimeUnit.SECONDS);
+        // the only admitted request is still in process
+        final HttpResponse<byte[]> rejected = post(server, generateCr());
+        assertEquals(503, rejected.statusCode());
+        assertEquals("1", rejected.headers().firstValue("Retry-After").orElse(null));
+        releaseUpstream.countDown();
+        assertEquals(200, pending.get(60, TimeUnit.SECONDS).statusCode());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import com.siemens.pki.cmpracomponent.cryptoservices.SignatureVerifierPool;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.asn1.edec.EdECObjectIdentifiers;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Test;
+
+/**
+ * verifiers pooled by the {@link SignatureVerifierPool} are shared by all
+ * threads and left in a clean state for the next verification
+ */
+public class TestSharedSignatureVerifiers {
+
+    private static final String ALGORITHM_OID = EdECObjectIdentifiers.id_Ed25519.getId();
+
+    @Test
+    public void testConcurrentVerification() throws Exception {
+        final KeyPair keyPair = KeyPairGenerator.getInstance("Ed25519", CertUtility.getBouncyCastleProvider())
+                .generateKeyPair();
+        final SubjectPublicKeyInfo publicKeyInfo =
+                SubjectPublicKeyInfo.getInstance(keyPair.getPublic().getEncoded());
+        final byte[] signedData = "signed data".getBytes();
+        final Signature signer = Signature.getInstance(ALGORITHM_OID, CertUtility.getBouncyCastleProvider());
+        signer.initSign(keyPair.getPrivate());
+        signer.update(signedData);
+        final byte[] signature = signer.sign();
+        final byte[] otherData = "other data".getBytes();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                // a failed verification must not affect the next user of the verifier
+                final byte[] data = i % 3 == 0 ? otherData : signedData;
+                final boolean withKeyInfo = i % 2 == 0;
+                futures.add(executor.submit(() -> withKeyInfo
+                        ? SignatureVerifierPool.verify(ALGORITHM_OID, publicKeyInfo, data, signature)
+                        : SignatureVerifierPool.verify(ALGORITHM_OID, keyPair.getPublic(), data, signature)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i % 3 != 0, futures.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
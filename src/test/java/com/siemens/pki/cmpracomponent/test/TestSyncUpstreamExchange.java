@@ -0,0 +1,125 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
+import com.siemens.pki.cmpracomponent.protection.ProtectionProvider;
+import com.siemens.pki.cmpracomponent.test.framework.CmpCaMock;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import java.security.KeyPair;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Test;
+
+/**
+ * a blocking upstream exchange must not hold the transaction lock shared with
+ * other transactions
+ */
+public class TestSyncUpstreamExchange extends CmpTestcaseBase {
+
+    private static PKIMessage generateCr(final ProtectionProvider protectionProvider, final int index)
+            throws Exception {
+        final KeyPair keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        return PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest("theCertProfileForOnlineEnrollment"),
+                protectionProvider,
+                PkiMessageGenerator.generateIrCrKurBody(
+                        PKIBody.TYPE_CERT_REQ,
+                        new CertTemplateBuilder()
+                                .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                        keyPair.getPublic().getEncoded()))
+                                .setSubject(new X500Name("CN=Subject" + index))
+                                .build(),
+                        null,
+                        keyPair.getPrivate()));
+    }
+
+    @Test
+    public void testBlockingUpstreamExchange() throws Exception {
+        final CmpCaMock caMock = new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12");
+        final CountDownLatch upstreamEntered = new CountDownLatch(1);
+        final CountDownLatch releaseUpstream = new CountDownLatch(1);
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateCmpRaComponent(
+                ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(),
+                (request, certProfile, bodyTypeOfFirstRequest) -> {
+                    if (upstreamEntered.getCount() > 0) {
+                        // the first exchange blocks until the second transaction is done
+                        upstreamEntered.countDown();
+                        releaseUpstream.await(60, TimeUnit.SECONDS);
+                    }
+                    return caMock.sendReceiveMessage(request, certProfile, bodyTypeOfFirstRequest);
+                });
+        // find two transactions sharing a lock
+        final PersistencyContextManager lockProvider =
+                new PersistencyContextManager(new DefaultPersistencyImplementation(1000));
+        final ProtectionProvider protectionProvider = ConfigurationFactory.getEeSignaturebasedProtectionProvider();
+        final Map<Lock, PKIMessage> requestsByLock = new IdentityHashMap<>();
+        PKIMessage blockedRequest;
+        PKIMessage otherRequest;
+        for (int i = 0; ; i++) {
+            otherRequest = generateCr(protectionProvider, i);
+            blockedRequest = requestsByLock.putIfAbsent(
+                    lockProvider.getTransactionLock(
+                            otherRequest.getHeader().getTransactionID().getOctets()),
+                    otherRequest);
+            if (blockedRequest != null) {
+                break;
+            }
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final PKIMessage firstRequest = blockedRequest;
+            final Future<byte[]> blockedResponse =
+                    executor.submit(() -> raComponent.processRequest(firstRequest.getEncoded()));
+            assertTrue(upstreamEntered.await(60, TimeUnit.SECONDS));
+            final PKIMessage secondRequest = otherRequest;
+            final PKIMessage otherResponse =
+                    PKIMessage.getInstance(executor.submit(() -> raComponent.processRequest(secondRequest.getEncoded()))
+                            .get(60, TimeUnit.SECONDS));
+            assertEquals(PKIBody.TYPE_CERT_REP, otherResponse.getBody().getType());
+            releaseUpstream.countDown();
+            assertEquals(
+                    PKIBody.TYPE_CERT_REP,
+                    PKIMessage.getInstance(blockedResponse.get(60, TimeUnit.SECONDS))
+                            .getBody()
+                            .getType());
+        } finally {
+            releaseUpstream.countDown();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
+import com.siemens.pki.cmpracomponent.cryptoservices.TrustCredentialAdapter;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertUtility;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertificateFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * results cached by the {@link TrustCredentialAdapter} must not hide changed
+ * trust anchors, CRLs or an expired CRL
+ */
+public class TestValidationCacheInvalidation extends CmpTestcaseBase {
+
+    /**
+     * a context returning whatever is currently configured, like a
+     * configuration reloaded at runtime
+     */
+    private static class MutableVerificationContext implements VerificationContext {
+        private volatile Collection<X509Certificate> trustedCertificates;
+        private volatile Collection<X509CRL> crls;
+
+        private MutableVerificationContext(
+                final Collection<X509Certificate> trustedCertificates, final Collection<X509CRL> crls) {
+            this.trustedCertificates = trustedCertificates;
+            this.crls = crls;
+        }
+
+        @Override
+        public Collection<X509Certificate> getAdditionalCerts() {
+            return Collections.singletonList(issuerCert);
+        }
+
+        @Override
+        public Collection<X509CRL> getCRLs() {
+            return crls;
+        }
+
+        @Override
+        public Collection<X509Certificate> getTrustedCertificates() {
+            return trustedCertificates;
+        }
+
+        @Override
+        public long getValidationCacheTimeToLive() {
+            return 60_000L;
+        }
+    }
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+    private static X509Certificate rootCert;
+
+    private static PrivateKey rootKey;
+
+    private static X509Certificate otherRootCert;
+
+    private static X509Certificate issuerCert;
+
+    private static PrivateKey issuerKey;
+
+    private static X509Certificate eeCert;
+
+    private static X509CRL buildCrl(
+            final X509Certificate issuer,
+            final PrivateKey issuerKey,
+            final long nextUpdateMillis,
+            final X509Certificate... revoked)
+            throws Exception {
+        final long now = System.currentTimeMillis();
+        final X509v2CRLBuilder crlBuilder = new JcaX509v2CRLBuilder(issuer, new Date(now - 60_000L));
+        crlBuilder.setNextUpdate(new Date(now + nextUpdateMillis));
+        for (final X509Certificate aktCert : revoked) {
+            crlBuilder.addCRLEntry(aktCert.getSerialNumber(), new Date(now - 30_000L), CRLReason.keyCompromise);
+        }
+        return new JcaX509CRLConverter()
+                .setProvider(TestCertUtility.BOUNCY_CASTLE_PROVIDER)
+                .getCRL(crlBuilder.build(new JcaContentSignerBuilder(SIGNATURE_ALGORITHM)
+                        .setProvider(TestCertUtility.BOUNCY_CASTLE_PROVIDER)
+                        .build(issuerKey)));
+    }
+
+    @BeforeClass
+    public static void setUpChain() throws Exception {
+        final KeyPair rootKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        final KeyPair issuerKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        final KeyPair eeKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        rootKey = rootKeyPair.getPrivate();
+        issuerKey = issuerKeyPair.getPrivate();
+        rootCert = TestCertificateFactory.createRootCertificate("CACHE_TEST", rootKeyPair, SIGNATURE_ALGORITHM);
+        otherRootCert = TestCertificateFactory.createRootCertificate(
+                "CACHE_TEST_OTHER", ConfigurationFactory.getKeyGenerator().generateKeyPair(), SIGNATURE_ALGORITHM);
+        issuerCert = TestCertificateFactory.createIssuerCertificate(
+                "CACHE_TEST", rootCert, rootKey, issuerKeyPair.getPublic(), SIGNATURE_ALGORITHM);
+        eeCert = TestCertificateFactory.createEndEntityCertificate(
+                "CACHE_TEST_EE", issuerCert, issuerKey, eeKeyPair.getPublic(), SIGNATURE_ALGORITHM);
+    }
+
+    private static List<? extends X509Certificate> validate(final VerificationContext context) throws Exception {
+        return new TrustCredentialAdapter(context).validateCertAgainstTrust(eeCert, Arrays.asList(eeCert, issuerCert));
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        assertEquals(0L, new VerificationContext() {}.getValidationCacheTimeToLive());
+    }
+
+    @Test
+    public void testChangedCrls() throws Exception {
+        final X509CRL rootCrl = buildCrl(rootCert, rootKey, 3_600_000L);
+        final MutableVerificationContext context = new MutableVerificationContext(
+                Collections.singletonList(rootCert),
+                Arrays.asList(rootCrl, buildCrl(issuerCert, issuerKey, 3_600_000L)));
+        assertNotNull(validate(context));
+        assertNotNull(validate(context));
+        // the certificate gets revoked
+        context.crls = Arrays.asList(rootCrl, buildCrl(issuerCert, issuerKey, 3_600_000L, eeCert));
+        assertNull(validate(context));
+    }
+
+    @Test
+    public void testCrlsChangedInPlace() throws Exception {
+        final List<X509CRL> crls = new ArrayList<>(
+                Arrays.asList(buildCrl(rootCert, rootKey, 3_600_000L), buildCrl(issuerCert, issuerKey, 3_600_000L)));
+        final MutableVerificationContext context =
+                new MutableVerificationContext(Collections.singletonList(rootCert), crls);
+        assertNotNull(validate(context));
+        assertNotNull(validate(context));
+        // the same list gets a CRL revoking the certificate
+        crls.add(buildCrl(issuerCert, issuerKey, 3_600_000L, eeCert));
+        assertNull(validate(context));
+    }
+
+    @Test
+    public void testChangedTrustAnchors() throws Exception {
+        final List<X509CRL> crls =
+                Arrays.asList(buildCrl(rootCert, rootKey, 3_600_000L), buildCrl(issuerCert, issuerKey, 3_600_000L));
+        final MutableVerificationContext context =
+                new MutableVerificationContext(Collections.singletonList(otherRootCert), crls);
+        assertNull(validate(context));
+        assertNull(validate(context));
+        // the missing trust anchor gets added
+        context.trustedCertificates = Arrays.asList(otherRootCert, rootCert);
+        assertNotNull(validate(context));
+        // and removed again
+        context.trustedCertificates = Collections.singletonList(otherRootCert);
+        assertNull(validate(context));
+    }
+
+    @Test
+    public void testExpiringCrl() throws Exception {
+        final MutableVerificationContext context = new MutableVerificationContext(
+                Collections.singletonList(rootCert),
+                Arrays.asList(buildCrl(rootCert, rootKey, 3_600_000L), buildCrl(issuerCert, issuerKey, 1_000L)));
+        assertNotNull(validate(context));
+        final long hitsBefore =
+                TrustCredentialAdapter.getValidationCacheStatistics().getHitCount();
+        Thread.sleep(1_200L);
+        // the cached result expired with the nextUpdate of the CRL
+        validate(context);
+        assertEquals(
+                hitsBefore,
+                TrustCredentialAdapter.getValidationCacheStatistics().getHitCount());
+    }
+}
@@ -54,6 +54,7 @@ import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Collections;
+import java.util.function.Supplier;
 import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.cmp.CMPObjectIdentifiers;
@@ -119,6 +120,21 @@ public class ConfigurationFactory {
     }
 
     public static Configuration buildSignatureBasedDownstreamOnlyConfiguration() throws Exception {
+        return buildSignatureBasedDownstreamOnlyConfiguration(() -> (GetCaCertificatesHandler) () -> {
+            try {
+                return TestCertUtility.loadCertificatesFromFile("credentials/CaCerts.pem");
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * @param caCertificatesHandlers provides the handler for each GENM caCerts
+     *                               request
+     */
+    public static Configuration buildSignatureBasedDownstreamOnlyConfiguration(
+            final Supplier<GetCaCertificatesHandler> caCertificatesHandlers) throws Exception {
         final TrustChainAndPrivateKey downstreamCredentials =
                 new TrustChainAndPrivateKey("credentials/CMP_LRA_DOWNSTREAM_Keystore.p12", "Password".toCharArray());
         final SignatureValidationCredentials downstreamTrust =
@@ -290,13 +306,7 @@ public class ConfigurationFactory {
                         certProfile,
                         infoTypeOid);
                 if (CMPObjectIdentifiers.id_it_caCerts.getId().equals(infoTypeOid)) {
-                    return (GetCaCertificatesHandler) () -> {
-                        try {
-                            return TestCertUtility.loadCertificatesFromFile("credentials/CaCerts.pem");
-                        } catch (final Exception e) {
-                            throw new RuntimeException(e);
-                        }
-                    };
+                    return caCertificatesHandlers.get();
                 }
                 if (CMPObjectIdentifiers.id_it_rootCaCert.getId().equals(infoTypeOid)) {
                     LOGGER.debug("id_it_rootCaCert called with certprofile: {}", certProfile);
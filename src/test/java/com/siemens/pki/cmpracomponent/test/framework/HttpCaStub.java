@@ -0,0 +1,123 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.framework;
+
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.UpstreamExchange;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+
+/**
+ * a local HTTP server in front of a mocked CA like {@link CmpCaMock}
+ */
+public class HttpCaStub implements AutoCloseable {
+
+    private final UpstreamExchange ca;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private final Set<InetSocketAddress> clientAddresses = ConcurrentHashMap.newKeySet();
+
+    private final Map<ASN1OctetString, Integer> firstBodyTypes = new ConcurrentHashMap<>();
+
+    /**
+     * @param ca      the mocked CA
+     * @param threads number of threads handling requests
+     * @throws IOException if the server could not be started
+     */
+    public HttpCaStub(final UpstreamExchange ca, final int threads) throws IOException {
+        this.ca = ca;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * @return number of distinct client connections seen so far
+     */
+    public int getConnectionCount() {
+        return clientAddresses.size();
+    }
+
+    /**
+     * @return number of requests received so far
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @param path path part of the URI
+     * @return URI of the stub
+     */
+    public URI getUri(final String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        clientAddresses.add(exchange.getRemoteAddress());
+        try {
+            final byte[] request;
+            try (InputStream in = exchange.getRequestBody()) {
+                request = in.readAllBytes();
+            }
+            final PKIMessage message = PKIMessage.getInstance(request);
+            // the CA mock needs the type of the first request in the transaction
+            final Integer firstBodyType =
+                    firstBodyTypes.computeIfAbsent(message.getHeader().getTransactionID(), x -> message.getBody()
+                            .getType());
+            final byte[] response =
+                    ca.sendReceiveMessage(request, exchange.getRequestURI().getPath(), firstBodyType);
+            exchange.getResponseHeaders().add("Content-Type", "application/pkixcmp");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (final Exception | AssertionError ex) {
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+}
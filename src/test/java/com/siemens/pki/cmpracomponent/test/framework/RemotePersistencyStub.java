@@ -0,0 +1,114 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.framework;
+
+import com.siemens.pki.cmpracomponent.configuration.PersistencyInterface;
+import com.siemens.pki.cmpracomponent.configuration.VersionedMessage;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import java.util.Date;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a "remote" persistency in front of a shared store, counting the bytes
+ * transferred by reads
+ */
+public class RemotePersistencyStub implements PersistencyInterface {
+
+    private final DefaultPersistencyImplementation store;
+
+    private final int nearCacheSize;
+
+    private final LongAdder transferredBytes = new LongAdder();
+
+    /**
+     * @param store         the shared store
+     * @param nearCacheSize near cache size requested from the
+     *                      {@link com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager}
+     */
+    public RemotePersistencyStub(final DefaultPersistencyImplementation store, final int nearCacheSize) {
+        this.store = store;
+        this.nearCacheSize = nearCacheSize;
+    }
+
+    @Override
+    public void clearLastSavedMessage(final byte[] transactionId) {
+        store.clearLastSavedMessage(transactionId);
+    }
+
+    @Override
+    public byte[] getAesKeyForKeyWrapping() {
+        return store.getAesKeyForKeyWrapping();
+    }
+
+    @Override
+    public byte[] getLastSavedMessage(final byte[] transactionId) {
+        final VersionedMessage ret = getLastSavedVersionedMessage(transactionId);
+        return ret == null ? null : ret.getMessage();
+    }
+
+    @Override
+    public long getLastSavedVersion(final byte[] transactionId) {
+        transferredBytes.add(Long.BYTES);
+        return store.getLastSavedVersion(transactionId);
+    }
+
+    @Override
+    public VersionedMessage getLastSavedVersionedMessage(final byte[] transactionId) {
+        final VersionedMessage ret = store.getLastSavedVersionedMessage(transactionId);
+        if (ret != null) {
+            transferredBytes.add(ret.getMessage().length + Long.BYTES);
+        }
+        return ret;
+    }
+
+    @Override
+    public int getNearCacheSize() {
+        return nearCacheSize;
+    }
+
+    /**
+     * @return bytes transferred by reads since creation or the last
+     *         {@link #resetTransferredBytes()}
+     */
+    public long getTransferredBytes() {
+        return transferredBytes.sum();
+    }
+
+    /**
+     * restart counting the transferred bytes
+     */
+    public void resetTransferredBytes() {
+        transferredBytes.reset();
+    }
+
+    @Override
+    public void saveLastMessage(final byte[] transactionId, final byte[] message, final Date expirationTime) {
+        store.saveLastMessage(transactionId, message, expirationTime);
+    }
+
+    @Override
+    public long saveLastMessageIfUnchanged(
+            final byte[] transactionId, final byte[] message, final Date expirationTime, final long expectedVersion) {
+        return store.saveLastMessageIfUnchanged(transactionId, message, expirationTime, expectedVersion);
+    }
+
+    @Override
+    public boolean updateExpirationTime(final byte[] transactionId, final Date expirationTime) {
+        return store.updateExpirationTime(transactionId, expirationTime);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.siemens.pki.cmpracomponent.configuration.MessageToSave;
+import com.siemens.pki.cmpracomponent.configuration.PersistencyInterface;
+import com.siemens.pki.cmpracomponent.configuration.VersionedMessage;
+import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import com.siemens.pki.cmpracomponent.persistency.FilePersistencyImplementation;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
+import com.siemens.pki.cmpracomponent.test.CmpTestcaseBase;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * storing many delayed responses one by one and in batches, as done by
+ * {@link com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface#gotResponsesAtUpstream(Collection)},
+ * into a {@link FilePersistencyImplementation} forcing every write to disk and
+ * into a remote store with a fixed round trip time
+ */
+public class TestBatchedPersistency extends CmpTestcaseBase {
+
+    private static class RemotePersistency implements PersistencyInterface {
+
+        private static void roundTrip() {
+            LockSupport.parkNanos(ROUND_TRIP_NANOS);
+        }
+
+        private final DefaultPersistencyImplementation store = new DefaultPersistencyImplementation(1000);
+
+        @Override
+        public void clearLastSavedMessage(final byte[] transactionId) {
+            roundTrip();
+            store.clearLastSavedMessage(transactionId);
+        }
+
+        @Override
+        public void clearLastSavedMessages(final Collection<byte[]> transactionIds) {
+            roundTrip();
+            store.clearLastSavedMessages(transactionIds);
+        }
+
+        @Override
+        public byte[] getAesKeyForKeyWrapping() {
+            return store.getAesKeyForKeyWrapping();
+        }
+
+        @Override
+        public byte[] getLastSavedMessage(final byte[] transactionId) {
+            roundTrip();
+            return store.getLastSavedMessage(transactionId);
+        }
+
+        @Override
+        public VersionedMessage getLastSavedVersionedMessage(final byte[] transactionId) {
+            roundTrip();
+            return store.getLastSavedVersionedMessage(transactionId);
+        }
+
+        @Override
+        public List<VersionedMessage> getLastSavedVersionedMessages(final List<byte[]> transactionIds) {
+            roundTrip();
+            return store.getLastSavedVersionedMessages(transactionIds);
+        }
+
+        @Override
+        public void saveLastMessage(final byte[] transactionId, final byte[] message, final Date expirationTime) {
+            roundTrip();
+            store.saveLastMessage(transactionId, message, expirationTime);
+        }
+
+        @Override
+        public long saveLastMessageIfUnchanged(
+                final byte[] transactionId,
+                final byte[] message,
+                final Date expirationTime,
+                final long expectedVersion) {
+            roundTrip();
+            return store.saveLastMessageIfUnchanged(transactionId, message, expirationTime, expectedVersion);
+        }
+
+        @Override
+        public long[] saveLastMessagesIfUnchanged(final List<MessageToSave> messages) {
+            roundTrip();
+            return store.saveLastMessagesIfUnchanged(messages);
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestBatchedPersistency.class);
+
+    private static final int TRANSACTIONS = 2_000;
+
+    private static final int BATCH_SIZE = 256;
+
+    private static final long ROUND_TRIP_NANOS = 200_000L;
+
+    private static final Date EXPIRATION = new Date(System.currentTimeMillis() + 3_600_000L);
+
+    private static byte[] transactionId(final int i) {
+        return new byte[] {(byte) (i >> 8), (byte) i, 1, 2, 3, 4, 5, 6};
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PKIMessage response;
+
+    private List<byte[]> createWaitingTransactions(final PersistencyContextManager manager) throws Exception {
+        final List<byte[]> ret = new ArrayList<>(TRANSACTIONS);
+        final List<PersistencyContext> contexts = new ArrayList<>(TRANSACTIONS);
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            final PersistencyContext context = manager.loadCreatePersistencyContext(transactionId(i));
+            context.setCertProfile("theCertProfile");
+            context.setRequestType(PKIBody.TYPE_CERT_REQ);
+            context.setDelayedDeliveryInProgress(true);
+            context.updateTransactionExpirationTime(EXPIRATION);
+            contexts.add(context);
+            ret.add(context.getTransactionId());
+        }
+        assertTrue(manager.flushPersistencyContexts(contexts).isEmpty());
+        return ret;
+    }
+
+    // returns delivered responses per second
+    private long measure(final PersistencyInterface persistency, final boolean batched) throws Exception {
+        final PersistencyContextManager manager = new PersistencyContextManager(persistency);
+        final List<byte[]> transactionIds = createWaitingTransactions(manager);
+        System.gc();
+        final long start = System.nanoTime();
+        if (batched) {
+            for (int from = 0; from < TRANSACTIONS; from += BATCH_SIZE) {
+                final List<PersistencyContext> contexts = manager.loadPersistencyContexts(
+                        transactionIds.subList(from, Math.min(from + BATCH_SIZE, TRANSACTIONS)));
+                for (final PersistencyContext aktContext : contexts) {
+                    aktContext.setPendingDelayedResponse(response);
+                }
+                assertTrue(manager.flushPersistencyContexts(contexts).isEmpty());
+            }
+        } else {
+            for (final byte[] aktTransactionId : transactionIds) {
+                final PersistencyContext context = manager.loadPersistencyContext(aktTransactionId);
+                context.setPendingDelayedResponse(response);
+                context.flush();
+            }
+        }
+        final long nanos = System.nanoTime() - start;
+        assertEquals(
+                response,
+                manager.loadPersistencyContext(transactionIds.get(TRANSACTIONS - 1))
+                        .getPendingDelayedResponse());
+        return TRANSACTIONS * 1_000_000_000L / nanos;
+    }
+
+    private long measureFilePersistency(final boolean batched) throws Exception {
+        try (final FilePersistencyImplementation persistency =
+                new FilePersistencyImplementation(folder.newFolder().toPath(), CertUtility.generateRandomBytes(16))) {
+            return measure(persistency, batched);
+        }
+    }
+
+    @Test
+    public void testBatchedDelivery() throws Exception {
+        response = PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest("theCertProfile"),
+                ConfigurationFactory.getEeSignaturebasedProtectionProvider(),
+                PkiMessageGenerator.generatePollReq());
+        // warm up
+        measure(new DefaultPersistencyImplementation(1000), false);
+        measure(new DefaultPersistencyImplementation(1000), true);
+        LOGGER.info(
+                "{} delayed responses, synced file persistency: one by one {} responses/s, in batches of {} {} responses/s",
+                TRANSACTIONS,
+                measureFilePersistency(false),
+                BATCH_SIZE,
+                measureFilePersistency(true));
+        LOGGER.info(
+                "{} delayed responses, remote persistency with {} us round trip: one by one {} responses/s, in batches of {} {} responses/s",
+                TRANSACTIONS,
+                ROUND_TRIP_NANOS / 1000,
+                measure(new RemotePersistency(), false),
+                BATCH_SIZE,
+                measure(new RemotePersistency(), true));
+    }
+}
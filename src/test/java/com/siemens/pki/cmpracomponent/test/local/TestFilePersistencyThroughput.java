@@ -0,0 +1,133 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import com.siemens.pki.cmpracomponent.persistency.FilePersistencyImplementation;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * read latency, write throughput with and without group commit and index
+ * rebuild time of the {@link FilePersistencyImplementation}
+ */
+public class TestFilePersistencyThroughput {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestFilePersistencyThroughput.class);
+
+    private static final byte[] KEY_WRAPPING_KEY = CertUtility.generateRandomBytes(16);
+
+    private static final int TRANSACTIONS = 20_000;
+
+    // typical size of a binary encoded context holding an ir
+    private static final int MESSAGE_SIZE = 2_000;
+
+    private static final int WRITER_THREADS = 16;
+
+    private static final int SYNCED_WRITES_PER_THREAD = 200;
+
+    private static byte[] transactionId(final int i) {
+        return new byte[] {(byte) (i >> 24), (byte) (i >> 16), (byte) (i >> 8), (byte) i, 1, 2, 3, 4};
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private long concurrentSyncedWrites(final FilePersistencyImplementation persistency, final byte[] message)
+            throws Exception {
+        final Date expiration = new Date(System.currentTimeMillis() + 3_600_000L);
+        final ExecutorService executor = Executors.newFixedThreadPool(WRITER_THREADS);
+        try {
+            final long start = System.nanoTime();
+            final Future<?>[] futures = new Future<?>[WRITER_THREADS];
+            for (int t = 0; t < WRITER_THREADS; t++) {
+                final int threadIndex = t;
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < SYNCED_WRITES_PER_THREAD; i++) {
+                        persistency.saveLastMessage(
+                                transactionId(i * WRITER_THREADS + threadIndex), message, expiration);
+                    }
+                });
+            }
+            for (final Future<?> aktFuture : futures) {
+                aktFuture.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        final Path directory = folder.newFolder().toPath();
+        final byte[] message = new byte[MESSAGE_SIZE];
+        new Random(42).nextBytes(message);
+        final Date expiration = new Date(System.currentTimeMillis() + 3_600_000L);
+        try (final FilePersistencyImplementation persistency =
+                new FilePersistencyImplementation(directory, KEY_WRAPPING_KEY, 1 << 26, 1000, false)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < TRANSACTIONS; i++) {
+                persistency.saveLastMessage(transactionId(i), message, expiration);
+            }
+            LOGGER.info("unsynced writes: {} ns/write", (System.nanoTime() - start) / TRANSACTIONS);
+            // warm up and measurement
+            for (int pass = 0; pass < 2; pass++) {
+                start = System.nanoTime();
+                for (int i = 0; i < TRANSACTIONS; i++) {
+                    assertArrayEquals(message, persistency.getLastSavedMessage(transactionId(i)));
+                }
+            }
+            LOGGER.info("reads: {} ns/read", (System.nanoTime() - start) / TRANSACTIONS);
+        }
+        final long start = System.nanoTime();
+        try (final FilePersistencyImplementation persistency =
+                new FilePersistencyImplementation(directory, KEY_WRAPPING_KEY)) {
+            LOGGER.info(
+                    "index rebuild of {} transactions: {} ms", TRANSACTIONS, (System.nanoTime() - start) / 1_000_000L);
+            final long nanos = concurrentSyncedWrites(persistency, message);
+            LOGGER.info(
+                    "synced writes, {} threads sharing forces: {} writes/s",
+                    WRITER_THREADS,
+                    WRITER_THREADS * SYNCED_WRITES_PER_THREAD * 1_000_000_000L / nanos);
+        }
+        try (final FilePersistencyImplementation persistency =
+                new FilePersistencyImplementation(directory, KEY_WRAPPING_KEY)) {
+            final long begin = System.nanoTime();
+            for (int i = 0; i < SYNCED_WRITES_PER_THREAD; i++) {
+                persistency.saveLastMessage(transactionId(i), message, expiration);
+            }
+            LOGGER.info(
+                    "synced writes, single thread: {} writes/s",
+                    SYNCED_WRITES_PER_THREAD * 1_000_000_000L / (System.nanoTime() - begin));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.siemens.pki.cmpracomponent.configuration.VerificationContext;
+import com.siemens.pki.cmpracomponent.cryptoservices.TrustCredentialAdapter;
+import com.siemens.pki.cmpracomponent.test.CmpTestcaseBase;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertUtility;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertificateFactory;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * cost of checking the revocation status against a CRL with 500k entries, with
+ * the CRL index and with the PKIX revocation checker
+ */
+public class TestLargeCrl extends CmpTestcaseBase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestLargeCrl.class);
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+    private static final int CRL_ENTRIES = 500_000;
+
+    private static final int ROUNDS = 20;
+
+    private static VerificationContext createContext(
+            final X509Certificate rootCert, final Collection<X509CRL> crls, final boolean cdpsEnabled) {
+        return new VerificationContext() {
+            @Override
+            public Collection<X509CRL> getCRLs() {
+                return crls;
+            }
+
+            @Override
+            public Collection<X509Certificate> getTrustedCertificates() {
+                return Collections.singletonList(rootCert);
+            }
+
+            @Override
+            public long getValidationCacheTimeToLive() {
+                return 0;
+            }
+
+            @Override
+            public boolean isCDPsEnabled() {
+                // CDPs enabled means the PKIX revocation checker is used
+                return cdpsEnabled;
+            }
+        };
+    }
+
+    private static long measureValidations(
+            final VerificationContext context, final X509Certificate validCert, final X509Certificate revokedCert)
+            throws Exception {
+        long nanos = 0;
+        // warm up and measurement
+        for (int pass = 0; pass < 2; pass++) {
+            System.gc();
+            final long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                assertNotNull(new TrustCredentialAdapter(context)
+                        .validateCertAgainstTrust(validCert, Collections.singletonList(validCert)));
+                assertNull(new TrustCredentialAdapter(context)
+                        .validateCertAgainstTrust(revokedCert, Collections.singletonList(revokedCert)));
+            }
+            nanos = System.nanoTime() - start;
+        }
+        return nanos / (2 * ROUNDS);
+    }
+
+    @Test
+    public void testLargeCrl() throws Exception {
+        final KeyPair rootKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        final KeyPair eeKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        final X509Certificate rootCert =
+                TestCertificateFactory.createRootCertificate("LARGE_CRL", rootKeyPair, SIGNATURE_ALGORITHM);
+        final X509Certificate validCert = TestCertificateFactory.createEndEntityCertificate(
+                "LARGE_CRL_VALID", rootCert, rootKeyPair.getPrivate(), eeKeyPair.getPublic(), SIGNATURE_ALGORITHM);
+        final X509Certificate revokedCert = TestCertificateFactory.createEndEntityCertificate(
+                "LARGE_CRL_REVOKED", rootCert, rootKeyPair.getPrivate(), eeKeyPair.getPublic(), SIGNATURE_ALGORITHM);
+
+        final long now = System.currentTimeMillis();
+        final X509v2CRLBuilder crlBuilder = new JcaX509v2CRLBuilder(rootCert, new Date(now - 60_000L));
+        crlBuilder.setNextUpdate(new Date(now + 24 * 60 * 60 * 1000L));
+        final Date revocationDate = new Date(now - 30_000L);
+        for (int i = 0; i < CRL_ENTRIES - 1; i++) {
+            crlBuilder.addCRLEntry(BigInteger.valueOf(0x100000000L + i), revocationDate, CRLReason.keyCompromise);
+        }
+        crlBuilder.addCRLEntry(revokedCert.getSerialNumber(), revocationDate, CRLReason.keyCompromise);
+        final X509CRL crl = new JcaX509CRLConverter()
+                .setProvider(TestCertUtility.BOUNCY_CASTLE_PROVIDER)
+                .getCRL(crlBuilder.build(new JcaContentSignerBuilder(SIGNATURE_ALGORITHM)
+                        .setProvider(TestCertUtility.BOUNCY_CASTLE_PROVIDER)
+                        .build(rootKeyPair.getPrivate())));
+        final List<X509CRL> crls = Arrays.asList(crl);
+
+        final long pkixNanos = measureValidations(createContext(rootCert, crls, true), validCert, revokedCert);
+        final long indexedNanos = measureValidations(createContext(rootCert, crls, false), validCert, revokedCert);
+        LOGGER.info(
+                "validation against a CRL with {} entries ({} bytes): PKIX revocation checker {} us, CRL index {} us",
+                CRL_ENTRIES,
+                crl.getEncoded().length,
+                pkixNanos / 1000.0,
+                indexedNanos / 1000.0);
+    }
+}
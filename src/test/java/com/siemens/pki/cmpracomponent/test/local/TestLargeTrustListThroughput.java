@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import com.siemens.pki.cmpracomponent.cryptoservices.TrustCredentialAdapter;
+import com.siemens.pki.cmpracomponent.test.CmpTestcaseBase;
+import com.siemens.pki.cmpracomponent.test.TestLargeTrustList;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.SignatureValidationCredentials;
+import com.siemens.pki.cmpracomponent.test.framework.TestCertificateFactory;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * cost of validating a certificate against a large trust list, preparing the
+ * trust anchors and certificate stores for every validation versus reusing
+ * them for the same {@link com.siemens.pki.cmpracomponent.configuration.VerificationContext}.
+ * The validation results are checked by {@link TestLargeTrustList}.
+ */
+public class TestLargeTrustListThroughput extends CmpTestcaseBase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestLargeTrustListThroughput.class);
+
+    private static final int TRUSTED_ROOTS = 2000;
+
+    private static final int ROUNDS = 300;
+
+    private static long measureValidations(
+            final Supplier<SignatureValidationCredentials> trust, final List<X509Certificate> extraCerts)
+            throws Exception {
+        long nanos = 0;
+        // warm up and measurement
+        for (int pass = 0; pass < 2; pass++) {
+            System.gc();
+            final long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                new TrustCredentialAdapter(trust.get()).validateCertAgainstTrust(extraCerts.get(0), extraCerts);
+            }
+            nanos = System.nanoTime() - start;
+        }
+        return nanos / ROUNDS;
+    }
+
+    private static SignatureValidationCredentials withLargeTrustList(final Set<X509Certificate> otherRoots) {
+        return new SignatureValidationCredentials("credentials/CMP_EE_Root.pem", null) {
+            private final Set<X509Certificate> trust = new HashSet<>(super.getTrustedCertificates());
+
+            {
+                trust.addAll(otherRoots);
+            }
+
+            @Override
+            public Collection<X509Certificate> getTrustedCertificates() {
+                return trust;
+            }
+        };
+    }
+
+    @Test
+    public void testLargeTrustList() throws Exception {
+        final List<X509Certificate> extraCerts =
+                ConfigurationFactory.getEeSignaturebasedCredentials().getCertificateChain();
+        final KeyPair rootKeyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        final Set<X509Certificate> otherRoots = new HashSet<>();
+        for (int i = 0; i < TRUSTED_ROOTS; i++) {
+            otherRoots.add(TestCertificateFactory.createRootCertificate("OTHER_" + i, rootKeyPair, "SHA256withRSA"));
+        }
+        // a new context per validation, so nothing can be reused
+        final long rebuildNanos = measureValidations(() -> withLargeTrustList(otherRoots), extraCerts);
+        final SignatureValidationCredentials sharedContext = withLargeTrustList(otherRoots);
+        final long reuseNanos = measureValidations(() -> sharedContext, extraCerts);
+        LOGGER.info(
+                "validation against {} trusted roots: prepared per validation {} us, reused per context {} us",
+                TRUSTED_ROOTS + 1,
+                rebuildNanos / 1000.0,
+                reuseNanos / 1000.0);
+    }
+}
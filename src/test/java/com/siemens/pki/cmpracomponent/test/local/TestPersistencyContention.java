@@ -0,0 +1,133 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import com.siemens.pki.cmpracomponent.configuration.PersistencyInterface;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * contention benchmark comparing {@link DefaultPersistencyImplementation} with
+ * the former synchronized {@link TreeMap} based store, the functional checks
+ * are done by {@link com.siemens.pki.cmpracomponent.test.TestDefaultPersistency}
+ */
+public class TestPersistencyContention {
+
+    /**
+     * the former implementation, kept as reference
+     */
+    private static class SynchronizedTreeMapPersistency implements PersistencyInterface {
+        private final Map<byte[], byte[]> map = Collections.synchronizedSortedMap(new TreeMap<>(Arrays::compare));
+
+        @Override
+        public void clearLastSavedMessage(final byte[] transactionId) {
+            map.remove(transactionId);
+        }
+
+        @Override
+        public byte[] getLastSavedMessage(final byte[] transactionId) {
+            return map.get(transactionId);
+        }
+
+        @Override
+        public void saveLastMessage(final byte[] transactionId, final byte[] message, final Date expirationTime) {
+            map.put(transactionId, message);
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestPersistencyContention.class);
+
+    private static final int THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final int TRANSACTIONS_IN_FLIGHT = 50_000;
+
+    private static final int OPERATIONS_PER_THREAD = 500_000;
+
+    private static byte[][] buildTransactionIds() {
+        final Random random = new Random(42);
+        final byte[][] ret = new byte[TRANSACTIONS_IN_FLIGHT][];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = new byte[16];
+            random.nextBytes(ret[i]);
+        }
+        return ret;
+    }
+
+    private long runLoad(final PersistencyInterface persistency, final byte[][] transactionIds) throws Exception {
+        final Date expiration = new Date(System.currentTimeMillis() + 3_600_000L);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final long start = System.nanoTime();
+            final Future<?>[] futures = new Future<?>[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                final int threadIndex = t;
+                futures[t] = executor.submit(() -> {
+                    final Random random = new Random(threadIndex);
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        // every thread works on its own slice of transactions
+                        final int index = (random.nextInt(TRANSACTIONS_IN_FLIGHT / THREADS)) * THREADS + threadIndex;
+                        final byte[] transactionId = transactionIds[index];
+                        final byte[] message = new byte[] {(byte) i};
+                        persistency.saveLastMessage(transactionId, message, expiration);
+                        persistency.getLastSavedMessage(transactionId);
+                        if (i % 4 == 0) {
+                            persistency.clearLastSavedMessage(transactionId);
+                        }
+                    }
+                });
+            }
+            for (final Future<?> aktFuture : futures) {
+                aktFuture.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void testContention() throws Exception {
+        final byte[][] transactionIds = buildTransactionIds();
+        // warm up
+        runLoad(new SynchronizedTreeMapPersistency(), transactionIds);
+        // housekeeping runs concurrently every 10 ms
+        runLoad(new DefaultPersistencyImplementation(10), transactionIds);
+
+        final long legacyNanos = runLoad(new SynchronizedTreeMapPersistency(), transactionIds);
+        final long currentNanos = runLoad(new DefaultPersistencyImplementation(10), transactionIds);
+        final long operations = 2L * THREADS * OPERATIONS_PER_THREAD;
+        LOGGER.info(
+                "{} threads, synchronized TreeMap: {} ops/s, DefaultPersistencyImplementation: {} ops/s",
+                THREADS,
+                operations * 1_000_000_000L / legacyNanos,
+                operations * 1_000_000_000L / currentNanos);
+    }
+}
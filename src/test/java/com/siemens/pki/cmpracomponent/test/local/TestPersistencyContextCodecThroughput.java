@@ -0,0 +1,170 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import com.siemens.pki.cmpracomponent.configuration.PersistencyInterface;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager.SerializationFormat;
+import com.siemens.pki.cmpracomponent.test.CmpTestcaseBase;
+import com.siemens.pki.cmpracomponent.test.framework.CmpCaMock;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * size and throughput of the {@link SerializationFormat#BINARY} and
+ * {@link SerializationFormat#JSON} persistency formats for typical contexts,
+ * the round trip is checked by
+ * {@link com.siemens.pki.cmpracomponent.test.TestPersistencyContextCodec}
+ */
+public class TestPersistencyContextCodecThroughput extends CmpTestcaseBase {
+
+    private static class RecordingPersistency implements PersistencyInterface {
+        private final Map<String, byte[]> map = new HashMap<>();
+
+        @Override
+        public void clearLastSavedMessage(final byte[] transactionId) {
+            map.remove(Arrays.toString(transactionId));
+        }
+
+        @Override
+        public byte[] getLastSavedMessage(final byte[] transactionId) {
+            return map.get(Arrays.toString(transactionId));
+        }
+
+        @Override
+        public void saveLastMessage(final byte[] transactionId, final byte[] message, final Date expirationTime) {
+            map.put(Arrays.toString(transactionId), message);
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestPersistencyContextCodecThroughput.class);
+
+    private static final int ROUNDS = 20_000;
+
+    private static final String CERT_PROFILE = "theCertProfile";
+
+    private PKIMessage ir;
+
+    private PKIMessage ip;
+
+    private KeyPair keyPair;
+
+    private void measure(final String contextName, final Consumer<PersistencyContext> contextInitializer)
+            throws Exception {
+        final byte[] transactionId = ir.getHeader().getTransactionID().getOctets();
+        final long[] sizes = new long[2];
+        final long[] nanos = new long[2];
+        for (final SerializationFormat format : SerializationFormat.values()) {
+            final RecordingPersistency persistency = new RecordingPersistency();
+            final PersistencyContextManager manager = new PersistencyContextManager(persistency, format);
+            final PersistencyContext context = manager.loadCreatePersistencyContext(transactionId);
+            contextInitializer.accept(context);
+            context.flush();
+            sizes[format.ordinal()] = persistency.getLastSavedMessage(transactionId).length;
+            // warm up and measurement
+            for (int pass = 0; pass < 2; pass++) {
+                final long start = System.nanoTime();
+                for (int i = 0; i < ROUNDS; i++) {
+                    final PersistencyContext loaded = manager.loadPersistencyContext(transactionId);
+                    // enforce a write, an unmodified context is not written at all
+                    loaded.updateTransactionExpirationTime(new Date(System.currentTimeMillis() + 3_600_000L + i));
+                    loaded.flush();
+                }
+                nanos[format.ordinal()] = System.nanoTime() - start;
+            }
+        }
+        LOGGER.info(
+                "{}: BINARY {} bytes, {} load+flush/s; JSON {} bytes, {} load+flush/s",
+                contextName,
+                sizes[SerializationFormat.BINARY.ordinal()],
+                ROUNDS * 1_000_000_000L / nanos[SerializationFormat.BINARY.ordinal()],
+                sizes[SerializationFormat.JSON.ordinal()],
+                ROUNDS * 1_000_000_000L / nanos[SerializationFormat.JSON.ordinal()]);
+    }
+
+    private void initIrContext(final PersistencyContext context) {
+        try {
+            context.setCertProfile(CERT_PROFILE);
+            context.setRequestType(PKIBody.TYPE_INIT_REQ);
+            context.trackMessage(ir);
+            context.setInitialRequest(ir);
+            context.updateTransactionExpirationTime(new Date(System.currentTimeMillis() + 3_600_000L));
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testCodecSizeAndThroughput() throws Exception {
+        keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        ir = PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest(CERT_PROFILE),
+                ConfigurationFactory.getEeSignaturebasedProtectionProvider(),
+                PkiMessageGenerator.generateIrCrKurBody(
+                        PKIBody.TYPE_INIT_REQ,
+                        new CertTemplateBuilder()
+                                .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                        keyPair.getPublic().getEncoded()))
+                                .setSubject(new X500Name("CN=Subject"))
+                                .build(),
+                        null,
+                        keyPair.getPrivate()));
+        ip = PKIMessage.getInstance(new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12")
+                .sendReceiveMessage(ir.getEncoded(), CERT_PROFILE, PKIBody.TYPE_INIT_REQ));
+
+        measure("ir", this::initIrContext);
+        measure("delayed ip", context -> {
+            initIrContext(context);
+            try {
+                context.setDelayedDeliveryInProgress(true);
+                context.setPendingDelayedResponse(ip);
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        measure("certConf", context -> {
+            initIrContext(context);
+            try {
+                context.trackMessage(ip);
+                context.addAlreadySentExtraCerts(Arrays.asList(ir.getExtraCerts()));
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        measure("ckg", context -> {
+            initIrContext(context);
+            context.setNewGeneratedPrivateKey(keyPair.getPrivate());
+        });
+    }
+}
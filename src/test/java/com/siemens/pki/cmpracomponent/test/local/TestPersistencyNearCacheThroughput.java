@@ -0,0 +1,120 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import com.siemens.pki.cmpracomponent.persistency.NearCacheStatistics;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager.SerializationFormat;
+import com.siemens.pki.cmpracomponent.test.CmpTestcaseBase;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import com.siemens.pki.cmpracomponent.test.framework.RemotePersistencyStub;
+import java.security.KeyPair;
+import java.util.Date;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * benefit of the near cache of the {@link PersistencyContextManager} in front of
+ * a "remote" persistency counting the transferred bytes, the consistency is
+ * checked by {@link com.siemens.pki.cmpracomponent.test.TestPersistencyNearCache}
+ */
+public class TestPersistencyNearCacheThroughput extends CmpTestcaseBase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestPersistencyNearCacheThroughput.class);
+
+    private static final int ROUNDS = 20_000;
+
+    private static final Date EXPIRATION = new Date(System.currentTimeMillis() + 3_600_000L);
+
+    private PKIMessage ir;
+
+    private void createIrContext(final PersistencyContextManager manager, final byte[] transactionId) throws Exception {
+        final PersistencyContext context = manager.loadCreatePersistencyContext(transactionId);
+        context.setCertProfile("theCertProfile");
+        context.setRequestType(PKIBody.TYPE_INIT_REQ);
+        context.trackMessage(ir);
+        // keep the request like in a delayed delivery
+        context.setDelayedDeliveryInProgress(true);
+        context.setInitialRequest(ir);
+        context.updateTransactionExpirationTime(EXPIRATION);
+        context.flush();
+    }
+
+    private long measureLoads(final PersistencyContextManager manager, final byte[] transactionId) throws Exception {
+        long nanos = 0;
+        // warm up and measurement
+        for (int pass = 0; pass < 2; pass++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                manager.loadPersistencyContext(transactionId);
+            }
+            nanos = System.nanoTime() - start;
+        }
+        return nanos;
+    }
+
+    @Test
+    public void testNearCache() throws Exception {
+        final KeyPair keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        ir = PkiMessageGenerator.generateAndProtectMessage(
+                new HeaderProviderForTest("theCertProfile"),
+                ConfigurationFactory.getEeSignaturebasedProtectionProvider(),
+                PkiMessageGenerator.generateIrCrKurBody(
+                        PKIBody.TYPE_INIT_REQ,
+                        new CertTemplateBuilder()
+                                .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                        keyPair.getPublic().getEncoded()))
+                                .setSubject(new X500Name("CN=Subject"))
+                                .build(),
+                        null,
+                        keyPair.getPrivate()));
+        final byte[] transactionId = ir.getHeader().getTransactionID().getOctets();
+        final DefaultPersistencyImplementation store = new DefaultPersistencyImplementation(1000);
+
+        final RemotePersistencyStub remoteA = new RemotePersistencyStub(store, 1000);
+        final PersistencyContextManager managerA = new PersistencyContextManager(remoteA, SerializationFormat.JSON);
+
+        // throughput and transferred bytes of reloading the same transaction
+        createIrContext(managerA, transactionId);
+        final RemotePersistencyStub uncachedRemote = new RemotePersistencyStub(store, 0);
+        final PersistencyContextManager uncachedManager =
+                new PersistencyContextManager(uncachedRemote, SerializationFormat.JSON);
+        final long uncachedNanos = measureLoads(uncachedManager, transactionId);
+        final long uncachedBytes = uncachedRemote.getTransferredBytes();
+        remoteA.resetTransferredBytes();
+        final long cachedNanos = measureLoads(managerA, transactionId);
+        final NearCacheStatistics statistics = managerA.getNearCacheStatistics();
+        LOGGER.info(
+                "without near cache: {} loads/s, {} bytes/load; with near cache: {} loads/s, {} bytes/load; {}",
+                ROUNDS * 1_000_000_000L / uncachedNanos,
+                uncachedBytes / (2L * ROUNDS),
+                ROUNDS * 1_000_000_000L / cachedNanos,
+                remoteA.getTransferredBytes() / (2L * ROUNDS),
+                statistics);
+    }
+}
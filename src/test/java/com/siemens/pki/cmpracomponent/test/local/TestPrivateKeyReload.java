@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import com.siemens.pki.cmpracomponent.persistency.DefaultPersistencyImplementation;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContext;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager;
+import com.siemens.pki.cmpracomponent.persistency.PersistencyContextManager.SerializationFormat;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.util.Date;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * reload cost of central key generation transactions holding private keys
+ * wrapped in the untagged format of former versions and in the tagged format,
+ * both formats are checked by
+ * {@link com.siemens.pki.cmpracomponent.test.TestPrivateKeyWrapping}
+ */
+public class TestPrivateKeyReload {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestPrivateKeyReload.class);
+
+    private static final int ROUNDS = 5_000;
+
+    private static final Date EXPIRATION = new Date(System.currentTimeMillis() + 3_600_000L);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static {
+        Security.addProvider(CertUtility.getBouncyCastleProvider());
+    }
+
+    private static long measureLoads(final PersistencyContextManager manager, final byte[] transactionId)
+            throws Exception {
+        long nanos = 0;
+        // warm up and measurement
+        for (int pass = 0; pass < 2; pass++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                manager.loadPersistencyContext(transactionId).getNewGeneratedPrivateKey();
+            }
+            nanos = System.nanoTime() - start;
+        }
+        return nanos / ROUNDS;
+    }
+
+    // the key wrapping as done by former versions, only Bouncy Castle accepted
+    // the IvParameterSpec
+    private static byte[] wrapUntagged(final byte[] aesKey, final PrivateKey key) throws Exception {
+        final Cipher c = Cipher.getInstance("AES/GCM/NoPadding", CertUtility.getBouncyCastleProvider());
+        c.init(Cipher.WRAP_MODE, new SecretKeySpec(aesKey, "AES"), new IvParameterSpec("The IV for PrivK".getBytes()));
+        return c.wrap(key);
+    }
+
+    private void measureKeyType(final String keyType, final boolean report) throws Exception {
+        final PrivateKey key =
+                KeyPairGenerator.getInstance(keyType).generateKeyPair().getPrivate();
+        final DefaultPersistencyImplementation store = new DefaultPersistencyImplementation(1000);
+        final PersistencyContextManager manager = new PersistencyContextManager(store, SerializationFormat.JSON);
+        final byte[] transactionId = keyType.getBytes();
+        final PersistencyContext context = manager.loadCreatePersistencyContext(transactionId);
+        context.setCertProfile("theCertProfile");
+        context.setRequestType(PKIBody.TYPE_INIT_REQ);
+        context.setNewGeneratedPrivateKey(key);
+        context.updateTransactionExpirationTime(EXPIRATION);
+        context.flush();
+        final long taggedNanos = measureLoads(manager, transactionId);
+
+        final ObjectNode untaggedContext = (ObjectNode) MAPPER.readTree(store.getLastSavedMessage(transactionId));
+        untaggedContext.put("newGeneratedPrivateKey", wrapUntagged(store.getAesKeyForKeyWrapping(), key));
+        store.saveLastMessage(transactionId, MAPPER.writeValueAsBytes(untaggedContext), EXPIRATION);
+        final long untaggedNanos = measureLoads(manager, transactionId);
+
+        if (!report) {
+            return;
+        }
+        LOGGER.info(
+                "reload of {} key: untagged {} us/load, tagged {} us/load",
+                keyType,
+                untaggedNanos / 1000.0,
+                taggedNanos / 1000.0);
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        // first round warms up the JVM
+        for (int round = 0; round < 2; round++) {
+            for (final String keyType : new String[] {"RSA", "EC", "Ed448", "Ed25519"}) {
+                measureKeyType(keyType, round > 0);
+            }
+        }
+    }
+}
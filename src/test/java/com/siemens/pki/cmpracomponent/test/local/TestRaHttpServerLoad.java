@@ -0,0 +1,172 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import static org.junit.Assert.assertEquals;
+
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.protection.ProtectionProvider;
+import com.siemens.pki.cmpracomponent.test.CmpTestcaseBase;
+import com.siemens.pki.cmpracomponent.test.framework.CmpCaMock;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import com.siemens.pki.cmpracomponent.test.framework.HttpCaStub;
+import com.siemens.pki.cmpracomponent.transport.HttpUpstreamExchange;
+import com.siemens.pki.cmpracomponent.transport.RaHttpServer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * load test of the {@link RaHttpServer} forwarding requests by HTTP to a
+ * mocked CA, reports throughput and latency percentiles of the successful
+ * requests and the number of requests rejected by backpressure
+ */
+public class TestRaHttpServerLoad extends CmpTestcaseBase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestRaHttpServerLoad.class);
+
+    private static final int CLIENTS = 32;
+
+    private static final int REQUESTS_PER_CLIENT = 100;
+
+    private static List<byte[]> generateRequests(final int count) throws Exception {
+        final ProtectionProvider protectionProvider = ConfigurationFactory.getEeSignaturebasedProtectionProvider();
+        final KeyPair keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        final List<byte[]> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ret.add(PkiMessageGenerator.generateAndProtectMessage(
+                            new HeaderProviderForTest("theCertProfileForOnlineEnrollment"),
+                            protectionProvider,
+                            PkiMessageGenerator.generateIrCrKurBody(
+                                    PKIBody.TYPE_CERT_REQ,
+                                    new CertTemplateBuilder()
+                                            .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                                    keyPair.getPublic().getEncoded()))
+                                            .setSubject(new X500Name("CN=Subject" + i))
+                                            .build(),
+                                    null,
+                                    keyPair.getPrivate()))
+                    .getEncoded());
+        }
+        return ret;
+    }
+
+    private static void runLoad(final URI raUri, final List<byte[]> requests, final String label) throws Exception {
+        final HttpClient httpClient =
+                HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        final long[] latencies = new long[requests.size()];
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            final long start = System.nanoTime();
+            final List<Future<?>> futures = new ArrayList<>(CLIENTS);
+            for (int c = 0; c < CLIENTS; c++) {
+                final int client = c;
+                futures.add(clients.submit(() -> {
+                    for (int i = client; i < requests.size(); i += CLIENTS) {
+                        final long requestStart = System.nanoTime();
+                        final HttpResponse<byte[]> response = httpClient.send(
+                                HttpRequest.newBuilder(raUri)
+                                        .header("Content-Type", RaHttpServer.CMP_CONTENT_TYPE)
+                                        .POST(HttpRequest.BodyPublishers.ofByteArray(requests.get(i)))
+                                        .build(),
+                                HttpResponse.BodyHandlers.ofByteArray());
+                        final long latency = System.nanoTime() - requestStart;
+                        if (response.statusCode() == 503) {
+                            rejected.incrementAndGet();
+                            continue;
+                        }
+                        assertEquals(200, response.statusCode());
+                        assertEquals(
+                                PKIBody.TYPE_CERT_REP,
+                                PKIMessage.getInstance(response.body())
+                                        .getBody()
+                                        .getType());
+                        latencies[succeeded.getAndIncrement()] = latency;
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> aktFuture : futures) {
+                aktFuture.get();
+            }
+            final long nanos = System.nanoTime() - start;
+            final long[] successfulLatencies = Arrays.copyOf(latencies, succeeded.get());
+            Arrays.sort(successfulLatencies);
+            LOGGER.info(
+                    "{}: {} clients, {} requests/s, p50 {} ms, p99 {} ms, {} rejected with 503",
+                    label,
+                    CLIENTS,
+                    successfulLatencies.length * 1_000_000_000L / nanos,
+                    successfulLatencies[successfulLatencies.length / 2] / 1_000_000.0,
+                    successfulLatencies[successfulLatencies.length * 99 / 100] / 1_000_000.0,
+                    rejected.get());
+        } finally {
+            clients.shutdown();
+            clients.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        try (HttpCaStub caStub = new HttpCaStub(
+                        new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12"),
+                        Runtime.getRuntime().availableProcessors());
+                RaHttpServer raServer = new RaHttpServer(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                        CmpRaComponent.instantiateCmpRaComponent(
+                                ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(),
+                                new HttpUpstreamExchange(caStub.getUri("/ca"), Duration.ofSeconds(30))),
+                        2 * Runtime.getRuntime().availableProcessors(),
+                        // exercise the backpressure, not all clients are admitted at once
+                        CLIENTS / 2,
+                        RaHttpServer.DEFAULT_MAX_REQUEST_SIZE,
+                        false)) {
+            raServer.start();
+            final URI raUri =
+                    URI.create("http://localhost:" + raServer.getAddress().getPort() + "/cmp");
+            // warm up
+            runLoad(raUri, generateRequests(CLIENTS * 10), "warm up");
+            runLoad(raUri, generateRequests(CLIENTS * REQUESTS_PER_CLIENT), "measurement");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import static org.junit.Assert.assertTrue;
+
+import com.siemens.pki.cmpracomponent.cryptoservices.CertUtility;
+import com.siemens.pki.cmpracomponent.cryptoservices.SignatureVerifierPool;
+import com.siemens.pki.cmpracomponent.test.CmpTestcaseBase;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.edec.EdECObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * cost of checking a signature received together with the public key, like a
+ * POPO, with the key decoded and a verifier created per message versus a pooled
+ * verifier
+ */
+public class TestSignatureVerifierPool extends CmpTestcaseBase {
+
+    private interface Verification {
+        boolean verify() throws Exception;
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestSignatureVerifierPool.class);
+
+    private static final int ROUNDS = 2000;
+
+    private static final byte[] PROTECTED_PART = new byte[1500];
+
+    private static long measure(final Verification verification) throws Exception {
+        long nanos = 0;
+        // warm up and measurement
+        for (int pass = 0; pass < 2; pass++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                assertTrue(verification.verify());
+            }
+            nanos = System.nanoTime() - start;
+        }
+        return nanos / ROUNDS;
+    }
+
+    private static void measureAlgorithm(final String name, final KeyPair keyPair, final String algorithmOid)
+            throws Exception {
+        final Signature signer = Signature.getInstance(algorithmOid, CertUtility.getBouncyCastleProvider());
+        signer.initSign(keyPair.getPrivate());
+        signer.update(PROTECTED_PART);
+        final byte[] signature = signer.sign();
+        // the public key as received in the message
+        final SubjectPublicKeyInfo publicKeyInfo =
+                SubjectPublicKeyInfo.getInstance(keyPair.getPublic().getEncoded());
+        final long perMessageNanos = measure(() -> {
+            final PublicKey publicKey = KeyFactory.getInstance(
+                            publicKeyInfo.getAlgorithm().getAlgorithm().getId(), CertUtility.getBouncyCastleProvider())
+                    .generatePublic(new X509EncodedKeySpec(publicKeyInfo.getEncoded(ASN1Encoding.DER)));
+            final Signature sig = Signature.getInstance(algorithmOid, CertUtility.getBouncyCastleProvider());
+            sig.initVerify(publicKey);
+            sig.update(PROTECTED_PART);
+            return sig.verify(signature);
+        });
+        final long pooledNanos =
+                measure(() -> SignatureVerifierPool.verify(algorithmOid, publicKeyInfo, PROTECTED_PART, signature));
+        LOGGER.info(
+                "{} signature check: verifier per message {} us, pooled verifier {} us",
+                name,
+                perMessageNanos / 1000.0,
+                pooledNanos / 1000.0);
+    }
+
+    @Test
+    public void testSignatureVerifierPool() throws Exception {
+        final KeyPairGenerator rsaGenerator =
+                KeyPairGenerator.getInstance("RSA", CertUtility.getBouncyCastleProvider());
+        rsaGenerator.initialize(2048);
+        measureAlgorithm(
+                "RSA-2048", rsaGenerator.generateKeyPair(), PKCSObjectIdentifiers.sha256WithRSAEncryption.getId());
+
+        final KeyPairGenerator ecGenerator = KeyPairGenerator.getInstance("EC", CertUtility.getBouncyCastleProvider());
+        ecGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        measureAlgorithm("ECDSA P-256", ecGenerator.generateKeyPair(), X9ObjectIdentifiers.ecdsa_with_SHA256.getId());
+
+        final KeyPairGenerator edGenerator =
+                KeyPairGenerator.getInstance("Ed25519", CertUtility.getBouncyCastleProvider());
+        measureAlgorithm("Ed25519", edGenerator.generateKeyPair(), EdECObjectIdentifiers.id_Ed25519.getId());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.siemens.pki.cmpracomponent.cryptoservices.TrustCredentialAdapter;
+import com.siemens.pki.cmpracomponent.cryptoservices.ValidationCacheStatistics;
+import com.siemens.pki.cmpracomponent.test.CmpTestcaseBase;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.SignatureValidationCredentials;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * cost of validating the protecting certificate of consecutive messages of the
+ * same device, like certConf and pollReq, with and without the validation cache
+ * of the {@link TrustCredentialAdapter}
+ */
+public class TestValidationCache extends CmpTestcaseBase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestValidationCache.class);
+
+    private static final int ROUNDS = 500;
+
+    private static long measureValidations(
+            final SignatureValidationCredentials trust, final List<X509Certificate> extraCerts) throws Exception {
+        long nanos = 0;
+        // warm up and measurement
+        for (int pass = 0; pass < 2; pass++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                // a new adapter per message like in the SignatureProtectionValidator
+                assertNotNull(
+                        new TrustCredentialAdapter(trust).validateCertAgainstTrust(extraCerts.get(0), extraCerts));
+            }
+            nanos = System.nanoTime() - start;
+        }
+        return nanos / ROUNDS;
+    }
+
+    @Test
+    public void testValidationCache() throws Exception {
+        final List<X509Certificate> extraCerts =
+                ConfigurationFactory.getEeSignaturebasedCredentials().getCertificateChain();
+        final SignatureValidationCredentials uncachedTrust =
+                new SignatureValidationCredentials("credentials/CMP_EE_Root.pem", null);
+        final SignatureValidationCredentials cachedTrust =
+                new SignatureValidationCredentials("credentials/CMP_EE_Root.pem", null) {
+                    @Override
+                    public long getValidationCacheTimeToLive() {
+                        return 60_000L;
+                    }
+                };
+
+        // failed validations are cached too
+        final SignatureValidationCredentials otherTrust =
+                new SignatureValidationCredentials("credentials/CMP_CA_Root.pem", null) {
+                    @Override
+                    public long getValidationCacheTimeToLive() {
+                        return 60_000L;
+                    }
+                };
+        final ValidationCacheStatistics before = TrustCredentialAdapter.getValidationCacheStatistics();
+        assertNull(new TrustCredentialAdapter(otherTrust).validateCertAgainstTrust(extraCerts.get(0), extraCerts));
+        assertNull(new TrustCredentialAdapter(otherTrust).validateCertAgainstTrust(extraCerts.get(0), extraCerts));
+        assertEquals(
+                before.getHitCount() + 1,
+                TrustCredentialAdapter.getValidationCacheStatistics().getHitCount());
+
+        final long uncachedNanos = measureValidations(uncachedTrust, extraCerts);
+        final long cachedNanos = measureValidations(cachedTrust, extraCerts);
+        LOGGER.info(
+                "validation of protecting cert: without cache {} us, with cache {} us; {}",
+                uncachedNanos / 1000.0,
+                cachedNanos / 1000.0,
+                TrustCredentialAdapter.getValidationCacheStatistics());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright (c) 2023 Siemens AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *  not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ */
+package com.siemens.pki.cmpracomponent.test.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent;
+import com.siemens.pki.cmpracomponent.main.CmpRaComponent.CmpRaInterface;
+import com.siemens.pki.cmpracomponent.msggeneration.PkiMessageGenerator;
+import com.siemens.pki.cmpracomponent.protection.ProtectionProvider;
+import com.siemens.pki.cmpracomponent.test.CmpTestcaseBase;
+import com.siemens.pki.cmpracomponent.test.framework.CmpCaMock;
+import com.siemens.pki.cmpracomponent.test.framework.ConfigurationFactory;
+import com.siemens.pki.cmpracomponent.test.framework.HeaderProviderForTest;
+import com.siemens.pki.cmpracomponent.util.VirtualThreads;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.bouncycastle.asn1.cmp.PKIBody;
+import org.bouncycastle.asn1.cmp.PKIMessage;
+import org.bouncycastle.asn1.crmf.CertTemplateBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * load test processing requests on virtual threads with a blocking upstream,
+ * no carrier thread may be pinned while waiting. Skipped if the runtime does
+ * not provide virtual threads.
+ */
+public class TestVirtualThreadPinning extends CmpTestcaseBase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestVirtualThreadPinning.class);
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private static final int CONCURRENT_REQUESTS = 500;
+
+    private static final long UPSTREAM_DELAY_MILLIS = 200;
+
+    private static long runLoad(final CmpRaInterface raComponent, final List<byte[]> requests) throws Exception {
+        final ExecutorService executor = VirtualThreads.newVirtualThreadPerTaskExecutor(() -> {
+            throw new IllegalStateException("virtual threads not supported");
+        });
+        try {
+            final long start = System.nanoTime();
+            final List<Future<byte[]>> responses = new ArrayList<>(requests.size());
+            for (final byte[] aktRequest : requests) {
+                responses.add(executor.submit(() -> raComponent.processRequest(aktRequest)));
+            }
+            for (final Future<byte[]> aktResponse : responses) {
+                assertEquals(
+                        PKIBody.TYPE_CERT_REP,
+                        PKIMessage.getInstance(aktResponse.get(5, TimeUnit.MINUTES))
+                                .getBody()
+                                .getType());
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private static List<byte[]> generateRequests(final int count) throws Exception {
+        final ProtectionProvider protectionProvider = ConfigurationFactory.getEeSignaturebasedProtectionProvider();
+        final KeyPair keyPair = ConfigurationFactory.getKeyGenerator().generateKeyPair();
+        final List<byte[]> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ret.add(PkiMessageGenerator.generateAndProtectMessage(
+                            new HeaderProviderForTest("theCertProfileForOnlineEnrollment"),
+                            protectionProvider,
+                            PkiMessageGenerator.generateIrCrKurBody(
+                                    PKIBody.TYPE_CERT_REQ,
+                                    new CertTemplateBuilder()
+                                            .setPublicKey(SubjectPublicKeyInfo.getInstance(
+                                                    keyPair.getPublic().getEncoded()))
+                                            .setSubject(new X500Name("CN=Subject" + i))
+                                            .build(),
+                                    null,
+                                    keyPair.getPrivate()))
+                    .getEncoded());
+        }
+        return ret;
+    }
+
+    @Test
+    public void testNoPinningWhileUpstreamBlocks() throws Exception {
+        assumeTrue("virtual threads not supported", VirtualThreads.isSupported());
+        final CmpCaMock caMock = new CmpCaMock("credentials/ENROLL_Keystore.p12", "credentials/CMP_CA_Keystore.p12");
+        final CmpRaInterface raComponent = CmpRaComponent.instantiateCmpRaComponent(
+                ConfigurationFactory.buildSignatureBasedDownstreamConfiguration(),
+                (request, certProfile, bodyTypeOfFirstRequest) -> {
+                    // blocking upstream, unmounts the virtual thread unless pinned
+                    Thread.sleep(UPSTREAM_DELAY_MILLIS);
+                    return caMock.sendReceiveMessage(request, certProfile, bodyTypeOfFirstRequest);
+                });
+        // warm up
+        runLoad(raComponent, generateRequests(20));
+
+        final List<byte[]> requests = generateRequests(CONCURRENT_REQUESTS);
+        final Path recordingFile = Files.createTempFile("pinning", ".jfr");
+        final long nanos;
+        try (Recording recording = new Recording()) {
+            recording.enable(PINNED_EVENT).withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+            nanos = runLoad(raComponent, requests);
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+        final List<RecordedEvent> pinnedEvents = new ArrayList<>();
+        try {
+            for (final RecordedEvent aktEvent : RecordingFile.readAllEvents(recordingFile)) {
+                if (PINNED_EVENT.equals(aktEvent.getEventType().getName())) {
+                    pinnedEvents.add(aktEvent);
+                    LOGGER.error("carrier thread pinned: {}", aktEvent);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(recordingFile);
+        }
+        LOGGER.info(
+                "{} concurrent requests with {} ms upstream delay on virtual threads: {} ms, {} pinned events",
+                CONCURRENT_REQUESTS,
+                UPSTREAM_DELAY_MILLIS,
+                nanos / 1_000_000L,
+                pinnedEvents.size());
+        assertEquals(0, pinnedEvents.size());
+    }
+}